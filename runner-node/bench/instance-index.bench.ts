@@ -0,0 +1,61 @@
+/**
+ * Cost of keeping the in-memory instance indexes up to date and of querying
+ * them, at retained instance counts up to the ones the dashboard works with.
+ * A move takes an instance out of one status index and puts it in another at
+ * its startedAt position, as a save that changes its status does.
+ *
+ *   npm run bench:instance-index [-- instances]
+ */
+import { performance } from 'perf_hooks';
+import { SortedTimeIndex } from '../src/repositories/instance-indexes';
+
+const MOVES = 20000;
+const QUERIES = 2000;
+
+function idOf(i: number): string {
+	return `instance-${String(i).padStart(7, '0')}`;
+}
+
+function measure(count: number): void {
+	const running = new SortedTimeIndex();
+	const completed = new SortedTimeIndex();
+	let start = performance.now();
+	for (let i = 0; i < count; i++) {
+		running.add(i, idOf(i));
+	}
+	const buildMs = performance.now() - start;
+
+	// Instances complete in random order, so each lands in the middle of the completed index
+	const order = Array.from({ length: Math.min(MOVES, count) }, () => Math.floor(Math.random() * count));
+	start = performance.now();
+	for (const i of order) {
+		running.remove(i, idOf(i));
+		completed.add(i, idOf(i));
+	}
+	const moveUs = ((performance.now() - start) * 1000) / order.length;
+
+	start = performance.now();
+	let cursor: { time: number; id: string } | undefined;
+	for (let q = 0; q < QUERIES; q++) {
+		const from = Math.floor(Math.random() * count);
+		running.range(from, from + 100);
+		const page = running.after(cursor, 50);
+		cursor = page.length === 50 ? page[page.length - 1] : undefined;
+	}
+	const queryUs = ((performance.now() - start) * 1000) / QUERIES;
+
+	console.log(
+		`${String(count).padStart(8)} instances  build ${buildMs.toFixed(0).padStart(5)} ms` +
+		`  move ${moveUs.toFixed(2).padStart(7)} us  range(100) + page(50) ${queryUs.toFixed(2).padStart(7)} us`
+	);
+}
+
+function main(): void {
+	const counts = process.argv[2] ? [Number(process.argv[2])] : [10000, 50000, 200000, 500000];
+	// One untimed pass so the first measurement does not include JIT warm-up
+	measure(10000);
+	console.log('');
+	counts.forEach(measure);
+}
+
+main();
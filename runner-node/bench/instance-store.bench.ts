@@ -0,0 +1,95 @@
+/**
+ * Save throughput of the file-backed instance repository at several levels
+ * of concurrency, with an fsync per save and with group commit, and the time
+ * to recover the stored instances from the logs and from a snapshot.
+ *
+ *   npm run bench:instance-store [-- instances]
+ */
+import * as fs from 'fs';
+import * as os from 'os';
+import * as path from 'path';
+import { performance } from 'perf_hooks';
+import { FileProcessInstanceRepository } from '../src/repositories/file-process-instance-repository';
+import { ProcessInstance, ProcessStatus } from '../src/models/instance-types';
+
+function instance(i: number): ProcessInstance {
+	return {
+		instanceId: `instance-${i}`,
+		processId: `process-${i % 10}`,
+		processName: 'Benchmark',
+		status: ProcessStatus.Running,
+		startedAt: new Date(),
+		variables: { customerId: i, region: 'eu', note: 'x'.repeat(200) },
+		activities: {
+			review: { id: 'review', type: 'human', status: 'running', variables: [{ name: 'approved', value: false }] } as any
+		},
+		executionContext: { currentActivity: 'review' } as any
+	};
+}
+
+function tempDir(): string {
+	return fs.mkdtempSync(path.join(os.tmpdir(), 'jpel-instance-store-'));
+}
+
+// Save count instances with `concurrency` saves in flight at any time
+async function saveAll(repo: FileProcessInstanceRepository, count: number, concurrency: number): Promise<void> {
+	let next = 0;
+	const worker = async () => {
+		while (next < count) {
+			await repo.save(instance(next++));
+		}
+	};
+	await Promise.all(Array.from({ length: concurrency }, worker));
+}
+
+async function throughput(name: string, count: number, concurrency: number, groupCommitMs: number): Promise<void> {
+	const dir = tempDir();
+	const repo = await FileProcessInstanceRepository.open({ dir, groupCommitMs });
+	const start = performance.now();
+	await saveAll(repo, count, concurrency);
+	const elapsed = performance.now() - start;
+	const { commits } = repo.logStats();
+	await repo.close();
+	fs.rmSync(dir, { recursive: true, force: true });
+	console.log(`${name.padEnd(34)} ${(count / (elapsed / 1000)).toFixed(0).padStart(9)} saves/s  ${(count / commits).toFixed(1).padStart(6)} saves/fsync`);
+}
+
+async function recovery(count: number): Promise<void> {
+	const dir = tempDir();
+	const writer = await FileProcessInstanceRepository.open({ dir, fsync: false });
+	await saveAll(writer, count, 64);
+	// Every instance saved a second time, as when it reaches its next wait state
+	await saveAll(writer, count, 64);
+	await writer.close();
+
+	const fromLog = await FileProcessInstanceRepository.open({ dir });
+	const logStats = fromLog.recoveryStats();
+	console.log(`recover from log (${logStats.logRecords} records)`.padEnd(44) + `${logStats.durationMs.toFixed(0).padStart(6)} ms`);
+	await fromLog.compact();
+	await fromLog.close();
+
+	const fromSnapshot = await FileProcessInstanceRepository.open({ dir });
+	const snapshotStats = fromSnapshot.recoveryStats();
+	console.log(`recover from snapshot (${snapshotStats.snapshotInstances} instances)`.padEnd(44) + `${snapshotStats.durationMs.toFixed(0).padStart(6)} ms`);
+	await fromSnapshot.close();
+	fs.rmSync(dir, { recursive: true, force: true });
+}
+
+async function main(): Promise<void> {
+	const count = Number(process.argv[2] || 5000);
+	console.log(`${count} saves\n`);
+
+	await throughput('1 at a time, fsync each', Math.min(count, 1000), 1, 0);
+	for (const concurrency of [16, 128]) {
+		await throughput(`${concurrency} concurrent, commit asap`, count, concurrency, 0);
+		await throughput(`${concurrency} concurrent, 2 ms window`, count, concurrency, 2);
+	}
+
+	console.log('');
+	await recovery(count * 4);
+}
+
+main().catch(error => {
+	console.error(error);
+	process.exit(1);
+});
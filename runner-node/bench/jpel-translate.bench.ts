@@ -0,0 +1,127 @@
+/**
+ * Translation throughput of the one-pass JPEL lexer against the regex chain
+ * it replaced, over the code, conditions and templates of the sample processes.
+ *
+ *   npm run bench:translate [-- iterations]
+ */
+import fs from 'fs';
+import path from 'path';
+import { performance } from 'perf_hooks';
+import { translateJpelToJavaScript } from '../src/expression-evaluator';
+import { resolveInlineTemplate } from '../src/utils/substitution';
+import { mapVariablesArray } from '../src/utils/patterns';
+
+const ACTIVITY_VAR_PATTERN = /a:([A-Za-z0-9_-]+)\.v:([A-Za-z0-9_-]+)/g;
+const ACTIVITY_FIELD_PATTERN = /a:([A-Za-z0-9_-]+)\.f:([A-Za-z0-9_-]+)/g;
+const ACTIVITY_PROP_PATTERN = /a:([A-Za-z0-9_-]+)\.(\w+)/g;
+const PROCESS_VAR_PATTERN = /process\.([A-Za-z0-9_-]+)/g;
+const ENV_VAR_PATTERN = /env:([A-Za-z0-9_-]+)/g;
+
+// The regex translation chain as it was before the lexer
+function legacyTranslate(expression: string): string {
+	const parts = expression.split(/(".*?")/);
+	return parts.map(part => {
+		if (!part.startsWith('"') && !part.endsWith('"')) {
+			part = part.replace(ACTIVITY_VAR_PATTERN, (m, activityId, variableName) =>
+				`activities[${JSON.stringify(activityId)}].v[${JSON.stringify(variableName)}]`);
+			if (ACTIVITY_FIELD_PATTERN.test(part)) {
+				throw new Error('Legacy field syntax');
+			}
+			part = part.replace(ACTIVITY_PROP_PATTERN, (m, activityId, prop) => `activities[${JSON.stringify(activityId)}].${prop}`);
+			part = part.replace(/v:([^\s\.=]+)\s*=/g, (m, varName) =>
+				/^[A-Za-z_$][A-Za-z0-9_$]*$/.test(varName) ? `process.${varName} =` : `process[${JSON.stringify(varName)}] =`);
+			part = part.replace(/var:([^\s\.=]+)\s*=/g, (m, varName) =>
+				/^[A-Za-z_$][A-Za-z0-9_$]*$/.test(varName) ? `process.${varName} =` : `process[${JSON.stringify(varName)}] =`);
+			part = part.replace(/v:([^\s\.]+)/g, (m, varName) =>
+				/^[A-Za-z_$][A-Za-z0-9_$]*$/.test(varName) ? `process.${varName}` : `process[${JSON.stringify(varName)}]`);
+			part = part.replace(/var:([^\s\.]+)/g, (m, varName) =>
+				/^[A-Za-z_$][A-Za-z0-9_$]*$/.test(varName) ? `process.${varName}` : `process[${JSON.stringify(varName)}]`);
+			part = part.replace(/this\.(\w+)/g, 'currentActivity.$1');
+		}
+		return part;
+	}).join('');
+}
+
+// The substitution chain as it was before the lexer
+function legacyResolve(text: string, instance: any): string {
+	let result = text;
+	result = result.replace(ACTIVITY_VAR_PATTERN, (match, activityId, variableName) => {
+		const data = mapVariablesArray(instance.activities[activityId]);
+		return data[variableName] !== undefined ? String(data[variableName]) : match;
+	});
+	result = result.replace(ACTIVITY_FIELD_PATTERN, (match, activityId, fieldName) => {
+		const data = mapVariablesArray(instance.activities[activityId]);
+		return data[fieldName] !== undefined ? String(data[fieldName]) : match;
+	});
+	result = result.replace(PROCESS_VAR_PATTERN, (match, name) =>
+		instance.variables[name] !== undefined ? String(instance.variables[name]) : match);
+	result = result.replace(ENV_VAR_PATTERN, (match, name) => process.env[name] ?? match);
+	return result;
+}
+
+function loadSamples(): { code: string[]; templates: string[]; activityIds: string[] } {
+	const dir = path.join(__dirname, '..', 'samples');
+	const code: string[] = [];
+	const templates: string[] = [];
+	const activityIds: string[] = [];
+	for (const file of fs.readdirSync(dir).filter(f => f.endsWith('.json'))) {
+		const definition = JSON.parse(fs.readFileSync(path.join(dir, file), 'utf8'));
+		for (const [id, activity] of Object.entries<any>(definition.activities || {})) {
+			activityIds.push(id);
+			if (Array.isArray(activity.code)) code.push(...activity.code.filter((line: any) => typeof line === 'string'));
+			if (typeof activity.condition === 'string') code.push(activity.condition);
+			if (typeof activity.expression === 'string') code.push(`return ${activity.expression};`);
+			if (typeof activity.url === 'string') templates.push(activity.url);
+			if (typeof activity.body === 'string') templates.push(activity.body);
+			if (activity.headers) templates.push(...Object.values<any>(activity.headers).filter(v => typeof v === 'string'));
+		}
+	}
+	// Templates of the samples are few and short - add representative ones
+	templates.push(
+		'https://api.example.com/users/a:lookup.v:userId/orders?since=process.since&token=env:HOME',
+		'{"name": "a:enter-name.v:customer-name", "email": "a:register.v:email", "region": "process.region"}',
+		'Bearer env:HOME'
+	);
+	return { code, templates, activityIds };
+}
+
+function measure(name: string, iterations: number, items: string[], fn: (item: string) => unknown): number {
+	// Warm up so both implementations run optimized code
+	for (let i = 0; i < Math.min(iterations, 200); i++) items.forEach(item => fn(item));
+
+	const start = performance.now();
+	for (let i = 0; i < iterations; i++) {
+		for (const item of items) fn(item);
+	}
+	const elapsed = performance.now() - start;
+	const perSecond = (iterations * items.length) / (elapsed / 1000);
+	console.log(`${name.padEnd(28)} ${perSecond.toFixed(0).padStart(12)} ops/s  (${elapsed.toFixed(1)} ms)`);
+	return perSecond;
+}
+
+function main(): void {
+	const iterations = Number(process.argv[2] || 2000);
+	const { code, templates, activityIds } = loadSamples();
+	const translatable = code.filter(line => {
+		try { legacyTranslate(line); return true; } catch { return false; }
+	});
+
+	const instance: any = {
+		variables: { since: '2024-01-01', region: 'eu' },
+		activities: Object.fromEntries(activityIds.map(id => [id, { id, variables: [{ name: 'userId', value: 42 }, { name: 'email', value: 'x@example.com' }] }]))
+	};
+
+	const differences = translatable.filter(line => legacyTranslate(line) !== translateJpelToJavaScript(line)).length;
+	console.log(`${translatable.length} code lines, ${templates.length} templates, ${iterations} iterations`);
+	console.log(`${differences} code lines translate differently (string literal and word boundary fixes)\n`);
+
+	const legacyCode = measure('translate (regex chain)', iterations, translatable, legacyTranslate);
+	const lexerCode = measure('translate (lexer)', iterations, translatable, translateJpelToJavaScript);
+	const legacyTemplate = measure('substitute (regex chain)', iterations, templates, t => legacyResolve(t, instance));
+	const lexerTemplate = measure('substitute (lexer)', iterations, templates, t => resolveInlineTemplate(t, instance));
+
+	console.log(`\ntranslate speedup:  ${(lexerCode / legacyCode).toFixed(2)}x`);
+	console.log(`substitute speedup: ${(lexerTemplate / legacyTemplate).toFixed(2)}x`);
+}
+
+main();
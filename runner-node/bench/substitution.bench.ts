@@ -0,0 +1,146 @@
+/**
+ * Per-request substitution cost of an API activity (URL, headers, query
+ * parameters and body): the regex chain, the lexer re-run on every call with a
+ * JSON round trip for the body, and the precompiled templates.
+ *
+ *   npm run bench:substitution [-- iterations]
+ */
+import { performance } from 'perf_hooks';
+import { parseJpel, JpelNode } from '../src/utils/jpel-parser';
+import { mapVariablesArray } from '../src/utils/patterns';
+import { compileTemplate, renderTemplate, compileBody, renderBody } from '../src/utils/substitution';
+
+const ACTIVITY_VAR_PATTERN = /a:([A-Za-z0-9_-]+)\.v:([A-Za-z0-9_-]+)/g;
+const ACTIVITY_FIELD_PATTERN = /a:([A-Za-z0-9_-]+)\.f:([A-Za-z0-9_-]+)/g;
+const PROCESS_VAR_PATTERN = /process\.([A-Za-z0-9_-]+)/g;
+const ENV_VAR_PATTERN = /env:([A-Za-z0-9_-]+)/g;
+
+const activity = {
+	url: 'https://api.example.com/customers/a:lookup.v:customerId/orders/a:order.v:orderId',
+	headers: {
+		Authorization: 'Bearer env:HOME',
+		'X-Correlation-Id': 'process.correlationId',
+		Accept: 'application/json'
+	},
+	queryParams: { region: 'process.region', since: 'process.since', page: '1' },
+	body: {
+		customer: { id: 'a:lookup.v:customerId', name: 'a:lookup.v:name', email: 'a:lookup.v:email' },
+		order: { id: 'a:order.v:orderId', total: 'a:order.v:total', currency: 'EUR' },
+		lines: [
+			{ sku: 'a:order.v:sku', quantity: 'a:order.v:quantity' },
+			{ sku: 'GIFT-WRAP', quantity: '1' }
+		],
+		note: 'Ordered by a:lookup.v:name in process.region'
+	}
+};
+
+const variables = (values: { [name: string]: any }) => Object.entries(values).map(([name, value]) => ({ name, value }));
+const instance: any = {
+	variables: { correlationId: 'c-123', region: 'eu', since: '2026-01-01' },
+	activities: {
+		lookup: { id: 'lookup', variables: variables({ customerId: 42, name: 'Ada', email: 'ada@example.com', tier: 'gold', score: 9, city: 'Paris', zip: '75001', phone: '+33' }) },
+		order: { id: 'order', variables: variables({ orderId: 'o-7', total: 99.5, sku: 'SKU-1', quantity: 2, status: 'new', channel: 'web' }) }
+	}
+};
+
+// The substitution chain as it was before the lexer
+function regexResolve(text: string): string {
+	let result = text;
+	result = result.replace(ACTIVITY_VAR_PATTERN, (match, activityId, name) => {
+		const data = mapVariablesArray(instance.activities[activityId]);
+		return data[name] !== undefined ? String(data[name]) : match;
+	});
+	result = result.replace(ACTIVITY_FIELD_PATTERN, (match, activityId, name) => {
+		const data = mapVariablesArray(instance.activities[activityId]);
+		return data[name] !== undefined ? String(data[name]) : match;
+	});
+	result = result.replace(PROCESS_VAR_PATTERN, (match, name) =>
+		instance.variables[name] !== undefined ? String(instance.variables[name]) : match);
+	return result.replace(ENV_VAR_PATTERN, (match, name) => process.env[name] ?? match);
+}
+
+// The lexer as used before templates were compiled: parsed on every call, variables mapped per reference
+function lexerResolve(text: string): string {
+	let result = '';
+	for (const node of parseJpel(text, 'template') as JpelNode[]) {
+		switch (node.kind) {
+			case 'activityVariable':
+			case 'activityField': {
+				const data = mapVariablesArray(instance.activities[node.activityId]);
+				result += data[node.name] !== undefined ? String(data[node.name]) : node.raw;
+				break;
+			}
+			case 'processField':
+				result += instance.variables[node.name] !== undefined ? String(instance.variables[node.name]) : node.raw;
+				break;
+			case 'env':
+				result += process.env[node.name] ?? node.raw;
+				break;
+			default:
+				result += node.raw;
+		}
+	}
+	return result;
+}
+
+function substituteEach(values: { [key: string]: string }, resolve: (text: string) => string) {
+	return Object.fromEntries(Object.entries(values).map(([key, value]) => [key, resolve(value)]));
+}
+
+// A whole request, with the body substituted through a JSON round trip
+function perCall(resolve: (text: string) => string) {
+	return () => ({
+		url: resolve(activity.url),
+		headers: substituteEach(activity.headers, resolve),
+		params: substituteEach(activity.queryParams, resolve),
+		data: JSON.parse(resolve(JSON.stringify(activity.body)))
+	});
+}
+
+const compiled = {
+	url: compileTemplate(activity.url),
+	headers: Object.entries(activity.headers).map(([key, value]) => [key, compileTemplate(value)] as const),
+	params: Object.entries(activity.queryParams).map(([key, value]) => [key, compileTemplate(value)] as const),
+	body: compileBody(activity.body)
+};
+
+function precompiled() {
+	const headers: { [key: string]: string } = {};
+	for (const [key, template] of compiled.headers) headers[key] = renderTemplate(template, instance);
+	const params: { [key: string]: string } = {};
+	for (const [key, template] of compiled.params) params[key] = renderTemplate(template, instance);
+	return { url: renderTemplate(compiled.url, instance), headers, params, data: renderBody(compiled.body, instance) };
+}
+
+function measure(name: string, iterations: number, fn: () => unknown): number {
+	// Warm up so every implementation runs optimized code
+	for (let i = 0; i < Math.min(iterations, 2000); i++) fn();
+
+	const start = performance.now();
+	for (let i = 0; i < iterations; i++) fn();
+	const elapsed = performance.now() - start;
+	const perSecond = iterations / (elapsed / 1000);
+	console.log(`${name.padEnd(28)} ${perSecond.toFixed(0).padStart(12)} requests/s  (${elapsed.toFixed(1)} ms)`);
+	return perSecond;
+}
+
+function main(): void {
+	const iterations = Number(process.argv[2] || 50000);
+
+	const expected = JSON.stringify(perCall(regexResolve)());
+	for (const [name, fn] of [['lexer', perCall(lexerResolve)], ['precompiled', precompiled]] as const) {
+		if (JSON.stringify(fn()) !== expected) {
+			throw new Error(`${name} substitution differs from the regex chain`);
+		}
+	}
+	console.log(`${iterations} requests\n`);
+
+	const regex = measure('regex chain + JSON body', iterations, perCall(regexResolve));
+	const lexer = measure('lexer per call + JSON body', iterations, perCall(lexerResolve));
+	const fast = measure('precompiled + structural', iterations, precompiled);
+
+	console.log(`\nspeedup vs regex chain: ${(fast / regex).toFixed(2)}x`);
+	console.log(`speedup vs lexer:       ${(fast / lexer).toFixed(2)}x`);
+}
+
+main();
@@ -1,89 +1,303 @@
-import axios, { AxiosResponse } from 'axios';
-import { APIActivity, ActivityType } from './models/process-types';
-import {
-	ProcessInstance,
-	ActivityInstance,
-} from './models/instance-types';
-import { ExpressionEvaluator } from './expression-evaluator';
-import { substituteStringTemplate, substituteObjectVariables } from './utils/substitution';
+import axios, { AxiosRequestConfig, AxiosResponse } from 'axios';
+import { APIActivity, ActivityType, HttpMethod } from './models/process-types';
+import { ProcessInstance } from './models/instance-types';
+import { CompiledTemplate, CompiledBody, compileTemplate, renderTemplate, compileBody, renderBody } from './utils/substitution';
+import { HttpAgentPool } from './http-agent-pool';
+import { APIResponse, CacheLookup, ResponseCache } from './response-cache';
+import { RequestCoalescer } from './request-coalescer';
+import { ApiResilience, APIRequestError } from './api-resilience';
+import { RateLimitedError, RateLimiter } from './rate-limiter';
 import logger from './logger';
 
+// Methods whose identical concurrent calls may share one request
+const IDEMPOTENT_METHODS = new Set<string>([HttpMethod.GET, HttpMethod.PUT, HttpMethod.DELETE]);
+
+/**
+ * The URL, headers, query parameters and body of an API activity, compiled once
+ */
+interface RequestTemplate {
+	url: CompiledTemplate;
+	headers: [string, CompiledTemplate][];
+	queryParams: [string, CompiledTemplate][];
+	body?: CompiledBody;
+}
+
+// Keyed by the activity definition, which every instance of a definition version shares
+const requestTemplates = new WeakMap<APIActivity, RequestTemplate>();
+
+function requestTemplateOf(activity: APIActivity): RequestTemplate {
+	let template = requestTemplates.get(activity);
+	if (!template) {
+		const compileEntries = (values?: { [key: string]: string }) =>
+			Object.entries(values || {}).map(([key, value]) => [key, compileTemplate(value)] as [string, CompiledTemplate]);
+		template = {
+			url: compileTemplate(activity.url),
+			headers: compileEntries(activity.headers),
+			queryParams: compileEntries(activity.queryParams),
+			body: activity.body ? compileBody(activity.body) : undefined
+		};
+		requestTemplates.set(activity, template);
+	}
+	return template;
+}
+
+function renderEntries(entries: [string, CompiledTemplate][], instance: ProcessInstance): { [key: string]: string } {
+	const result: { [key: string]: string } = {};
+	for (const [key, template] of entries) {
+		result[key] = renderTemplate(template, instance);
+	}
+	return result;
+}
+
+/**
+ * Identity of a fully substituted request, for coalescing
+ */
+function requestKey(config: AxiosRequestConfig): string {
+	const sorted = (values: any) => JSON.stringify(Object.keys(values || {}).sort().map(key => [key.toLowerCase(), values[key]]));
+	const body = config.data === undefined ? '' : JSON.stringify(config.data);
+	return [String(config.method).toUpperCase(), config.url, sorted(config.params), sorted(config.headers), body].join('\n');
+}
+
+/**
+ * A private copy of a response other callers also received, so post-API code
+ * of one instance cannot change what another sees
+ */
+function copyResponse(response: AxiosResponse): AxiosResponse {
+	try {
+		return { ...response, headers: { ...response.headers } as AxiosResponse['headers'], data: structuredClone(response.data) };
+	} catch {
+		return { ...response, data: JSON.parse(JSON.stringify(response.data ?? null)) };
+	}
+}
+
+/**
+ * 408, 429 and 5xx mean the server may well answer a later attempt
+ */
+function isTransientStatus(status: number): boolean {
+	return status === 408 || status === 429 || status >= 500;
+}
+
+/**
+ * Delay requested by a Retry-After header (seconds or an HTTP date)
+ */
+function retryAfterMs(headers: any): number | undefined {
+	const value = headers?.['retry-after'] ?? headers?.['Retry-After'];
+	if (value === undefined || value === null || value === '') return undefined;
+	const seconds = Number(value);
+	if (Number.isFinite(seconds)) return Math.max(0, seconds * 1000);
+	const date = Date.parse(String(value));
+	return Number.isNaN(date) ? undefined : Math.max(0, date - Date.now());
+}
+
+/**
+ * Chunks of a streamed response body. The socket is released when the
+ * consumer finishes or stops reading early.
+ */
+async function* streamBody(stream: AsyncIterable<Uint8Array> & { destroy?: () => void }, host: string): AsyncGenerator<Uint8Array> {
+	try {
+		for await (const chunk of stream) {
+			yield chunk;
+		}
+	} catch (error) {
+		throw new APIRequestError(`Response stream failed: ${error instanceof Error ? error.message : String(error)}`, true, undefined, host);
+	} finally {
+		stream.destroy?.();
+	}
+}
+
+function hostOf(url: string): string {
+	try {
+		return new URL(url).host;
+	} catch {
+		return url;
+	}
+}
+
 export class APIExecutor {
 
-	async execute(activity: APIActivity, instance: ProcessInstance): Promise<any> {
+	/**
+	 * @param agents Keep-alive agents the requests go through, shared per origin
+	 * @param cache Responses of GET activities with a cache policy, shared across instances
+	 * @param coalescer Shares one in-flight request among identical concurrent idempotent calls
+	 * @param resilience Per-host circuit breakers, retry budgets and backoff
+	 * @param rateLimiter Token buckets that pace requests per host or named limiter
+	 */
+	constructor(
+		private readonly agents: HttpAgentPool = new HttpAgentPool(),
+		private readonly cache: ResponseCache = new ResponseCache(),
+		private readonly coalescer: RequestCoalescer = new RequestCoalescer(),
+		private readonly resilience: ApiResilience = new ApiResilience(),
+		private readonly rateLimiter: RateLimiter = new RateLimiter()
+	) {}
+
+	/**
+	 * Execute one attempt of the HTTP request of an API activity. Retries are
+	 * not made here: the engine asks planRetry for a delay and schedules the
+	 * next attempt as a deferred continuation of the instance.
+	 * @param activity The API activity definition
+	 * @param instance The running instance used for substitution
+	 * @param signal Optional signal that cancels the request
+	 * @param attempt Attempts already made (0 for the first)
+	 * @param reserved A rate limiter token was reserved for this request by an earlier RateLimitedError
+	 * whose reserved flag was set
+	 * @throws RateLimitedError when the request has to wait for a rate limiter token
+	 * @throws APIRequestError for failed requests (retryable when transient)
+	 */
+	async execute(activity: APIActivity, instance: ProcessInstance, signal?: AbortSignal, attempt: number = 0, reserved: boolean = false): Promise<APIResponse> {
 		const maxRetries = activity.retries || 0;
 		const expectedStatus = activity.expectedStatus || [200];
-		
-		let lastError: any;
-		
-		for (let attempt = 0; attempt <= maxRetries; attempt++) {
+		// A streamed body is read once, so it is neither cached nor shared
+		const streamed = activity.responseMode === 'file';
+		const cachePolicy = activity.cache && !streamed && String(activity.method).toUpperCase() === HttpMethod.GET ? activity.cache : undefined;
+
+		if (signal?.aborted) {
+			throw new Error('HTTP request cancelled');
+		}
+
+		// Substitute variables in URL, headers, queryParams, and body (walked as a structure, never re-serialised)
+		const template = requestTemplateOf(activity);
+		const url = renderTemplate(template.url, instance);
+		const headers = renderEntries(template.headers, instance);
+		const queryParams = renderEntries(template.queryParams, instance);
+		const body = template.body ? renderBody(template.body, instance) : undefined;
+		const host = hostOf(url);
+
+		let cacheKey: string | undefined;
+		let cached: CacheLookup | undefined;
+		if (cachePolicy) {
+			cacheKey = this.cache.keyFor(url, queryParams, headers, cachePolicy);
+			cached = this.cache.lookup(cacheKey);
+			if (cached?.fresh) {
+				logger.info(`APIExecutor: Cache hit for ${url}`);
+				return this.cache.responseOf(cached.entry);
+			}
+		}
+
+		logger.info(`APIExecutor: Making ${activity.method} request to ${url} (attempt ${attempt + 1}/${maxRetries + 1})`);
+
+		const config: AxiosRequestConfig = {
+			method: activity.method,
+			url,
+			// Revalidate a stale cache entry with its ETag / Last-Modified
+			headers: cached ? { ...headers, ...this.cache.conditionalHeaders(cached.entry) } : headers,
+			params: queryParams,
+			data: body,
+			timeout: (activity.timeout || 30) * 1000, // Convert to milliseconds
+			validateStatus: () => true, // Don't throw on HTTP error status
+			responseType: streamed ? 'stream' : undefined
+		};
+		const limiter = this.rateLimiter.limiterFor(url, activity.rateLimit);
+		// Set when the token that has to wait is this call's own, not the one of a request it joined
+		let ownWait = false;
+		// The rate limiter and circuit breaker see each request on the wire once, however many callers share it
+		const send = async (requestSignal?: AbortSignal): Promise<AxiosResponse> => {
+			if (limiter) {
+				// Waiting for a token is left to the caller, which defers the request
+				// instead of holding the step (and the instance's mailbox)
+				const wait = reserved ? this.rateLimiter.pausedFor(limiter) : this.rateLimiter.reserve(limiter);
+				if (wait > 0) {
+					ownWait = true;
+					throw new RateLimitedError(limiter.substring(limiter.indexOf(':') + 1), wait, host);
+				}
+			}
+			this.resilience.beforeRequest(host);
 			try {
-				// Substitute variables in URL, headers, queryParams, and body
-				const url = substituteStringTemplate(activity.url, instance);
-				const headers = substituteObjectVariables(activity.headers || {}, instance);
-				const queryParams = substituteObjectVariables(activity.queryParams || {}, instance);
-				const body = activity.body ? substituteStringTemplate(JSON.stringify(activity.body), instance) : undefined;
-
-				logger.info(`APIExecutor: Making ${activity.method} request to ${url} (attempt ${attempt + 1}/${maxRetries + 1})`);
-
-				// Make the HTTP request
-				const response: AxiosResponse = await axios({
-					method: activity.method,
-					url,
-					headers,
-					params: queryParams,
-					data: body ? JSON.parse(body) : undefined,
-					timeout: (activity.timeout || 30) * 1000, // Convert to milliseconds
-					validateStatus: () => true // Don't throw on HTTP error status
-				});
-
-				// Check if status is expected
-				if (!expectedStatus.includes(response.status)) {
-					throw new Error(`Unexpected HTTP status ${response.status}. Expected one of: ${expectedStatus.join(', ')}`);
+				const response: AxiosResponse = await axios({ ...config, signal: requestSignal, ...this.agents.agentsFor(url) });
+				if (limiter && response.status === 429) {
+					this.rateLimiter.pause(limiter, retryAfterMs(response.headers) ?? 0);
 				}
-
-				logger.info(`APIExecutor: Request successful with status ${response.status}`);
-
-				return {
-					status: response.status,
-					statusText: response.statusText,
-					headers: response.headers,
-					data: response.data
-				};
-			} catch (error: any) {
-				lastError = error;
-				logger.error(`APIExecutor: Request error on attempt ${attempt + 1}:`, error.message);
-				if (attempt < maxRetries) {
-					const delay = Math.pow(2, attempt) * 1000;
-					logger.warn(`APIExecutor: Request failed (attempt ${attempt + 1}), retrying in ${delay}ms...`, error.message);
-					// Wait before retry (exponential backoff)
-					await new Promise(resolve => setTimeout(resolve, delay));
+				if (isTransientStatus(response.status)) {
+					this.resilience.recordFailure(host);
 				} else {
-					logger.error(`APIExecutor: Request failed after ${maxRetries + 1} attempts`, error.message);
+					this.resilience.recordSuccess(host);
 				}
+				return response;
+			} catch (error) {
+				if (requestSignal?.aborted) {
+					this.resilience.recordCancelled(host);
+				} else {
+					this.resilience.recordFailure(host);
+				}
+				throw error;
+			}
+		};
+
+		let response: AxiosResponse;
+		try {
+			// Make the HTTP request, joining an identical one already in flight
+			if (activity.coalesce !== false && !streamed && IDEMPOTENT_METHODS.has(String(activity.method).toUpperCase())) {
+				const { value, shared } = await this.coalescer.run(requestKey(config), send, signal);
+				response = shared ? copyResponse(value) : value;
+			} else {
+				response = await send(signal);
+			}
+		} catch (error: any) {
+			if (signal?.aborted) {
+				throw new Error('HTTP request cancelled');
+			}
+			if (error instanceof RateLimitedError && !ownWait) {
+				// The token is the one of the request this call joined
+				throw new RateLimitedError(error.limiter, error.retryAfterMs!, host, false);
 			}
+			if (error instanceof APIRequestError) {
+				throw error;
+			}
+			// Network errors and timeouts
+			logger.error(`APIExecutor: Request error on attempt ${attempt + 1}:`, error.message);
+			throw new APIRequestError(error.message, true, undefined, host);
 		}
-		
-		// All retries exhausted
-		if (lastError.isAxiosError) {
-			throw new Error(`HTTP request failed after ${maxRetries + 1} attempts: ${lastError.message}`);
+
+		if (response.status === 304 && cached && cacheKey && cachePolicy) {
+			logger.info(`APIExecutor: Cached response for ${url} revalidated`);
+			return this.cache.revalidate(cacheKey, cached.entry, response.headers, cachePolicy);
+		}
+
+		// Check if status is expected
+		if (!expectedStatus.includes(response.status)) {
+			if (streamed) {
+				response.data?.destroy?.();
+			}
+			throw new APIRequestError(
+				`Unexpected HTTP status ${response.status}. Expected one of: ${expectedStatus.join(', ')}`,
+				isTransientStatus(response.status),
+				retryAfterMs(response.headers),
+				host
+			);
 		}
-		throw lastError;
-	}
 
+		logger.info(`APIExecutor: Request successful with status ${response.status}`);
 
-	private substituteVariables(text: string, instance: ProcessInstance): string {
-		// Delegate token replacement to the expression evaluator's helper
-		return this.evaluator.resolveInlineTemplate(text, instance);
+		const result: APIResponse = {
+			status: response.status,
+			statusText: response.statusText,
+			headers: response.headers,
+			// The caller stores the stream; read errors surface as retryable request errors
+			data: streamed ? streamBody(response.data, host) : response.data
+		};
+		if (cacheKey && cachePolicy && response.status === 200) {
+			this.cache.store(cacheKey, result, cachePolicy);
+		}
+		return result;
 	}
 
 	/**
-	 * Extracts data from typed activity instances for variable substitution
+	 * Decide whether a failed attempt is retried and when
+	 * @param activity The API activity definition
+	 * @param attempt Attempts already made, minus one (0 after the first failure)
+	 * @param error What the attempt failed with
+	 * @returns the delay before the next attempt, or undefined to fail the activity
 	 */
-	private evaluator = new ExpressionEvaluator();
-
-	private getActivityData(activity: ActivityInstance | undefined): Record<string, any> {
-		return this.evaluator.getActivityVariableState(activity);
+	planRetry(activity: APIActivity, attempt: number, error: unknown): number | undefined {
+		const maxRetries = activity.retries || 0;
+		if (attempt >= maxRetries || !(error instanceof APIRequestError) || !error.retryable) {
+			return undefined;
+		}
+		const host = error.host ?? hostOf(activity.url);
+		if (!this.resilience.tryAcquireRetry(host)) {
+			logger.warn(`APIExecutor: Retry budget for ${host} exhausted, not retrying '${activity.id}'`);
+			return undefined;
+		}
+		// Full jitter, but never before the server or the breaker would accept the call
+		return Math.max(this.resilience.backoffDelay(attempt), error.retryAfterMs ?? 0);
 	}
-
 }
\ No newline at end of file
@@ -0,0 +1,250 @@
+import { logger } from './logger';
+
+/**
+ * Options for API retries and the per-host circuit breakers
+ */
+export interface ApiResilienceOptions {
+	// Backoff base; attempt n waits a random delay in [0, min(maxDelayMs, baseDelayMs * 2^n)] (default 1000)
+	baseDelayMs?: number;
+	// Backoff cap (default 30000)
+	maxDelayMs?: number;
+	// Consecutive failures that open a host's breaker (default 5)
+	failureThreshold?: number;
+	// How long an open breaker fails fast before letting a probe through (default 30000)
+	openMs?: number;
+	// Retries allowed per host as a share of its requests in the budget window (default 0.2)
+	retryBudgetRatio?: number;
+	// Retries always allowed per host in the budget window, so low traffic can still retry (default 10)
+	minRetriesPerWindow?: number;
+	// Length of the retry budget window (default 10000)
+	budgetWindowMs?: number;
+}
+
+export type CircuitState = 'closed' | 'open' | 'half-open';
+
+/**
+ * Breaker and retry budget counters of one host
+ */
+export interface HostResilienceStats {
+	host: string;
+	state: CircuitState;
+	consecutiveFailures: number;
+	// Times the breaker opened
+	opened: number;
+	// Calls failed fast while the breaker was open
+	rejected: number;
+	requests: number;
+	retries: number;
+	// Retries refused because the host's retry budget was spent
+	budgetExhausted: number;
+}
+
+/**
+ * Snapshot of the API resilience state
+ */
+export interface ApiResilienceStats {
+	openCircuits: number;
+	hosts: HostResilienceStats[];
+}
+
+/**
+ * A request failure with what the retry logic needs to know about it
+ */
+export class APIRequestError extends Error {
+	constructor(
+		message: string,
+		// Transient failures (network, timeout, 408, 429, 5xx, open circuit) may be retried
+		readonly retryable: boolean,
+		// Earliest sensible retry, e.g. the remaining open time of the breaker
+		readonly retryAfterMs?: number,
+		// Host the request went to, for the retry budget
+		readonly host?: string
+	) {
+		super(message);
+		this.name = 'APIRequestError';
+	}
+}
+
+interface HostState {
+	state: CircuitState;
+	consecutiveFailures: number;
+	openUntil: number;
+	probing: boolean;
+	opened: number;
+	rejected: number;
+	requests: number;
+	retries: number;
+	budgetExhausted: number;
+	// Timestamps of requests and retries inside the budget window
+	windowRequests: number[];
+	windowRetries: number[];
+}
+
+const DEFAULTS: Required<ApiResilienceOptions> = {
+	baseDelayMs: 1000,
+	maxDelayMs: 30000,
+	failureThreshold: 5,
+	openMs: 30000,
+	retryBudgetRatio: 0.2,
+	minRetriesPerWindow: 10,
+	budgetWindowMs: 10000
+};
+
+/**
+ * Per-host circuit breakers and retry budgets for API activities.
+ * A breaker opens after failureThreshold consecutive transient failures and
+ * fails calls fast for openMs; then one probe is let through (half-open) and
+ * its outcome closes or reopens the breaker.
+ */
+export class ApiResilience {
+	private readonly options: Required<ApiResilienceOptions>;
+	private hosts = new Map<string, HostState>();
+
+	constructor(options: ApiResilienceOptions = {}) {
+		this.options = { ...DEFAULTS };
+		for (const [key, value] of Object.entries(options)) {
+			if (value !== undefined) (this.options as any)[key] = value;
+		}
+	}
+
+	/**
+	 * Admit a request to a host, or fail fast while its breaker is open
+	 * @throws APIRequestError (retryable, with the remaining open time) when the breaker is open
+	 */
+	beforeRequest(host: string): void {
+		const state = this.stateOf(host);
+		const now = Date.now();
+
+		if (state.state === 'open') {
+			if (now < state.openUntil) {
+				state.rejected++;
+				throw new APIRequestError(`Circuit breaker for ${host} is open`, true, state.openUntil - now, host);
+			}
+			state.state = 'half-open';
+			state.probing = false;
+			logger.info('ApiResilience: circuit half-open', { host });
+		}
+		if (state.state === 'half-open') {
+			if (state.probing) {
+				state.rejected++;
+				throw new APIRequestError(`Circuit breaker for ${host} is half-open, waiting for the probe request`, true, this.options.baseDelayMs, host);
+			}
+			state.probing = true;
+		}
+
+		state.requests++;
+		this.trimWindow(state, now);
+		state.windowRequests.push(now);
+	}
+
+	recordSuccess(host: string): void {
+		const state = this.stateOf(host);
+		if (state.state !== 'closed') {
+			logger.info('ApiResilience: circuit closed', { host });
+		}
+		state.state = 'closed';
+		state.probing = false;
+		state.consecutiveFailures = 0;
+	}
+
+	/**
+	 * A request ended without an outcome (cancelled) - free the half-open probe slot
+	 */
+	recordCancelled(host: string): void {
+		const state = this.stateOf(host);
+		if (state.state === 'half-open') {
+			state.probing = false;
+		}
+	}
+
+	/**
+	 * Record a transient failure; opens the breaker at the threshold or when the half-open probe fails
+	 */
+	recordFailure(host: string): void {
+		const state = this.stateOf(host);
+		state.consecutiveFailures++;
+		if (state.state === 'half-open' || (state.state === 'closed' && state.consecutiveFailures >= this.options.failureThreshold)) {
+			state.state = 'open';
+			state.probing = false;
+			state.openUntil = Date.now() + this.options.openMs;
+			state.opened++;
+			logger.warn('ApiResilience: circuit opened', { host, consecutiveFailures: state.consecutiveFailures, openMs: this.options.openMs });
+		}
+	}
+
+	/**
+	 * Spend a retry from the host's budget
+	 * @returns false when the budget for the current window is exhausted
+	 */
+	tryAcquireRetry(host: string): boolean {
+		const state = this.stateOf(host);
+		const now = Date.now();
+		this.trimWindow(state, now);
+		const allowed = this.options.minRetriesPerWindow + this.options.retryBudgetRatio * state.windowRequests.length;
+		if (state.windowRetries.length >= allowed) {
+			state.budgetExhausted++;
+			return false;
+		}
+		state.windowRetries.push(now);
+		state.retries++;
+		return true;
+	}
+
+	/**
+	 * Full-jitter backoff delay before retry number attempt + 1
+	 * @param attempt Attempts already made, minus one (0 after the first failure)
+	 */
+	backoffDelay(attempt: number): number {
+		const ceiling = Math.min(this.options.maxDelayMs, this.options.baseDelayMs * Math.pow(2, attempt));
+		return Math.floor(Math.random() * ceiling);
+	}
+
+	snapshot(): ApiResilienceStats {
+		const now = Date.now();
+		const hosts: HostResilienceStats[] = [];
+		for (const [host, state] of this.hosts) {
+			this.trimWindow(state, now);
+			hosts.push({
+				host,
+				state: state.state === 'open' && now >= state.openUntil ? 'half-open' : state.state,
+				consecutiveFailures: state.consecutiveFailures,
+				opened: state.opened,
+				rejected: state.rejected,
+				requests: state.requests,
+				retries: state.retries,
+				budgetExhausted: state.budgetExhausted
+			});
+		}
+		return {
+			openCircuits: hosts.filter(h => h.state === 'open').length,
+			hosts
+		};
+	}
+
+	private stateOf(host: string): HostState {
+		let state = this.hosts.get(host);
+		if (!state) {
+			state = {
+				state: 'closed',
+				consecutiveFailures: 0,
+				openUntil: 0,
+				probing: false,
+				opened: 0,
+				rejected: 0,
+				requests: 0,
+				retries: 0,
+				budgetExhausted: 0,
+				windowRequests: [],
+				windowRetries: []
+			};
+			this.hosts.set(host, state);
+		}
+		return state;
+	}
+
+	private trimWindow(state: HostState, now: number): void {
+		const from = now - this.options.budgetWindowMs;
+		while (state.windowRequests.length > 0 && state.windowRequests[0] < from) state.windowRequests.shift();
+		while (state.windowRetries.length > 0 && state.windowRetries[0] < from) state.windowRetries.shift();
+	}
+}
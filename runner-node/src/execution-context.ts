@@ -8,6 +8,15 @@ import { logger } from './logger';
 export class ExecutionContext {
 	private callStack: ExecutionFrame[] = [];
 
+	/**
+	 * Restore a context from its JSON form, as stored with an instance
+	 */
+	public static fromJSON(stored: { callStack: ExecutionFrame[] }): ExecutionContext {
+		const context = new ExecutionContext();
+		context.callStack = stored.callStack;
+		return context;
+	}
+
 	public get currentActivity(): string | undefined {
 		const topFrame = this.getCurrentFrame();
 		return topFrame ? topFrame.activityId : undefined;
@@ -66,6 +75,13 @@ export class ExecutionContext {
 		return this.callStack.length > 0;
 	}
 
+	/**
+	 * The frames from the bottom of the stack to the top
+	 */
+	public getFrames(): readonly ExecutionFrame[] {
+		return this.callStack;
+	}
+
 	/**
 	 * Get the first frame (bottom of stack) without removing it
 	 */
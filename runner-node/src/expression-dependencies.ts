@@ -0,0 +1,246 @@
+import { createHash } from 'crypto';
+import {
+	Activity,
+	ActivityType,
+	APIActivity,
+	BranchActivity,
+	ComputeActivity,
+	SwitchActivity
+} from './models/process-types';
+import { ProcessInstance } from './models/instance-types';
+import { isReference, parseJpel } from './utils/jpel-parser';
+
+/**
+ * A reference to a named value of another activity (a:activityId.v:name or a:activityId.name)
+ */
+export interface ActivityValueRef {
+	readonly activityId: string;
+	readonly name: string;
+}
+
+/**
+ * The values one side (reads or writes) of an expression touches
+ */
+export interface DependencySet {
+	// a:activityId.v:variable
+	readonly activityVariables: ReadonlyArray<ActivityValueRef>;
+	// a:activityId.property (status, passFail, ...)
+	readonly activityProperties: ReadonlyArray<ActivityValueRef>;
+	// v:name / var:name
+	readonly processVariables: ReadonlyArray<string>;
+	// this.name
+	readonly thisProperties: ReadonlyArray<string>;
+	// p:name
+	readonly properties: ReadonlyArray<string>;
+}
+
+/**
+ * Read and write sets of a JPEL expression or code block
+ */
+export interface ExpressionDependencies {
+	readonly reads: DependencySet;
+	readonly writes: DependencySet;
+	// Activities the code reaches through plain JavaScript (activity shortcuts,
+	// `activities[...]`, `instance`, `process`) - their exact values are unknown
+	readonly opaqueActivities: ReadonlyArray<string>;
+	// True when the code reaches instance state the analysis cannot see,
+	// so its read/write sets are a lower bound only
+	readonly dynamic: boolean;
+	// True when the code also depends on or affects something outside the
+	// instance (clock, randomness, environment, console, timers, I/O)
+	readonly impure: boolean;
+}
+
+// Identifiers that expose instance state without JPEL syntax
+const DYNAMIC_GLOBALS = new Set(['instance', 'process', 'activities']);
+
+// Identifiers whose use makes a result depend on more than the read set
+const IMPURE_GLOBALS = new Set([
+	'Date', 'console', 'crypto', 'performance', 'fetch', 'require', 'globalThis', 'eval', 'Function',
+	'setTimeout', 'setInterval', 'setImmediate'
+]);
+
+class DependencyCollector {
+	private readonly sets = {
+		reads: this.emptySet(),
+		writes: this.emptySet()
+	};
+	readonly opaqueActivities = new Set<string>();
+	dynamic = false;
+	impure = false;
+
+	add(kind: keyof MutableSet, value: string, write: boolean, compound: boolean): void {
+		if (write) {
+			this.sets.writes[kind].add(value);
+			if (compound) this.sets.reads[kind].add(value);
+		} else {
+			this.sets.reads[kind].add(value);
+		}
+	}
+
+	result(): ExpressionDependencies {
+		return Object.freeze({
+			reads: this.freezeSet(this.sets.reads),
+			writes: this.freezeSet(this.sets.writes),
+			opaqueActivities: Object.freeze(Array.from(this.opaqueActivities)),
+			dynamic: this.dynamic,
+			impure: this.impure
+		});
+	}
+
+	private emptySet(): MutableSet {
+		return {
+			activityVariables: new Set(),
+			activityProperties: new Set(),
+			processVariables: new Set(),
+			thisProperties: new Set(),
+			properties: new Set()
+		};
+	}
+
+	private freezeSet(set: MutableSet): DependencySet {
+		const refs = (values: Set<string>) => Object.freeze(Array.from(values).map(value => {
+			const separator = value.indexOf('.');
+			return Object.freeze({ activityId: value.substring(0, separator), name: value.substring(separator + 1) });
+		}));
+		return Object.freeze({
+			activityVariables: refs(set.activityVariables),
+			activityProperties: refs(set.activityProperties),
+			processVariables: Object.freeze(Array.from(set.processVariables)),
+			thisProperties: Object.freeze(Array.from(set.thisProperties)),
+			properties: Object.freeze(Array.from(set.properties))
+		});
+	}
+}
+
+interface MutableSet {
+	activityVariables: Set<string>;
+	activityProperties: Set<string>;
+	processVariables: Set<string>;
+	thisProperties: Set<string>;
+	properties: Set<string>;
+}
+
+/**
+ * Statically analyse JPEL code and record which values it reads and writes.
+ * References inside string literals are skipped, the same way the evaluator
+ * leaves them untranslated.
+ * @param codeLines The JPEL source lines (a condition is a single line)
+ * @param activityIds IDs of the definition's activities, used to detect
+ * activity shortcuts (plain identifiers naming an activity)
+ * @returns the expression's dependencies
+ */
+export function analyzeExpression(codeLines: string[], activityIds: Iterable<string> = []): ExpressionDependencies {
+	const collector = new DependencyCollector();
+	const knownActivities = new Set(activityIds);
+
+	const source = codeLines.filter(line => typeof line === 'string').join('\n');
+	for (const node of parseJpel(source, 'code')) {
+		// Compound assignments (+=, ++, ...) also read the value
+		const operator = isReference(node) ? node.write : undefined;
+		const write = !!operator;
+		const compound = write && operator !== '=';
+		switch (node.kind) {
+			case 'activityVariable':
+				collector.add('activityVariables', `${node.activityId}.${node.name}`, write, compound);
+				break;
+			case 'activityProperty':
+				collector.add('activityProperties', `${node.activityId}.${node.name}`, write, compound);
+				break;
+			case 'processVariable':
+			case 'processField':
+				// process.name is the plain JavaScript spelling of v:name
+				collector.add('processVariables', node.name, write, compound);
+				break;
+			case 'property':
+				collector.add('properties', node.name, write, compound);
+				break;
+			case 'thisProperty':
+				collector.add('thisProperties', node.name, write, compound);
+				break;
+			case 'env':
+				collector.impure = true;
+				break;
+			case 'text': {
+				// Plain JavaScript - look for ways into instance state and out of it
+				const identifiers = /(^|[^.\w$])([A-Za-z_$][\w$]*)/g;
+				let match: RegExpExecArray | null;
+				while ((match = identifiers.exec(node.raw)) !== null) {
+					const identifier = match[2];
+					if (knownActivities.has(identifier)) {
+						collector.opaqueActivities.add(identifier);
+						collector.dynamic = true;
+					} else if (DYNAMIC_GLOBALS.has(identifier)) {
+						collector.dynamic = true;
+					} else if (IMPURE_GLOBALS.has(identifier)
+						|| (identifier === 'Math' && node.raw.startsWith('.random', identifiers.lastIndex))) {
+						collector.impure = true;
+					}
+				}
+				break;
+			}
+		}
+	}
+
+	return collector.result();
+}
+
+/**
+ * Whether equal values of the read set give the code an equal result: it
+ * writes only its own variables (this.x) and reaches nothing outside what
+ * the analysis sees
+ */
+export function dependsOnlyOnReads(dependencies: ExpressionDependencies): boolean {
+	const { reads, writes } = dependencies;
+	return !dependencies.dynamic && !dependencies.impure
+		&& reads.properties.length === 0
+		&& writes.activityVariables.length === 0 && writes.activityProperties.length === 0
+		&& writes.processVariables.length === 0 && writes.properties.length === 0;
+}
+
+/**
+ * Digest of the current values of an activity's read set and its code, which
+ * changes when any of them does
+ * @param dependencies The read/write sets of the activity's code
+ * @param code The code the sets were taken from
+ * @param instance The instance holding the values
+ * @param activityId The activity `this` refers to
+ */
+export function readSetDigest(dependencies: ExpressionDependencies, code: string[], instance: ProcessInstance, activityId: string): string {
+	const variableOf = (id: string, name: string) =>
+		instance.activities[id]?.variables?.find(variable => variable.name === name)?.value;
+	const { reads } = dependencies;
+	const values = [
+		code,
+		reads.activityVariables.map(ref => variableOf(ref.activityId, ref.name)),
+		reads.activityProperties.map(ref => (instance.activities[ref.activityId] as any)?.[ref.name]),
+		reads.processVariables.map(name => instance.variables?.[name]),
+		reads.thisProperties.map(name => variableOf(activityId, name))
+	];
+	return createHash('sha1').update(JSON.stringify(values)).digest('base64');
+}
+
+/**
+ * The JPEL code an activity evaluates, in the form the engine evaluates it
+ * (a switch expression is evaluated as a `return` statement)
+ * @param activity The activity definition
+ * @returns the code lines, or undefined if the activity has no expression
+ */
+export function activityExpression(activity: Activity): string[] | undefined {
+	let code: unknown;
+	switch (activity.type) {
+		case ActivityType.Branch:
+			code = [(activity as BranchActivity).condition];
+			break;
+		case ActivityType.Switch:
+			code = [`return ${(activity as SwitchActivity).expression};`];
+			break;
+		case ActivityType.Compute:
+			code = (activity as ComputeActivity).code;
+			break;
+		case ActivityType.API:
+			code = (activity as APIActivity).code;
+			break;
+	}
+	return Array.isArray(code) && code.every(line => typeof line === 'string') ? code : undefined;
+}
@@ -1,5 +1,10 @@
 import { ActivityInstance, ProcessInstance } from './models/instance-types';
-import { ACTIVITY_VAR_PATTERN, ACTIVITY_FIELD_PATTERN, ACTIVITY_PROP_PATTERN, PROCESS_VAR_PATTERN, mapVariablesArray } from './utils/patterns';
+import { ActivityType, ProcessDefinition } from './models/process-types';
+import { activityExpression } from './expression-dependencies';
+import { mapVariablesArray } from './utils/patterns';
+import { JpelNode, parseJpel } from './utils/jpel-parser';
+import { LruCache, LruCacheStats } from './utils/lru-cache';
+import { SandboxPool } from './sandbox-pool';
 import { logger } from './logger';
 
 /**
@@ -19,18 +24,288 @@ export interface EvaluationContext {
 }
 
 
+/**
+ * JPEL source translated to JavaScript, plus the `this.xxx` properties it assigns,
+ * the identifiers it mentions (candidates for activity shortcuts) and the
+ * activities it reads through `activities["id"]`
+ */
+interface TranslatedCode {
+	js: string;
+	thisProps: string[];
+	identifiers: string[];
+	activityRefs: string[];
+}
+
+/**
+ * Hit/miss counters of the compiled expression caches
+ */
+export interface ExpressionCacheStats {
+	translations: LruCacheStats;
+	functions: LruCacheStats;
+	// Activity `v` maps rebuilt from the variables array vs reused unchanged
+	variableViews: {
+		rebuilt: number;
+		reused: number;
+	};
+}
+
+const DEFAULT_EXPRESSION_CACHE_SIZE = 1000;
+
+// Names every evaluation context starts with, in createEvaluationContext order
+const BASE_CONTEXT_PARAMS = ['process', 'instance', 'currentActivity', 'Math', 'console', 'activities'];
+
+/**
+ * Extra names a code block sees besides the instance state (e.g. the HTTP
+ * response for post-API code). They are passed as function parameters, so
+ * concurrent evaluations never share them.
+ */
+export type CodeGlobals = { [name: string]: any };
+
+// Names post-API code sees, in responseContext order
+export const RESPONSE_CONTEXT_PARAMS = ['response', 'status', 'headers'];
+
+/**
+ * The globals of post-API code: the response and, as shortcuts, its status and headers
+ * @param response The response returned by APIExecutor.execute
+ */
+export function responseContext(response: { status?: number; headers?: any } | undefined): CodeGlobals {
+	return { response, status: response?.status, headers: response?.headers };
+}
+
+const JS_RESERVED = new Set([
+	'break','case','catch','class','const','continue','debugger','default','delete','do','else','export','extends','finally','for','function','if','import','in','instanceof','let','new','return','super','switch','this','throw','try','typeof','var','void','while','with','yield','enum','await','implements','package','protected','static','interface','private','public'
+]);
+
+/**
+ * Activity IDs that can be exposed as top-level shortcuts (valid, non-reserved identifiers)
+ */
+function isShortcutName(activityId: string): boolean {
+	return /^[A-Za-z_$][A-Za-z0-9_$]*$/.test(activityId) && !JS_RESERVED.has(activityId);
+}
+
+// Shared by every evaluator so definitions compiled at load time are reused
+// by the evaluators of the engine and the API executor.
+// JPEL source -> translated JavaScript
+const translationCache = new LruCache<string, TranslatedCode>(DEFAULT_EXPRESSION_CACHE_SIZE);
+// mode + parameter layout + JavaScript body -> compiled function (or its SyntaxError)
+const functionCache = new LruCache<string, Function | Error>(DEFAULT_EXPRESSION_CACHE_SIZE);
+
+// Activity instance -> the variables array its current `v` map was built from
+const variableViewSources = new WeakMap<ActivityInstance, any[] | undefined>();
+let variableViewsRebuilt = 0;
+let variableViewsReused = 0;
+
+/**
+ * Make sure `activity.v` mirrors the activity's variables array for the
+ * a:activity.v:variable syntax. The map is only rebuilt when the array was
+ * replaced or its names/values no longer match the previous map.
+ */
+function ensureVariableView(activity: ActivityInstance): void {
+	const current = (activity as any).v;
+	const variables = Array.isArray(activity.variables) ? activity.variables : undefined;
+	if (current && typeof current === 'object' && variableViewSources.has(activity)
+		&& variableViewSources.get(activity) === variables && variableViewMatches(current, variables)) {
+		variableViewsReused++;
+		return;
+	}
+	(activity as any).v = mapVariablesArray(activity);
+	variableViewSources.set(activity, variables);
+	variableViewsRebuilt++;
+}
+
+function variableViewMatches(view: Record<string, any>, variables: any[] | undefined): boolean {
+	let keys = 0;
+	for (const key in view) {
+		if (Object.prototype.hasOwnProperty.call(view, key)) keys++;
+	}
+	if (!variables) {
+		return keys === 0;
+	}
+	if (keys !== variables.length) {
+		return false;
+	}
+	for (const variable of variables) {
+		if (!Object.prototype.hasOwnProperty.call(view, variable.name) || view[variable.name] !== variable.value) {
+			return false;
+		}
+	}
+	return true;
+}
+
+// Shared proxy handler: activities are materialised (their `v` map refreshed)
+// only when an expression actually reads them
+const lazyActivitiesHandler: ProxyHandler<{ [activityId: string]: ActivityInstance }> = {
+	get(target, prop, receiver) {
+		const activity = Reflect.get(target, prop, receiver);
+		if (typeof prop === 'string' && activity && typeof activity === 'object'
+			&& Object.prototype.hasOwnProperty.call(target, prop)) {
+			ensureVariableView(activity);
+		}
+		return activity;
+	}
+};
+const lazyActivities = new WeakMap<object, { [activityId: string]: ActivityInstance }>();
+
+function lazyActivitiesOf(instance: ProcessInstance): { [activityId: string]: ActivityInstance } {
+	let proxy = lazyActivities.get(instance.activities);
+	if (!proxy) {
+		proxy = new Proxy(instance.activities, lazyActivitiesHandler);
+		lazyActivities.set(instance.activities, proxy);
+	}
+	return proxy;
+}
+
+/**
+ * Identifier tokens of a JavaScript body that are not property accesses
+ * (string literals are skipped)
+ */
+function collectIdentifiers(js: string): string[] {
+	const found = new Set<string>();
+	const code = js.replace(/"(?:[^"\\]|\\.)*"|'(?:[^'\\]|\\.)*'/g, '""');
+	const pattern = /(^|[^.\w$])([A-Za-z_$][\w$]*)/g;
+	let match: RegExpExecArray | null;
+	while ((match = pattern.exec(code)) !== null) {
+		found.add(match[2]);
+	}
+	return Array.from(found);
+}
+
+/**
+ * Activity IDs accessed as activities["id"] in translated JavaScript
+ */
+function collectActivityRefs(js: string): string[] {
+	const found = new Set<string>();
+	const pattern = /activities\[("(?:[^"\\]|\\.)*")\]/g;
+	let match: RegExpExecArray | null;
+	while ((match = pattern.exec(js)) !== null) {
+		found.add(JSON.parse(match[1]));
+	}
+	return Array.from(found);
+}
+
+
+/**
+ * Translate JPEL code into JavaScript in one pass over its nodes.
+ * References inside string literals are left alone; p:, env: and process.
+ * references are plain JavaScript here and stay as written.
+ * @param expression JPEL code
+ * @returns the JavaScript source
+ */
+export function translateJpelToJavaScript(expression: string): string {
+	let out = '';
+	for (const node of parseJpel(expression, 'code')) {
+		out += translateNode(node);
+	}
+	return out;
+}
+
+function translateNode(node: JpelNode): string {
+	switch (node.kind) {
+		case 'activityVariable':
+			// a:activityId.v:variableName -> activities["activityId"].v["variableName"]
+			return `activities[${JSON.stringify(node.activityId)}].v[${JSON.stringify(node.name)}]`;
+		case 'activityField':
+			// Reject legacy f: syntax - throw error instead of translating
+			throw new Error(`Legacy field syntax 'a:activity.f:field' is no longer supported. Use 'a:activity.v:variable' instead.`);
+		case 'activityProperty':
+			// a:activityId.property -> activities["activityId"].property
+			return `activities[${JSON.stringify(node.activityId)}].${node.name}`;
+		case 'processVariable':
+			// v:name / var:name -> process.name (or bracket access)
+			return /^[A-Za-z_$][A-Za-z0-9_$]*$/.test(node.name) ? `process.${node.name}` : `process[${JSON.stringify(node.name)}]`;
+		case 'thisProperty':
+			// this.property -> currentActivity.property
+			return `currentActivity.${node.name}`;
+		default:
+			return node.raw;
+	}
+}
+
+
 /**
  * Class for Evaluating and processing JPEL expressions
  * @author Bob D and AI
  */
 export class ExpressionEvaluator {
 
+	/**
+	 * @param sandbox Optional worker pool; when set, executeCodeAsync runs
+	 * code there instead of on the main event loop
+	 */
+	constructor(private readonly sandbox?: SandboxPool) {}
+
+	/**
+	 * Hit/miss counters of the shared compiled expression caches
+	 */
+	static getCacheStats(): ExpressionCacheStats {
+		return {
+			translations: translationCache.stats(),
+			functions: functionCache.stats(),
+			variableViews: {
+				rebuilt: variableViewsRebuilt,
+				reused: variableViewsReused
+			}
+		};
+	}
+
+	/**
+	 * Change the capacity of the shared compiled expression caches
+	 */
+	static configureCache(maxEntries: number): void {
+		translationCache.resize(maxEntries);
+		functionCache.resize(maxEntries);
+	}
+
+	/**
+	 * Drop every cached translation and compiled function
+	 */
+	static clearCache(): void {
+		translationCache.clear();
+		functionCache.clear();
+		translationCache.resetStats();
+		functionCache.resetStats();
+		variableViewsRebuilt = 0;
+		variableViewsReused = 0;
+	}
+
+	/**
+	 * Translate and compile every condition, switch expression and code block
+	 * of a definition, so instances of it never compile on the hot path.
+	 * Sources that do not compile are skipped - they fail with the usual
+	 * error when an instance evaluates them.
+	 * @param definition The process definition
+	 * @returns the number of expressions compiled
+	 */
+	precompile(definition: ProcessDefinition): number {
+		const activities = definition.activities || {};
+		let compiled = 0;
+
+		for (const activity of Object.values(activities)) {
+			const codeLines = activityExpression(activity);
+			if (!codeLines) continue;
+			try {
+				const { js, identifiers } = this.translate(codeLines);
+				const globalNames = activity.type === ActivityType.API ? RESPONSE_CONTEXT_PARAMS : [];
+				const params = this.parameterLayout(identifiers, activities, globalNames);
+				const compiledFn = this.compileFunction(params, js, this.isStatementBlock(js) ? 'statement' : 'expression');
+				if (typeof compiledFn === 'function') compiled++;
+			} catch (error) {
+				logger.debug(`ExpressionEvaluator: Could not precompile code of activity '${activity.id}'`, {
+					error: error instanceof Error ? error.message : String(error)
+				});
+			}
+		}
+
+		logger.debug(`ExpressionEvaluator: Precompiled ${compiled} expressions for process '${definition.id}'`);
+		return compiled;
+	}
+
 	evaluateCondition(condition: string, instance: ProcessInstance): boolean {
 		try {
-			const context = this.createEvaluationContext(instance);
+			// Replace JPEL syntax with JavaScript (cached per condition text)
+			const { js: jsExpression, identifiers } = this.translate([condition]);
 
-			// Replace JPEL syntax with JavaScript
-			const jsExpression = this.translateJPELToJS(condition, instance);
+			const context = this.createEvaluationContext(instance, undefined, identifiers);
 
 			// Evaluate the expression
 			const result = this.safeEval(jsExpression, context);
@@ -49,38 +324,27 @@ export class ExpressionEvaluator {
 	 * @param codeLines Lines o' code
 	 * @param instance The ProcessInstance
 	 * @param currentActivityId The activity ID
+	 * @param globals Extra names visible to the code (e.g. response)
 	 * @returns 
 	 */
-	executeCode(codeLines: string[], instance: ProcessInstance, currentActivityId: string): any {
+	executeCode(codeLines: string[], instance: ProcessInstance, currentActivityId: string, globals: CodeGlobals = {}): any {
 		try {
-			const context = this.createEvaluationContext(instance, currentActivityId);
-
 			// Translate all lines to a single JavaScript code block so declarations
-			// (const/let/var) persist across lines. 
-			const jsCodeBlock = codeLines.map(line => this.translateJPELToJS(line, instance)).join('\n');
+			// (const/let/var) persist across lines. The translation and the list of
+			// `this.xxx` properties the code assigns are cached per source text.
+			const { js: jsCodeBlock, thisProps, identifiers } = this.translate(codeLines);
 
-			// (debug output removed)
-
-			// Determine properties assigned to `this.xxx` so we can return only
-			// those properties (preserves previous behaviour where callers
-			// received an object containing just the assigned fields).
-			const thisProps = new Set<string>();
-			for (const line of codeLines) {
-				const m = line.match(/this\.([a-zA-Z0-9_]+)\s*=/);
-				if (m) { 
-					thisProps.add(m[1]);
-				}
-			}
+			const context = this.createEvaluationContext(instance, currentActivityId, identifiers, globals);
 
 			// Execute the entire block. safeEval will try expression first then
 			// fall back to statement execution, so this covers most compute scripts.
 			const execResult = this.safeEval(jsCodeBlock, context);
 
-			// (debug output removed)
-
-			if (thisProps.size > 0) {
+			// Return only the assigned `this.xxx` properties (preserves previous
+			// behaviour where callers received an object containing just those fields)
+			if (thisProps.length > 0) {
 				const out: any = {};
-				for (const p of Array.from(thisProps)) {
+				for (const p of thisProps) {
 					out[p] = context.currentActivity[p];
 				}
 				return out;
@@ -106,6 +370,86 @@ export class ExpressionEvaluator {
 		}
 	}
 
+	/**
+	 * Execute the javascript code associated with an activity in the sandbox
+	 * pool when one is configured, otherwise inline like executeCode.
+	 * The sandbox receives a projection of the instance: process variables,
+	 * the current activity and the activities the code references. `instance`
+	 * only carries the IDs and status there.
+	 * @param codeLines Lines o' code
+	 * @param instance The ProcessInstance
+	 * @param currentActivityId The activity ID
+	 * @param globals Extra names visible to the code (e.g. response)
+	 * @returns the same result executeCode would return
+	 */
+	async executeCodeAsync(codeLines: string[], instance: ProcessInstance, currentActivityId: string, globals: CodeGlobals = {}): Promise<any> {
+		if (!this.sandbox) {
+			return this.executeCode(codeLines, instance, currentActivityId, globals);
+		}
+
+		try {
+			const { js, thisProps, identifiers, activityRefs } = this.translate(codeLines);
+
+			// Project only the activities the code can reach
+			const activities: { [activityId: string]: any } = {};
+			const lazy = lazyActivitiesOf(instance);
+			for (const activityId of [...activityRefs, ...identifiers]) {
+				if (Object.prototype.hasOwnProperty.call(instance.activities, activityId) && !activities[activityId]) {
+					activities[activityId] = lazy[activityId];
+				}
+			}
+
+			const values: { [name: string]: any } = {
+				process: instance.variables,
+				instance: { instanceId: instance.instanceId, processId: instance.processId, status: instance.status },
+				currentActivity: this.getActivityVariableState(instance.activities[currentActivityId]),
+				activities
+			};
+			const params = this.parameterLayout(identifiers, activities, Object.keys(globals));
+			for (const name of params.slice(BASE_CONTEXT_PARAMS.length)) {
+				values[name] = Object.prototype.hasOwnProperty.call(globals, name) ? globals[name] : activities[name];
+			}
+
+			// Keep what was sent so only the code's own changes are applied back
+			// (other code may change the instance while this call is running)
+			const sentProcess: { [key: string]: any } = JSON.parse(JSON.stringify(instance.variables || {}));
+			const sentActivities: { [activityId: string]: any } = JSON.parse(JSON.stringify(activities));
+
+			const outcome = await this.sandbox.run({ js, statement: this.isStatementBlock(js), params, values, thisProps });
+
+			// Apply what the code changed back onto the instance
+			for (const key of Object.keys(sentProcess)) {
+				if (!(key in outcome.process)) delete instance.variables[key];
+			}
+			for (const [key, value] of Object.entries(outcome.process)) {
+				if (JSON.stringify(value) !== JSON.stringify(sentProcess[key])) {
+					instance.variables[key] = value;
+				}
+			}
+			for (const [activityId, changed] of Object.entries(outcome.activities || {})) {
+				const activity: any = instance.activities[activityId];
+				if (!activity || !sentActivities[activityId]) continue;
+				for (const key of Object.keys(changed)) {
+					if (key !== 'v' && JSON.stringify(changed[key]) !== JSON.stringify(sentActivities[activityId][key])) {
+						activity[key] = changed[key];
+					}
+				}
+			}
+
+			return outcome.result;
+		} catch (error) {
+			const msg = error instanceof Error ? error.message : String(error);
+			logger.error('Code execution failed', {
+				instanceId: instance?.instanceId,
+				currentActivityId,
+				sandbox: true,
+				codePreview: (codeLines || []).join('\n').substring(0, 1000),
+				error: msg
+			});
+			throw new Error(`Code execution failed: ${msg}`);
+		}
+	}
+
 
 	/**
 	 * Extract a map of variables from an activity.
@@ -136,8 +480,32 @@ export class ExpressionEvaluator {
 		return resolveInlineTemplate(text, instance);
 	}
 
-	// Create a typed evaluation context to avoid using a blanket `any`
-	private createEvaluationContext(instance: ProcessInstance, currentActivityId?: string): EvaluationContext {
+	/**
+	 * Parameter names of the compiled function for an expression: the base
+	 * context names, the activity shortcuts the expression mentions and the
+	 * globals, in the same order createEvaluationContext adds them.
+	 * A global hides an activity shortcut of the same name.
+	 */
+	private parameterLayout(identifiers: string[], activities: { [activityId: string]: any }, globalNames: string[] = []): string[] {
+		const params = [...BASE_CONTEXT_PARAMS];
+		for (const id of identifiers) {
+			if (isShortcutName(id) && Object.prototype.hasOwnProperty.call(activities, id)
+				&& !params.includes(id) && !globalNames.includes(id)) {
+				params.push(id);
+			}
+		}
+		for (const name of globalNames) {
+			if (!BASE_CONTEXT_PARAMS.includes(name) && !params.includes(name)) params.push(name);
+		}
+		return params;
+	}
+
+	// Create a typed evaluation context to avoid using a blanket `any`.
+	// Activities are exposed lazily: `activities` is a proxy that refreshes an
+	// activity's `v` map when it is read, and top-level shortcuts are only
+	// added for the identifiers the expression mentions. Globals come last and
+	// hide a shortcut of the same name.
+	private createEvaluationContext(instance: ProcessInstance, currentActivityId?: string, identifiers: string[] = [], globals: CodeGlobals = {}): EvaluationContext {
 		const context: EvaluationContext = {
 			// Process variables
 			process: instance.variables,
@@ -161,98 +529,94 @@ export class ExpressionEvaluator {
 			activities: {}
 		};
 
-		// Add activity data accessors
-		context.activities = {};
-		Object.keys(instance.activities).forEach(activityId => {
-			const activity = instance.activities[activityId];
-			const activityData = this.getActivityVariableState(activity);
-
-			// Ensure the runtime activity instance exposes a v property that maps
-			// to variables for the a:activity.v:variable syntax
-			// Always update the v property to ensure it has the latest values
-			(activity as any).v = activityData || {};
-
-			// Expose the actual activity instance so assignments (e.g. passFail)
-			// mutate the runtime instance and will be persisted when the engine saves.
-			context.activities[activityId] = activity as any;
-
-			// Also expose top-level shortcut when the id is a valid JS identifier
-			// but avoid exposing if the identifier is a JS reserved word which would
-			// make it invalid as a function parameter name when we build the
-			// evaluation function.
-			const isIdentifier = /^[A-Za-z_$][A-Za-z0-9_$]*$/.test(activityId);
-			const jsReserved = new Set([
-				'break','case','catch','class','const','continue','debugger','default','delete','do','else','export','extends','finally','for','function','if','import','in','instanceof','let','new','return','super','switch','this','throw','try','typeof','var','void','while','with','yield','enum','await','implements','package','protected','static','interface','private','public'
-			]);
-			if (isIdentifier && !jsReserved.has(activityId)) {
+		// Expose the actual activity instances so assignments (e.g. passFail)
+		// mutate the runtime instance and will be persisted when the engine saves.
+		context.activities = lazyActivitiesOf(instance);
+
+		// Also expose top-level shortcuts for referenced ids that are valid JS
+		// identifiers but not reserved words (which would be invalid as function
+		// parameter names when we build the evaluation function).
+		for (const activityId of identifiers) {
+			if (isShortcutName(activityId) && Object.prototype.hasOwnProperty.call(instance.activities, activityId)
+				&& !Object.prototype.hasOwnProperty.call(globals, activityId)) {
 				context[activityId] = context.activities[activityId];
 			}
-		});
+		}
+
+		for (const name of Object.keys(globals)) {
+			if (!BASE_CONTEXT_PARAMS.includes(name)) {
+				context[name] = globals[name];
+			}
+		}
 
 		return context;
 	}
 
 
+	/**
+	 * Translate lines of JPEL into one JavaScript block, cached per source text
+	 * @param codeLines The JPEL source lines
+	 * @returns the translated code and the `this.xxx` properties it assigns
+	 */
+	private translate(codeLines: string[]): TranslatedCode {
+		const key = codeLines.length === 1 ? codeLines[0] : JSON.stringify(codeLines);
+		return translationCache.getOrCreate(key, () => {
+			const thisProps = new Set<string>();
+			for (const line of codeLines) {
+				const m = line.match(/this\.([a-zA-Z0-9_]+)\s*=/);
+				if (m) {
+					thisProps.add(m[1]);
+				}
+			}
+			const js = this.translateJPELToJS(codeLines.join('\n'));
+			return {
+				js,
+				thisProps: Array.from(thisProps),
+				identifiers: collectIdentifiers(js),
+				activityRefs: collectActivityRefs(js)
+			};
+		});
+	}
+
 	/**
 	 * Translate a code expression from jpel into eval-able javascript giving
 	 * access to the process variables and current activity variables.
 	 * @param expression 
-	 * @param instance 
 	 * @returns 
 	 */
-	private translateJPELToJS(expression: string, instance: ProcessInstance): string {
-		// Split by quotes to avoid replacing inside string literals
-		const parts = expression.split(/(".*?")/);
-		const translatedParts = parts.map(part => {
-			// Only translate if not inside quotes (even parts are outside quotes)
-			if (!part.startsWith('"') && !part.endsWith('"')) {
-				// Replace a:activityId.v:variableName with activities["activityId"].v["variableName"]
-				// Allow word characters and hyphens for both activity IDs and variable names
-				part = part.replace(ACTIVITY_VAR_PATTERN, (m, activityId, variableName) => {
-					return `activities[${JSON.stringify(activityId)}].v[${JSON.stringify(variableName)}]`;
-				});
-
-				// Reject legacy f: syntax - throw error instead of translating
-				if (ACTIVITY_FIELD_PATTERN.test(part)) {
-					throw new Error(`Legacy field syntax 'a:activity.f:field' is no longer supported. Use 'a:activity.v:variable' instead.`);
-				}
-
-				// Replace a:activityId.property with activities["activityId"].property
-				part = part.replace(ACTIVITY_PROP_PATTERN, (m, activityId, prop) => {
-					return `activities[${JSON.stringify(activityId)}].${prop}`;
-				});
-
-				// Replace v:variableName = value with process.variableName = value (use bracket if needed)
-				part = part.replace(/v:([^\s\.=]+)\s*=/g, (m, varName) => {
-					if (/^[A-Za-z_$][A-Za-z0-9_$]*$/.test(varName)) return `process.${varName} =`;
-					return `process[${JSON.stringify(varName)}] =`;
-				});
-
-				// Replace var:variableName = value with process.variableName = value
-				part = part.replace(/var:([^\s\.=]+)\s*=/g, (m, varName) => {
-					if (/^[A-Za-z_$][A-Za-z0-9_$]*$/.test(varName)) return `process.${varName} =`;
-					return `process[${JSON.stringify(varName)}] =`;
-				});
-
-				// Replace v:variableName (reading) with process.variableName (or bracket)
-				part = part.replace(/v:([^\s\.]+)/g, (m, varName) => {
-					if (/^[A-Za-z_$][A-Za-z0-9_$]*$/.test(varName)) return `process.${varName}`;
-					return `process[${JSON.stringify(varName)}]`;
-				});
+	private translateJPELToJS(expression: string): string {
+		return translateJpelToJavaScript(expression);
+	}
 
-				// Replace var:variableName (reading) with process.variableName
-				part = part.replace(/var:([^\s\.]+)/g, (m, varName) => {
-					if (/^[A-Za-z_$][A-Za-z0-9_$]*$/.test(varName)) return `process.${varName}`;
-					return `process[${JSON.stringify(varName)}]`;
-				});
+	/**
+	 * Multiple lines or semicolons are treated as a block of statements
+	 * (so declarations and side-effects persist), anything else as an expression
+	 */
+	private isStatementBlock(expression: string): boolean {
+		return expression.includes('\n') || expression.includes(';');
+	}
 
-				// Replace this.property with currentActivity.property
-				part = part.replace(/this\.(\w+)/g, 'currentActivity.$1');
+	/**
+	 * Get the compiled function for a body and parameter layout from the cache,
+	 * compiling it on a miss. A body that does not compile caches its SyntaxError.
+	 */
+	private compileFunction(paramNames: string[], body: string, mode: 'expression' | 'statement'): Function | Error {
+		const key = `${mode}\u0000${paramNames.join(',')}\u0000${body}`;
+		return functionCache.getOrCreate(key, () => {
+			try {
+				return new Function(...paramNames, mode === 'expression' ? `return ${body}` : body);
+			} catch (error) {
+				return error instanceof Error ? error : new Error(String(error));
 			}
-			return part;
 		});
+	}
 
-		return translatedParts.join('');
+	private getFunction(paramNames: string[], body: string, mode: 'expression' | 'statement'): Function {
+		const compiled = this.compileFunction(paramNames, body, mode);
+		if (compiled instanceof Error) {
+			throw compiled;
+		}
+		return compiled;
 	}
 
 	private safeEval(expression: string, context: EvaluationContext): boolean {
@@ -265,14 +629,8 @@ export class ExpressionEvaluator {
 		try {
 			// If expression contains multiple lines or semicolons, treat it as a
 			// block of statements (so declarations and side-effects persist).
-			let result: boolean;
-			if (expression.includes('\n') || expression.includes(';')) {
-				const func = new Function(...paramNames, expression);
-				result = func(...paramValues);
-			} else {
-				const func = new Function(...paramNames, `return ${expression}`);
-				result = func(...paramValues);
-			}
+			const func = this.getFunction(paramNames, expression, this.isStatementBlock(expression) ? 'statement' : 'expression');
+			const result: boolean = func(...paramValues);
 			logger.debug('Expression evaluation result:', result);
 			return result;
 		} catch (error) {
@@ -283,7 +641,7 @@ export class ExpressionEvaluator {
 			});
 			// If it's not an expression, try as a statement
 			try {
-				const func = new Function(...paramNames, expression);
+				const func = this.getFunction(paramNames, expression, 'statement');
 				const result = func(...paramValues);
 				logger.debug('Statement evaluation result:', result);
 				return result;
@@ -0,0 +1,230 @@
+import http from 'http';
+import https from 'https';
+import { Socket } from 'net';
+import { logger } from './logger';
+
+/**
+ * Connection settings of the agent for one host
+ */
+export interface HostAgentOptions {
+	// Reuse connections between requests (default true)
+	keepAlive?: boolean;
+	// Concurrent sockets per origin; further requests queue in the agent (default 50)
+	maxSockets?: number;
+	// Idle sockets kept open for reuse (default 10)
+	maxFreeSockets?: number;
+	// Idle sockets are closed after this long (default 30000)
+	idleTimeoutMs?: number;
+}
+
+/**
+ * Options for the HTTP agent pool: defaults for every host plus per-host overrides
+ */
+export interface HttpAgentPoolOptions extends HostAgentOptions {
+	// Overrides keyed by host name, or host:port to target a single port
+	hosts?: { [host: string]: HostAgentOptions };
+	// Origins with their own agent; the least recently used one is closed beyond this (default 100)
+	maxOrigins?: number;
+}
+
+/**
+ * Socket counts of the agent of one origin
+ */
+export interface OriginAgentStats {
+	origin: string;
+	// Sockets serving a request
+	active: number;
+	// Idle keep-alive sockets
+	free: number;
+	// Requests waiting for a socket (maxSockets reached)
+	queued: number;
+	// Requests sent through this agent
+	requests: number;
+}
+
+/**
+ * Snapshot of the HTTP agent pool
+ */
+export interface HttpAgentPoolStats {
+	origins: number;
+	active: number;
+	free: number;
+	queued: number;
+	requests: number;
+	byOrigin: OriginAgentStats[];
+}
+
+interface PooledAgent {
+	agent: http.Agent;
+	secure: boolean;
+	requests: number;
+}
+
+const DEFAULT_HOST_OPTIONS: Required<HostAgentOptions> = {
+	keepAlive: true,
+	maxSockets: 50,
+	maxFreeSockets: 10,
+	idleTimeoutMs: 30000
+};
+const DEFAULT_MAX_ORIGINS = 100;
+
+/**
+ * Keep-alive HTTP(S) agents, one per origin, so API activities calling the
+ * same hosts reuse connections instead of paying TCP/TLS setup per request.
+ */
+export class HttpAgentPool {
+	private readonly defaults: Required<HostAgentOptions>;
+	private readonly hosts: { [host: string]: HostAgentOptions };
+	private readonly maxOrigins: number;
+	// Origin -> agent, least recently used first
+	private agents = new Map<string, PooledAgent>();
+
+	constructor(options: HttpAgentPoolOptions = {}) {
+		const { hosts, maxOrigins, ...defaults } = options;
+		this.defaults = { ...DEFAULT_HOST_OPTIONS, ...stripUndefined(defaults) };
+		this.hosts = hosts || {};
+		this.maxOrigins = Math.max(1, maxOrigins ?? DEFAULT_MAX_ORIGINS);
+	}
+
+	/**
+	 * The agent options for a request URL, in the shape axios expects
+	 * @param url The request URL
+	 * @returns httpAgent or httpsAgent for the URL's origin (empty for URLs that do not parse)
+	 */
+	agentsFor(url: string): { httpAgent?: http.Agent; httpsAgent?: https.Agent } {
+		let parsed: URL;
+		try {
+			parsed = new URL(url);
+		} catch {
+			return {};
+		}
+		if (parsed.protocol !== 'http:' && parsed.protocol !== 'https:') {
+			return {};
+		}
+
+		const pooled = this.agentFor(parsed);
+		pooled.requests++;
+		return pooled.secure ? { httpsAgent: pooled.agent as https.Agent } : { httpAgent: pooled.agent };
+	}
+
+	/**
+	 * The settings used for a host (defaults merged with its override)
+	 */
+	optionsFor(host: string, hostname: string = host): Required<HostAgentOptions> {
+		const override = this.hosts[host] ?? this.hosts[hostname] ?? {};
+		return { ...this.defaults, ...stripUndefined(override) };
+	}
+
+	snapshot(): HttpAgentPoolStats {
+		const byOrigin: OriginAgentStats[] = [];
+		for (const [origin, pooled] of this.agents) {
+			byOrigin.push({
+				origin,
+				active: countSockets(pooled.agent.sockets),
+				free: countSockets(pooled.agent.freeSockets),
+				queued: countSockets(pooled.agent.requests),
+				requests: pooled.requests
+			});
+		}
+		return {
+			origins: byOrigin.length,
+			active: byOrigin.reduce((sum, o) => sum + o.active, 0),
+			free: byOrigin.reduce((sum, o) => sum + o.free, 0),
+			queued: byOrigin.reduce((sum, o) => sum + o.queued, 0),
+			requests: byOrigin.reduce((sum, o) => sum + o.requests, 0),
+			byOrigin
+		};
+	}
+
+	/**
+	 * Close every pooled connection
+	 */
+	close(): void {
+		for (const pooled of this.agents.values()) {
+			pooled.agent.destroy();
+		}
+		this.agents.clear();
+	}
+
+	private agentFor(url: URL): PooledAgent {
+		const existing = this.agents.get(url.origin);
+		if (existing) {
+			// Move to the most recently used position
+			this.agents.delete(url.origin);
+			this.agents.set(url.origin, existing);
+			return existing;
+		}
+
+		const settings = this.optionsFor(url.host, url.hostname);
+		const secure = url.protocol === 'https:';
+		const agentOptions: http.AgentOptions = {
+			keepAlive: settings.keepAlive,
+			maxSockets: settings.maxSockets,
+			maxFreeSockets: settings.maxFreeSockets
+		};
+		const agent = secure ? new https.Agent(agentOptions) : new http.Agent(agentOptions);
+		if (settings.keepAlive) {
+			closeIdleSockets(agent, settings.idleTimeoutMs);
+		}
+		const pooled: PooledAgent = {
+			agent,
+			secure,
+			requests: 0
+		};
+
+		if (this.agents.size >= this.maxOrigins) {
+			const [oldest, evicted] = this.agents.entries().next().value as [string, PooledAgent];
+			this.agents.delete(oldest);
+			// Idle sockets close now; requests still running finish and their
+			// sockets close once idle
+			for (const sockets of Object.values(evicted.agent.freeSockets)) {
+				sockets?.forEach(socket => socket.destroy());
+			}
+			logger.debug('HttpAgentPool: closed least recently used origin', { origin: oldest });
+		}
+		this.agents.set(url.origin, pooled);
+		logger.debug('HttpAgentPool: created agent', { origin: url.origin, ...settings });
+		return pooled;
+	}
+}
+
+// Agent methods called when a socket goes back to the free list and when it
+// is taken from it for a request
+interface AgentSocketHooks {
+	keepSocketAlive(socket: Socket): boolean;
+	reuseSocket(socket: Socket, request: http.ClientRequest): void;
+}
+
+/**
+ * Time out sockets only while they sit in the free list. The agent's own
+ * `timeout` option would also apply to sockets serving a request, which is
+ * left to the request's timeout; the agent destroys a free socket that times out.
+ */
+function closeIdleSockets(agent: http.Agent, idleTimeoutMs: number): void {
+	const hooks = agent as unknown as AgentSocketHooks;
+	const keepSocketAlive = hooks.keepSocketAlive.bind(agent);
+	const reuseSocket = hooks.reuseSocket.bind(agent);
+	hooks.keepSocketAlive = socket => {
+		if (!keepSocketAlive(socket)) {
+			return false;
+		}
+		socket.setTimeout(idleTimeoutMs);
+		return true;
+	};
+	hooks.reuseSocket = (socket, request) => {
+		socket.setTimeout(0);
+		reuseSocket(socket, request);
+	};
+}
+
+function countSockets(byName: NodeJS.ReadOnlyDict<unknown[]>): number {
+	let count = 0;
+	for (const list of Object.values(byName)) {
+		count += list ? list.length : 0;
+	}
+	return count;
+}
+
+function stripUndefined<T extends object>(options: T): Partial<T> {
+	return Object.fromEntries(Object.entries(options).filter(([, value]) => value !== undefined)) as Partial<T>;
+}
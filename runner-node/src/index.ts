@@ -11,6 +11,7 @@ import {
 	ProcessDefinition
 } from "./models/process-types";
 import { ApiResponse, ProcessExecutionResult } from "./models/instance-types";
+import { PageRequest, PageRequestError } from "./repositories/pagination";
 
 /**
  * Extracts data from typed activity instances for API responses
@@ -51,8 +52,25 @@ const port = process.env.PORT || 3000;
 // Initialize repositories and process engine
 async function initializeApplication() {
 	try {
-		// Initialize repositories (in-memory for now)
-	await RepositoryFactory.initializeInMemory();
+		// Initialize repositories - in memory, everything in a SQLite file when SQLITE_FILE is set,
+		// or instances kept on local disk when INSTANCE_STORE_DIR is set
+	if (process.env.SQLITE_FILE) {
+		await RepositoryFactory.initialize({
+			type: 'sqlite',
+			options: { filename: process.env.SQLITE_FILE }
+		});
+	} else if (process.env.INSTANCE_STORE_DIR) {
+		await RepositoryFactory.initialize({
+			type: 'file',
+			options: {
+				dir: process.env.INSTANCE_STORE_DIR,
+				groupCommitMs: process.env.INSTANCE_STORE_GROUP_COMMIT_MS ? Number(process.env.INSTANCE_STORE_GROUP_COMMIT_MS) : undefined,
+				compactBytes: process.env.INSTANCE_STORE_COMPACT_BYTES ? Number(process.env.INSTANCE_STORE_COMPACT_BYTES) : undefined
+			}
+		});
+	} else {
+		await RepositoryFactory.initializeInMemory();
+	}
 	logger.info('Repositories initialized');
 
 	// Test repository health
@@ -117,6 +135,21 @@ const createResponse = <T>(
 	timestamp: new Date().toISOString(),
 });
 
+// Paging parameters (?limit=&cursor=), or undefined when the request asks for the full list
+const pageRequest = (req: Request): PageRequest | undefined => {
+	const { limit, cursor } = req.query;
+	if (limit === undefined && cursor === undefined) {
+		return undefined;
+	}
+	if (limit !== undefined && !/^\d+$/.test(String(limit))) {
+		throw new PageRequestError(`Invalid limit '${limit}'`);
+	}
+	return {
+		limit: limit !== undefined ? Number(limit) : undefined,
+		cursor: cursor !== undefined ? String(cursor) : undefined
+	};
+};
+
 // Routes
 
 // Redirect root to demo interface
@@ -129,13 +162,27 @@ app.get("/health", (req: Request, res: Response) => {
 	res.json(createResponse(true, { status: "OK", service: "JPEL Runner" }));
 });
 
+// Engine runtime metrics (step latency, per-instance mailbox queueing)
+app.get("/api/metrics", (req: Request, res: Response) => {
+	res.json(createResponse(true, processEngine.getMetrics()));
+});
+
+
 
+// Instance counts by status and process, execution time mean/stddev/p50/p95/p99
+// per process and activity - maintained incrementally, so this does not scan instances
+app.get("/api/stats", asyncHandler(async (req: Request, res: Response) => {
+	res.json(createResponse(true, await processEngine.getStatistics()));
+}));
 
-// Get all loaded processes
-app.get("/api/processes", async (req: Request, res: Response) => {
-	const processes = await processEngine.getProcesses();
+// Get all loaded processes, or one page of them with ?limit=&cursor=
+app.get("/api/processes", asyncHandler(async (req: Request, res: Response): Promise<void> => {
+	const page = pageRequest(req);
+	const processes = page
+		? await processEngine.getProcessesPage(page)
+		: await processEngine.getProcesses();
 	res.json(createResponse(true, processes));
-});
+}));
 
 // Get a specific process definition
 app.get("/api/processes/:processId", async (req: Request, res: Response): Promise<void> => {
@@ -287,26 +334,27 @@ app.get(
 	"/api/files/:fileId/download",
 	asyncHandler(async (req: Request, res: Response): Promise<void> => {
 		const { fileId } = req.params;
-		const fileRepository = processEngine.getFileService().getRepository() as any;
+		const fileRepository = processEngine.getFileService().getRepository() as any; // Cast to access getContent
 		
 		try {
-			const fileData = fileRepository.files?.get(fileId);
-			if (!fileData) {
+			const metadata = await fileRepository.getMetadata(fileId);
+			const content = metadata ? await fileRepository.getContent(fileId) : null;
+			if (!metadata || !content) {
 				res.status(404).json(createResponse(false, null, "File not found"));
 				return;
 			}
 			
 			// Only serve non-image files for download
-			if (fileData.metadata.mimeType.startsWith('image/')) {
+			if (metadata.mimeType.startsWith('image/')) {
 				res.status(400).json(createResponse(false, null, "Images should use data URLs"));
 				return;
 			}
 			
-			res.setHeader('Content-Type', fileData.metadata.mimeType);
-			res.setHeader('Content-Disposition', `attachment; filename="${fileData.metadata.filename}"`);
-			res.setHeader('Content-Length', fileData.content.length);
+			res.setHeader('Content-Type', metadata.mimeType);
+			res.setHeader('Content-Disposition', `attachment; filename="${metadata.filename}"`);
+			res.setHeader('Content-Length', content.length);
 			
-			res.send(fileData.content);
+			res.send(content);
 		} catch (error) {
 			logger.error("Error downloading file:", error);
 			res.status(500).json(createResponse(false, null, "Failed to download file"));
@@ -376,13 +424,16 @@ app.get(
 	}
 );
 
-// Get process instances for a specific process
-app.get("/api/processes/:processId/instances", async (req: Request, res: Response): Promise<void> => {
+// Get process instances for a specific process, or one page of them (by start time) with ?limit=&cursor=
+app.get("/api/processes/:processId/instances", asyncHandler(async (req: Request, res: Response): Promise<void> => {
 	const { processId } = req.params;
-	const instances = await processEngine.getInstancesByProcessId(processId);
+	const page = pageRequest(req);
+	const instances = page
+		? await processEngine.getInstancesPageByProcessId(processId, page)
+		: await processEngine.getInstancesByProcessId(processId);
 
 	res.json(createResponse(true, instances));
-});
+}));
 
 // Re-run a process instance
 app.post(
@@ -555,6 +606,10 @@ app.get(
 
 // Error handling middleware
 app.use((error: any, req: Request, res: Response, next: NextFunction) => {
+	if (error instanceof PageRequestError) {
+		res.status(400).json(createResponse(false, null, error.message));
+		return;
+	}
 	console.error("Error:", error);
 	res.status(500).json(createResponse(false, null, "Internal server error"));
 });
@@ -568,9 +623,38 @@ app.use((req: Request, res: Response) => {
 async function startServer() {
 	await initializeApplication();
 
-	// Initialize process engine with repositories
-	processEngine = new ProcessEngine();
+	// Initialize process engine with repositories. Compute and post-API code
+	// runs in a worker thread sandbox when SANDBOX_WORKERS is set.
+	const sandboxWorkers = Number(process.env.SANDBOX_WORKERS || 0);
+	processEngine = new ProcessEngine({
+		http: {
+			keepAlive: process.env.HTTP_KEEP_ALIVE ? process.env.HTTP_KEEP_ALIVE !== 'false' : undefined,
+			maxSockets: process.env.HTTP_MAX_SOCKETS ? Number(process.env.HTTP_MAX_SOCKETS) : undefined,
+			maxFreeSockets: process.env.HTTP_MAX_FREE_SOCKETS ? Number(process.env.HTTP_MAX_FREE_SOCKETS) : undefined,
+			idleTimeoutMs: process.env.HTTP_IDLE_TIMEOUT_MS ? Number(process.env.HTTP_IDLE_TIMEOUT_MS) : undefined,
+			hosts: process.env.HTTP_AGENT_HOSTS ? JSON.parse(process.env.HTTP_AGENT_HOSTS) : undefined
+		},
+		responseCache: {
+			maxEntries: process.env.RESPONSE_CACHE_MAX_ENTRIES ? Number(process.env.RESPONSE_CACHE_MAX_ENTRIES) : undefined
+		},
+		resilience: {
+			baseDelayMs: process.env.API_RETRY_BASE_MS ? Number(process.env.API_RETRY_BASE_MS) : undefined,
+			maxDelayMs: process.env.API_RETRY_MAX_MS ? Number(process.env.API_RETRY_MAX_MS) : undefined,
+			retryBudgetRatio: process.env.API_RETRY_BUDGET_RATIO ? Number(process.env.API_RETRY_BUDGET_RATIO) : undefined,
+			failureThreshold: process.env.API_BREAKER_FAILURES ? Number(process.env.API_BREAKER_FAILURES) : undefined,
+			openMs: process.env.API_BREAKER_OPEN_MS ? Number(process.env.API_BREAKER_OPEN_MS) : undefined
+		},
+		rateLimits: process.env.API_RATE_LIMITS ? JSON.parse(process.env.API_RATE_LIMITS) : undefined,
+		sandbox: sandboxWorkers > 0 ? {
+			size: sandboxWorkers,
+			maxQueue: process.env.SANDBOX_MAX_QUEUE ? Number(process.env.SANDBOX_MAX_QUEUE) : undefined,
+			timeoutMs: process.env.SANDBOX_TIMEOUT_MS ? Number(process.env.SANDBOX_TIMEOUT_MS) : undefined,
+			maxHeapMb: process.env.SANDBOX_MAX_HEAP_MB ? Number(process.env.SANDBOX_MAX_HEAP_MB) : undefined
+		} : undefined
+	});
 	logger.info('Process engine initialized');
+	// API retries scheduled before a restart
+	await processEngine.recoverRetries();
 
 	app.listen(port, () => {
 		logger.info(`JPEL Runner API server started on port ${port}`);
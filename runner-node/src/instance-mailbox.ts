@@ -0,0 +1,122 @@
+import { performance } from 'perf_hooks';
+import { logger } from './logger';
+
+/**
+ * Snapshot of the mailbox metrics
+ */
+export interface MailboxMetricsSnapshot {
+	// Operations accepted since start (or the last reset)
+	operations: number;
+	// Instances that currently have an operation running or queued
+	activeInstances: number;
+	// Operations currently waiting behind another operation on the same instance
+	queued: number;
+	// Deepest per-instance queue seen (running operation included)
+	maxQueueDepth: number;
+	// Time operations spent waiting for their turn
+	wait: {
+		count: number;
+		totalMs: number;
+		meanMs: number;
+		maxMs: number;
+	};
+}
+
+interface Mailbox {
+	// Settles when the last operation queued for the instance has finished
+	tail: Promise<void>;
+	// Operations running or queued for the instance
+	depth: number;
+}
+
+/**
+ * Per-instance actor mailbox. Operations posted for the same instance ID
+ * run one at a time in arrival order, operations for different instances
+ * run concurrently. Mailboxes only exist while an instance has work queued.
+ */
+export class InstanceMailbox {
+	private mailboxes = new Map<string, Mailbox>();
+	private operations = 0;
+	private queued = 0;
+	private maxQueueDepth = 0;
+	private waitCount = 0;
+	private waitTotalMs = 0;
+	private waitMaxMs = 0;
+
+	/**
+	 * Run an operation once every earlier operation for the instance has finished
+	 * @param instanceId The Instance ID used as the mailbox key
+	 * @param operation The operation to run
+	 * @returns the operation result
+	 */
+	async run<T>(instanceId: string, operation: () => Promise<T>): Promise<T> {
+		let mailbox = this.mailboxes.get(instanceId);
+		if (!mailbox) {
+			mailbox = { tail: Promise.resolve(), depth: 0 };
+			this.mailboxes.set(instanceId, mailbox);
+		}
+
+		this.operations++;
+		mailbox.depth++;
+		if (mailbox.depth > this.maxQueueDepth) {
+			this.maxQueueDepth = mailbox.depth;
+		}
+
+		let release!: () => void;
+		const done = new Promise<void>(resolve => { release = resolve; });
+		const previous = mailbox.tail;
+		mailbox.tail = previous.then(() => done);
+
+		const enqueuedAt = performance.now();
+		const waiting = mailbox.depth > 1;
+		if (waiting) {
+			this.queued++;
+			logger.debug(`InstanceMailbox: Operation queued for instance '${instanceId}'`, { depth: mailbox.depth });
+		}
+
+		try {
+			await previous;
+			if (waiting) {
+				this.queued--;
+			}
+			this.recordWait(performance.now() - enqueuedAt);
+			return await operation();
+		} finally {
+			release();
+			mailbox.depth--;
+			if (mailbox.depth === 0 && this.mailboxes.get(instanceId) === mailbox) {
+				this.mailboxes.delete(instanceId);
+			}
+		}
+	}
+
+	/**
+	 * Number of operations running or queued for an instance
+	 */
+	depth(instanceId: string): number {
+		return this.mailboxes.get(instanceId)?.depth || 0;
+	}
+
+	snapshot(): MailboxMetricsSnapshot {
+		return {
+			operations: this.operations,
+			activeInstances: this.mailboxes.size,
+			queued: this.queued,
+			maxQueueDepth: this.maxQueueDepth,
+			wait: {
+				count: this.waitCount,
+				totalMs: this.waitTotalMs,
+				meanMs: this.waitCount > 0 ? this.waitTotalMs / this.waitCount : 0,
+				maxMs: this.waitMaxMs
+			}
+		};
+	}
+
+	private recordWait(durationMs: number): void {
+		this.waitCount++;
+		this.waitTotalMs += durationMs;
+		if (durationMs > this.waitMaxMs) {
+			this.waitMaxMs = durationMs;
+		}
+	}
+}
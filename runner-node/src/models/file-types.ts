@@ -71,8 +71,10 @@ export interface FileUploadRequest {
 	filename: string;
 	/** MIME type */
 	mimeType: string;
-	/** File content */
-	content: Buffer;
+	/** File content, or a stream of chunks that is read once */
+	content: Buffer | AsyncIterable<Uint8Array>;
+	/** Reject content larger than this many bytes */
+	maxBytes?: number;
 	/** Optional description */
 	description?: string;
 	/** Optional tags */
@@ -6,6 +6,7 @@ import {
 	BranchActivity,
 	ComputeActivity,
 	HumanActivity,
+	ParallelActivity,
 	SequenceActivity,
 	SwitchActivity,
 	Variable
@@ -110,6 +111,28 @@ export interface HumanActivityInstance extends ActivityInstance, HumanActivity {
 export interface APIActivityInstance extends ActivityInstance, APIActivity {
 	type: ActivityType.API;
 	responseData?: any; // API response data
+	retryAttempt?: number; // Attempts that failed and are being retried
+	nextRetryAt?: Date; // When the next attempt is scheduled
+	rateLimitReserved?: boolean; // The next attempt waits for a rate limiter token already reserved for it
+	forEachProgress?: ForEachProgress; // Per-item state of a forEach activity while it runs
+}
+
+/**
+ * Progress of a forEach API activity, persisted so a resumed run only sends
+ * the requests that have not finished
+ */
+export interface ForEachProgress {
+	items: any[]; // The collection, as evaluated when the activity started
+	states: ForEachItemState[]; // One per item
+}
+
+export interface ForEachItemState {
+	status: 'pending' | 'completed' | 'failed';
+	attempts: number; // Failed attempts so far
+	retryAt?: Date; // When a pending item is retried
+	rateLimitReserved?: boolean; // The retry waits for a rate limiter token already reserved for it
+	data?: any; // Response data of a completed item
+	error?: string; // Last error
 }
 
 /**
@@ -121,6 +144,8 @@ export interface ComputeActivityInstance
 	type: ActivityType.Compute;
 	// Results produced by the compute activity (keyed values)
 	computedValues?: { [key: string]: any };
+	// Digest of the code and the values it read on its last successful run
+	inputDigest?: string;
 }
 
 /**
@@ -135,6 +160,20 @@ export interface SequenceActivityInstance
 }
 
 
+/**
+ * Runtime instance of a parallel activity with join state
+ */
+export interface ParallelActivityInstance
+	extends ActivityInstance,
+		ParallelActivity {
+	type: ActivityType.Parallel;
+	parallelState?: 'running' | 'joined' | 'failed';
+	requiredCompletions?: number;
+	activeActivities?: string[]; // Children not yet finished
+	completedActivities?: string[];
+	failedActivities?: string[];
+}
+
 /**
  * Runtime instance of a branch activity with execution result
  */
@@ -50,6 +50,7 @@ export enum ActivityType {
 	Sequence = "sequence",
 	Branch = "branch",
 	Switch = "switch",
+	Parallel = "parallel",
 	Terminate = "terminate"
 }
 
@@ -71,6 +72,43 @@ export interface APIActivity extends Activity {
 	retries?: number; // Number of retries on failure, defaults to 0
 	expectedStatus?: number[]; // Expected HTTP status codes, defaults to [200]
 	code?: string[]; // Optional code to process the response
+	cache?: APICachePolicy; // Opt-in response cache, GET only
+	coalesce?: boolean; // Share identical concurrent GET/PUT/DELETE requests, defaults to true
+	rateLimit?: string; // Named rate limiter to pace requests with, instead of the one of the host
+	responseMode?: 'inline' | 'file'; // 'file' streams the body into the file repository, defaults to 'inline'
+	responseFile?: APIResponseFile; // Settings of responseMode 'file'
+	extract?: { [name: string]: string }; // Keep only these selections of the body, e.g. { "id": "$.items[0].id" }
+	keepHeaders?: string[]; // Response headers kept in responseData; none when extract is set, all otherwise
+	forEach?: APIForEach; // Send the request once per item of a collection
+}
+
+/**
+ * Fan-out of an API activity over a collection
+ */
+export interface APIForEach {
+	items: string; // Expression for the collection, e.g. "v:serials"
+	as?: string; // Activity variable holding the current item in templates, defaults to 'item'
+	concurrency?: number; // Requests in flight at once, defaults to 5
+	resultVariable?: string; // Activity variable collecting the response data per item, defaults to 'results'
+	failOnError?: boolean; // Fail the activity when any item failed, defaults to false
+	checkpointEvery?: number; // Settled items between progress writes, defaults to 10
+}
+
+/**
+ * Where a response body streamed into the file repository ends up
+ */
+export interface APIResponseFile {
+	variable?: string; // Activity variable holding the FileReference, defaults to 'file'
+	filename?: string; // Template for the file name, defaults to Content-Disposition or the last URL segment
+	maxBytes?: number; // Bodies larger than this fail the activity
+}
+
+/**
+ * Response caching of a GET API activity, shared across instances
+ */
+export interface APICachePolicy {
+	ttlSeconds: number; // Freshness lifetime, capped by the response's Cache-Control max-age
+	vary?: string[]; // Request headers whose values are part of the cache key (Authorization always is)
 }
 
 
@@ -94,6 +132,22 @@ export interface SequenceActivity extends Activity {
 }
 
 
+/**
+ * Join rule for a parallel activity
+ * - all    : every child must complete (default)
+ * - any    : the first completed child completes the parallel
+ * - n-of-m : requiredCount children must complete
+ */
+export type ParallelJoin = 'all' | 'any' | 'n-of-m';
+
+export interface ParallelActivity extends Activity {
+	type: ActivityType.Parallel;
+	activities: string[];
+	join?: ParallelJoin;
+	requiredCount?: number; // Only for join 'n-of-m'
+}
+
+
 export interface BranchActivity extends Activity {
 	type: ActivityType.Branch;
 	condition: string;
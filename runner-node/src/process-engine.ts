@@ -1,4 +1,5 @@
 import { v4 as uuidv4 } from 'uuid';
+import { performance } from 'perf_hooks';
 import {
 	ProcessDefinition,
 	ProcessTemplateFlyweight,
@@ -12,34 +13,91 @@ import {
 	SequenceActivity,
 	BranchActivity,
 	SwitchActivity,
+	ParallelActivity,
 	TerminateActivity,
 
 	Variable
 } from './models/process-types';
-import { ExpressionEvaluator } from './expression-evaluator';
+import { ExpressionEvaluator, ExpressionCacheStats, responseContext } from './expression-evaluator';
+import { dependsOnlyOnReads, readSetDigest } from './expression-dependencies';
 import { APIExecutor } from './api-executor';
 import { FieldValidator } from './field-validator';
 import { RepositoryFactory } from './repositories/repository-factory';
 import { ProcessDefinitionRepository } from './repositories/process-definition-repository';
-import { ProcessInstanceRepository } from './repositories/process-instance-repository';
+import { InstanceQuery, ProcessInstanceRepository } from './repositories/process-instance-repository';
+import { Page, PageRequest } from './repositories/pagination';
+import { InstanceStatisticsSnapshot } from './repositories/instance-statistics';
 import { logger } from './logger';
 import ProcessLoader from './process-loader';
 import {
 	ActivityInstance, APIActivityInstance, BranchActivityInstance, ProcessExecutionResult,
 	FieldValue, ComputeActivityInstance, HumanActivityInstance, HumanTaskData,
 	ProcessInstance, ProcessInstanceFlyweight, SequenceActivityInstance,
-	SwitchActivityInstance, AggregatePassFail,
+	SwitchActivityInstance, ParallelActivityInstance, AggregatePassFail,
 	ProcessStatus,
 	ActivityStatus,
 	PassFail
 } from './models/instance-types';
 import { ExecutionContext, ExecutionFrame } from './execution-context';
-import { extractActivityId } from './utils/activity-ref';
+import { ProcessGraph, CompiledActivity } from './process-graph';
+import { StepMetrics, StepMetricsSnapshot } from './step-metrics';
+import { InstanceUnitOfWork, CheckpointPolicy } from './unit-of-work';
+import { InstanceMailbox, MailboxMetricsSnapshot } from './instance-mailbox';
+import { SandboxPool, SandboxPoolOptions, SandboxPoolMetrics } from './sandbox-pool';
+import { HttpAgentPool, HttpAgentPoolOptions, HttpAgentPoolStats } from './http-agent-pool';
+import { ResponseCache, ResponseCacheOptions, ResponseCacheStats, APIResponse } from './response-cache';
+import { RequestCoalescer, CoalescerStats } from './request-coalescer';
+import { ApiResilience, ApiResilienceOptions, ApiResilienceStats } from './api-resilience';
+import { RateLimitedError, RateLimiter, RateLimiterOptions, RateLimiterStats } from './rate-limiter';
+import { substituteStringTemplate } from './utils/substitution';
+import { project } from './utils/json-projection';
 import { updateActivityVariables } from './utils/variable-updater';
 import { FileService } from './services/file-service';
 import { FieldType } from './models/common-types';
 
 
+/**
+ * Tuning options for the ProcessEngine
+ */
+export interface ProcessEngineOptions {
+	// Maximum activities a single run may execute before yielding (default 10000)
+	maxStepsPerRun?: number;
+	// When running instances are written back to the repository (default 'wait-state')
+	checkpointPolicy?: CheckpointPolicy;
+	// Run compute and post-API code in a worker thread pool (default: inline)
+	sandbox?: SandboxPoolOptions;
+	// Keep-alive connection settings of API activities, per host
+	http?: HttpAgentPoolOptions;
+	// Size of the response cache used by API activities with a cache policy
+	responseCache?: ResponseCacheOptions;
+	// Retry backoff, retry budget and circuit breaker settings of API activities
+	resilience?: ApiResilienceOptions;
+	// Token bucket limits of API requests, per host or named
+	rateLimits?: RateLimiterOptions;
+}
+
+const DEFAULT_MAX_STEPS_PER_RUN = 10000;
+const DEFAULT_FOR_EACH_CONCURRENCY = 5;
+const DEFAULT_FOR_EACH_CHECKPOINT = 10;
+
+/**
+ * Runtime metrics reported by the ProcessEngine
+ */
+export interface EngineMetrics {
+	steps: StepMetricsSnapshot;
+	mailbox: MailboxMetricsSnapshot;
+	expressions: ExpressionCacheStats;
+	// Only present when the sandbox is enabled
+	sandbox?: SandboxPoolMetrics;
+	http: HttpAgentPoolStats;
+	responseCache: ResponseCacheStats;
+	coalescing: CoalescerStats;
+	resilience: ApiResilienceStats & {
+		// Instances with an API retry scheduled
+		pendingRetries: number;
+	};
+	rateLimits: RateLimiterStats;
+}
 
 
 /**
@@ -52,13 +110,33 @@ export class ProcessEngine {
 	private apiExecutor: APIExecutor;
 	private fileService: FileService;
 	private continuationStrategies: Map<ActivityType, ActivityContinuationStrategy>;
-
-	constructor() {
+	private maxStepsPerRun: number;
+	private checkpointPolicy: CheckpointPolicy;
+	private stepMetrics = new StepMetrics();
+	// Serializes mutating operations per instance
+	private mailbox = new InstanceMailbox();
+	private sandbox?: SandboxPool;
+	private httpAgents: HttpAgentPool;
+	private responseCache: ResponseCache;
+	private requestCoalescer = new RequestCoalescer();
+	private resilience: ApiResilience;
+	private rateLimiter: RateLimiter;
+	// Deferred API retries: instance ID -> timer that executes its next step
+	private retryTimers = new Map<string, { timer: NodeJS.Timeout; dueAt: number }>();
+
+	constructor(options: ProcessEngineOptions = {}) {
+		this.maxStepsPerRun = options.maxStepsPerRun ?? DEFAULT_MAX_STEPS_PER_RUN;
+		this.checkpointPolicy = options.checkpointPolicy ?? 'wait-state';
 
 		this.processDefinitionRepo = RepositoryFactory.getProcessDefinitionRepository();
 		this.processInstanceRepo = RepositoryFactory.getProcessInstanceRepository();
-		this.expressionEvaluator = new ExpressionEvaluator();
-		this.apiExecutor = new APIExecutor();
+		this.sandbox = options.sandbox ? new SandboxPool(options.sandbox) : undefined;
+		this.expressionEvaluator = new ExpressionEvaluator(this.sandbox);
+		this.httpAgents = new HttpAgentPool(options.http);
+		this.responseCache = new ResponseCache(options.responseCache);
+		this.resilience = new ApiResilience(options.resilience);
+		this.rateLimiter = new RateLimiter(options.rateLimits);
+		this.apiExecutor = new APIExecutor(this.httpAgents, this.responseCache, this.requestCoalescer, this.resilience, this.rateLimiter);
 		this.fileService = new FileService();
 
 		// Initialize continuation strategies
@@ -66,6 +144,7 @@ export class ProcessEngine {
 		this.continuationStrategies.set(ActivityType.Sequence, new SequenceContinuationStrategy());
 		this.continuationStrategies.set(ActivityType.Switch, new SwitchContinuationStrategy());
 		this.continuationStrategies.set(ActivityType.Branch, new BranchContinuationStrategy());
+		this.continuationStrategies.set(ActivityType.Parallel, new ParallelContinuationStrategy());
 
 		// Default strategy for all other types
 		const defaultStrategy = new DefaultContinuationStrategy();
@@ -87,6 +166,13 @@ export class ProcessEngine {
 		return await this.processDefinitionRepo.listAvailableTemplates();
 	}
 
+	/**
+	 * Get one page of the process templates, ordered by process ID
+	 */
+	async getProcessesPage(page: PageRequest): Promise<Page<ProcessTemplateFlyweight>> {
+		return await this.processDefinitionRepo.listTemplatesPage(page);
+	}
+
 	/**
 	 * Get a specific process definition
 	 * @param processId 
@@ -144,21 +230,20 @@ export class ProcessEngine {
 
 		const instanceId = uuidv4();
 
-		let startActivityId: string;
-		try {
-			startActivityId = extractActivityId(processDefinition.start);
-			logger.info(`ProcessEngine: Extracted start activity ID '${startActivityId}' from '${processDefinition.start}'`);
-		} catch (error) {
-			logger.error(`ProcessEngine: Failed to extract start activity ID from '${processDefinition.start}'`, error);
+		// Compile (or fetch the cached) graph for this definition version
+		const graph = ProcessLoader.compile(processDefinition);
+		if (!graph.startActivityId) {
+			logger.error(`ProcessEngine: Failed to extract start activity ID from '${processDefinition.start}'`);
 			return {
 				instanceId: '',
 				status: ProcessStatus.Failed,
 				message: `Invalid start activity reference: ${processDefinition.start}`
 			};
 		}
+		logger.info(`ProcessEngine: Resolved start activity ID '${graph.startActivityId}' from '${processDefinition.start}'`);
 
 		// initialize an execution context with the start activity
-		let executionContext = this.initExecutionContextAtStart(processDefinition);
+		let executionContext = this.initExecutionContextAtStart(graph);
 
 		// materialize a new run instance from the process def
 		const instance: ProcessInstance = {
@@ -178,24 +263,37 @@ export class ProcessEngine {
 			executionContext
 		});
 
-		await this.processInstanceRepo.save(instance);
+		// The new instance is written when its first run reaches a wait state
+		const unit = new InstanceUnitOfWork(this.processInstanceRepo, instance, graph, this.checkpointPolicy, true);
+		return await this.mailbox.run(instanceId, () => this.runToWait(unit, { type: 'execute' }));
+	}
 
-		return await this.executeNextStep(instanceId);
+
+	/**
+	 * Load an instance and its compiled definition once for a run
+	 * @param instanceId The Instance ID
+	 * @returns the unit of work the run mutates
+	 */
+	private async beginUnitOfWork(instanceId: string): Promise<InstanceUnitOfWork> {
+		const instance = await this.processInstanceRepo.findById(instanceId);
+		const processDefinition = await this.processDefinitionRepo.findById(instance.processId);
+		const graph = processDefinition ? ProcessLoader.compile(processDefinition) : undefined;
+		return new InstanceUnitOfWork(this.processInstanceRepo, instance, graph, this.checkpointPolicy);
 	}
 
 
 	/**
 	 * Create a new execution context starting at the Start activity
-	 * @param startActivityId 
+	 * @param graph The compiled process graph
 	 * @returns 
 	 */
-	private initExecutionContextAtStart(processDefinition: ProcessDefinition): ExecutionContext {
+	private initExecutionContextAtStart(graph: ProcessGraph): ExecutionContext {
 		let executionContext = new ExecutionContext();
 
 		// determine the start activity ID
-		const startActivityId = extractActivityId(processDefinition.start);
+		const startActivityId = graph.startActivityId;
 		if (!startActivityId) {
-			throw new Error(`Invalid start activity reference: ${processDefinition.start}`);
+			throw new Error(`Invalid start activity reference: ${graph.definition.start}`);
 		}
 
 		// Push the start activity as the root frame (no parent)
@@ -207,14 +305,97 @@ export class ProcessEngine {
 
 
 	/**
-	 * Execute the next step in a process instance
+	 * Execute the next step in a process instance. The instance is advanced
+	 * until it waits for input, finishes, fails or uses up the step budget
 	 * @param instanceId 
 	 * @returns ProcessExecutionResult
 	 */
 	async executeNextStep(instanceId: string): Promise<ProcessExecutionResult> {
+		return await this.mailbox.run(instanceId, () => this.doExecuteNextStep(instanceId));
+	}
+
+	private async doExecuteNextStep(instanceId: string): Promise<ProcessExecutionResult> {
 		logger.info(`ProcessEngine: Executing next step for instance '${instanceId}'`);
+		const unit = await this.beginUnitOfWork(instanceId);
+		return await this.runToWait(unit, { type: 'execute' });
+	}
 
-		const instance = await this.processInstanceRepo.findById(instanceId);
+	/**
+	 * The step driver. Activity handlers never call into the next activity
+	 * themselves - they return a StepTransition and this loop advances the
+	 * ExecutionContext until a handler yields (human task, terminate, failure)
+	 * or maxStepsPerRun activities have executed. The async stack stays flat
+	 * however many compute/branch activities are chained.
+	 * All steps mutate the unit of work; it is committed when the run stops
+	 * (and after each step under the 'every-step' checkpoint policy).
+	 * @param unit The unit of work for the instance
+	 * @param start The first transition to apply
+	 * @returns ProcessExecutionResult
+	 */
+	private async runToWait(unit: InstanceUnitOfWork, start: StepTransition): Promise<ProcessExecutionResult> {
+		let transition = start;
+		let executed = 0;
+		this.stepMetrics.recordRun();
+
+		try {
+			for (;;) {
+				if (transition.type === 'yield') {
+					return transition.result;
+				}
+
+				if (transition.type === 'execute') {
+					if (executed >= this.maxStepsPerRun) {
+						return this.yieldOnStepBudget(unit);
+					}
+					executed++;
+				}
+
+				const stepType = transition.type;
+				const stepStarted = performance.now();
+				transition = transition.type === 'execute'
+					? await this.executeCurrentActivity(unit)
+					: await this.checkForProcessCompletion(unit, transition.activityId);
+				// A failure inside a parallel child settles that child instead of the process
+				while (transition.type === 'yield' && transition.result.status === ProcessStatus.Failed) {
+					const joined = await this.failParallelChild(unit, transition.result);
+					if (!joined) {
+						break;
+					}
+					transition = joined;
+				}
+				await unit.checkpoint();
+				this.stepMetrics.record(stepType, performance.now() - stepStarted);
+			}
+		} finally {
+			await unit.commit();
+		}
+	}
+
+	/**
+	 * Stop a run that used up its step budget. The instance stays Running with
+	 * the next activity on top of the call stack so a later step resumes it
+	 */
+	private yieldOnStepBudget(unit: InstanceUnitOfWork): ProcessExecutionResult {
+		const { instance, instanceId } = unit;
+		this.stepMetrics.recordBudgetExhausted();
+		logger.warn(`ProcessEngine: Step budget of ${this.maxStepsPerRun} exhausted for instance '${instanceId}'`, {
+			currentActivity: instance.executionContext.currentActivity
+		});
+		return {
+			instanceId,
+			status: instance.status,
+			currentActivity: instance.executionContext.currentActivity,
+			message: `Step budget of ${this.maxStepsPerRun} activities exhausted - execute the next step to continue`
+		};
+	}
+
+	/**
+	 * Execute the activity on top of the call stack
+	 * @param instanceId 
+	 * @returns The transition for the step driver
+	 */
+	private async executeCurrentActivity(unit: InstanceUnitOfWork): Promise<StepTransition> {
+		const { instance, instanceId, graph } = unit;
 
 		const executionContext = instance.executionContext;
 
@@ -226,48 +407,47 @@ export class ProcessEngine {
 
 		if (instance.status !== ProcessStatus.Running) {
 			logger.warn(`ProcessEngine: Instance '${instanceId}' is not running (status: ${instance.status})`);
-			return {
+			return yieldResult({
 				instanceId,
 				status: instance.status,
 				message: `Process is ${instance.status}`
-			};
+			});
 		}
 
 		if (!executionContext.currentActivity) {
 			logger.warn(`ProcessEngine: Instance '${instanceId}' has no current activity, completing process`);
-			return await this.completeProcess(instanceId, 'No current activity');
+			return yieldResult(await this.completeProcess(unit, 'No current activity'));
 		}
 
-		const processDefinition = await this.processDefinitionRepo.findById(instance.processId);
-		if (!processDefinition) {
+		if (!graph) {
 			logger.error(`ProcessEngine: Process definition '${instance.processId}' not found for instance '${instanceId}'`);
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: 'Process definition not found'
-			};
+			});
 		}
 
-		const activity = processDefinition.activities[executionContext.currentActivity];
+		const activity = graph.activity(executionContext.currentActivity)?.definition;
 		if (!activity) {
 			logger.error(`ProcessEngine: Activity '${executionContext.currentActivity}' not found in process '${instance.processId}'`);
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: `Activity '${executionContext.currentActivity}' not found`
-			};
+			});
 		}
 
 		logger.info(`ProcessEngine: Executing activity '${executionContext.currentActivity}' of type '${activity.type}'`);
 		try {
-			return await this.executeActivity(instanceId, activity);
+			return await this.executeActivity(unit, activity, graph);
 		} catch (error) {
 			logger.error(`ProcessEngine: Error executing activity '${executionContext.currentActivity}' for instance '${instanceId}'`, error);
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: `Error executing activity: ${error instanceof Error ? error.message : String(error)}`
-			};
+			});
 		}
 	}
 
@@ -282,12 +462,19 @@ export class ProcessEngine {
 	 */
 	// Submit data for a human task
 	async submitHumanTask(instanceId: string, activityId: string, data: any, files?: any[]): Promise<ProcessExecutionResult> {
+		return await this.mailbox.run(instanceId, () => this.doSubmitHumanTask(instanceId, activityId, data, files));
+	}
+
+	private async doSubmitHumanTask(instanceId: string, activityId: string, data: any, files?: any[]): Promise<ProcessExecutionResult> {
 		logger.info(`ProcessEngine: Submitting human task for instance '${instanceId}', activity '${activityId}'`, {
 			dataKeys: Object.keys(data || {}),
 			hasFiles: !!(files && files.length > 0)
 		});
 
-		const instance = await this.processInstanceRepo.findById(instanceId);
+		// Load the instance and definition once for the submit and the run that follows
+		const unit = await this.beginUnitOfWork(instanceId);
+		const instance = unit.instance;
+		const processDefinition = unit.graph?.definition;
 
 		const activityInstance = instance.activities[activityId] as HumanActivityInstance;
 		if (!activityInstance || activityInstance.status !== ActivityStatus.Running) {
@@ -308,8 +495,7 @@ export class ProcessEngine {
 			activityInstance.variables = [];
 		}
 
-		// Get the process definition to access field definitions for validation
-		const processDefinition = await this.processDefinitionRepo.findById(instance.processId);
+		// Use the process definition to access field definitions for validation
 		if (processDefinition) {
 			const activityDef = processDefinition.activities[activityId];
 			if (activityDef && activityDef.type === ActivityType.Human) {
@@ -341,8 +527,7 @@ export class ProcessEngine {
 
 			try {
 				// Get the activity definition to check which fields are file types
-				const processDef = await this.processDefinitionRepo.findById(instance.processId);
-				const activityDef = processDef?.activities[activityId];
+				const activityDef = processDefinition?.activities[activityId];
 
 				if (activityDef && activityDef.type === 'human') {
 					const humanActivityDef = activityDef as any; // HumanActivity type
@@ -400,13 +585,12 @@ export class ProcessEngine {
 		activityInstance.status = ActivityStatus.Completed;
 		activityInstance.completedAt = new Date();
 
-		// Save the updated instance
-		await this.processInstanceRepo.save(instance);
+		unit.markDirty();
 
 		logger.info(`ProcessEngine: Human Activity '${activityId}' completed, continuing execution for instance '${instanceId}'`);
 
-		// Check for process completion and continue execution through call stack
-		return await this.checkForProcessCompletion(instanceId, activityId);
+		// Pop the human task frame and continue execution through call stack
+		return await this.runToWait(unit, { type: 'complete', activityId });
 	}
 
 	/**
@@ -414,29 +598,28 @@ export class ProcessEngine {
 	 * instanceId - the ID of the running instance
 	 * activity - the Activity
 	 */
-	private async executeActivity(instanceId: string, activity: Activity): Promise<ProcessExecutionResult> {
+	private async executeActivity(unit: InstanceUnitOfWork, activity: Activity, graph: ProcessGraph): Promise<StepTransition> {
+		const { instance, instanceId } = unit;
 		logger.info(`ProcessEngine: Executing activity '${activity.id}' of type '${activity.type}' for instance '${instanceId}'`);
 
 		// do some sanity checks on the activity and instance
 		if (!activity.id) {
 			logger.error(`ProcessEngine: Activity missing ID during execution`, activity);
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: 'Activity missing ID'
-			};
+			});
 		}
 
-		const instance = await this.processInstanceRepo.findById(instanceId);
-
 		const activityInstance = instance.activities[activity.id];
 		if (!activityInstance) {
 			logger.error(`ProcessEngine: Activity instance '${activity.id}' not found in instance '${instanceId}'`);
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: `Activity instance '${activity.id}' not found`
-			};
+			});
 		}
 
 		// Check if activity is already completed - if so, continue to completion check
@@ -447,7 +630,7 @@ export class ProcessEngine {
 
 			if (!isContainerActivity) {
 				logger.info(`ProcessEngine: Activity '${activity.id}' already completed, skipping execution`);
-				return await this.checkForProcessCompletion(instanceId, activity.id);
+				return { type: 'complete', activityId: activity.id };
 			} else {
 				logger.info(`ProcessEngine: Container activity '${activity.id}' was completed but allowing re-execution for call stack management`);
 				// Allow container activities to re-execute to build proper call stack
@@ -460,40 +643,45 @@ export class ProcessEngine {
 		logger.debug(`ProcessEngine: Marked activity '${activity.id}' as running`);
 
 		try {
-			let result: ProcessExecutionResult;
+			let result: StepTransition;
 
 			switch (activity.type) {
 				case ActivityType.Human:
 					logger.info(`ProcessEngine: Executing human activity '${activity.id}'`);
-					result = await this.executeHumanActivity(instanceId, activity as HumanActivity);
+					result = await this.executeHumanActivity(unit, activity as HumanActivity);
 					break; case ActivityType.Compute:
 					logger.info(`ProcessEngine: Executing compute activity '${activity.id}'`);
-					result = await this.executeComputeActivity(instanceId, activity as ComputeActivity);
+					result = await this.executeComputeActivity(unit, activity as ComputeActivity);
 					break;
 
 				case ActivityType.API:
 					logger.info(`ProcessEngine: Executing API activity '${activity.id}'`);
-					result = await this.executeAPIActivity(instanceId, activity as APIActivity);
+					result = await this.executeAPIActivity(unit, activity as APIActivity);
 					break;
 
 				case ActivityType.Sequence:
 					logger.info(`ProcessEngine: Executing sequence activity '${activity.id}'`);
-					result = await this.executeSequenceActivity(instanceId, activity as SequenceActivity);
+					result = await this.executeSequenceActivity(unit, activity as SequenceActivity, graph);
 					break;
 
 				case ActivityType.Branch:
 					logger.info(`ProcessEngine: Executing branch activity '${activity.id}'`);
-					result = await this.executeBranchActivity(instanceId, activity as BranchActivity);
+					result = await this.executeBranchActivity(unit, activity as BranchActivity, graph);
 					break;
 
 				case ActivityType.Switch:
 					logger.info(`ProcessEngine: Executing switch activity '${activity.id}'`);
-					result = await this.executeSwitchActivity(instanceId, activity as SwitchActivity);
+					result = await this.executeSwitchActivity(unit, activity as SwitchActivity, graph);
+					break;
+
+				case ActivityType.Parallel:
+					logger.info(`ProcessEngine: Executing parallel activity '${activity.id}'`);
+					result = await this.executeParallelActivity(unit, activity as ParallelActivity, graph);
 					break;
 
 				case ActivityType.Terminate:
 					logger.info(`ProcessEngine: Executing terminate activity '${activity.id}'`);
-					result = await this.executeTerminateActivity(instanceId, activity as TerminateActivity);
+					result = await this.executeTerminateActivity(unit, activity as TerminateActivity);
 					break;
 
 				default:
@@ -501,10 +689,7 @@ export class ProcessEngine {
 					throw new Error(`Unknown activity type: ${activity.type}`);
 			}
 
-			// Save the updated instance after activity execution
-			const updatedInstance = await this.processInstanceRepo.findById(instanceId);
-			await this.processInstanceRepo.save(updatedInstance);
-			logger.debug(`ProcessEngine: Saved updated instance '${instanceId}' after activity execution`);
+			unit.markDirty();
 			return result;
 		} catch (error) {
 			logger.error(`ProcessEngine: Activity '${activity.id}' execution failed`, error);
@@ -512,28 +697,28 @@ export class ProcessEngine {
 			activityInstance.status = ActivityStatus.Failed;
 			activityInstance.error = error instanceof Error ? error.message : String(error);
 
-			// Save the failed state
-			await this.processInstanceRepo.save(instance);
+			// Record the failed state
+			unit.markDirty();
 
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: `Activity '${activity.id}' failed: ${activityInstance.error}`
-			};
+			});
 		}
 	}
 
-	private async executeHumanActivity(instanceId: string, activity: HumanActivity): Promise<ProcessExecutionResult> {
+	private async executeHumanActivity(unit: InstanceUnitOfWork, activity: HumanActivity): Promise<StepTransition> {
 		// Human activities wait for external input
-		const instance = await this.processInstanceRepo.findById(instanceId);
+		const { instance, instanceId } = unit;
 
 		if (!activity.id) {
 			logger.error('ProcessEngine: Human activity missing ID');
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: 'Activity missing ID'
-			};
+			});
 		}
 
 		const activityInstance = instance.activities[activity.id!] as HumanActivityInstance;
@@ -569,7 +754,7 @@ export class ProcessEngine {
 			delete (activityInstance as any).inputs;
 		}
 
-		await this.processInstanceRepo.save(instance);
+		unit.markDirty();
 
 		logger.debug(`ProcessEngine: Executing human activity '${activity.id}'`, {
 			variablesCount: activityInstance.variables.length,
@@ -599,32 +784,47 @@ export class ProcessEngine {
 			fields: fieldsForUI
 		};
 
-		return {
+		return yieldResult({
 			instanceId,
 			status: ProcessStatus.Running,
 			currentActivity: activity.id,
 			humanTask: humanTaskData,
 			message: 'Waiting for human input'
-		};
+		});
 	}
 
-	private async executeComputeActivity(instanceId: string, activity: ComputeActivity): Promise<ProcessExecutionResult> {
-		const instance = await this.processInstanceRepo.findById(instanceId);
+	private async executeComputeActivity(unit: InstanceUnitOfWork, activity: ComputeActivity): Promise<StepTransition> {
+		const { instance, instanceId } = unit;
 
 		if (!activity.id) {
 			logger.error('ProcessEngine: Compute activity missing ID');
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: 'Activity missing ID'
-			};
+			});
 		}
 
 		const activityInstance = instance.activities[activity.id] as ComputeActivityInstance;
 
+		// Code whose result follows from its read set runs again (e.g. after a
+		// restart) only when the values it reads have changed
+		const dependencies = unit.graph?.dependenciesOf(activity.id);
+		const inputDigest = dependencies && dependsOnlyOnReads(dependencies)
+			? readSetDigest(dependencies, activity.code, instance, activity.id)
+			: undefined;
+		if (inputDigest !== undefined && activityInstance.inputDigest === inputDigest) {
+			logger.debug(`ProcessEngine: Inputs of compute activity '${activity.id}' unchanged, keeping its previous result`);
+			activityInstance.status = ActivityStatus.Completed;
+			activityInstance.completedAt = new Date();
+			unit.markDirty();
+			return { type: 'complete', activityId: activity.id! };
+		}
+		activityInstance.inputDigest = undefined;
+
 		try {
 			// Execute JavaScript code
-			const result = this.expressionEvaluator.executeCode(activity.code, instance, activity.id);
+			const result = await this.expressionEvaluator.executeCodeAsync(activity.code, instance, activity.id);
 
 			// Store results in the activity's variables array
 			if (result) {
@@ -653,117 +853,408 @@ export class ProcessEngine {
 			// Complete the activity
 			activityInstance.status = ActivityStatus.Completed;
 			activityInstance.completedAt = new Date();
+			activityInstance.inputDigest = inputDigest;
 
-			await this.processInstanceRepo.save(instance);
+			unit.markDirty();
 
 			// Check for process completion and continue execution through call stack
-			return await this.checkForProcessCompletion(instanceId, activity.id!);
+			return { type: 'complete', activityId: activity.id! };
 		} catch (error) {
 			activityInstance.status = ActivityStatus.Failed;
 			activityInstance.error = error instanceof Error ? error.message : String(error);
 
-			await this.processInstanceRepo.save(instance);
-			return {
+			unit.markDirty();
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: `Compute activity failed: ${activityInstance.error}`
-			};
+			});
 		}
 	}
 
-	private async executeAPIActivity(instanceId: string, activity: APIActivity): Promise<ProcessExecutionResult> {
-		const instance = await this.processInstanceRepo.findById(instanceId);
+	private async executeAPIActivity(unit: InstanceUnitOfWork, activity: APIActivity, signal?: AbortSignal): Promise<StepTransition> {
+		const { instance, instanceId } = unit;
 
 		if (!activity.id) {
 			logger.error('ProcessEngine: API activity missing ID');
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: 'Activity missing ID'
-			};
+			});
 		}
 
 		const activityInstance = instance.activities[activity.id] as APIActivityInstance;
 
-		try {
-			const response = await this.apiExecutor.execute(activity, instance);
-
-			// Store response data in the activity instance
-			activityInstance.responseData = response;
+		// A step that runs before the scheduled retry (e.g. an explicit next-step call) keeps waiting
+		const retryAt = activityInstance.nextRetryAt ? new Date(activityInstance.nextRetryAt).getTime() : 0;
+		if (retryAt > Date.now()) {
+			this.scheduleRetry(instanceId, retryAt - Date.now());
+			return this.yieldForRetry(unit, activity.id, retryAt - Date.now());
+		}
+		const attempt = activityInstance.retryAttempt ?? 0;
 
+		try {
 			// Initialize variables array if it doesn't exist
 			if (!activityInstance.variables) {
 				activityInstance.variables = [];
 			}
 
+			let response: APIResponse;
+			if (activity.forEach) {
+				const fanOut = await this.runForEach(unit, activity, activityInstance, signal);
+				if (fanOut.retryAt !== undefined) {
+					// Some items wait for a retry - the settled ones are kept in forEachProgress
+					const delay = Math.max(0, fanOut.retryAt - Date.now());
+					activityInstance.nextRetryAt = new Date(fanOut.retryAt);
+					unit.markDirty();
+					this.scheduleRetry(instanceId, delay);
+					return this.yieldForRetry(unit, activity.id, delay);
+				}
+				response = fanOut.response!;
+			} else {
+				response = await this.apiExecutor.execute(activity, instance, signal, attempt, !!activityInstance.rateLimitReserved);
+				if (activity.responseMode === 'file') {
+					response = await this.storeResponseFile(unit, activity, activityInstance, response);
+				}
+				// Drop what the definition does not ask for before the response is kept (and seen by code)
+				response = projectResponse(activity, response);
+			}
+			activityInstance.retryAttempt = undefined;
+			activityInstance.nextRetryAt = undefined;
+			activityInstance.rateLimitReserved = undefined;
+			activityInstance.error = undefined;
+
+			// Store response data in the activity instance
+			activityInstance.responseData = response;
+
 			// Execute optional code section if present
 			if (activity.code && Array.isArray(activity.code) && activity.code.length > 0) {
 				logger.info(`ProcessEngine: Executing post-API code for activity '${activity.id}'`);
 
-				// Temporarily store response in a global context for the code execution
-				// This allows the code to access the response via 'response' variable
-				const originalGlobal = (global as any).response;
-				(global as any).response = response;
-
-				try {
-					const result = this.expressionEvaluator.executeCode(activity.code, instance, activity.id);
-
-					// Store code execution results in activity variables
-					if (result && typeof result === 'object') {
-						Object.keys(result).forEach(key => {
-							let variable = activityInstance.variables!.find(v => v.name === key);
-							if (variable) {
-								variable.value = result[key];
-							} else {
-								// Create new variable
-								variable = {
-									name: key,
-									type: typeof result[key] === 'boolean' ? FieldType.Boolean :
-										typeof result[key] === 'number' ? FieldType.Number : FieldType.Text,
-									value: result[key]
-								};
-								activityInstance.variables!.push(variable);
-							}
-						});
-					}
-				} finally {
-					// Clean up the global response
-					if (originalGlobal !== undefined) {
-						(global as any).response = originalGlobal;
-					} else {
-						delete (global as any).response;
-					}
+				// The response, status and headers are parameters of this evaluation only,
+				// so post-API code of concurrent activities never sees another response
+				const result = await this.expressionEvaluator.executeCodeAsync(activity.code, instance, activity.id, responseContext(response));
+
+				// Store code execution results in activity variables
+				if (result && typeof result === 'object') {
+					Object.keys(result).forEach(key => {
+						let variable = activityInstance.variables!.find(v => v.name === key);
+						if (variable) {
+							variable.value = result[key];
+						} else {
+							// Create new variable
+							variable = {
+								name: key,
+								type: typeof result[key] === 'boolean' ? FieldType.Boolean :
+									typeof result[key] === 'number' ? FieldType.Number : FieldType.Text,
+								value: result[key]
+							};
+							activityInstance.variables!.push(variable);
+						}
+					});
 				}
 			}
 
 			activityInstance.status = ActivityStatus.Completed;
 			activityInstance.completedAt = new Date();
 
-			await this.processInstanceRepo.save(instance);
+			unit.markDirty();
 
 			// Check for process completion and continue execution through call stack
-			return await this.checkForProcessCompletion(instanceId, activity.id!);
+			return { type: 'complete', activityId: activity.id! };
 		} catch (error) {
+			if (error instanceof RateLimitedError && !signal?.aborted) {
+				// Waiting for a token is not a failed attempt; the token is this
+				// request's only when its own reservation raised the error
+				const delay = error.retryAfterMs!;
+				activityInstance.rateLimitReserved = error.reserved || undefined;
+				activityInstance.nextRetryAt = new Date(Date.now() + delay);
+				logger.info(`ProcessEngine: API activity '${activity.id}' rate limited, sending in ${delay}ms`, { limiter: error.limiter });
+				unit.markDirty();
+				this.scheduleRetry(instanceId, delay);
+				return this.yieldForRetry(unit, activity.id, delay);
+			}
+			activityInstance.rateLimitReserved = undefined;
+			const message = error instanceof Error ? error.message : String(error);
+			const delay = signal?.aborted ? undefined : this.apiExecutor.planRetry(activity, attempt, error);
+			if (delay !== undefined) {
+				// Retry as a deferred continuation instead of holding the step (and the
+				// instance's mailbox) while backing off
+				activityInstance.retryAttempt = attempt + 1;
+				activityInstance.nextRetryAt = new Date(Date.now() + delay);
+				activityInstance.error = message;
+				logger.warn(`ProcessEngine: API activity '${activity.id}' attempt ${attempt + 1} failed, retrying in ${delay}ms`, { error: message });
+				unit.markDirty();
+				this.scheduleRetry(instanceId, delay);
+				return this.yieldForRetry(unit, activity.id, delay);
+			}
+
 			activityInstance.status = ActivityStatus.Failed;
-			activityInstance.error = error instanceof Error ? error.message : String(error);
+			activityInstance.error = attempt > 0 ? `HTTP request failed after ${attempt + 1} attempts: ${message}` : message;
+			activityInstance.retryAttempt = undefined;
+			activityInstance.nextRetryAt = undefined;
 
-			await this.processInstanceRepo.save(instance);
-			return {
+			unit.markDirty();
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: `API activity failed: ${activityInstance.error}`
-			};
+			});
 		}
 	}
 
-	private async executeSequenceActivity(instanceId: string, activity: SequenceActivity): Promise<ProcessExecutionResult> {
+	/**
+	 * Stream a response body into the file repository. The activity gets a
+	 * File variable, and the response keeps the FileReference as its data
+	 * instead of the body.
+	 */
+	private async storeResponseFile(
+		unit: InstanceUnitOfWork,
+		activity: APIActivity,
+		activityInstance: APIActivityInstance,
+		response: APIResponse
+	): Promise<APIResponse> {
+		const { instance, instanceId } = unit;
+		const settings = activity.responseFile || {};
+		const contentType = String(response.headers?.['content-type'] ?? 'application/octet-stream');
+		const url = substituteStringTemplate(activity.url, instance);
+
+		const fileVariable = await this.fileService.uploadAndCreateVariable(
+			{
+				filename: settings.filename
+					? substituteStringTemplate(settings.filename, instance)
+					: responseFilename(response.headers, url, activity.id!),
+				mimeType: contentType.split(';')[0].trim(),
+				content: response.data,
+				description: `Response of ${activity.method} ${url}`,
+				maxBytes: settings.maxBytes
+			},
+			settings.variable || 'file',
+			instanceId,
+			activity.id!,
+			instance.processId
+		);
+		this.fileService.updateVariablesWithFiles(activityInstance.variables!, [fileVariable]);
+
+		return { ...response, data: fileVariable.value };
+	}
+
+	/**
+	 * Send the request of a forEach API activity once per item, at most
+	 * `concurrency` at a time. Item progress lives on the activity instance and
+	 * is committed every checkpointEvery settled items, so a resumed run only
+	 * sends the requests that have not finished.
+	 * @returns the combined response once every item has settled, or the time
+	 * of the earliest item retry
+	 */
+	private async runForEach(
+		unit: InstanceUnitOfWork,
+		activity: APIActivity,
+		activityInstance: APIActivityInstance,
+		signal?: AbortSignal
+	): Promise<{ response?: APIResponse; retryAt?: number }> {
+		const forEach = activity.forEach!;
+		let progress = activityInstance.forEachProgress;
+		if (!progress) {
+			const items = this.forEachItems(unit.instance, activity);
+			progress = { items, states: items.map(() => ({ status: 'pending', attempts: 0 })) };
+			activityInstance.forEachProgress = progress;
+			unit.markDirty();
+		}
+		const states = progress.states;
+
+		const now = Date.now();
+		const ready = states
+			.map((_, index) => index)
+			.filter(index => states[index].status === 'pending' && !(states[index].retryAt && new Date(states[index].retryAt!).getTime() > now));
+		const concurrency = Math.max(1, forEach.concurrency ?? DEFAULT_FOR_EACH_CONCURRENCY);
+		const checkpointEvery = Math.max(1, forEach.checkpointEvery ?? DEFAULT_FOR_EACH_CHECKPOINT);
+		logger.info(`ProcessEngine: forEach '${activity.id}' sending ${ready.length} of ${states.length} requests`, { concurrency });
+
+		let next = 0;
+		let sinceCommit = 0;
+		let committing: Promise<void> | undefined;
+		const worker = async () => {
+			while (next < ready.length && !signal?.aborted) {
+				await this.runForEachItem(unit.instance, activity, activityInstance, progress!, ready[next++], signal);
+				unit.markDirty();
+				if (++sinceCommit >= checkpointEvery && !committing) {
+					sinceCommit = 0;
+					committing = unit.commit().finally(() => {
+						committing = undefined;
+					});
+					await committing;
+				}
+			}
+		};
+		await Promise.all(Array.from({ length: Math.min(concurrency, ready.length) }, worker));
+		if (committing) {
+			await committing;
+		}
+		if (signal?.aborted) {
+			throw new Error('HTTP request cancelled');
+		}
+
+		const retryTimes = states
+			.filter(state => state.status === 'pending')
+			.map(state => (state.retryAt ? new Date(state.retryAt).getTime() : Date.now()));
+		if (retryTimes.length > 0) {
+			return { retryAt: Math.min(...retryTimes) };
+		}
+
+		const results = states.map(state => (state.status === 'completed' ? state.data : null));
+		const failures = states.flatMap((state, index) =>
+			state.status === 'failed' ? [{ index, item: progress!.items[index], error: state.error }] : []);
+		setActivityVariable(activityInstance, forEach.resultVariable || 'results', results);
+		setActivityVariable(activityInstance, 'failures', failures);
+		// The results are in the variables now
+		activityInstance.forEachProgress = undefined;
+		logger.info(`ProcessEngine: forEach '${activity.id}' finished`, { items: states.length, failed: failures.length });
+
+		if (failures.length > 0 && forEach.failOnError) {
+			throw new Error(`${failures.length} of ${states.length} requests failed, first: ${failures[0].error}`);
+		}
+		return {
+			response: {
+				status: failures.length > 0 ? 207 : 200,
+				statusText: failures.length > 0 ? 'Multi-Status' : 'OK',
+				headers: {},
+				data: results
+			}
+		};
+	}
+
+	/**
+	 * Send the request of one forEach item and record its outcome. Transient
+	 * failures are given a retry time instead of failing the item
+	 */
+	private async runForEachItem(
+		instance: ProcessInstance,
+		activity: APIActivity,
+		activityInstance: APIActivityInstance,
+		progress: NonNullable<APIActivityInstance['forEachProgress']>,
+		index: number,
+		signal?: AbortSignal
+	): Promise<void> {
+		const state = progress.states[index];
+		const view = forEachItemView(instance, activityInstance, activity.forEach!.as || 'item', progress.items[index], index);
+		try {
+			const response = projectResponse(activity, await this.apiExecutor.execute(activity, view, signal, state.attempts, !!state.rateLimitReserved));
+			state.status = 'completed';
+			state.data = response.data;
+			state.retryAt = undefined;
+			state.rateLimitReserved = undefined;
+			state.error = undefined;
+		} catch (error) {
+			if (signal?.aborted) {
+				return;
+			}
+			if (error instanceof RateLimitedError) {
+				// Sent when the token is due, without counting as an attempt
+				state.rateLimitReserved = error.reserved || undefined;
+				state.retryAt = new Date(Date.now() + error.retryAfterMs!);
+				return;
+			}
+			state.rateLimitReserved = undefined;
+			state.error = error instanceof Error ? error.message : String(error);
+			const delay = this.apiExecutor.planRetry(activity, state.attempts, error);
+			state.attempts++;
+			if (delay !== undefined) {
+				state.retryAt = new Date(Date.now() + delay);
+			} else {
+				state.status = 'failed';
+				state.retryAt = undefined;
+			}
+		}
+	}
+
+	/**
+	 * The collection a forEach activity iterates; JSON strings are parsed
+	 */
+	private forEachItems(instance: ProcessInstance, activity: APIActivity): any[] {
+		let items = this.expressionEvaluator.executeCode([`return ${activity.forEach!.items};`], instance, activity.id);
+		if (typeof items === 'string') {
+			try {
+				items = JSON.parse(items);
+			} catch {
+				// Reported below
+			}
+		}
+		if (!Array.isArray(items)) {
+			throw new Error(`forEach items '${activity.forEach!.items}' is not an array`);
+		}
+		return items;
+	}
+
+	private yieldForRetry(unit: InstanceUnitOfWork, activityId: string, delayMs: number): StepTransition {
+		return yieldResult({
+			instanceId: unit.instanceId,
+			status: ProcessStatus.Running,
+			currentActivity: activityId,
+			message: `API activity '${activityId}' retrying in ${Math.ceil(delayMs)}ms`
+		});
+	}
+
+	/**
+	 * Execute the next step of an instance after a delay. Only the earliest
+	 * pending retry per instance is kept; the step re-arms the timer if it
+	 * runs before the activity's retry time.
+	 */
+	private scheduleRetry(instanceId: string, delayMs: number): void {
+		const dueAt = Date.now() + Math.max(0, delayMs);
+		const pending = this.retryTimers.get(instanceId);
+		if (pending) {
+			if (pending.dueAt <= dueAt) {
+				return;
+			}
+			clearTimeout(pending.timer);
+		}
+		const timer = setTimeout(() => {
+			this.retryTimers.delete(instanceId);
+			this.executeNextStep(instanceId).catch(error => {
+				logger.error(`ProcessEngine: Scheduled retry failed for instance '${instanceId}'`, error);
+			});
+		}, Math.max(0, delayMs));
+		// Pending retries do not keep the process alive
+		timer.unref();
+		this.retryTimers.set(instanceId, { timer, dueAt });
+	}
+
+	/**
+	 * Re-arm the API retries of running instances. Retry timers live in memory,
+	 * so after a restart only the nextRetryAt stored on the activity instances
+	 * is left; a retry whose time has passed runs at once.
+	 * @returns the number of instances with a retry scheduled
+	 */
+	async recoverRetries(): Promise<number> {
+		let recovered = 0;
+		for await (const instance of this.processInstanceRepo.iterate({ status: ProcessStatus.Running })) {
+			let retryAt: number | undefined;
+			for (const activityInstance of Object.values(instance.activities || {})) {
+				const nextRetryAt = (activityInstance as APIActivityInstance).nextRetryAt;
+				const time = nextRetryAt ? new Date(nextRetryAt).getTime() : NaN;
+				if (!Number.isNaN(time) && (retryAt === undefined || time < retryAt)) {
+					retryAt = time;
+				}
+			}
+			if (retryAt !== undefined) {
+				this.scheduleRetry(instance.instanceId, retryAt - Date.now());
+				recovered++;
+			}
+		}
+		logger.info(`ProcessEngine: Re-armed API retries of ${recovered} running instances`);
+		return recovered;
+	}
+
+	private async executeSequenceActivity(unit: InstanceUnitOfWork, activity: SequenceActivity, graph: ProcessGraph): Promise<StepTransition> {
 		logger.info(`ProcessEngine: Executing sequence activity '${activity.id}'`);
 
 		// Mark sequence as running
-		const instance = await this.processInstanceRepo.findById(instanceId);
+		const { instance, instanceId } = unit;
 
 		if (!activity.id) {
-			return { instanceId, status: ProcessStatus.Failed, message: 'Activity missing ID' };
+			return yieldResult({ instanceId, status: ProcessStatus.Failed, message: 'Activity missing ID' });
 		}
 
 		const activityInstance = instance.activities[activity.id] as SequenceActivityInstance;
@@ -771,32 +1262,30 @@ export class ProcessEngine {
 		activityInstance.startedAt = new Date();
 
 		// Execute the first activity in the sequence if any
-		if (activity.activities.length > 0) {
-			const firstActivityRef = activity.activities[0];
-			const firstActivityId = extractActivityId(firstActivityRef);
-
+		const firstActivityId = graph.childAt(activity.id, 0);
+		if (firstActivityId) {
 			logger.info(`ProcessEngine: Starting sequence '${activity.id}' with first activity '${firstActivityId}'`);
-			return await this.executeActivityInFrame(instanceId, firstActivityId, activity.id, 0);
+			return await this.enterActivityFrame(unit, firstActivityId, activity.id, 0);
 		} else {
 			// Empty sequence completes immediately
 			logger.info(`ProcessEngine: Empty sequence '${activity.id}' completed immediately`);
 			activityInstance.status = ActivityStatus.Completed;
 			activityInstance.completedAt = new Date();
-			await this.processInstanceRepo.save(instance);
-			return await this.checkForProcessCompletion(instanceId, activity.id);
+			unit.markDirty();
+			return { type: 'complete', activityId: activity.id };
 		}
 	}
 
-	private async executeBranchActivity(instanceId: string, activity: BranchActivity): Promise<ProcessExecutionResult> {
-		const instance = await this.processInstanceRepo.findById(instanceId);
+	private async executeBranchActivity(unit: InstanceUnitOfWork, activity: BranchActivity, graph: ProcessGraph): Promise<StepTransition> {
+		const { instance, instanceId } = unit;
 
 		if (!activity.id) {
 			logger.error('ProcessEngine: Branch activity missing ID');
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: 'Activity missing ID'
-			};
+			});
 		}
 
 		let executionContext = instance.executionContext;
@@ -806,9 +1295,10 @@ export class ProcessEngine {
 		try {
 			const conditionResult = this.expressionEvaluator.evaluateCondition(activity.condition, instance);
 
+			const node = graph.activity(activity.id);
 			const nextActivity = conditionResult ? activity.then : activity.else;
-			if (nextActivity) {
-				const nextActivityId = extractActivityId(nextActivity);
+			const nextActivityId = conditionResult ? node?.thenTarget : node?.elseTarget;
+			if (nextActivity && nextActivityId) {
 				logger.info(`ProcessEngine: Branch condition met, Pushing Frame: '${nextActivityId}'`);
 				executionContext.pushFrame(nextActivityId);
 
@@ -817,39 +1307,39 @@ export class ProcessEngine {
 				activityInstance.conditionResult = conditionResult;
 				activityInstance.nextActivity = nextActivity;
 
-				await this.processInstanceRepo.save(instance);
-				return await this.executeNextStep(instanceId);
+				unit.markDirty();
+				return { type: 'execute' };
 			} else {
 				// No else branch, complete activity and continue through call stack
 				activityInstance.status = ActivityStatus.Completed;
 				activityInstance.completedAt = new Date();
 
-				await this.processInstanceRepo.save(instance);
-				return await this.checkForProcessCompletion(instanceId, activity.id!);
+				unit.markDirty();
+				return { type: 'complete', activityId: activity.id! };
 			}
 		} catch (error) {
 			activityInstance.status = ActivityStatus.Failed;
 			activityInstance.error = error instanceof Error ? error.message : String(error);
 
-			await this.processInstanceRepo.save(instance);
-			return {
+			unit.markDirty();
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: `Branch condition evaluation failed: ${activityInstance.error}`
-			};
+			});
 		}
 	}
 
-	private async executeSwitchActivity(instanceId: string, activity: SwitchActivity): Promise<ProcessExecutionResult> {
-		const instance = await this.processInstanceRepo.findById(instanceId);
+	private async executeSwitchActivity(unit: InstanceUnitOfWork, activity: SwitchActivity, graph: ProcessGraph): Promise<StepTransition> {
+		const { instance, instanceId } = unit;
 
 		if (!activity.id) {
 			logger.error('ProcessEngine: Switch activity missing ID');
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: 'Activity missing ID'
-			};
+			});
 		}
 
 		let executionContext = instance.executionContext;
@@ -866,14 +1356,17 @@ export class ProcessEngine {
 
 			logger.debug(`ProcessEngine: Switch expression '${activity.expression}' evaluated to: '${switchValue}'`);
 
-			// Find matching case
+			// Find matching case using the precomputed case table
+			const node = graph.activity(activity.id);
 			let nextActivity: string | undefined;
+			let selectedActivityId = node?.cases.get(switchValue);
 
-			if (activity.cases[switchValue]) {
+			if (selectedActivityId) {
 				nextActivity = activity.cases[switchValue];
 				logger.debug(`ProcessEngine: Switch matched case '${switchValue}' -> '${nextActivity}'`);
-			} else if (activity.default) {
+			} else if (node?.defaultTarget) {
 				nextActivity = activity.default;
+				selectedActivityId = node.defaultTarget;
 				logger.debug(`ProcessEngine: Switch using default case -> '${nextActivity}'`);
 			} else {
 				throw new Error(`No matching case found for value '${switchValue}' in Activity ${activity.id} `);
@@ -882,233 +1375,274 @@ export class ProcessEngine {
 			// Update switch activity instance with the selection
 			activityInstance.status = ActivityStatus.Running; // Keep running until selected branch completes
 			activityInstance.expressionValue = switchValue;
-			activityInstance.matchedCase = activity.cases[switchValue] ? switchValue : 'default';
+			activityInstance.matchedCase = node?.cases.has(switchValue) ? switchValue : 'default';
 			activityInstance.nextActivity = nextActivity;
 
-			await this.processInstanceRepo.save(instance);
+			unit.markDirty();
 
 			// Execute the selected branch using proper call stack frame management
-			const selectedActivityId = extractActivityId(nextActivity);
-			return await this.executeActivityInFrame(instanceId, selectedActivityId, activity.id, undefined);
+			return await this.enterActivityFrame(unit, selectedActivityId, activity.id, undefined);
 		} catch (error) {
 			activityInstance.status = ActivityStatus.Failed;
 			activityInstance.error = error instanceof Error ? error.message : String(error);
 
 			logger.error(`Switch Eval Failed: ${activityInstance.error} `);
 
-			await this.processInstanceRepo.save(instance);
-			return {
+			unit.markDirty();
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: `Switch evaluation failed: ${activityInstance.error}`
-			};
+			});
 		}
 	}
 
-	private async executeTerminateActivity(instanceId: string, activity: TerminateActivity): Promise<ProcessExecutionResult> {
-		const instance = await this.processInstanceRepo.findById(instanceId);
+	/**
+	 * Execute a parallel (fork/join) activity.
+	 * API and compute children run concurrently right here; once the join is
+	 * decided the remaining requests are aborted and those children cancelled.
+	 * Other children (human tasks, containers) can not run inline, so they are
+	 * entered one at a time through the call stack and the
+	 * ParallelContinuationStrategy evaluates the join as each one completes.
+	 */
+	private async executeParallelActivity(unit: InstanceUnitOfWork, activity: ParallelActivity, graph: ProcessGraph): Promise<StepTransition> {
+		const { instance, instanceId } = unit;
 
 		if (!activity.id) {
-			logger.error('ProcessEngine: Terminate activity missing ID');
-			return {
+			logger.error('ProcessEngine: Parallel activity missing ID');
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: 'Activity missing ID'
-			};
+			});
 		}
 
-		const activityInstance = instance.activities[activity.id];
+		const parallelInstance = instance.activities[activity.id] as ParallelActivityInstance;
+		const childIds = graph.activity(activity.id)?.children || [];
 
-		activityInstance.status = ActivityStatus.Completed;
-		activityInstance.completedAt = new Date();
+		parallelInstance.parallelState = 'running';
+		parallelInstance.requiredCompletions = requiredJoinCount(activity, childIds.length);
+		parallelInstance.activeActivities = [...childIds];
+		parallelInstance.completedActivities = [];
+		parallelInstance.failedActivities = [];
 
-		await this.processInstanceRepo.save(instance);
+		// Children completed by an earlier run (e.g. on resume) count towards the join
+		childIds
+			.filter(childId => instance.activities[childId]?.status === ActivityStatus.Completed)
+			.forEach(childId => settleParallelChild(parallelInstance, childId, true));
 
-		const success = activity.result !== 'failure';
-		return await this.completeProcess(instanceId, activity.reason || 'Process terminated', success);
+		const inlineIds = parallelInstance.activeActivities.filter(childId => {
+			const childType = graph.activity(childId)?.type;
+			return childType === ActivityType.API || childType === ActivityType.Compute;
+		});
+		if (inlineIds.length > 0 && !isParallelJoinDecided(parallelInstance)) {
+			logger.info(`ProcessEngine: Parallel '${activity.id}' running ${inlineIds.length} children concurrently`, {
+				join: activity.join || 'all',
+				requiredCompletions: parallelInstance.requiredCompletions
+			});
+			await this.runParallelChildren(unit, graph, parallelInstance, inlineIds);
+		}
+		unit.markDirty();
+
+		if (isParallelJoinSatisfied(parallelInstance)) {
+			logger.info(`ProcessEngine: Parallel '${activity.id}' joined`, {
+				completedActivities: parallelInstance.completedActivities
+			});
+			this.cancelActivities(instance, parallelInstance.activeActivities);
+			parallelInstance.activeActivities = [];
+			parallelInstance.parallelState = 'joined';
+			parallelInstance.status = ActivityStatus.Completed;
+			parallelInstance.completedAt = new Date();
+			return { type: 'complete', activityId: activity.id };
+		}
+
+		if (isParallelJoinFailed(parallelInstance)) {
+			this.cancelActivities(instance, parallelInstance.activeActivities);
+			parallelInstance.activeActivities = [];
+			parallelInstance.parallelState = 'failed';
+			parallelInstance.status = ActivityStatus.Failed;
+			parallelInstance.error = describeFailedJoin(parallelInstance);
+			return yieldResult({
+				instanceId,
+				status: ProcessStatus.Failed,
+				message: `Parallel activity '${activity.id}' failed: ${parallelInstance.error}`
+			});
+		}
+
+		// Enter the first remaining child - the continuation strategy enters the rest
+		const nextActivityId = parallelInstance.activeActivities[0];
+		return await this.enterActivityFrame(unit, nextActivityId, activity.id, graph.positionOf(activity.id, nextActivityId));
 	}
 
+	/**
+	 * Run API and compute children of a parallel activity concurrently.
+	 * Returns once every started child has settled, so nothing mutates the
+	 * instance after the step ends
+	 */
+	private async runParallelChildren(
+		unit: InstanceUnitOfWork,
+		graph: ProcessGraph,
+		parallelInstance: ParallelActivityInstance,
+		childIds: string[]
+	): Promise<void> {
+		const controller = new AbortController();
+
+		const runs = childIds.map(async childId => {
+			if (controller.signal.aborted) {
+				return;
+			}
 
-	private async continueExecution(instanceId: string): Promise<ProcessExecutionResult> {
-		logger.info(`ProcessEngine: Continuing execution for instance '${instanceId}'`);
+			const child = graph.activity(childId)!.definition;
+			const childInstance = unit.instance.activities[childId];
+			childInstance.status = ActivityStatus.Running;
+			childInstance.startedAt = new Date();
 
-		const instance = await this.processInstanceRepo.findById(instanceId);
+			const transition = child.type === ActivityType.API
+				? await this.executeAPIActivity(unit, child as APIActivity, controller.signal)
+				: await this.executeComputeActivity(unit, child as ComputeActivity);
 
-		let executionContext = instance.executionContext;
+			// Children that were still running when the join was decided are cancelled
+			if (controller.signal.aborted) {
+				return;
+			}
+			// A child waiting for an API retry stays active and is entered again through its frame
+			if ((childInstance as APIActivityInstance).nextRetryAt) {
+				return;
+			}
 
-		if (!executionContext.currentActivity) {
-			logger.warn(`ProcessEngine: No current activity for instance '${instanceId}', completing process`);
-			return await this.completeProcess(instanceId, 'Process completed - no current activity');
+			settleParallelChild(parallelInstance, childId, transition.type !== 'yield');
+			if (isParallelJoinDecided(parallelInstance)) {
+				controller.abort();
+			}
+		});
+
+		await Promise.allSettled(runs);
+	}
+
+	/**
+	 * Record the failure of a parallel child entered through the call stack (a
+	 * human task, a container or anything running inside one) in the parallel
+	 * state and evaluate the join again, so 'any' and n-of-m joins can still be
+	 * met. The frames of the child and everything above it are popped.
+	 * @returns The transition after the join, or undefined when the failed
+	 * activity does not run inside a parallel activity
+	 */
+	private async failParallelChild(unit: InstanceUnitOfWork, failure: ProcessExecutionResult): Promise<StepTransition | undefined> {
+		const { instance, instanceId, graph } = unit;
+		if (!graph || instance.status !== ProcessStatus.Running) {
+			return undefined;
 		}
 
-		const currentActivityInstance = instance.activities[executionContext.currentActivity];
-		if (!currentActivityInstance) {
-			logger.error(`ProcessEngine: Current activity '${executionContext.currentActivity}' not found in instance '${instanceId}'`);
-			return await this.completeProcess(instanceId, 'Current activity not found', false);
+		// The innermost frame whose parent is a parallel activity is the failed child
+		const frames = instance.executionContext.getFrames();
+		let childIndex = frames.length - 1;
+		while (childIndex >= 0 && graph.activity(frames[childIndex].parentId ?? '')?.type !== ActivityType.Parallel) {
+			childIndex--;
+		}
+		if (childIndex < 0) {
+			return undefined;
+		}
+		const childFrame = frames[childIndex];
+		const parallelId = childFrame.parentId!;
+		for (let depth = frames.length; depth > childIndex; depth--) {
+			instance.executionContext.popFrame();
 		}
 
-		logger.debug(`ProcessEngine: Current activity '${executionContext.currentActivity}' status: ${currentActivityInstance.status}`);
+		const childInstance = instance.activities[childFrame.activityId];
+		if (childInstance && childInstance.status !== ActivityStatus.Failed) {
+			childInstance.status = ActivityStatus.Failed;
+			childInstance.error = failure.message;
+		}
+		const parallelInstance = instance.activities[parallelId] as ParallelActivityInstance;
+		settleParallelChild(parallelInstance, childFrame.activityId, false);
+		unit.markDirty();
+		logger.warn(`ProcessEngine: Parallel '${parallelId}' child '${childFrame.activityId}' failed`, {
+			error: failure.message,
+			completedActivities: parallelInstance.completedActivities,
+			failedActivities: parallelInstance.failedActivities
+		});
 
-		// Get process definition for sequence and next property handling
-		const processDefinition = await this.processDefinitionRepo.findById(instance.processId);
+		if (isParallelJoinSatisfied(parallelInstance)) {
+			this.cancelActivities(instance, parallelInstance.activeActivities);
+			parallelInstance.activeActivities = [];
+			parallelInstance.parallelState = 'joined';
+			parallelInstance.status = ActivityStatus.Completed;
+			parallelInstance.completedAt = new Date();
+			return { type: 'complete', activityId: parallelId };
+		}
 
-		// Check if we're in a sequence and need to continue
-		if (processDefinition) {
-			// Then check for sequence activities
-			for (const [activityId, activityDef] of Object.entries(processDefinition.activities)) {
-				if (activityDef.type === ActivityType.Sequence) {
-					const sequenceActivity = activityDef as SequenceActivity;
-					const sequenceInstance = instance.activities[activityId];
-
-					// Check if this sequence contains our current activity and has sequence data
-					const seqInst = sequenceInstance as SequenceActivityInstance;
-					if (seqInst.sequenceIndex !== undefined) {
-						// Determine whether this sequence contains our current activity directly
-						// or indirectly via a child activity that redirected execution (e.g. switch -> branch)
-						const containsCurrent = sequenceActivity.activities.some(a => {
-							const aid = extractActivityId(a);
-							if (aid === executionContext.currentActivity) return true;
-							const childInst = instance.activities[aid] as ActivityInstance | undefined;
-							if (childInst && (childInst as any).nextActivity) {
-								try {
-									const redirected = extractActivityId((childInst as any).nextActivity);
-									if (redirected === executionContext.currentActivity) return true;
-								} catch (e) {
-									// ignore malformed nextActivity
-								}
-							}
-							return false;
-						});
+		const nextActivityId = parallelInstance.activeActivities?.[0];
+		if (nextActivityId && !isParallelJoinFailed(parallelInstance)) {
+			return await this.enterActivityFrame(unit, nextActivityId, parallelId, graph.positionOf(parallelId, nextActivityId));
+		}
 
-						if (containsCurrent) {
-							logger.debug(`ProcessEngine: Found parent sequence '${activityId}' for current activity '${executionContext.currentActivity}'`);
-							const nextIndex = seqInst.sequenceIndex! + 1;
-
-							if (nextIndex < seqInst.sequenceActivities!.length) {
-								// Continue with next activity in sequence
-								seqInst.sequenceIndex = nextIndex;
-								const nextActivity = extractActivityId(seqInst.sequenceActivities![nextIndex]);
-
-								logger.info(`ProcessEngine: Pushing Frame sequence '${activityId}' - moving to activity '${nextActivity}' (index ${nextIndex})`);
-								executionContext.pushFrame(nextActivity, activityId, nextIndex);
-
-								logger.info(`ProcessEngine: Continuing sequence '${activityId}' - moving to activity '${nextActivity}' (index ${nextIndex})`);
-								await this.processInstanceRepo.save(instance);
-								return await this.executeNextStep(instanceId);
-							} else {
-								// Sequence completed
-								logger.info(`ProcessEngine: Sequence '${activityId}' completed for instance '${instanceId}'`);
-								sequenceInstance.status = ActivityStatus.Completed;
-								sequenceInstance.completedAt = new Date();
-								await this.processInstanceRepo.save(instance);
-								// Record the completed sequence ID so we can check for parent sequences
-								(instance as any).__lastCompletedSequenceId = activityId;
-								break; // Exit the loop and continue with normal completion
-							}
-						}
-					}
-				}
-			}
+		this.cancelActivities(instance, parallelInstance.activeActivities);
+		parallelInstance.activeActivities = [];
+		parallelInstance.parallelState = 'failed';
+		parallelInstance.status = ActivityStatus.Failed;
+		parallelInstance.error = describeFailedJoin(parallelInstance);
+		return yieldResult({
+			instanceId,
+			status: ProcessStatus.Failed,
+			message: `Parallel activity '${parallelId}' failed: ${parallelInstance.error}`
+		});
+	}
 
-			// Check if a nested sequence just completed and advance any parent sequences that reference it
-			const completedSeqId = (instance as any).__lastCompletedSequenceId as string | undefined;
-			if (completedSeqId) {
-				logger.debug(`ProcessEngine: Looking for parent sequence referencing completed sequence '${completedSeqId}'`);
-				for (const [parentId, parentDef] of Object.entries(processDefinition.activities)) {
-					if (parentDef.type === ActivityType.Sequence) {
-						const parentActivity = parentDef as SequenceActivity;
-						const parentInstance = instance.activities[parentId] as SequenceActivityInstance | undefined;
-
-						// Check if this parent sequence references the completed nested sequence
-						if (parentInstance && parentInstance.sequenceActivities) {
-							// Determine whether parent sequence references the completed sequence directly
-							// or indirectly via a child activity that redirected execution (e.g. switch -> nested sequence)
-							const referencesCompleted = parentActivity.activities.some(a => {
-								const aid = extractActivityId(a);
-								if (aid === completedSeqId) return true;
-								const childInst = instance.activities[aid] as ActivityInstance | undefined;
-								if (childInst && (childInst as any).nextActivity) {
-									try {
-										const redirected = extractActivityId((childInst as any).nextActivity);
-										if (redirected === completedSeqId) return true;
-									} catch (e) {
-										// ignore malformed nextActivity
-									}
-								}
-								return false;
-							});
-							if (!referencesCompleted) continue;
-							// Find the index within the parent's sequence activities that references the completed sequence.
-							let completedIndex = -1;
-							for (let i = 0; i < parentInstance.sequenceActivities.length; i++) {
-								const ref = parentInstance.sequenceActivities[i];
-								const refId = extractActivityId(ref);
-								if (refId === completedSeqId) {
-									completedIndex = i;
-									break;
-								}
-								const childInst = instance.activities[refId] as ActivityInstance | undefined;
-								if (childInst && (childInst as any).nextActivity) {
-									try {
-										const redirected = extractActivityId((childInst as any).nextActivity);
-										if (redirected === completedSeqId) {
-											completedIndex = i;
-											break;
-										}
-									} catch (e) {
-										// ignore malformed nextActivity
-									}
-								}
-							}
-							const nextIndex = completedIndex + 1;
-
-							if (nextIndex < parentInstance.sequenceActivities.length) {
-								// Continue to next activity in parent sequence
-								parentInstance.sequenceIndex = nextIndex;
-								const nextActivity = extractActivityId(parentInstance.sequenceActivities[nextIndex]);
-
-
-								logger.info(`ProcessEngine: Pushing Frame Parent sequence '${parentId}' continuing to activity '${nextActivity}' (index ${nextIndex})`);
-								executionContext.pushFrame(nextActivity, parentId, nextIndex);
-
-								await this.processInstanceRepo.save(instance);
-								// Clear the completed sequence marker
-								delete (instance as any).__lastCompletedSequenceId;
-								return await this.executeNextStep(instanceId);
-							} else {
-								// Parent sequence also completed
-								logger.info(`ProcessEngine: Parent sequence '${parentId}' completed for instance '${instanceId}'`);
-								parentInstance.status = ActivityStatus.Completed;
-								parentInstance.completedAt = new Date();
-								await this.processInstanceRepo.save(instance);
-								// Continue searching for outer parent sequences
-							}
-						}
-					}
-				}
+	/**
+	 * Mark activities that will no longer run as Cancelled
+	 */
+	private cancelActivities(instance: ProcessInstance, activityIds: string[] = []): void {
+		for (const activityId of activityIds) {
+			const activityInstance = instance.activities[activityId];
+			if (!activityInstance || activityInstance.status === ActivityStatus.Completed) {
+				continue;
 			}
+			activityInstance.status = ActivityStatus.Cancelled;
+			activityInstance.error = undefined;
+			logger.info(`ProcessEngine: Cancelled activity '${activityId}'`);
+		}
+	}
+
+	private async executeTerminateActivity(unit: InstanceUnitOfWork, activity: TerminateActivity): Promise<StepTransition> {
+		const { instance, instanceId } = unit;
+
+		if (!activity.id) {
+			logger.error('ProcessEngine: Terminate activity missing ID');
+			return yieldResult({
+				instanceId,
+				status: ProcessStatus.Failed,
+				message: 'Activity missing ID'
+			});
 		}
 
-		// If we reach here and no sequence continuation happened, the process is complete
-		logger.info(`ProcessEngine: No sequence continuation found, completing process for instance '${instanceId}'`);
-		return await this.completeProcess(instanceId, 'Process completed successfully');
+		const activityInstance = instance.activities[activity.id];
+
+		activityInstance.status = ActivityStatus.Completed;
+		activityInstance.completedAt = new Date();
+
+		unit.markDirty();
+
+		const success = activity.result !== 'failure';
+		return yieldResult(await this.completeProcess(unit, activity.reason || 'Process terminated', success));
 	}
 
+
 	/**
 	 * Check if process should complete after an activity finishes
 	 * Process completes when the call stack is empty (at root)
 	 */
-	private async checkForProcessCompletion(instanceId: string, completedActivityId: string): Promise<ProcessExecutionResult> {
-		const instance = await this.processInstanceRepo.findById(instanceId);
+	private async checkForProcessCompletion(unit: InstanceUnitOfWork, completedActivityId: string): Promise<StepTransition> {
+		const { instance, instanceId } = unit;
 
 		// Pop the completed frame from call stack
 		const completedFrame = instance.executionContext.popFrame();
+		unit.markDirty();
 		logger.info(`ProcessEngine: Popped completed frame: ${JSON.stringify(completedFrame)}`);
 
 		// If call stack is now empty, process is complete
 		if (instance.executionContext.isAtRoot()) {
 			logger.info(`ProcessEngine: Call stack empty after completing '${completedActivityId}', process complete for instance '${instanceId}'`);
-			return await this.completeProcess(instanceId, `Process completed - call stack empty after '${completedActivityId}'`);
+			return yieldResult(await this.completeProcess(unit, `Process completed - call stack empty after '${completedActivityId}'`));
 		}
 
 		// There's still a parent frame, so continue execution from there
@@ -1119,36 +1653,32 @@ export class ProcessEngine {
 			// Safety check: ensure we're not in an infinite loop
 			if (completedFrame && parentFrame.activityId === completedFrame.activityId) {
 				logger.error(`ProcessEngine: INFINITE LOOP DETECTED - parentFrame and completedFrame both have activityId '${parentFrame.activityId}'`);
-				return {
+				return yieldResult({
 					instanceId,
 					status: ProcessStatus.Failed,
 					message: 'Infinite loop detected in execution context'
-				};
+				});
 			}
 
 			logger.info(`ProcessEngine: Returning to parent frame '${parentFrame.activityId}' after completing '${completedActivityId}'`);
-			// Save the updated execution context before continuing
-			await this.processInstanceRepo.save(instance);
-			return await this.continueFromParent(instanceId, completedFrame!);
+			return await this.continueFromParent(unit, completedFrame!);
 		}
 
 		// Fallback - should not reach here
-		return await this.completeProcess(instanceId, 'Unexpected completion state');
+		return yieldResult(await this.completeProcess(unit, 'Unexpected completion state'));
 	}
 
 	/**
 	 * Continue execution from a parent frame after a child activity completes
 	 */
-	private async continueFromParent(instanceId: string, completedFrame: ExecutionFrame): Promise<ProcessExecutionResult> {
-		const instance = await this.processInstanceRepo.findById(instanceId);
-
-		const processDefinition = await this.processDefinitionRepo.findById(instance.processId);
-		if (!processDefinition) {
-			return {
+	private async continueFromParent(unit: InstanceUnitOfWork, completedFrame: ExecutionFrame): Promise<StepTransition> {
+		const { instance, instanceId, graph } = unit;
+		if (!graph) {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: 'Process definition not found'
-			};
+			});
 		}
 
 		const parentFrame = instance.executionContext.getCurrentFrame();
@@ -1156,26 +1686,27 @@ export class ProcessEngine {
 
 		if (!parentFrame) {
 			// No parent frame, process should complete
-			return await this.completeProcess(instanceId, 'No parent frame found');
+			return yieldResult(await this.completeProcess(unit, 'No parent frame found'));
 		}
 
 		// The parentFrame.activityId is the sequence/switch/branch that contains the completed activity
-		const parentActivity = processDefinition.activities[parentFrame.activityId];
-		if (!parentActivity) {
-			return {
+		const parentNode = graph.activity(parentFrame.activityId);
+		const parentActivity = parentNode?.definition;
+		if (!parentNode || !parentActivity) {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: `Parent activity '${parentFrame.activityId}' not found`
-			};
+			});
 		}
 
 		const parentActivityInstance = instance.activities[parentFrame.activityId];
 		if (!parentActivityInstance) {
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: `Parent activity instance '${parentFrame.activityId}' not found`
-			};
+			});
 		}
 
 		logger.info(`ProcessEngine: Parent activity type: ${parentActivity.type}, ID: ${parentActivity.id}`);
@@ -1183,21 +1714,34 @@ export class ProcessEngine {
 		// Use strategy pattern to handle continuation
 		const strategy = this.continuationStrategies.get(parentActivity.type);
 		if (!strategy) {
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: `No continuation strategy found for activity type '${parentActivity.type}'`
-			};
+			});
 		}
 
-		const continuationResult = await strategy.continue(parentActivityInstance, completedFrame, this, instanceId);
+		const continuationResult = await strategy.continue(parentActivityInstance, completedFrame, parentNode);
 
 		if (!continuationResult) {
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: 'Continuation strategy returned null'
-			};
+			});
+		}
+
+		if (continuationResult.failed) {
+			logger.warn(`ProcessEngine: Parent activity '${parentActivity.id}' failed: ${continuationResult.failed}`);
+			parentActivityInstance.status = ActivityStatus.Failed;
+			parentActivityInstance.error = continuationResult.failed;
+			unit.markDirty();
+
+			return yieldResult({
+				instanceId,
+				status: ProcessStatus.Failed,
+				message: `Activity '${parentActivity.id}' failed: ${continuationResult.failed}`
+			});
 		}
 
 		if (continuationResult.completed) {
@@ -1205,53 +1749,52 @@ export class ProcessEngine {
 			logger.info(`ProcessEngine: Parent activity '${parentActivity.id}' completed`);
 			parentActivityInstance.status = ActivityStatus.Completed;
 			parentActivityInstance.completedAt = new Date();
-			await this.processInstanceRepo.save(instance);
+			this.cancelActivities(instance, continuationResult.cancelActivityIds);
+			unit.markDirty();
 
-			return await this.checkForProcessCompletion(instanceId, parentActivity.id!);
+			return { type: 'complete', activityId: parentNode.id };
 		} else if (continuationResult.nextActivityId) {
 			// Execute next activity
 			logger.info(`ProcessEngine: Continuing to next activity '${continuationResult.nextActivityId}'`);
-			return await this.executeActivityInFrame(
-				instanceId,
+			return await this.enterActivityFrame(
+				unit,
 				continuationResult.nextActivityId,
 				continuationResult.parentId!,
 				continuationResult.position
 			);
 		} else {
-			return {
+			return yieldResult({
 				instanceId,
 				status: ProcessStatus.Failed,
 				message: 'Continuation strategy returned invalid result'
-			};
+			});
 		}
 	}
 
 	/**
-	 * Execute an activity within a frame context
+	 * Push a frame for an activity within a container so the driver executes it next
 	 */
-	private async executeActivityInFrame(instanceId: string, activityId: string, parentId: string, position?: number): Promise<ProcessExecutionResult> {
-		const instance = await this.processInstanceRepo.findById(instanceId);
-
-		const processDefinition = await this.processDefinitionRepo.findById(instance.processId);
-		if (!processDefinition) {
-			return { instanceId, status: ProcessStatus.Failed, message: 'Process definition not found' };
+	private async enterActivityFrame(unit: InstanceUnitOfWork, activityId: string, parentId: string, position?: number): Promise<StepTransition> {
+		const { instance, instanceId, graph } = unit;
+		if (!graph) {
+			return yieldResult({ instanceId, status: ProcessStatus.Failed, message: 'Process definition not found' });
 		}
 
-		const activity = processDefinition.activities[activityId];
+		const activity = graph.activity(activityId)?.definition;
 		if (!activity) {
-			return { instanceId, status: ProcessStatus.Failed, message: `Activity '${activityId}' not found` };
+			return yieldResult({ instanceId, status: ProcessStatus.Failed, message: `Activity '${activityId}' not found` });
 		}
 
 		// Push new frame onto call stack
 		instance.executionContext.pushFrame(activityId, parentId, position);
-		await this.processInstanceRepo.save(instance);
+		unit.markDirty();
 
-		// Execute the activity
-		return await this.executeActivity(instanceId, activity);
+		// The driver executes the activity on top of the call stack next
+		return { type: 'execute' };
 	}
 
-	private async completeProcess(instanceId: string, reason: string, success: boolean = true): Promise<ProcessExecutionResult> {
-		const instance = await this.processInstanceRepo.findById(instanceId);
+	private async completeProcess(unit: InstanceUnitOfWork, reason: string, success: boolean = true): Promise<ProcessExecutionResult> {
+		const { instance, instanceId } = unit;
 
 		instance.status = success ? ProcessStatus.Completed : ProcessStatus.Failed;
 		instance.completedAt = new Date();
@@ -1278,7 +1821,7 @@ export class ProcessEngine {
 			}
 		}
 
-		await this.processInstanceRepo.save(instance);
+		unit.markDirty();
 
 		return {
 			instanceId,
@@ -1353,6 +1896,20 @@ export class ProcessEngine {
 		return await this.processInstanceRepo.findByProcessId(processId);
 	}
 
+	/**
+	 * Get one page of the instances of a process, ordered by start time
+	 */
+	async getInstancesPageByProcessId(processId: string, page: PageRequest): Promise<Page<ProcessInstanceFlyweight>> {
+		return await this.processInstanceRepo.findByProcessIdPage(processId, page);
+	}
+
+	/**
+	 * Stream the matching instances a page at a time, ordered by start time
+	 */
+	streamInstances(query: InstanceQuery = {}, batchSize?: number): AsyncIterable<ProcessInstance> {
+		return this.processInstanceRepo.iterate(query, batchSize);
+	}
+
 
 	/**
 	 * Run An instance picking up at the first incomplete activity
@@ -1362,20 +1919,23 @@ export class ProcessEngine {
 	 * @returns 
 	 */
 	async resumeInstance(instanceId: string): Promise<ProcessExecutionResult> {
-		// Get the existing instance
-		const instance = await this.processInstanceRepo.findById(instanceId);
+		return await this.mailbox.run(instanceId, () => this.doResumeInstance(instanceId));
+	}
+
+	private async doResumeInstance(instanceId: string): Promise<ProcessExecutionResult> {
+		// Get the existing instance and its process definition
+		const unit = await this.beginUnitOfWork(instanceId);
+		const { instance, graph } = unit;
 		logger.info(`ProcessEngine: Re-running instance '${instanceId}'`, {
 			processId: instance.processId,
 			previousStatus: instance.status
 		});
 
-		// Get the process definition to find the start activity
-		const processDefinition = await this.processDefinitionRepo.findById(instance.processId);
-		if (!processDefinition) {
+		if (!graph) {
 			throw new Error(`Process definition '${instance.processId}' not found`);
 		}
 
-		const startActivityId = extractActivityId(processDefinition.start);
+		const startActivityId = graph.startActivityId;
 
 		// Reset the instance state to re-run from the beginning
 		// Keep all activity data (including field values) - just reset statuses
@@ -1419,13 +1979,12 @@ export class ProcessEngine {
 			activitiesCount: Object.keys(instance.activities).length
 		});
 
-		// Save the reset instance
-		await this.processInstanceRepo.save(instance);
+		unit.markDirty();
 
 		// Check if the first incomplete activity is a human task that needs user input
 		const currentActivity = instance.executionContext.currentActivity;
 		if (currentActivity) {
-			const activityDef = processDefinition.activities[currentActivity];
+			const activityDef = graph.activity(currentActivity)?.definition;
 			if (activityDef?.type === ActivityType.Human) {
 				const humanActivity = activityDef as HumanActivity;
 				const activityInstance = instance.activities[currentActivity] as HumanActivityInstance;
@@ -1453,6 +2012,9 @@ export class ProcessEngine {
 					fields: fieldsForUI
 				};
 
+				// Save the reset instance
+				await unit.commit();
+
 				return {
 					instanceId,
 					status: ProcessStatus.Running,
@@ -1464,7 +2026,7 @@ export class ProcessEngine {
 		}
 
 		// Execute from the current position (either start or first incomplete)
-		return await this.executeNextStep(instanceId);
+		return await this.runToWait(unit, { type: 'execute' });
 	}
 
 
@@ -1475,17 +2037,23 @@ export class ProcessEngine {
 	 * Existing values are retained for all Activities
 	 */
 	async restartInstance(instanceId: string): Promise<ProcessExecutionResult> {
-		logger.info(`ProcessEngine: Navigate to start - instance '${instanceId}'`);
+		return await this.mailbox.run(instanceId, () => this.doRestartInstance(instanceId));
+	}
 
-		const instance = await this.processInstanceRepo.findById(instanceId);
+	private async doRestartInstance(instanceId: string): Promise<ProcessExecutionResult> {
+		logger.info(`ProcessEngine: Navigate to start - instance '${instanceId}'`);
 
-		const process = await this.processDefinitionRepo.findById(instance.processId);
+		const unit = await this.beginUnitOfWork(instanceId);
+		const { instance, graph } = unit;
+		if (!graph) {
+			throw new Error(`Process definition '${instance.processId}' not found`);
+		}
 
 		instance.status = ProcessStatus.Running;
 		instance.completedAt = undefined;
 
 		// Init a brand new execution context
-		const executionContext = this.initExecutionContextAtStart(process);
+		const executionContext = this.initExecutionContextAtStart(graph);
 		logger.info(`ProcessEngine: Initialized execution context for navigation to start`, executionContext);
 
 		instance.executionContext = executionContext;
@@ -1496,44 +2064,42 @@ export class ProcessEngine {
 			activity.status = ActivityStatus.Pending;
 		}
 
-		// persist the reset instance
-		await this.processInstanceRepo.save(instance);
+		unit.markDirty();
 
-		// and go...
-		return await this.executeNextStep(instanceId);
+		// and go - the reset is persisted with the run
+		return await this.runToWait(unit, { type: 'execute' });
 	}
 
 
 
 	/**
 	 * Return Stats about processes and instances
-	 * TODO: Currently not exposed to API
 	 * @returns
 	 */
 	async getProcessStatistics(): Promise<{ [key: string]: number }> {
-		const [
-			totalProcesses,
-			totalInstances,
-			runningInstances,
-			completedInstances,
-			failedInstances
-		] = await Promise.all([
+		const [totalProcesses, statistics] = await Promise.all([
 			this.processDefinitionRepo.count(),
-			this.processInstanceRepo.count(),
-			this.processInstanceRepo.countByStatus(ProcessStatus.Running),
-			this.processInstanceRepo.countByStatus(ProcessStatus.Completed),
-			this.processInstanceRepo.countByStatus(ProcessStatus.Failed)
+			this.processInstanceRepo.getStatistics()
 		]);
+		const { total, byStatus } = statistics.instances;
 
 		return {
 			totalProcesses,
-			totalInstances,
-			runningInstances,
-			completedInstances,
-			failedInstances
+			totalInstances: total,
+			runningInstances: byStatus[ProcessStatus.Running] ?? 0,
+			completedInstances: byStatus[ProcessStatus.Completed] ?? 0,
+			failedInstances: byStatus[ProcessStatus.Failed] ?? 0
 		};
 	}
 
+	/**
+	 * Instance counts and execution time distributions per process and
+	 * activity, maintained by the instance repository as instances are saved
+	 */
+	async getStatistics(): Promise<InstanceStatisticsSnapshot> {
+		return await this.processInstanceRepo.getStatistics();
+	}
+
 
 	/**
 	 * Load a process definition - This is only used by Tests to inject process definitions
@@ -1576,12 +2142,63 @@ export class ProcessEngine {
 		if (validation.warnings && validation.warnings.length) {
 			logger.warn('ProcessEngine: Process definition validation warnings', { warnings: validation.warnings });
 		}
+		// Named rate limiters are engine configuration, which the loader does not see
+		const limiterErrors = Object.entries(processDefinition.activities || {})
+			.filter(([, activity]) => activity.type === ActivityType.API && (activity as APIActivity).rateLimit !== undefined)
+			.filter(([, activity]) => !this.rateLimiter.has((activity as APIActivity).rateLimit!))
+			.map(([activityId, activity]) => `API activity '${activityId}' uses rate limiter '${(activity as APIActivity).rateLimit}', which is not configured`);
+		if (limiterErrors.length > 0) {
+			logger.error('ProcessEngine: Process definition validation failed', { errors: limiterErrors });
+			throw new Error(`Process definition validation failed: ${limiterErrors.join('; ')}`);
+		}
 		ProcessLoader.normalize(processDefinition);
+		ProcessLoader.compile(processDefinition);
 
 		await this.processDefinitionRepo.save(processDefinition);
 		logger.info(`ProcessEngine: Process definition '${processDefinition.id}' loaded successfully`);
 	}
 
+	/**
+	 * Get per-step latency metrics collected by the step driver
+	 * @returns StepMetricsSnapshot
+	 */
+	getStepMetrics(): StepMetricsSnapshot {
+		return this.stepMetrics.snapshot();
+	}
+
+	/**
+	 * Get the engine runtime metrics (step latency, per-instance mailbox and
+	 * compiled expression cache)
+	 * @returns EngineMetrics
+	 */
+	getMetrics(): EngineMetrics {
+		return {
+			steps: this.stepMetrics.snapshot(),
+			mailbox: this.mailbox.snapshot(),
+			expressions: ExpressionEvaluator.getCacheStats(),
+			sandbox: this.sandbox?.snapshot(),
+			http: this.httpAgents.snapshot(),
+			responseCache: this.responseCache.snapshot(),
+			coalescing: this.requestCoalescer.snapshot(),
+			resilience: { ...this.resilience.snapshot(), pendingRetries: this.retryTimers.size },
+			rateLimits: this.rateLimiter.snapshot()
+		};
+	}
+
+	/**
+	 * Release engine resources (pending API retries, rate limiter queues, pooled
+	 * HTTP connections and the sandbox worker pool, when enabled)
+	 */
+	async close(): Promise<void> {
+		this.retryTimers.forEach(pending => clearTimeout(pending.timer));
+		this.retryTimers.clear();
+		this.rateLimiter.close();
+		this.httpAgents.close();
+		if (this.sandbox) {
+			await this.sandbox.close();
+		}
+	}
+
 	/**
 	 * Get the FileService instance for direct file operations
 	 * @returns FileService instance
@@ -1603,6 +2220,15 @@ export class ProcessEngine {
 		activityId: string,
 		files: { filename: string; mimeType: string; content: Buffer; description?: string }[],
 		baseVariableName: string = 'generatedFile'
+	): Promise<{ [key: string]: any }> {
+		return await this.mailbox.run(instanceId, () => this.doCreateFileVariablesForActivity(instanceId, activityId, files, baseVariableName));
+	}
+
+	private async doCreateFileVariablesForActivity(
+		instanceId: string,
+		activityId: string,
+		files: { filename: string; mimeType: string; content: Buffer; description?: string }[],
+		baseVariableName: string
 	): Promise<{ [key: string]: any }> {
 		logger.info(`ProcessEngine: Creating file variables for activity '${activityId}' in instance '${instanceId}'`, {
 			fileCount: files.length,
@@ -1674,6 +2300,22 @@ export class ProcessEngine {
 
 
 
+/**
+ * What the step driver should do next. Activity handlers return one of
+ * these instead of recursing into the next activity.
+ * - execute: execute the activity on top of the call stack
+ * - complete: the activity finished - pop its frame and continue the parent
+ * - yield: stop the run (waiting for input, finished or failed)
+ */
+type StepTransition =
+	| { type: 'execute' }
+	| { type: 'complete'; activityId: string }
+	| { type: 'yield'; result: ProcessExecutionResult };
+
+function yieldResult(result: ProcessExecutionResult): StepTransition {
+	return { type: 'yield', result };
+}
+
 /**
  * Result of activity continuation logic
  */
@@ -1682,6 +2324,8 @@ interface ContinuationResult {
 	parentId?: string;
 	position?: number;
 	completed?: boolean; // If true, the parent activity is complete
+	cancelActivityIds?: string[]; // Children that will not run because the parent completed
+	failed?: string; // If set, the parent activity failed with this reason
 }
 
 /**
@@ -1691,8 +2335,7 @@ interface ActivityContinuationStrategy {
 	continue(
 		activity: ActivityInstance,
 		completedFrame: ExecutionFrame,
-		processEngine: ProcessEngine,
-		instanceId: string
+		node: CompiledActivity
 	): Promise<ContinuationResult | null>;
 }
 
@@ -1703,22 +2346,18 @@ class SequenceContinuationStrategy implements ActivityContinuationStrategy {
 	async continue(
 		activity: ActivityInstance,
 		completedFrame: ExecutionFrame,
-		processEngine: ProcessEngine,
-		instanceId: string
+		node: CompiledActivity
 	): Promise<ContinuationResult | null> {
-		const sequence = activity as SequenceActivityInstance;
-		const currentPosition = completedFrame.position || 0;
+		// Use the frame position, falling back to the compiled position table
+		const currentPosition = completedFrame.position ?? node.positions.get(completedFrame.activityId) ?? 0;
 		const nextPosition = currentPosition + 1;
 
 		// Check if there are more activities in the sequence
-		if (nextPosition < sequence.activities.length) {
+		if (nextPosition < node.children.length) {
 			// Execute next activity in sequence
-			const nextActivityRef = sequence.activities[nextPosition];
-			const nextActivityId = extractActivityId(nextActivityRef);
-
 			return {
-				nextActivityId,
-				parentId: sequence.id!,
+				nextActivityId: node.children[nextPosition],
+				parentId: node.id,
 				position: nextPosition
 			};
 		} else {
@@ -1735,8 +2374,7 @@ class SwitchContinuationStrategy implements ActivityContinuationStrategy {
 	async continue(
 		activity: ActivityInstance,
 		completedFrame: ExecutionFrame,
-		processEngine: ProcessEngine,
-		instanceId: string
+		node: CompiledActivity
 	): Promise<ContinuationResult | null> {
 		// Switch activities complete when their selected branch completes
 		return { completed: true };
@@ -1750,14 +2388,180 @@ class BranchContinuationStrategy implements ActivityContinuationStrategy {
 	async continue(
 		activity: ActivityInstance,
 		completedFrame: ExecutionFrame,
-		processEngine: ProcessEngine,
-		instanceId: string
+		node: CompiledActivity
 	): Promise<ContinuationResult | null> {
 		// Branch activities complete when their path completes
 		return { completed: true };
 	}
 }
 
+/**
+ * Continuation strategy for parallel activities.
+ * Only children entered through the call stack come back here, and a child
+ * that completes its frame always succeeded; failed children are settled by
+ * ProcessEngine.failParallelChild
+ */
+class ParallelContinuationStrategy implements ActivityContinuationStrategy {
+	async continue(
+		activity: ActivityInstance,
+		completedFrame: ExecutionFrame,
+		node: CompiledActivity
+	): Promise<ContinuationResult | null> {
+		const parallel = activity as ParallelActivityInstance;
+		settleParallelChild(parallel, completedFrame.activityId, true);
+
+		if (isParallelJoinSatisfied(parallel)) {
+			const cancelActivityIds = parallel.activeActivities || [];
+			parallel.activeActivities = [];
+			parallel.parallelState = 'joined';
+			return { completed: true, cancelActivityIds };
+		}
+
+		const nextActivityId = parallel.activeActivities?.[0];
+		if (!nextActivityId) {
+			parallel.parallelState = 'failed';
+			return { failed: describeFailedJoin(parallel) };
+		}
+
+		return {
+			nextActivityId,
+			parentId: node.id,
+			position: node.positions.get(nextActivityId)
+		};
+	}
+}
+
+/**
+ * The instance as one forEach request sees it: the activity's variables plus
+ * the item (JSON for objects), its fields and its index
+ */
+function forEachItemView(instance: ProcessInstance, activityInstance: APIActivityInstance, as: string, item: any, index: number): ProcessInstance {
+	const text = (value: any) => (value !== null && typeof value === 'object' ? JSON.stringify(value) : value);
+	const itemVariables: Variable[] = [{ name: 'index', type: FieldType.Number, value: index }];
+	if (item !== null && typeof item === 'object' && !Array.isArray(item)) {
+		for (const [name, value] of Object.entries(item)) {
+			itemVariables.push({ name, type: FieldType.Text, value: text(value) });
+		}
+	}
+	itemVariables.push({ name: as, type: FieldType.Text, value: text(item) });
+	return {
+		...instance,
+		activities: {
+			...instance.activities,
+			[activityInstance.id!]: { ...activityInstance, variables: [...(activityInstance.variables || []), ...itemVariables] }
+		}
+	};
+}
+
+/**
+ * Set an activity variable, creating it when missing
+ */
+function setActivityVariable(activityInstance: ActivityInstance, name: string, value: any): void {
+	const variables = activityInstance.variables || (activityInstance.variables = []);
+	const existing = variables.find(v => v.name === name);
+	if (existing) {
+		existing.value = value;
+	} else {
+		variables.push({ name, type: FieldType.Text, value });
+	}
+}
+
+/**
+ * The part of a response an API activity keeps: the extract selections of
+ * the body and the keepHeaders headers
+ */
+function projectResponse(activity: APIActivity, response: APIResponse): APIResponse {
+	const extract = activity.extract && activity.responseMode !== 'file' ? activity.extract : undefined;
+	if (!extract && !activity.keepHeaders) {
+		return response;
+	}
+	let headers = response.headers;
+	if (activity.keepHeaders || extract) {
+		const keep = new Set((activity.keepHeaders || []).map(name => name.toLowerCase()));
+		headers = {};
+		for (const [name, value] of Object.entries(response.headers || {})) {
+			if (keep.has(name.toLowerCase())) headers[name] = value;
+		}
+	}
+	return {
+		status: response.status,
+		statusText: response.statusText,
+		headers,
+		data: extract ? project(response.data, extract) : response.data
+	};
+}
+
+/**
+ * File name of a downloaded response: Content-Disposition, else the last URL
+ * path segment, else the activity ID
+ */
+function responseFilename(headers: { [name: string]: any } | undefined, url: string, activityId: string): string {
+	const disposition = String(headers?.['content-disposition'] ?? '');
+	const match = /filename\*?=(?:UTF-8'')?"?([^";]+)"?/i.exec(disposition);
+	if (match) {
+		try {
+			return decodeURIComponent(match[1].trim());
+		} catch {
+			return match[1].trim();
+		}
+	}
+	try {
+		const segment = new URL(url).pathname.split('/').filter(Boolean).pop();
+		if (segment) return decodeURIComponent(segment);
+	} catch {
+		// Fall back to the activity ID
+	}
+	return activityId;
+}
+
+/**
+ * Number of children that must complete to satisfy a parallel join
+ */
+function requiredJoinCount(activity: ParallelActivity, childCount: number): number {
+	switch (activity.join) {
+		case 'any':
+			return Math.min(1, childCount);
+		case 'n-of-m':
+			return Math.max(1, Math.min(activity.requiredCount ?? childCount, childCount));
+		default:
+			return childCount;
+	}
+}
+
+/**
+ * Move a parallel child from the active list to the completed or failed list
+ */
+function settleParallelChild(parallel: ParallelActivityInstance, childId: string, succeeded: boolean): void {
+	parallel.activeActivities = (parallel.activeActivities || []).filter(id => id !== childId);
+	if (succeeded) {
+		parallel.completedActivities = [...(parallel.completedActivities || []), childId];
+	} else {
+		parallel.failedActivities = [...(parallel.failedActivities || []), childId];
+	}
+}
+
+function isParallelJoinSatisfied(parallel: ParallelActivityInstance): boolean {
+	return (parallel.completedActivities?.length || 0) >= (parallel.requiredCompletions || 0);
+}
+
+/**
+ * The join can no longer be satisfied, even if every active child completes
+ */
+function isParallelJoinFailed(parallel: ParallelActivityInstance): boolean {
+	const possible = (parallel.completedActivities?.length || 0) + (parallel.activeActivities?.length || 0);
+	return possible < (parallel.requiredCompletions || 0);
+}
+
+function isParallelJoinDecided(parallel: ParallelActivityInstance): boolean {
+	return isParallelJoinSatisfied(parallel) || isParallelJoinFailed(parallel);
+}
+
+function describeFailedJoin(parallel: ParallelActivityInstance): string {
+	const completed = parallel.completedActivities?.length || 0;
+	const failed = parallel.failedActivities?.length || 0;
+	return `join not satisfied - ${completed} completed, ${failed} failed, ${parallel.requiredCompletions} required`;
+}
+
 /**
  * Default continuation strategy for simple activities (Human, Compute, API, Terminate)
  */
@@ -1765,8 +2569,7 @@ class DefaultContinuationStrategy implements ActivityContinuationStrategy {
 	async continue(
 		activity: ActivityInstance,
 		completedFrame: ExecutionFrame,
-		processEngine: ProcessEngine,
-		instanceId: string
+		node: CompiledActivity
 	): Promise<ContinuationResult | null> {
 		// Simple activities complete when their child completes
 		return { completed: true };
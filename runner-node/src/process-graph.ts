@@ -0,0 +1,280 @@
+import {
+	Activity,
+	ActivityType,
+	BranchActivity,
+	ParallelActivity,
+	ProcessDefinition,
+	SequenceActivity,
+	SwitchActivity
+} from './models/process-types';
+import { ExpressionDependencies, activityExpression, analyzeExpression } from './expression-dependencies';
+
+/**
+ * A single node of a compiled process graph.
+ * All activity references ('a:xyz') are resolved to plain activity IDs
+ * once at compile time so the engine never re-parses them while stepping.
+ */
+export interface CompiledActivity {
+	readonly id: string;
+	readonly type: ActivityType;
+	readonly definition: Activity;
+	// Resolved child activity IDs in declaration order
+	// (sequence items, parallel items, branch then/else, switch cases followed by default)
+	readonly children: ReadonlyArray<string>;
+	// Container activities that reference this activity as a child
+	readonly parents: ReadonlyArray<string>;
+	// Sequence/parallel position table: child ID -> index of its first occurrence
+	readonly positions: ReadonlyMap<string, number>;
+	// Switch case table: case value -> target activity ID
+	readonly cases: ReadonlyMap<string, string>;
+	readonly defaultTarget?: string;
+	readonly thenTarget?: string;
+	readonly elseTarget?: string;
+	// Read/write sets of the activity's condition, switch expression or code
+	readonly dependencies?: ExpressionDependencies;
+}
+
+/**
+ * Immutable, pre-indexed view of a process definition used by the engine.
+ * Built once per loaded definition version by ProcessLoader.compile()
+ */
+export class ProcessGraph {
+	readonly processId: string;
+	readonly version?: string;
+	readonly startActivityId: string;
+	readonly definition: ProcessDefinition;
+	// Runs of two or more adjacent compute activities in a sequence whose code
+	// only touches state visible to the dependency analysis
+	readonly computeChains: ReadonlyArray<ReadonlyArray<string>>;
+	private readonly nodes: ReadonlyMap<string, CompiledActivity>;
+	private readonly dependents: ReadonlyMap<string, ReadonlyArray<string>>;
+
+	constructor(definition: ProcessDefinition, nodes: Map<string, CompiledActivity>, startActivityId: string) {
+		this.processId = definition.id;
+		this.version = definition.version;
+		this.definition = definition;
+		this.startActivityId = startActivityId;
+		this.nodes = nodes;
+		this.dependents = indexDependents(nodes);
+		this.computeChains = findComputeChains(nodes);
+		Object.freeze(this);
+	}
+
+	/**
+	 * Get the compiled node for an activity ID
+	 */
+	activity(activityId: string): CompiledActivity | undefined {
+		return this.nodes.get(activityId);
+	}
+
+	/**
+	 * Get the child activity ID at a position within a container
+	 */
+	childAt(parentId: string, position: number): string | undefined {
+		const node = this.nodes.get(parentId);
+		return node ? node.children[position] : undefined;
+	}
+
+	/**
+	 * Get the position of a child within a sequence, or undefined if the
+	 * sequence does not reference it
+	 */
+	positionOf(parentId: string, childId: string): number | undefined {
+		return this.nodes.get(parentId)?.positions.get(childId);
+	}
+
+	/**
+	 * Get the containers that reference an activity as a child
+	 */
+	parentsOf(activityId: string): ReadonlyArray<string> {
+		return this.nodes.get(activityId)?.parents || [];
+	}
+
+	/**
+	 * Get the read/write sets of an activity's expression
+	 */
+	dependenciesOf(activityId: string): ExpressionDependencies | undefined {
+		return this.nodes.get(activityId)?.dependencies;
+	}
+
+	/**
+	 * Get the activities whose expressions read values of an activity
+	 * (through JPEL references or activity shortcuts)
+	 */
+	dependentsOf(activityId: string): ReadonlyArray<string> {
+		return this.dependents.get(activityId) || [];
+	}
+
+	get size(): number {
+		return this.nodes.size;
+	}
+}
+
+/**
+ * Resolve an activity reference without throwing on missing values.
+ * Definitions are compiled before (and independently of) validation so
+ * a malformed reference simply produces no edge.
+ */
+function resolveRef(ref?: string): string | undefined {
+	if (!ref || typeof ref !== 'string') return undefined;
+	return ref.startsWith('a:') ? ref.substring(2) : ref;
+}
+
+/**
+ * Index which activities read values of each activity
+ */
+function indexDependents(nodes: ReadonlyMap<string, CompiledActivity>): Map<string, ReadonlyArray<string>> {
+	const dependents = new Map<string, string[]>();
+	const add = (sourceId: string, readerId: string) => {
+		const list = dependents.get(sourceId);
+		if (!list) {
+			dependents.set(sourceId, [readerId]);
+		} else if (!list.includes(readerId)) {
+			list.push(readerId);
+		}
+	};
+
+	for (const node of nodes.values()) {
+		const dependencies = node.dependencies;
+		if (!dependencies) continue;
+		dependencies.reads.activityVariables.forEach(ref => add(ref.activityId, node.id));
+		dependencies.reads.activityProperties.forEach(ref => add(ref.activityId, node.id));
+		dependencies.opaqueActivities.forEach(activityId => add(activityId, node.id));
+	}
+	return dependents;
+}
+
+/**
+ * Find runs of adjacent compute activities inside sequences that could be
+ * executed as one fused step. A compute whose code reaches instance state
+ * through plain JavaScript ends the run.
+ */
+function findComputeChains(nodes: ReadonlyMap<string, CompiledActivity>): ReadonlyArray<ReadonlyArray<string>> {
+	const chains: ReadonlyArray<string>[] = [];
+	const fusable = (activityId: string) => {
+		const node = nodes.get(activityId);
+		return !!node && node.type === ActivityType.Compute && !!node.dependencies && !node.dependencies.dynamic;
+	};
+
+	for (const node of nodes.values()) {
+		if (node.type !== ActivityType.Sequence) continue;
+		let run: string[] = [];
+		for (const childId of [...node.children, undefined]) {
+			if (childId !== undefined && fusable(childId)) {
+				run.push(childId);
+				continue;
+			}
+			if (run.length > 1) chains.push(Object.freeze(run));
+			run = [];
+		}
+	}
+	return Object.freeze(chains);
+}
+
+/**
+ * Compile a (normalized) process definition into a ProcessGraph
+ * @param definition The process definition
+ * @returns the compiled graph
+ */
+export function compileProcessGraph(definition: ProcessDefinition): ProcessGraph {
+	const activities = definition.activities || {};
+	const activityIds = Object.keys(activities);
+	const parents = new Map<string, string[]>();
+
+	const addParent = (childId: string, parentId: string) => {
+		const list = parents.get(childId);
+		if (!list) {
+			parents.set(childId, [parentId]);
+		} else if (!list.includes(parentId)) {
+			list.push(parentId);
+		}
+	};
+
+	// First pass - resolve the outgoing edges of every activity
+	const drafts: Array<Omit<CompiledActivity, 'parents'>> = [];
+	for (const [activityId, activity] of Object.entries(activities)) {
+		const children: string[] = [];
+		const positions = new Map<string, number>();
+		const cases = new Map<string, string>();
+		let defaultTarget: string | undefined;
+		let thenTarget: string | undefined;
+		let elseTarget: string | undefined;
+
+		switch (activity.type) {
+			case ActivityType.Sequence: {
+				const refs = (activity as SequenceActivity).activities || [];
+				refs.forEach(ref => {
+					const childId = resolveRef(ref);
+					if (!childId) return;
+					if (!positions.has(childId)) {
+						positions.set(childId, children.length);
+					}
+					children.push(childId);
+				});
+				break;
+			}
+
+			case ActivityType.Parallel: {
+				// Each child runs once, so duplicate references are dropped
+				const refs = (activity as ParallelActivity).activities || [];
+				refs.forEach(ref => {
+					const childId = resolveRef(ref);
+					if (!childId || positions.has(childId)) return;
+					positions.set(childId, children.length);
+					children.push(childId);
+				});
+				break;
+			}
+
+			case ActivityType.Branch: {
+				const branch = activity as BranchActivity;
+				thenTarget = resolveRef(branch.then);
+				elseTarget = resolveRef(branch.else);
+				if (thenTarget) children.push(thenTarget);
+				if (elseTarget) children.push(elseTarget);
+				break;
+			}
+
+			case ActivityType.Switch: {
+				const switchActivity = activity as SwitchActivity;
+				for (const [caseKey, caseRef] of Object.entries(switchActivity.cases || {})) {
+					const target = resolveRef(caseRef);
+					if (!target) continue;
+					cases.set(caseKey, target);
+					if (!children.includes(target)) children.push(target);
+				}
+				defaultTarget = resolveRef(switchActivity.default);
+				if (defaultTarget && !children.includes(defaultTarget)) children.push(defaultTarget);
+				break;
+			}
+		}
+
+		children.forEach(childId => addParent(childId, activityId));
+
+		const expression = activityExpression(activity);
+
+		drafts.push({
+			id: activityId,
+			type: activity.type,
+			definition: activity,
+			children: Object.freeze(children),
+			positions,
+			cases,
+			defaultTarget,
+			thenTarget,
+			elseTarget,
+			dependencies: expression ? analyzeExpression(expression, activityIds) : undefined
+		});
+	}
+
+	// Second pass - attach the parent back-references
+	const nodes = new Map<string, CompiledActivity>();
+	for (const draft of drafts) {
+		nodes.set(draft.id, Object.freeze({
+			...draft,
+			parents: Object.freeze(parents.get(draft.id) || [])
+		}));
+	}
+
+	return new ProcessGraph(definition, nodes, resolveRef(definition.start) || '');
+}
@@ -1,4 +1,7 @@
 import { ProcessDefinition } from './models/process-types';
+import { ProcessGraph, compileProcessGraph } from './process-graph';
+import { ExpressionEvaluator } from './expression-evaluator';
+import { compileSelector } from './utils/json-projection';
 import { logger } from './logger';
 import fs from 'fs';
 import path from 'path';
@@ -23,6 +26,11 @@ export class ProcessLoader {
 	private ajv: Ajv | null = null;
 	private schemaLoadError: string | null = null;
 
+	// compiled graphs, one per loaded definition version. Repositories hand out
+	// shallow copies of a definition that share its activities map, so the map
+	// identifies the version and lets stale graphs be garbage collected.
+	private compiledGraphs = new WeakMap<object, ProcessGraph>();
+
 	/**
 	 * Load and compile the JSON Schema for process validation (cached)
 	 */
@@ -182,6 +190,30 @@ export class ProcessLoader {
 					}
 				}
 
+				if (activity.type === 'api' && (activity as any).forEach) {
+					const forEach = (activity as any).forEach;
+					if (typeof forEach.items !== 'string' || !forEach.items.trim()) {
+						errors.push(`Activity '${key}' forEach needs an 'items' expression`);
+					}
+					if (forEach.concurrency !== undefined && (!Number.isInteger(forEach.concurrency) || forEach.concurrency < 1)) {
+						errors.push(`Activity '${key}' forEach concurrency must be a positive integer`);
+					}
+					if ((activity as any).responseMode === 'file') {
+						errors.push(`Activity '${key}' forEach cannot be combined with responseMode 'file'`);
+					}
+				}
+
+				// API response selectors must parse
+				if (activity.type === 'api' && (activity as any).extract) {
+					for (const [name, selector] of Object.entries((activity as any).extract as { [name: string]: string })) {
+						try {
+							compileSelector(selector);
+						} catch (err: any) {
+							errors.push(`Activity '${key}' extract '${name}': ${err.message}`);
+						}
+					}
+				}
+
 				// Validate field references in compute activity code
 				if (activity.type === 'compute' && (activity as any).code) {
 					const codeLines = (activity as any).code as string[];
@@ -230,6 +262,27 @@ export class ProcessLoader {
 					}
 					break;
 
+				case 'parallel':
+					const parallelActivities = (activity as any).activities as string[] | undefined;
+					if (!parallelActivities || !Array.isArray(parallelActivities) || parallelActivities.length === 0) {
+						errors.push(`Activity '${key}' of type 'parallel' must have a non-empty 'activities' array`);
+					} else {
+						for (const parallelRef of parallelActivities) {
+							const id = extractRef(parallelRef);
+							if (!id || !activityKeys.has(id)) {
+								errors.push(`Activity '${key}' parallel references unknown activity '${parallelRef}'`);
+							}
+						}
+						const join = (activity as any).join || 'all';
+						const requiredCount = (activity as any).requiredCount;
+						if (!['all', 'any', 'n-of-m'].includes(join)) {
+							errors.push(`Activity '${key}' parallel join '${join}' must be one of all, any, n-of-m`);
+						} else if (join === 'n-of-m' && (!Number.isInteger(requiredCount) || requiredCount < 1 || requiredCount > parallelActivities.length)) {
+							errors.push(`Activity '${key}' parallel join 'n-of-m' needs a 'requiredCount' between 1 and ${parallelActivities.length}`);
+						}
+					}
+					break;
+
 				case 'branch':
 					const thenRef = extractRef((activity as any).then);
 					const elseRef = extractRef((activity as any).else);
@@ -347,6 +400,31 @@ export class ProcessLoader {
 			}
 		}
 	}
+
+	/**
+	 * Get the immutable compiled graph for a process definition, compiling it on
+	 * first use together with the definition's expressions. The definition should
+	 * already be normalized.
+	 * @param processDefinition The process definition
+	 * @returns The compiled ProcessGraph
+	 */
+	compile(processDefinition: ProcessDefinition): ProcessGraph {
+		const key = processDefinition.activities || processDefinition;
+		let graph = this.compiledGraphs.get(key);
+		if (!graph) {
+			graph = compileProcessGraph(processDefinition);
+			this.compiledGraphs.set(key, graph);
+			const expressions = new ExpressionEvaluator().precompile(processDefinition);
+			logger.debug('ProcessLoader: compiled process graph', {
+				processId: processDefinition.id,
+				version: processDefinition.version,
+				activities: graph.size,
+				expressions,
+				computeChains: graph.computeChains
+			});
+		}
+		return graph;
+	}
 }
 
 export default new ProcessLoader();
@@ -0,0 +1,277 @@
+import { logger } from './logger';
+import { APIRequestError } from './api-resilience';
+
+/**
+ * Token bucket settings of one limiter
+ */
+export interface RateLimit {
+	// Tokens added per second
+	requestsPerSecond: number;
+	// Bucket size - requests that may go out at once after an idle period (default requestsPerSecond, at least 1)
+	burst?: number;
+	// Tokens reserved ahead of time for deferred requests; further ones are rejected (default 1000)
+	maxQueue?: number;
+	// Longest a request is deferred for a token; a longer wait is rejected (default 30000)
+	maxWaitMs?: number;
+}
+
+/**
+ * Options for the API rate limiters
+ */
+export interface RateLimiterOptions {
+	// Limits keyed by host name, or host:port to target a single port
+	hosts?: { [host: string]: RateLimit };
+	// Named limiters, referenced by the rateLimit property of API activities
+	limiters?: { [name: string]: RateLimit };
+}
+
+/**
+ * Counters of one limiter
+ */
+export interface LimiterStats {
+	name: string;
+	tokens: number;
+	// Reserved tokens not due yet (requests deferred until their token is due)
+	queued: number;
+	// Requests that got a token, and those that got one ahead of time
+	granted: number;
+	delayed: number;
+	// Requests rejected because too many tokens were reserved or the wait was past maxWaitMs
+	rejected: number;
+	timedOut: number;
+	// Times a 429 Retry-After paused the bucket, and the end of the current pause
+	paused: number;
+	pausedUntil?: string;
+}
+
+/**
+ * Snapshot of the API rate limiters
+ */
+export interface RateLimiterStats {
+	queued: number;
+	limiters: LimiterStats[];
+}
+
+/**
+ * A request found no token free; one is reserved for it and due after retryAfterMs.
+ * The request is sent then without taking another token. reserved is false
+ * for a caller that joined a coalesced request and got the error of the caller
+ * whose reservation it was: it holds no token and takes one on its next attempt.
+ */
+export class RateLimitedError extends APIRequestError {
+	constructor(readonly limiter: string, delayMs: number, host?: string, readonly reserved: boolean = true) {
+		super(`Rate limiter '${limiter}' has no token for ${delayMs}ms`, true, delayMs, host);
+		this.name = 'RateLimitedError';
+	}
+}
+
+const DEFAULT_MAX_QUEUE = 1000;
+const DEFAULT_MAX_WAIT_MS = 30000;
+
+/**
+ * A token bucket that hands out tokens ahead of time. A request that finds no
+ * token free takes the next one to come (the count goes below zero) and is
+ * told when it is due, so tokens are still given out in arrival order.
+ */
+class TokenBucket {
+	private tokens: number;
+	private refilledAt = Date.now();
+	private pausedUntil = 0;
+	private readonly ratePerMs: number;
+	private readonly burst: number;
+	private readonly maxQueue: number;
+	private readonly maxWaitMs: number;
+	private granted = 0;
+	private delayed = 0;
+	private rejected = 0;
+	private timedOut = 0;
+	private paused = 0;
+
+	constructor(readonly name: string, limit: RateLimit) {
+		this.ratePerMs = Math.max(0, Number(limit.requestsPerSecond) || 0) / 1000;
+		this.burst = Math.max(1, limit.burst ?? Math.ceil(limit.requestsPerSecond));
+		this.maxQueue = Math.max(0, limit.maxQueue ?? DEFAULT_MAX_QUEUE);
+		this.maxWaitMs = Math.max(0, limit.maxWaitMs ?? DEFAULT_MAX_WAIT_MS);
+		this.tokens = this.burst;
+	}
+
+	reserve(): number {
+		const wait = this.waitEstimate();
+		if (wait > 0) {
+			if (this.reserved() >= this.maxQueue) {
+				this.rejected++;
+				throw new APIRequestError(`Rate limiter '${this.name}' queue is full`, true, Math.min(wait, this.maxWaitMs));
+			}
+			if (wait > this.maxWaitMs) {
+				this.timedOut++;
+				throw new APIRequestError(`Rate limiter '${this.name}' wait exceeded ${this.maxWaitMs}ms`, true, this.maxWaitMs);
+			}
+			this.delayed++;
+		}
+		this.tokens -= 1;
+		this.granted++;
+		return wait;
+	}
+
+	/**
+	 * Time left of the current pause
+	 */
+	pauseLeft(): number {
+		return Math.max(0, this.pausedUntil - Date.now());
+	}
+
+	/**
+	 * Stop handing out tokens until the server's Retry-After has passed
+	 */
+	pause(ms: number): void {
+		const until = Date.now() + ms;
+		if (until <= this.pausedUntil) {
+			return;
+		}
+		this.refill();
+		this.pausedUntil = until;
+		this.paused++;
+		// Whatever was saved up is not usable after a 429; reserved tokens stay owed
+		this.tokens = Math.min(0, this.tokens);
+		logger.warn('RateLimiter: paused after 429', { limiter: this.name, ms });
+	}
+
+	snapshot(): LimiterStats {
+		this.refill();
+		return {
+			name: this.name,
+			tokens: Math.max(0, Math.floor(this.tokens)),
+			queued: this.reserved(),
+			granted: this.granted,
+			delayed: this.delayed,
+			rejected: this.rejected,
+			timedOut: this.timedOut,
+			paused: this.paused,
+			pausedUntil: this.pausedUntil > Date.now() ? new Date(this.pausedUntil).toISOString() : undefined
+		};
+	}
+
+	private reserved(): number {
+		return this.tokens < 0 ? Math.ceil(-this.tokens) : 0;
+	}
+
+	private refill(): void {
+		const now = Date.now();
+		// No tokens accrue while paused
+		const from = Math.max(this.refilledAt, this.pausedUntil);
+		if (now > from) {
+			this.tokens = Math.min(this.burst, this.tokens + (now - from) * this.ratePerMs);
+		}
+		this.refilledAt = Math.max(now, this.refilledAt);
+	}
+
+	/**
+	 * Time until the next token to be handed out is due
+	 */
+	private waitEstimate(): number {
+		this.refill();
+		const pause = this.pauseLeft();
+		if (this.tokens >= 1) {
+			return pause;
+		}
+		return this.ratePerMs > 0 ? pause + Math.ceil((1 - this.tokens) / this.ratePerMs) : Infinity;
+	}
+}
+
+/**
+ * Token bucket rate limiters for API activities, per host or named.
+ * Nobody waits on a limiter: a request without a free token is given the
+ * next one and deferred until it is due, for at most maxWaitMs; a 429 with
+ * Retry-After pauses the limiter for that long.
+ */
+export class RateLimiter {
+	private buckets = new Map<string, TokenBucket>();
+
+	constructor(private readonly options: RateLimiterOptions = {}) {}
+
+	/**
+	 * Whether a named limiter is configured
+	 */
+	has(name: string): boolean {
+		return !!this.options.limiters?.[name];
+	}
+
+	/**
+	 * The limiter a request goes through: the named one, else the one of its
+	 * host (host:port before host name), else none
+	 * @throws APIRequestError (not retryable) when the activity names a limiter that is not configured
+	 */
+	limiterFor(url: string, name?: string): string | undefined {
+		if (name) {
+			if (!this.has(name)) {
+				throw new APIRequestError(`Rate limiter '${name}' is not configured`, false);
+			}
+			return `limiter:${name}`;
+		}
+		const hosts = this.options.hosts;
+		if (!hosts) {
+			return undefined;
+		}
+		let parsed: URL;
+		try {
+			parsed = new URL(url);
+		} catch {
+			return undefined;
+		}
+		if (hosts[parsed.host]) return `host:${parsed.host}`;
+		if (hosts[parsed.hostname]) return `host:${parsed.hostname}`;
+		return undefined;
+	}
+
+	/**
+	 * Take a token of a limiter, now or ahead of time
+	 * @param key A key returned by limiterFor
+	 * @returns 0 when the request may go out now, else the time until its token is due
+	 * @throws APIRequestError (retryable) when too many tokens are reserved or the wait is past maxWaitMs
+	 */
+	reserve(key: string): number {
+		return this.bucket(key).reserve();
+	}
+
+	/**
+	 * Time left of a 429 pause of a limiter (0 when it is not paused)
+	 */
+	pausedFor(key: string): number {
+		return this.buckets.get(key)?.pauseLeft() ?? 0;
+	}
+
+	pause(key: string, ms: number): void {
+		if (ms > 0) {
+			this.bucket(key).pause(ms);
+		}
+	}
+
+	snapshot(): RateLimiterStats {
+		const limiters = Array.from(this.buckets.values()).map(bucket => bucket.snapshot());
+		return {
+			queued: limiters.reduce((sum, limiter) => sum + limiter.queued, 0),
+			limiters
+		};
+	}
+
+	/**
+	 * Forget every limiter's state
+	 */
+	close(): void {
+		this.buckets.clear();
+	}
+
+	private bucket(key: string): TokenBucket {
+		let bucket = this.buckets.get(key);
+		if (!bucket) {
+			const [kind, name] = [key.substring(0, key.indexOf(':')), key.substring(key.indexOf(':') + 1)];
+			const limit = kind === 'limiter' ? this.options.limiters?.[name] : this.options.hosts?.[name];
+			if (!limit) {
+				throw new Error(`Rate limiter '${name}' is not configured`);
+			}
+			bucket = new TokenBucket(name, limit);
+			this.buckets.set(key, bucket);
+		}
+		return bucket;
+	}
+}
@@ -0,0 +1,292 @@
+import * as fsp from 'fs/promises';
+import * as path from 'path';
+import { InMemoryProcessInstanceRepository } from './in-memory-process-instance-repository';
+import { ProcessInstance } from '../models/instance-types';
+import { WriteAheadLog, WriteAheadLogOptions, WriteAheadLogStats, readRecords, syncDirectory } from './write-ahead-log';
+import { parseInstance } from './instance-json';
+import { logger } from '../logger';
+
+/**
+ * Options for the file-backed instance repository
+ */
+export interface FileInstanceRepositoryOptions extends WriteAheadLogOptions {
+	// Directory for the log and snapshot files (created if missing)
+	dir: string;
+	// Log size that triggers a snapshot and a new log generation (default 64 MB)
+	compactBytes?: number;
+}
+
+/**
+ * What startup found and how long replay took
+ */
+export interface RecoveryStats {
+	snapshotGeneration?: number;
+	snapshotInstances: number;
+	logRecords: number;
+	// Logs with a record torn by a crash cut off at their end
+	skippedLogs: number;
+	durationMs: number;
+}
+
+type LogRecord =
+	| { op: 'save'; instance: ProcessInstance }
+	| { op: 'delete'; ids: string[] }
+	| { op: 'clear' };
+
+const DEFAULT_COMPACT_BYTES = 64 * 1024 * 1024;
+const SNAPSHOT_BATCH = 500;
+
+/**
+ * Process instances kept in memory (with the in-memory indexes) and made
+ * durable in a local directory: every mutation is appended to a write-ahead
+ * log before it is applied, and resolves once its group commit is fsynced.
+ * When the log grows past compactBytes, a snapshot of all instances is
+ * written and older files are removed. Startup loads the newest snapshot and
+ * replays the logs written since.
+ *
+ * Files: wal-<generation>.log and snapshot-<generation>.jsonl. A snapshot of
+ * generation g covers every log before g, so recovery replays logs >= g. Log
+ * records are whole-instance writes and deletes, so replaying records that a
+ * snapshot already contains is harmless. A record torn by a crash at the end
+ * of the newest log is cut off; an unreadable record anywhere else means lost
+ * writes, and startup fails as it does for a corrupt snapshot.
+ */
+export class FileProcessInstanceRepository extends InMemoryProcessInstanceRepository {
+	private log!: WriteAheadLog;
+	private compacting?: Promise<void>;
+	private recovery!: RecoveryStats;
+	private readonly compactBytes: number;
+
+	private constructor(private readonly options: FileInstanceRepositoryOptions) {
+		super();
+		this.compactBytes = options.compactBytes ?? DEFAULT_COMPACT_BYTES;
+	}
+
+	/**
+	 * Open the repository in a directory, recovering the instances stored there
+	 */
+	static async open(options: FileInstanceRepositoryOptions): Promise<FileProcessInstanceRepository> {
+		const repository = new FileProcessInstanceRepository(options);
+		await repository.recover();
+		return repository;
+	}
+
+	async save(instance: ProcessInstance): Promise<void> {
+		// Copied now, as the caller keeps changing the instance while the log is written
+		const copy = { ...instance };
+		await this.log.append({ op: 'save', instance: copy });
+		await super.save(copy);
+		this.compactIfNeeded();
+	}
+
+	async delete(instanceId: string): Promise<boolean> {
+		if (!(await super.exists(instanceId))) {
+			return super.delete(instanceId);
+		}
+		await this.log.append({ op: 'delete', ids: [instanceId] });
+		const deleted = await super.delete(instanceId);
+		this.compactIfNeeded();
+		return deleted;
+	}
+
+	async deleteCompletedOlderThan(date: Date): Promise<number> {
+		const ids = this.completedOlderThan(date);
+		if (ids.length === 0) {
+			return 0;
+		}
+		await this.log.append({ op: 'delete', ids });
+		for (const id of ids) {
+			await super.delete(id);
+		}
+		this.compactIfNeeded();
+		return ids.length;
+	}
+
+	async clear(): Promise<void> {
+		await this.log.append({ op: 'clear' });
+		await super.clear();
+	}
+
+	/**
+	 * Write a snapshot now and start a new log generation
+	 */
+	async compact(): Promise<void> {
+		if (!this.compacting) {
+			this.compacting = this.writeSnapshot().finally(() => {
+				this.compacting = undefined;
+			});
+		}
+		return this.compacting;
+	}
+
+	/**
+	 * Finish pending writes and a running compaction, then close the log
+	 */
+	async close(): Promise<void> {
+		await this.compacting?.catch(() => undefined);
+		await this.log.close();
+	}
+
+	recoveryStats(): RecoveryStats {
+		return this.recovery;
+	}
+
+	logStats(): WriteAheadLogStats {
+		return this.log.snapshot();
+	}
+
+	private async recover(): Promise<void> {
+		const started = Date.now();
+		const dir = this.options.dir;
+		await fsp.mkdir(dir, { recursive: true });
+
+		const files = await fsp.readdir(dir);
+		for (const file of files.filter(f => f.endsWith('.tmp'))) {
+			await fsp.rm(path.join(dir, file), { force: true });
+		}
+		const snapshots = generations(files, 'snapshot-', '.jsonl');
+		const snapshotGeneration = snapshots.length > 0 ? snapshots[snapshots.length - 1] : undefined;
+		const from = snapshotGeneration ?? 0;
+		const logs = generations(files, 'wal-', '.log').filter(generation => generation >= from);
+
+		this.recovery = { snapshotGeneration, snapshotInstances: 0, logRecords: 0, skippedLogs: 0, durationMs: 0 };
+
+		if (snapshotGeneration !== undefined) {
+			const file = this.snapshotPath(snapshotGeneration);
+			const result = await readRecords(file, async line => {
+				await super.save(parseInstance(line));
+				this.recovery.snapshotInstances++;
+			});
+			if (result.skipped) {
+				throw new Error(`Snapshot ${file} is corrupt after ${this.recovery.snapshotInstances} instances`);
+			}
+		}
+
+		let validBytes = 0;
+		for (const [index, generation] of logs.entries()) {
+			const file = this.logPath(generation);
+			const result = await readRecords(file, async line => {
+				await this.apply(parseInstance<LogRecord>(line));
+				this.recovery.logRecords++;
+			});
+			// A crash can only tear the last append, and only the newest log is appended to
+			if (result.corrupt || (result.skipped && index < logs.length - 1)) {
+				throw new Error(`Log ${file} is corrupt at byte ${result.validBytes}: records follow one that cannot be read`);
+			}
+			if (result.skipped) {
+				this.recovery.skippedLogs++;
+				logger.warn('FileProcessInstanceRepository: skipped a torn record at the end of the log', {
+					file,
+					validBytes: result.validBytes
+				});
+			}
+			validBytes = result.validBytes;
+		}
+
+		const generation = logs.length > 0 ? logs[logs.length - 1] : Math.max(from, 1);
+		this.log = await WriteAheadLog.open(g => this.logPath(g), generation, logs.length > 0 ? validBytes : 0, this.options);
+		this.recovery.durationMs = Date.now() - started;
+
+		logger.info('FileProcessInstanceRepository: recovered instances', {
+			dir,
+			instances: await this.count(),
+			...this.recovery
+		});
+	}
+
+	// Replay one log record; applying it again has no further effect
+	private async apply(record: LogRecord): Promise<void> {
+		switch (record.op) {
+			case 'save':
+				await super.save(record.instance);
+				break;
+			case 'delete':
+				for (const id of record.ids) {
+					if (await super.exists(id)) await super.delete(id);
+				}
+				break;
+			case 'clear':
+				await super.clear();
+				break;
+		}
+	}
+
+	private compactIfNeeded(): void {
+		if (!this.compacting && this.log.snapshot().bytes >= this.compactBytes) {
+			this.compact().catch(error => {
+				logger.error('FileProcessInstanceRepository: compaction failed', {
+					dir: this.options.dir,
+					error: error instanceof Error ? error.message : String(error)
+				});
+			});
+		}
+	}
+
+	private async writeSnapshot(): Promise<void> {
+		const started = Date.now();
+		const generation = this.log.rotate();
+		// Once the log has moved on, every earlier record is durable and applied
+		await this.log.flush();
+
+		const file = this.snapshotPath(generation);
+		const tmp = `${file}.tmp`;
+		const handle = await fsp.open(tmp, 'w');
+		let instances = 0;
+		try {
+			let lines: string[] = [];
+			for await (const instance of this.iterate({}, SNAPSHOT_BATCH)) {
+				lines.push(JSON.stringify(instance));
+				if (lines.length >= SNAPSHOT_BATCH) {
+					await handle.appendFile(lines.join('\n') + '\n');
+					instances += lines.length;
+					lines = [];
+				}
+			}
+			if (lines.length > 0) {
+				await handle.appendFile(lines.join('\n') + '\n');
+				instances += lines.length;
+			}
+			await handle.sync();
+		} finally {
+			await handle.close();
+		}
+		await fsp.rename(tmp, file);
+		await syncDirectory(this.options.dir);
+
+		// The new snapshot covers everything before its generation
+		const files = await fsp.readdir(this.options.dir);
+		for (const old of generations(files, 'snapshot-', '.jsonl').filter(g => g < generation)) {
+			await fsp.rm(this.snapshotPath(old), { force: true });
+		}
+		for (const old of generations(files, 'wal-', '.log').filter(g => g < generation)) {
+			await fsp.rm(this.logPath(old), { force: true });
+		}
+
+		logger.info('FileProcessInstanceRepository: wrote snapshot', {
+			generation,
+			instances,
+			durationMs: Date.now() - started
+		});
+	}
+
+	private logPath(generation: number): string {
+		return path.join(this.options.dir, `wal-${pad(generation)}.log`);
+	}
+
+	private snapshotPath(generation: number): string {
+		return path.join(this.options.dir, `snapshot-${pad(generation)}.jsonl`);
+	}
+}
+
+function pad(generation: number): string {
+	return String(generation).padStart(8, '0');
+}
+
+// Generations of the files with a prefix and suffix, ascending
+function generations(files: string[], prefix: string, suffix: string): number[] {
+	return files
+		.filter(file => file.startsWith(prefix) && file.endsWith(suffix))
+		.map(file => Number(file.substring(prefix.length, file.length - suffix.length)))
+		.filter(generation => Number.isInteger(generation))
+		.sort((a, b) => a - b);
+}
@@ -17,13 +17,13 @@ export class InMemoryFileRepository implements FileRepository {
 
 	async store(uploadRequest: FileUploadRequest): Promise<FileReference> {
 		const fileId = uuidv4();
-		const checksum = createHash('sha256').update(uploadRequest.content).digest('hex');
+		const { content, checksum } = await readContent(uploadRequest);
 		
 		const metadata: FileMetadata = {
 			id: fileId,
 			filename: uploadRequest.filename,
 			mimeType: uploadRequest.mimeType,
-			sizeBytes: uploadRequest.content.length,
+			sizeBytes: content.length,
 			createdAt: new Date(),
 			description: uploadRequest.description,
 			tags: uploadRequest.tags || [],
@@ -40,7 +40,7 @@ export class InMemoryFileRepository implements FileRepository {
 		// Store file data with metadata, content, and association
 		this.files.set(fileId, {
 			metadata,
-			content: uploadRequest.content,
+			content,
 			association
 		});
 
@@ -258,4 +258,32 @@ export class InMemoryFileRepository implements FileRepository {
 		}
 		return `https://fakeurl.com/files/${fd.association.processInstanceId}/${fileId}/thumbnail`;
 	}
-}
\ No newline at end of file
+}
+
+/**
+ * Read upload content, hashing streamed chunks as they arrive
+ * @throws Error when the content exceeds the request's maxBytes
+ */
+export async function readContent(uploadRequest: FileUploadRequest): Promise<{ content: Buffer; checksum: string }> {
+	const hash = createHash('sha256');
+	const maxBytes = uploadRequest.maxBytes ?? Infinity;
+	if (Buffer.isBuffer(uploadRequest.content)) {
+		if (uploadRequest.content.length > maxBytes) {
+			throw new Error(`File '${uploadRequest.filename}' exceeds ${maxBytes} bytes`);
+		}
+		return { content: uploadRequest.content, checksum: hash.update(uploadRequest.content).digest('hex') };
+	}
+
+	const chunks: Buffer[] = [];
+	let size = 0;
+	for await (const chunk of uploadRequest.content) {
+		size += chunk.length;
+		if (size > maxBytes) {
+			throw new Error(`File '${uploadRequest.filename}' exceeds ${maxBytes} bytes`);
+		}
+		const buffer = Buffer.isBuffer(chunk) ? chunk : Buffer.from(chunk);
+		hash.update(buffer);
+		chunks.push(buffer);
+	}
+	return { content: Buffer.concat(chunks, size), checksum: hash.digest('hex') };
+}
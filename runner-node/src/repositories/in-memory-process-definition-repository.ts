@@ -1,5 +1,6 @@
 import { ProcessDefinition, ProcessTemplateFlyweight } from '../models/process-types';
 import { ProcessDefinitionRepository } from './process-definition-repository';
+import { Page, PageRequest, decodeCursor, encodeCursor, pageLimit } from './pagination';
 import fs from 'fs';
 import path from 'path';
 import { logger } from '../logger';
@@ -76,6 +77,19 @@ export class InMemoryProcessDefinitionRepository implements ProcessDefinitionRep
 		}
 	}
 
+	async listTemplatesPage(page: PageRequest = {}): Promise<Page<ProcessTemplateFlyweight>> {
+		const limit = pageLimit(page);
+		const after = page.cursor ? decodeCursor(page.cursor, ['string'])[0] as string : undefined;
+		const templates = (await this.listAvailableTemplates())
+			.filter(template => after === undefined || template.id > after)
+			.sort((a, b) => (a.id < b.id ? -1 : a.id > b.id ? 1 : 0));
+		const items = templates.slice(0, limit);
+		return {
+			items,
+			nextCursor: templates.length > limit ? encodeCursor([items[items.length - 1].id]) : undefined
+		};
+	}
+
 	/**
 	 * Find the file path for a process ID by scanning the samples directory
 	 */
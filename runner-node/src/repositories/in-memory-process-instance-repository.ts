@@ -1,6 +1,9 @@
-import { ProcessInstanceRepository } from './process-instance-repository';
+import { InstanceQuery, ProcessInstanceRepository } from './process-instance-repository';
 import { logger } from '../logger';
 import { ProcessInstance, ProcessInstanceFlyweight, ProcessStatus } from '../models/instance-types';
+import { InstanceIndexes } from './instance-indexes';
+import { InstanceStatistics, InstanceStatisticsSnapshot } from './instance-statistics';
+import { Page, PageRequest, decodeCursor, encodeCursor, iteratePages, pageLimit } from './pagination';
 
 // using centralized logger
 
@@ -8,9 +11,13 @@ import { ProcessInstance, ProcessInstanceFlyweight, ProcessStatus } from '../mod
  * In-memory implementation of ProcessInstanceRepository
  * Good for development, testing, and small deployments
  * Stores instances in memory only (not persisted to disk)
+ * Queries by status, process and date go through secondary indexes kept up
+ * to date by save and delete, so they never scan every stored instance
  */
 export class InMemoryProcessInstanceRepository implements ProcessInstanceRepository {
 	private instances = new Map<string, ProcessInstance>();
+	private indexes = new InstanceIndexes();
+	private statistics = new InstanceStatistics();
 
 	constructor() {
 		logger.info('Initialized InMemoryProcessInstanceRepository', {
@@ -21,43 +28,10 @@ export class InMemoryProcessInstanceRepository implements ProcessInstanceReposit
 	}
 
 	async save(instance: ProcessInstance): Promise<void> {
-		const operation = this.instances.has(instance.instanceId) ? 'update' : 'create';
-
-
-		// Enhanced logging with field values including human task form data
-		const variableValues = instance.variables ? Object.entries(instance.variables).reduce((acc, [key, value]) => {
-			acc[key] = value;
-			return acc;
-		}, {} as any) : {};
-
-		const activityStatuses = instance.activities ? Object.entries(instance.activities).reduce((acc, [key, activity]) => {
-			acc[key] = {
-				type: activity.type,
-				status: activity.status,
-				startedAt: activity.startedAt,
-				completedAt: activity.completedAt,
-				// Include error if present
-				...(activity.error ? { error: activity.error } : {}),
-				// Include pass/fail status
-				...(activity.passFail ? { passFail: activity.passFail } : {})
-			};
-			return acc;
-		}, {} as any) : {};
-
-		// Extract all form field values from human activities
-		const stepFieldValues: any = {};
-		if (instance.activities) {
-			Object.entries(instance.activities).forEach(([activityId, activity]) => {
-				if (activity.type === 'human' && (activity as any).formData) {
-					stepFieldValues[activityId] = (activity as any).formData;
-				}
-			});
-		}
-
-
-
+		const previousStatus = this.indexes.status(instance.instanceId);
 		this.instances.set(instance.instanceId, { ...instance });
-
+		this.indexes.update(instance);
+		this.statistics.record(instance, previousStatus);
 	}
 
 	async findById(instanceId: string): Promise<ProcessInstance > {
@@ -102,8 +76,12 @@ export class InMemoryProcessInstanceRepository implements ProcessInstanceReposit
 	async delete(instanceId: string): Promise<boolean> {
 		logger.debug(`Attempting to delete process instance: '${instanceId}'`);
 
-		const existed = this.instances.has(instanceId);
+		const stored = this.instances.get(instanceId);
 		const deleted = this.instances.delete(instanceId);
+		this.indexes.remove(instanceId);
+		if (stored) {
+			this.statistics.remove(stored.processId, stored.status);
+		}
 
 		if (deleted) {
 			logger.info(`Process instance deleted successfully`, {
@@ -125,15 +103,7 @@ export class InMemoryProcessInstanceRepository implements ProcessInstanceReposit
 	}
 
 	async findByStatus(status: ProcessStatus): Promise<ProcessInstance[]> {
-		const result: ProcessInstance[] = [];
-
-		for (const instance of this.instances.values()) {
-			if (instance.status === status) {
-				result.push({ ...instance });
-			}
-		}
-
-		return result;
+		return this.copies(this.indexes.withStatus(status));
 	}
 
 	async findRunningInstances(): Promise<ProcessInstance[]> {
@@ -151,57 +121,43 @@ export class InMemoryProcessInstanceRepository implements ProcessInstanceReposit
 	async findByProcessId(processId: string): Promise<ProcessInstanceFlyweight[]> {
 		const result: ProcessInstanceFlyweight[] = [];
 
-		for (const instance of this.instances.values()) {
-			if (instance.processId === processId) {
-				result.push({
-					instanceId: instance.instanceId,
-					processId: instance.processId,
-					processName: instance.processName,
-					title: instance.title,
-					status: instance.status,
-					startedAt: instance.startedAt,
-					completedAt: instance.completedAt
-				});
-			}
+		for (const instanceId of this.indexes.ofProcess(processId)) {
+			result.push(this.flyweight(this.instances.get(instanceId)!));
 		}
 
 		return result;
 	}
 
 	async findByProcessIdAndStatus(processId: string, status: ProcessStatus): Promise<ProcessInstance[]> {
-		const result: ProcessInstance[] = [];
-
-		for (const instance of this.instances.values()) {
-			if (instance.processId === processId && instance.status === status) {
-				result.push({ ...instance });
-			}
-		}
-
-		return result;
+		return this.copies(this.indexes.ofProcessWithStatus(processId, status));
 	}
 
+	/**
+	 * Instances started within the range (inclusive), oldest first
+	 */
 	async findByDateRange(startDate: Date, endDate: Date): Promise<ProcessInstance[]> {
-		const result: ProcessInstance[] = [];
-
-		for (const instance of this.instances.values()) {
-			if (instance.startedAt >= startDate && instance.startedAt <= endDate) {
-				result.push({ ...instance });
-			}
-		}
-
-		return result;
+		return this.copies(this.indexes.startedAt.range(startDate.getTime(), endDate.getTime()));
 	}
 
 	async findActiveInstancesOlderThan(date: Date): Promise<ProcessInstance[]> {
-		const result: ProcessInstance[] = [];
+		return this.copies(this.indexes.withStatus(ProcessStatus.Running).before(date.getTime()));
+	}
 
-		for (const instance of this.instances.values()) {
-			if (instance.status === ProcessStatus.Running && instance.startedAt < date) {
-				result.push({ ...instance });
-			}
-		}
+	async findPage(query: InstanceQuery, page: PageRequest = {}): Promise<Page<ProcessInstance>> {
+		const ids = this.pageIds(query, page);
+		return { items: this.copies(ids.items), nextCursor: ids.nextCursor };
+	}
 
-		return result;
+	async findByProcessIdPage(processId: string, page: PageRequest = {}): Promise<Page<ProcessInstanceFlyweight>> {
+		const ids = this.pageIds({ processId }, page);
+		return {
+			items: ids.items.map(instanceId => this.flyweight(this.instances.get(instanceId)!)),
+			nextCursor: ids.nextCursor
+		};
+	}
+
+	iterate(query: InstanceQuery = {}, batchSize?: number): AsyncIterable<ProcessInstance> {
+		return iteratePages(page => this.findPage(query, page), batchSize);
 	}
 
 
@@ -210,73 +166,84 @@ export class InMemoryProcessInstanceRepository implements ProcessInstanceReposit
 	}
 
 	async countByStatus(status: ProcessStatus): Promise<number> {
-		let count = 0;
-
-		for (const instance of this.instances.values()) {
-			if (instance.status === status) {
-				count++;
-			}
-		}
-
-		return count;
+		return this.indexes.withStatus(status).size;
 	}
 
 	async countByProcessId(processId: string): Promise<number> {
-		let count = 0;
-
-		for (const instance of this.instances.values()) {
-			if (instance.processId === processId) {
-				count++;
-			}
-		}
-
-		return count;
+		return this.indexes.ofProcess(processId).size;
 	}
 
 	async getAverageExecutionTime(processId?: string): Promise<number> {
-		const completedInstances: ProcessInstance[] = [];
-
-		for (const instance of this.instances.values()) {
-			if (instance.status === ProcessStatus.Completed &&
-				instance.completedAt &&
-				(!processId || instance.processId === processId)) {
-				completedInstances.push(instance);
-			}
-		}
-
-		if (completedInstances.length === 0) {
-			return 0;
-		}
-
-		const totalTime = completedInstances.reduce((sum, instance) => {
-			const duration = instance.completedAt!.getTime() - instance.startedAt.getTime();
-			return sum + duration;
-		}, 0);
+		return this.indexes.averageDuration(processId);
+	}
 
-		return totalTime / completedInstances.length;
+	async getStatistics(): Promise<InstanceStatisticsSnapshot> {
+		return this.statistics.snapshot();
 	}
 
 	async deleteCompletedOlderThan(date: Date): Promise<number> {
-		let deletedCount = 0;
-		const toDelete: string[] = [];
-
-		for (const [instanceId, instance] of this.instances.entries()) {
-			if (instance.status === ProcessStatus.Completed &&
-				instance.completedAt &&
-				instance.completedAt < date) {
-				toDelete.push(instanceId);
-			}
-		}
+		const toDelete = this.completedOlderThan(date);
 
 		toDelete.forEach(instanceId => {
+			this.statistics.remove(this.instances.get(instanceId)!.processId, ProcessStatus.Completed);
 			this.instances.delete(instanceId);
-			deletedCount++;
+			this.indexes.remove(instanceId);
 		});
 
-		return deletedCount;
+		return toDelete.length;
 	}
 
 	async clear(): Promise<void> {
 		this.instances.clear();
+		this.indexes.clear();
+		this.statistics.clear();
+	}
+
+	/**
+	 * IDs of the completed instances that completed before the date
+	 */
+	protected completedOlderThan(date: Date): string[] {
+		return this.indexes.completedAt.before(date.getTime())
+			.filter(instanceId => this.indexes.status(instanceId) === ProcessStatus.Completed);
+	}
+
+	/**
+	 * IDs of one page of the matching instances, ordered by startedAt then instanceId
+	 */
+	private pageIds(query: InstanceQuery, page: PageRequest): Page<string> {
+		const limit = pageLimit(page);
+		let from: { time: number; id: string } | undefined;
+		if (page.cursor) {
+			const [time, id] = decodeCursor(page.cursor, ['number', 'string']) as [number, string];
+			from = { time, id };
+		}
+		// One extra entry tells whether another page follows
+		const entries = this.indexes.matching(query.processId, query.status).after(from, limit + 1);
+		const items = entries.slice(0, limit);
+		const last = items[items.length - 1];
+		return {
+			items: items.map(entry => entry.id),
+			nextCursor: entries.length > limit ? encodeCursor([last.time, last.id]) : undefined
+		};
+	}
+
+	private flyweight(instance: ProcessInstance): ProcessInstanceFlyweight {
+		return {
+			instanceId: instance.instanceId,
+			processId: instance.processId,
+			processName: instance.processName,
+			title: instance.title,
+			status: instance.status,
+			startedAt: instance.startedAt,
+			completedAt: instance.completedAt
+		};
+	}
+
+	private copies(instanceIds: Iterable<string>): ProcessInstance[] {
+		const result: ProcessInstance[] = [];
+		for (const instanceId of instanceIds) {
+			result.push({ ...this.instances.get(instanceId)! });
+		}
+		return result;
 	}
 }
\ No newline at end of file
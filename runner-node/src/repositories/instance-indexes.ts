@@ -0,0 +1,339 @@
+import { ProcessInstance, ProcessStatus } from '../models/instance-types';
+
+// A run of consecutive index entries
+interface Bucket {
+	times: number[];
+	ids: string[];
+}
+
+// Where an entry is, or would go
+interface Location {
+	bucket: number;
+	offset: number;
+}
+
+// A bucket is split in two when it grows past this
+const MAX_BUCKET = 1024;
+
+/**
+ * Instance IDs ordered by a timestamp, ties by ID, for range queries and
+ * paging by binary search. Entries are kept in buckets of at most MAX_BUCKET,
+ * so an insert or delete moves the entries of one bucket and the bucket list,
+ * not the whole index.
+ */
+export class SortedTimeIndex {
+	private buckets: Bucket[] = [];
+	private count = 0;
+
+	get size(): number {
+		return this.count;
+	}
+
+	*[Symbol.iterator](): Iterator<string> {
+		for (const bucket of this.buckets) {
+			yield* bucket.ids;
+		}
+	}
+
+	add(time: number, id: string): void {
+		if (this.buckets.length === 0) {
+			this.buckets.push({ times: [time], ids: [id] });
+			this.count++;
+			return;
+		}
+		let { bucket: at, offset } = this.position(time, id);
+		// Past the last entry goes at the end of the last bucket
+		if (at === this.buckets.length) {
+			at--;
+			offset = this.buckets[at].ids.length;
+		}
+		const bucket = this.buckets[at];
+		bucket.times.splice(offset, 0, time);
+		bucket.ids.splice(offset, 0, id);
+		this.count++;
+		if (bucket.ids.length > MAX_BUCKET) {
+			const half = bucket.ids.length >>> 1;
+			this.buckets.splice(at + 1, 0, { times: bucket.times.splice(half), ids: bucket.ids.splice(half) });
+		}
+	}
+
+	remove(time: number, id: string): void {
+		const { bucket: at, offset } = this.position(time, id);
+		const bucket = this.buckets[at];
+		if (bucket && bucket.ids[offset] === id && bucket.times[offset] === time) {
+			bucket.times.splice(offset, 1);
+			bucket.ids.splice(offset, 1);
+			this.count--;
+			if (bucket.ids.length === 0) {
+				this.buckets.splice(at, 1);
+			}
+		}
+	}
+
+	/**
+	 * IDs with from <= time <= to, oldest first
+	 */
+	range(from: number, to: number): string[] {
+		return this.collect(this.seek(entryTime => entryTime < from), entryTime => entryTime <= to);
+	}
+
+	/**
+	 * IDs with time < before, oldest first
+	 */
+	before(before: number): string[] {
+		return this.collect({ bucket: 0, offset: 0 }, entryTime => entryTime < before);
+	}
+
+	/**
+	 * Up to limit entries following (time, id) in index order, or from the start
+	 */
+	after(from: { time: number; id: string } | undefined, limit: number): { time: number; id: string }[] {
+		let { bucket: at, offset } = from
+			? this.seek((entryTime, entryId) => entryTime < from.time || (entryTime === from.time && entryId <= from.id))
+			: { bucket: 0, offset: 0 };
+		const entries: { time: number; id: string }[] = [];
+		for (; at < this.buckets.length && entries.length < limit; at++, offset = 0) {
+			const bucket = this.buckets[at];
+			for (let i = offset; i < bucket.ids.length && entries.length < limit; i++) {
+				entries.push({ time: bucket.times[i], id: bucket.ids[i] });
+			}
+		}
+		return entries;
+	}
+
+	clear(): void {
+		this.buckets = [];
+		this.count = 0;
+	}
+
+	// IDs from a location onwards while their time passes the test
+	private collect(start: Location, accept: (time: number) => boolean): string[] {
+		const ids: string[] = [];
+		for (let at = start.bucket, offset = start.offset; at < this.buckets.length; at++, offset = 0) {
+			const bucket = this.buckets[at];
+			for (let i = offset; i < bucket.ids.length; i++) {
+				if (!accept(bucket.times[i])) {
+					return ids;
+				}
+				ids.push(bucket.ids[i]);
+			}
+		}
+		return ids;
+	}
+
+	// Position of (time, id), ties on time ordered by ID
+	private position(time: number, id: string): Location {
+		return this.seek((entryTime, entryId) => entryTime < time || (entryTime === time && entryId < id));
+	}
+
+	// First entry for which isBefore is false; entries for which it is true all come first
+	private seek(isBefore: (time: number, id: string) => boolean): Location {
+		let lo = 0;
+		let hi = this.buckets.length;
+		while (lo < hi) {
+			const mid = (lo + hi) >>> 1;
+			const last = this.buckets[mid].ids.length - 1;
+			if (isBefore(this.buckets[mid].times[last], this.buckets[mid].ids[last])) lo = mid + 1;
+			else hi = mid;
+		}
+		if (lo === this.buckets.length) {
+			return { bucket: lo, offset: 0 };
+		}
+		const bucket = this.buckets[lo];
+		let first = 0;
+		let end = bucket.ids.length;
+		while (first < end) {
+			const mid = (first + end) >>> 1;
+			if (isBefore(bucket.times[mid], bucket.ids[mid])) first = mid + 1;
+			else end = mid;
+		}
+		return { bucket: lo, offset: first };
+	}
+}
+
+// The indexed fields of a stored instance, kept so an update can remove its old entries
+interface IndexedFields {
+	status: ProcessStatus;
+	processId: string;
+	// Missing start times sort as 0
+	startedAt: number;
+	completedAt: number;
+	duration?: number;
+}
+
+interface DurationTotals {
+	count: number;
+	totalMs: number;
+}
+
+/**
+ * Secondary indexes over the stored process instances: by status, by
+ * process and by (process, status), each ordered by startedAt; all instances
+ * ordered by startedAt and completedAt; execution time totals of completed
+ * instances. Updated on every save and delete, so lookups never scan all
+ * instances and counts are O(1).
+ */
+export class InstanceIndexes {
+	private fields = new Map<string, IndexedFields>();
+	private byStatus = new Map<ProcessStatus, SortedTimeIndex>();
+	private byProcess = new Map<string, SortedTimeIndex>();
+	private byProcessStatus = new Map<string, SortedTimeIndex>();
+	readonly startedAt = new SortedTimeIndex();
+	readonly completedAt = new SortedTimeIndex();
+	private durations = new Map<string, DurationTotals>();
+	private allDurations: DurationTotals = { count: 0, totalMs: 0 };
+
+	/**
+	 * Index a saved instance, replacing the entries of its previous version
+	 */
+	update(instance: ProcessInstance): void {
+		const next = fieldsOf(instance);
+		const previous = this.fields.get(instance.instanceId);
+		if (previous && sameFields(previous, next)) {
+			return;
+		}
+		if (previous) {
+			this.unindex(instance.instanceId, previous);
+		}
+		this.index(instance.instanceId, next);
+	}
+
+	remove(instanceId: string): void {
+		const previous = this.fields.get(instanceId);
+		if (previous) {
+			this.unindex(instanceId, previous);
+		}
+	}
+
+	status(instanceId: string): ProcessStatus | undefined {
+		return this.fields.get(instanceId)?.status;
+	}
+
+	withStatus(status: ProcessStatus): SortedTimeIndex {
+		return this.byStatus.get(status) ?? EMPTY;
+	}
+
+	ofProcess(processId: string): SortedTimeIndex {
+		return this.byProcess.get(processId) ?? EMPTY;
+	}
+
+	ofProcessWithStatus(processId: string, status: ProcessStatus): SortedTimeIndex {
+		return this.byProcessStatus.get(processStatusKey(processId, status)) ?? EMPTY;
+	}
+
+	/**
+	 * The narrowest index holding the instances that match a filter
+	 */
+	matching(processId?: string, status?: ProcessStatus): SortedTimeIndex {
+		if (processId !== undefined && status !== undefined) return this.ofProcessWithStatus(processId, status);
+		if (processId !== undefined) return this.ofProcess(processId);
+		if (status !== undefined) return this.withStatus(status);
+		return this.startedAt;
+	}
+
+	/**
+	 * Average execution time of completed instances, optionally of one process
+	 */
+	averageDuration(processId?: string): number {
+		const totals = !processId ? this.allDurations : this.durations.get(processId);
+		return totals && totals.count > 0 ? totals.totalMs / totals.count : 0;
+	}
+
+	clear(): void {
+		this.fields.clear();
+		this.byStatus.clear();
+		this.byProcess.clear();
+		this.byProcessStatus.clear();
+		this.startedAt.clear();
+		this.completedAt.clear();
+		this.durations.clear();
+		this.allDurations = { count: 0, totalMs: 0 };
+	}
+
+	private index(id: string, fields: IndexedFields): void {
+		this.fields.set(id, fields);
+		addTo(this.byStatus, fields.status, fields.startedAt, id);
+		addTo(this.byProcess, fields.processId, fields.startedAt, id);
+		addTo(this.byProcessStatus, processStatusKey(fields.processId, fields.status), fields.startedAt, id);
+		this.startedAt.add(fields.startedAt, id);
+		if (!Number.isNaN(fields.completedAt)) this.completedAt.add(fields.completedAt, id);
+		if (fields.duration !== undefined) {
+			this.addDuration(fields.processId, fields.duration, 1);
+		}
+	}
+
+	private unindex(id: string, fields: IndexedFields): void {
+		this.fields.delete(id);
+		removeFrom(this.byStatus, fields.status, fields.startedAt, id);
+		removeFrom(this.byProcess, fields.processId, fields.startedAt, id);
+		removeFrom(this.byProcessStatus, processStatusKey(fields.processId, fields.status), fields.startedAt, id);
+		this.startedAt.remove(fields.startedAt, id);
+		if (!Number.isNaN(fields.completedAt)) this.completedAt.remove(fields.completedAt, id);
+		if (fields.duration !== undefined) {
+			this.addDuration(fields.processId, -fields.duration, -1);
+		}
+	}
+
+	private addDuration(processId: string, durationMs: number, count: number): void {
+		let totals = this.durations.get(processId);
+		if (!totals) {
+			totals = { count: 0, totalMs: 0 };
+			this.durations.set(processId, totals);
+		}
+		totals.count += count;
+		totals.totalMs += durationMs;
+		this.allDurations.count += count;
+		this.allDurations.totalMs += durationMs;
+		if (totals.count === 0) {
+			this.durations.delete(processId);
+		}
+	}
+}
+
+// Returned for keys without instances; never added to
+const EMPTY = new SortedTimeIndex();
+
+function fieldsOf(instance: ProcessInstance): IndexedFields {
+	const startedAt = timeOf(instance.startedAt);
+	const completedAt = timeOf(instance.completedAt);
+	const completed = instance.status === ProcessStatus.Completed && !Number.isNaN(completedAt) && !Number.isNaN(startedAt);
+	return {
+		status: instance.status,
+		processId: instance.processId,
+		startedAt: Number.isNaN(startedAt) ? 0 : startedAt,
+		completedAt,
+		duration: completed ? completedAt - startedAt : undefined
+	};
+}
+
+function sameFields(a: IndexedFields, b: IndexedFields): boolean {
+	return a.status === b.status
+		&& a.processId === b.processId
+		&& Object.is(a.startedAt, b.startedAt)
+		&& Object.is(a.completedAt, b.completedAt);
+}
+
+function timeOf(date: Date | string | undefined): number {
+	return date === undefined || date === null ? NaN : new Date(date).getTime();
+}
+
+function processStatusKey(processId: string, status: ProcessStatus): string {
+	return `${processId}\u0000${status}`;
+}
+
+function addTo<K>(map: Map<K, SortedTimeIndex>, key: K, time: number, id: string): void {
+	let index = map.get(key);
+	if (!index) {
+		index = new SortedTimeIndex();
+		map.set(key, index);
+	}
+	index.add(time, id);
+}
+
+function removeFrom<K>(map: Map<K, SortedTimeIndex>, key: K, time: number, id: string): void {
+	const index = map.get(key);
+	if (index) {
+		index.remove(time, id);
+		if (index.size === 0) map.delete(key);
+	}
+}
@@ -0,0 +1,27 @@
+import { ProcessInstance } from '../models/instance-types';
+import { ExecutionContext } from '../execution-context';
+
+// Instance fields stored as Date, restored from their JSON strings on load
+const DATE_FIELDS = new Set(['startedAt', 'completedAt', 'nextRetryAt', 'retryAt']);
+
+/**
+ * JSON.parse reviver that restores the instance date fields, at any depth,
+ * and the execution context with its call stack
+ */
+export function reviveInstance(key: string, value: any): any {
+	if (typeof value === 'string' && DATE_FIELDS.has(key)) {
+		return new Date(value);
+	}
+	if (key === 'executionContext' && Array.isArray(value?.callStack)) {
+		return ExecutionContext.fromJSON(value);
+	}
+	return value;
+}
+
+/**
+ * Parse a stored instance (or part of one) with its dates and execution
+ * context restored
+ */
+export function parseInstance<T = ProcessInstance>(json: string): T {
+	return JSON.parse(json, reviveInstance);
+}
@@ -0,0 +1,227 @@
+import { ProcessInstance, ProcessStatus } from '../models/instance-types';
+import { P2Quantile, RunningStats } from '../utils/streaming-stats';
+
+/**
+ * Distribution of durations
+ */
+export interface DurationStatsSnapshot {
+	count: number;
+	meanMs: number;
+	stdDevMs: number;
+	minMs: number;
+	maxMs: number;
+	// Streaming estimates
+	p50Ms: number;
+	p95Ms: number;
+	p99Ms: number;
+}
+
+/**
+ * Instance counts by status
+ */
+export interface InstanceCounts {
+	total: number;
+	byStatus: { [status: string]: number };
+}
+
+/**
+ * Statistics of the instances of one process
+ */
+export interface ProcessStatisticsSnapshot {
+	instances: InstanceCounts;
+	// Start to completion of completed instances
+	executionTime: DurationStatsSnapshot;
+	// Start to completion of each activity, taken when an instance finishes
+	activities: { [activityId: string]: DurationStatsSnapshot };
+}
+
+/**
+ * Snapshot of the instance statistics. Counts are of the stored instances;
+ * durations cover every instance that finished since the repository started.
+ */
+export interface InstanceStatisticsSnapshot {
+	instances: InstanceCounts;
+	executionTime: DurationStatsSnapshot;
+	processes: { [processId: string]: ProcessStatisticsSnapshot };
+}
+
+/**
+ * Mean, variance and p50/p95/p99 of durations in constant space
+ */
+class DurationStats {
+	private running = new RunningStats();
+	private p50 = new P2Quantile(0.5);
+	private p95 = new P2Quantile(0.95);
+	private p99 = new P2Quantile(0.99);
+
+	add(durationMs: number): void {
+		this.running.add(durationMs);
+		this.p50.add(durationMs);
+		this.p95.add(durationMs);
+		this.p99.add(durationMs);
+	}
+
+	snapshot(): DurationStatsSnapshot {
+		const running = this.running;
+		return {
+			count: running.count,
+			meanMs: running.mean,
+			stdDevMs: running.stdDev,
+			minMs: running.count > 0 ? running.min : 0,
+			maxMs: running.count > 0 ? running.max : 0,
+			p50Ms: this.p50.value(),
+			p95Ms: this.p95.value(),
+			p99Ms: this.p99.value()
+		};
+	}
+}
+
+class Counts {
+	total = 0;
+	byStatus = new Map<ProcessStatus, number>();
+
+	add(status: ProcessStatus, delta: number): void {
+		this.total += delta;
+		const count = (this.byStatus.get(status) ?? 0) + delta;
+		if (count > 0) this.byStatus.set(status, count);
+		else this.byStatus.delete(status);
+	}
+
+	snapshot(): InstanceCounts {
+		return { total: this.total, byStatus: Object.fromEntries(this.byStatus) };
+	}
+}
+
+interface ProcessAccumulator {
+	counts: Counts;
+	executionTime: DurationStats;
+	activities: Map<string, DurationStats>;
+}
+
+const FINISHED = new Set<ProcessStatus>([ProcessStatus.Completed, ProcessStatus.Failed, ProcessStatus.Cancelled]);
+
+/**
+ * Process instance statistics kept up to date on status transitions, so
+ * reading them never touches the stored instances: counts per status and
+ * per process, and execution time distributions per process and activity.
+ */
+export class InstanceStatistics {
+	private counts = new Counts();
+	private executionTime = new DurationStats();
+	private processes = new Map<string, ProcessAccumulator>();
+	private cached?: InstanceStatisticsSnapshot;
+
+	/**
+	 * Account for a saved instance
+	 * @param previous Status of the stored version before this save, if it existed
+	 */
+	record(instance: ProcessInstance, previous?: ProcessStatus): void {
+		if (previous === instance.status) {
+			return;
+		}
+		const process = this.process(instance.processId);
+		if (previous !== undefined) {
+			this.counts.add(previous, -1);
+			process.counts.add(previous, -1);
+		}
+		this.counts.add(instance.status, 1);
+		process.counts.add(instance.status, 1);
+
+		if (FINISHED.has(instance.status)) {
+			this.recordDurations(instance, process);
+		}
+		this.cached = undefined;
+	}
+
+	/**
+	 * Account for a deleted instance; durations already recorded stay
+	 */
+	remove(processId: string, status: ProcessStatus): void {
+		this.counts.add(status, -1);
+		this.process(processId).counts.add(status, -1);
+		this.cached = undefined;
+	}
+
+	/**
+	 * Account for instances already stored when the repository opens; their
+	 * durations are not known, so only the counts change
+	 */
+	seed(processId: string, status: ProcessStatus, count: number): void {
+		this.counts.add(status, count);
+		this.process(processId).counts.add(status, count);
+		this.cached = undefined;
+	}
+
+	/**
+	 * Current statistics. The snapshot is rebuilt only after a change, and its
+	 * size depends on the number of processes and activities, not instances.
+	 */
+	snapshot(): InstanceStatisticsSnapshot {
+		if (!this.cached) {
+			const processes: { [processId: string]: ProcessStatisticsSnapshot } = {};
+			for (const [processId, process] of this.processes) {
+				const activities: { [activityId: string]: DurationStatsSnapshot } = {};
+				for (const [activityId, stats] of process.activities) {
+					activities[activityId] = stats.snapshot();
+				}
+				processes[processId] = {
+					instances: process.counts.snapshot(),
+					executionTime: process.executionTime.snapshot(),
+					activities
+				};
+			}
+			this.cached = {
+				instances: this.counts.snapshot(),
+				executionTime: this.executionTime.snapshot(),
+				processes
+			};
+		}
+		return this.cached;
+	}
+
+	clear(): void {
+		this.counts = new Counts();
+		this.executionTime = new DurationStats();
+		this.processes.clear();
+		this.cached = undefined;
+	}
+
+	private recordDurations(instance: ProcessInstance, process: ProcessAccumulator): void {
+		if (instance.status === ProcessStatus.Completed) {
+			const executionMs = durationOf(instance.startedAt, instance.completedAt);
+			if (executionMs !== undefined) {
+				this.executionTime.add(executionMs);
+				process.executionTime.add(executionMs);
+			}
+		}
+		for (const [activityId, activity] of Object.entries(instance.activities || {})) {
+			const activityMs = durationOf(activity.startedAt, activity.completedAt);
+			if (activityMs === undefined) {
+				continue;
+			}
+			let stats = process.activities.get(activityId);
+			if (!stats) {
+				stats = new DurationStats();
+				process.activities.set(activityId, stats);
+			}
+			stats.add(activityMs);
+		}
+	}
+
+	private process(processId: string): ProcessAccumulator {
+		let process = this.processes.get(processId);
+		if (!process) {
+			process = { counts: new Counts(), executionTime: new DurationStats(), activities: new Map() };
+			this.processes.set(processId, process);
+		}
+		return process;
+	}
+}
+
+function durationOf(start?: Date | string, end?: Date | string): number | undefined {
+	if (!start || !end) {
+		return undefined;
+	}
+	const ms = new Date(end).getTime() - new Date(start).getTime();
+	return Number.isNaN(ms) || ms < 0 ? undefined : ms;
+}
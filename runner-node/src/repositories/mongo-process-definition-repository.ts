@@ -1,5 +1,7 @@
 import { ProcessDefinition, ProcessTemplateFlyweight } from '../models/process-types';
 import { ProcessDefinitionRepository } from './process-definition-repository';
+import { Page, PageRequest, decodeCursor, encodeCursor, pageLimit } from './pagination';
+import { ParsedDefinitionCache } from './parsed-definition-cache';
 import { logger } from '../logger';
 
 /**
@@ -8,9 +10,13 @@ import { logger } from '../logger';
  * 
  * Example usage:
  * const mongoRepo = new MongoProcessDefinitionRepository(mongoConnection);
+ *
+ * Reads of a version whose updatedAt has not changed return the same object,
+ * so its compiled graph is reused.
  */
 export class MongoProcessDefinitionRepository implements ProcessDefinitionRepository {
 	private collection: any; // MongoDB collection - would be properly typed with MongoDB driver
+	private parsed = new ParsedDefinitionCache<number>();
 
 	constructor(database: any, collectionName: string = 'processDefinitions') {
 		logger.info('Initializing MongoProcessDefinitionRepository', {
@@ -69,6 +75,8 @@ export class MongoProcessDefinitionRepository implements ProcessDefinitionReposi
 				document,
 				{ upsert: true }
 			);
+			// A save in the same millisecond as the last one keeps updatedAt
+			this.parsed.delete(processDefinition.id, processDefinition.version || null);
 
 			logger.info(`Process definition saved to MongoDB`, {
 				id: processDefinition.id,
@@ -128,6 +136,32 @@ export class MongoProcessDefinitionRepository implements ProcessDefinitionReposi
 		}
 	}
 
+	async listTemplatesPage(page: PageRequest = {}): Promise<Page<ProcessTemplateFlyweight>> {
+		const limit = pageLimit(page);
+		const after = page.cursor ? decodeCursor(page.cursor, ['string'])[0] as string : undefined;
+
+		// The id index serves the range and the sort; one extra document tells whether another page follows
+		const results = await this.collection.aggregate([
+			...(after !== undefined ? [{ $match: { id: { $gt: after } } }] : []),
+			{ $sort: { id: 1, version: -1 } },
+			{ $group: { _id: '$id', latestDoc: { $first: '$$ROOT' } } },
+			{ $sort: { _id: 1 } },
+			{ $limit: limit + 1 },
+			{ $replaceRoot: { newRoot: '$latestDoc' } }
+		]).toArray();
+
+		const items: ProcessTemplateFlyweight[] = results.slice(0, limit).map((doc: any) => ({
+			id: doc.id,
+			name: doc.name,
+			description: doc.description,
+			version: doc.version
+		}));
+		return {
+			items,
+			nextCursor: results.length > limit ? encodeCursor([items[items.length - 1].id]) : undefined
+		};
+	}
+
 	async findById(processId: string): Promise<ProcessDefinition> {
 		logger.debug(`Looking up process definition in MongoDB by ID: '${processId}'`);
 
@@ -199,6 +233,7 @@ export class MongoProcessDefinitionRepository implements ProcessDefinitionReposi
 
 	async delete(processId: string): Promise<boolean> {
 		const result = await this.collection.deleteMany({ id: processId });
+		this.parsed.delete(processId);
 		return result.deletedCount > 0;
 	}
 
@@ -250,11 +285,18 @@ export class MongoProcessDefinitionRepository implements ProcessDefinitionReposi
 
 	async clear(): Promise<void> {
 		await this.collection.deleteMany({});
+		this.parsed.clear();
 	}
 
 	private documentToProcessDefinition(document: any): ProcessDefinition {
-		const { _id, createdAt, updatedAt, ...processDefinition } = document;
-		return processDefinition as ProcessDefinition;
+		const convert = () => {
+			const { _id, createdAt, updatedAt, ...processDefinition } = document;
+			return processDefinition as ProcessDefinition;
+		};
+		// Documents written elsewhere without updatedAt cannot tell a change
+		return document.updatedAt instanceof Date
+			? this.parsed.get(document.id, document.version, document.updatedAt.getTime(), convert)
+			: convert();
 	}
 }
 
@@ -0,0 +1,81 @@
+/**
+ * A page of a query result. nextCursor is set while more items follow; pass
+ * it back to get the next page.
+ */
+export interface Page<T> {
+	items: T[];
+	nextCursor?: string;
+}
+
+/**
+ * Which page to read: up to limit items after the item the cursor points at
+ */
+export interface PageRequest {
+	limit?: number;
+	cursor?: string;
+}
+
+/**
+ * A limit or cursor that cannot be used
+ */
+export class PageRequestError extends Error {
+	constructor(message: string) {
+		super(message);
+		this.name = 'PageRequestError';
+	}
+}
+
+export const DEFAULT_PAGE_LIMIT = 100;
+export const MAX_PAGE_LIMIT = 1000;
+
+/**
+ * Page size to use, clamped to [1, MAX_PAGE_LIMIT]
+ */
+export function pageLimit(page: PageRequest = {}): number {
+	const limit = Math.floor(Number(page.limit ?? DEFAULT_PAGE_LIMIT));
+	if (!Number.isFinite(limit)) {
+		return DEFAULT_PAGE_LIMIT;
+	}
+	return Math.min(MAX_PAGE_LIMIT, Math.max(1, limit));
+}
+
+/**
+ * Encode the sort key of the last item of a page as an opaque cursor
+ */
+export function encodeCursor(key: (string | number)[]): string {
+	return Buffer.from(JSON.stringify(key), 'utf8').toString('base64url');
+}
+
+/**
+ * Decode a cursor made by encodeCursor
+ * @param shape Type of each part of the sort key
+ * @throws PageRequestError when the cursor was not made for this sort key
+ */
+export function decodeCursor(cursor: string, shape: ('string' | 'number')[]): (string | number)[] {
+	let key: any;
+	try {
+		key = JSON.parse(Buffer.from(cursor, 'base64url').toString('utf8'));
+	} catch {
+		key = undefined;
+	}
+	if (!Array.isArray(key) || key.length !== shape.length || key.some((part, i) => typeof part !== shape[i])) {
+		throw new PageRequestError(`Invalid cursor '${cursor}'`);
+	}
+	return key;
+}
+
+/**
+ * Read a paged query page by page as a stream of items, so only one page is
+ * held in memory at a time
+ */
+export async function* iteratePages<T>(
+	fetchPage: (page: PageRequest) => Promise<Page<T>>,
+	pageSize: number = DEFAULT_PAGE_LIMIT
+): AsyncIterable<T> {
+	let cursor: string | undefined;
+	do {
+		const page = await fetchPage({ limit: pageSize, cursor });
+		yield* page.items;
+		cursor = page.nextCursor;
+	} while (cursor);
+}
@@ -0,0 +1,48 @@
+import { ProcessDefinition } from '../models/process-types';
+
+/**
+ * One parsed object per stored definition version, so reads of a version
+ * that has not changed return the same object and ProcessLoader.compile(),
+ * which caches graphs by definition identity, compiles it only once.
+ * The stamp identifies the stored content (its JSON, or its update time);
+ * a read with a different stamp parses again and replaces the entry.
+ */
+export class ParsedDefinitionCache<S> {
+	private entries = new Map<string, { stamp: S; definition: ProcessDefinition }>();
+
+	get(id: string, version: string | null | undefined, stamp: S, parse: () => ProcessDefinition): ProcessDefinition {
+		const key = entryKey(id, version);
+		const entry = this.entries.get(key);
+		if (entry && entry.stamp === stamp) {
+			return entry.definition;
+		}
+		const definition = parse();
+		this.entries.set(key, { stamp, definition });
+		return definition;
+	}
+
+	/**
+	 * Forget one version of a definition, or all of them
+	 */
+	delete(id: string, version?: string | null): void {
+		if (version !== undefined) {
+			this.entries.delete(entryKey(id, version));
+			return;
+		}
+		const prefix = entryKey(id, '');
+		for (const key of this.entries.keys()) {
+			if (key.startsWith(prefix)) {
+				this.entries.delete(key);
+			}
+		}
+	}
+
+	clear(): void {
+		this.entries.clear();
+	}
+}
+
+// IDs never contain NUL, so the key cannot be shared by two (id, version) pairs
+function entryKey(id: string, version: string | null | undefined): string {
+	return `${id}\u0000${version ?? ''}`;
+}
@@ -1,4 +1,5 @@
 import { ProcessDefinition, ProcessTemplateFlyweight } from '../models/process-types';
+import { Page, PageRequest } from './pagination';
 
 /**
  * Repository interface for process definitions
@@ -24,4 +25,6 @@ export interface ProcessDefinitionRepository {
 
 	// Template listing (flyweight pattern)
 	listAvailableTemplates(): Promise<ProcessTemplateFlyweight[]>;
+	// One page of the templates, ordered by process ID
+	listTemplatesPage(page?: PageRequest): Promise<Page<ProcessTemplateFlyweight>>;
 }
\ No newline at end of file
@@ -1,4 +1,14 @@
 import { ProcessInstance, ProcessInstanceFlyweight, ProcessStatus } from "../models/instance-types";
+import { Page, PageRequest } from "./pagination";
+import { InstanceStatisticsSnapshot } from "./instance-statistics";
+
+/**
+ * Filter of the paged instance queries; omitted fields match everything
+ */
+export interface InstanceQuery {
+	processId?: string;
+	status?: ProcessStatus;
+}
 
 /**
  * Repository interface for process runtime instances
@@ -26,12 +36,19 @@ export interface ProcessInstanceRepository {
 	findByDateRange(startDate: Date, endDate: Date): Promise<ProcessInstance[]>;
 	findActiveInstancesOlderThan(date: Date): Promise<ProcessInstance[]>;
 
+	// Paged and streamed queries, ordered by startedAt then instanceId so a cursor
+	// stays valid while instances are added
+	findPage(query: InstanceQuery, page?: PageRequest): Promise<Page<ProcessInstance>>;
+	findByProcessIdPage(processId: string, page?: PageRequest): Promise<Page<ProcessInstanceFlyweight>>;
+	iterate(query?: InstanceQuery, batchSize?: number): AsyncIterable<ProcessInstance>;
 
 	// Performance and monitoring
 	count(): Promise<number>;
 	countByStatus(status: ProcessStatus): Promise<number>;
 	countByProcessId(processId: string): Promise<number>;
 	getAverageExecutionTime(processId?: string): Promise<number>;
+	// Counts and duration distributions, maintained as instances are saved
+	getStatistics(): Promise<InstanceStatisticsSnapshot>;
 
 	// Cleanup operations
 	deleteCompletedOlderThan(date: Date): Promise<number>;
@@ -3,6 +3,11 @@ import { ProcessInstanceRepository } from './process-instance-repository';
 import { FileRepository } from './file-repository';
 import { InMemoryProcessDefinitionRepository } from './in-memory-process-definition-repository';
 import { InMemoryProcessInstanceRepository } from './in-memory-process-instance-repository';
+import { FileProcessInstanceRepository } from './file-process-instance-repository';
+import { SqliteConnection } from './sqlite-database';
+import { SqliteProcessInstanceRepository } from './sqlite-process-instance-repository';
+import { SqliteProcessDefinitionRepository } from './sqlite-process-definition-repository';
+import { SqliteFileRepository } from './sqlite-file-repository';
 
 import { logger } from '../logger';
 import { InMemoryFileRepository } from './in-memory-file-repository';
@@ -11,7 +16,9 @@ import { InMemoryFileRepository } from './in-memory-file-repository';
  * Configuration for repository implementations
  */
 export interface RepositoryConfig {
-	type: 'memory' | 'mongodb' | 'postgresql' | 'custom';
+	// 'file' keeps instances in a local directory (options.dir); definitions and files stay in memory
+	// 'sqlite' keeps instances, definitions and files in one database file (options.filename)
+	type: 'memory' | 'file' | 'sqlite' | 'mongodb' | 'postgresql' | 'custom';
 	connectionString?: string;
 	options?: { [key: string]: any };
 }
@@ -47,6 +54,42 @@ export class RepositoryFactory {
 					this.fileRepo = new InMemoryFileRepository();
 					break;
 
+				case 'file':
+					logger.debug('Creating file-backed instance repository');
+					if (!config.options?.dir) {
+						throw new Error('Instance store directory (options.dir) is required');
+					}
+					this.processDefinitionRepo = new InMemoryProcessDefinitionRepository();
+					this.processInstanceRepo = await FileProcessInstanceRepository.open({
+						dir: config.options.dir,
+						groupCommitMs: config.options.groupCommitMs,
+						compactBytes: config.options.compactBytes,
+						fsync: config.options.fsync
+					});
+					this.fileRepo = new InMemoryFileRepository();
+					break;
+
+				case 'sqlite': {
+					logger.debug('Creating SQLite repositories');
+					const filename = config.options?.filename ?? config.connectionString;
+					if (!filename) {
+						throw new Error('SQLite database file (options.filename) is required');
+					}
+					const connection = SqliteConnection.open({
+						filename,
+						busyTimeoutMs: config.options?.busyTimeoutMs,
+						synchronous: config.options?.synchronous
+					});
+					this.processDefinitionRepo = new SqliteProcessDefinitionRepository(connection, {
+						samplesDir: config.options?.samplesDir
+					});
+					this.processInstanceRepo = new SqliteProcessInstanceRepository(connection, {
+						activityCacheSize: config.options?.activityCacheSize
+					});
+					this.fileRepo = new SqliteFileRepository(connection);
+					break;
+				}
+
 				case 'mongodb':
 					logger.debug('Attempting MongoDB repository initialization');
 					if (!config.connectionString) {
@@ -0,0 +1,100 @@
+import * as fs from 'fs';
+import * as path from 'path';
+import { LruCache } from '../utils/lru-cache';
+import { logger } from '../logger';
+
+/**
+ * The parts of a better-sqlite3 prepared statement the repositories use
+ */
+export interface SqliteStatement {
+	run(...params: any[]): { changes: number };
+	get(...params: any[]): any;
+	all(...params: any[]): any[];
+}
+
+/**
+ * The parts of a better-sqlite3 database the repositories use
+ */
+export interface SqliteDatabase {
+	prepare(sql: string): SqliteStatement;
+	exec(sql: string): void;
+	pragma(source: string, options?: { simple?: boolean }): any;
+	transaction<F extends (...args: any[]) => any>(fn: F): F;
+	close(): void;
+}
+
+/**
+ * Options for the SQLite database file
+ */
+export interface SqliteOptions {
+	// Database file (created with its directory if missing)
+	filename: string;
+	// How long a write waits for a lock held by another connection (default 5000)
+	busyTimeoutMs?: number;
+	// 'NORMAL' (default) may lose the last commits on power loss but never corrupts in WAL mode; 'FULL' syncs every commit
+	synchronous?: 'NORMAL' | 'FULL';
+}
+
+// Prepared statements kept per connection; the repositories use a fixed set of queries
+const MAX_STATEMENTS = 200;
+
+/**
+ * A SQLite connection in WAL journal mode (readers do not block the writer)
+ * that prepares each SQL text once and reuses the statement
+ */
+export class SqliteConnection {
+	private statements = new LruCache<string, SqliteStatement>(MAX_STATEMENTS);
+
+	constructor(readonly db: SqliteDatabase) {}
+
+	/**
+	 * Open a database file with better-sqlite3, which must be installed
+	 * (npm install better-sqlite3)
+	 * @throws Error when the driver is not installed
+	 */
+	static open(options: SqliteOptions): SqliteConnection {
+		let Database: any;
+		try {
+			// Loaded on demand, so installs that do not use SQLite need no native build
+			Database = require('better-sqlite3');
+		} catch {
+			throw new Error("SQLite repositories need the 'better-sqlite3' package (npm install better-sqlite3)");
+		}
+
+		fs.mkdirSync(path.dirname(path.resolve(options.filename)), { recursive: true });
+		const db: SqliteDatabase = new Database(options.filename);
+		db.pragma('journal_mode = WAL');
+		db.pragma(`synchronous = ${options.synchronous ?? 'NORMAL'}`);
+		db.pragma(`busy_timeout = ${options.busyTimeoutMs ?? 5000}`);
+		db.pragma('foreign_keys = ON');
+
+		logger.info('SqliteConnection: opened database', {
+			filename: options.filename,
+			journalMode: db.pragma('journal_mode', { simple: true })
+		});
+		return new SqliteConnection(db);
+	}
+
+	/**
+	 * The prepared statement for a SQL text, prepared on first use
+	 */
+	statement(sql: string): SqliteStatement {
+		return this.statements.getOrCreate(sql, () => this.db.prepare(sql));
+	}
+
+	/**
+	 * Run fn in a transaction; it commits when fn returns and rolls back when it throws
+	 */
+	transaction<T>(fn: () => T): T {
+		return this.db.transaction(fn)();
+	}
+
+	exec(sql: string): void {
+		this.db.exec(sql);
+	}
+
+	close(): void {
+		this.statements.clear();
+		this.db.close();
+	}
+}
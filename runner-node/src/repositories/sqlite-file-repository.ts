@@ -0,0 +1,243 @@
+import { v4 as uuidv4 } from 'uuid';
+import { FileRepository } from './file-repository';
+import { FileAssociation, FileListOptions, FileMetadata, FileReference, FileUploadRequest } from '../models/file-types';
+import { readContent } from './in-memory-file-repository';
+import { SqliteConnection } from './sqlite-database';
+import { logger } from '../logger';
+
+// Metadata and content in separate tables, so listing and metadata lookups
+// never read the content pages
+const SCHEMA = `
+CREATE TABLE IF NOT EXISTS files (
+	id TEXT PRIMARY KEY,
+	filename TEXT NOT NULL,
+	mime_type TEXT NOT NULL,
+	size_bytes INTEGER NOT NULL,
+	created_at INTEGER NOT NULL,
+	description TEXT,
+	tags TEXT NOT NULL,
+	created_by TEXT,
+	checksum TEXT,
+	process_id TEXT NOT NULL,
+	process_instance_id TEXT NOT NULL,
+	activity_id TEXT NOT NULL,
+	variable_name TEXT NOT NULL,
+	tenant_user_id TEXT,
+	tenant_org_id TEXT
+);
+CREATE INDEX IF NOT EXISTS files_process ON files (process_id);
+CREATE INDEX IF NOT EXISTS files_instance ON files (process_instance_id);
+CREATE INDEX IF NOT EXISTS files_created_by ON files (created_by);
+CREATE INDEX IF NOT EXISTS files_created_at ON files (created_at);
+CREATE TABLE IF NOT EXISTS file_contents (
+	file_id TEXT PRIMARY KEY REFERENCES files (id) ON DELETE CASCADE,
+	content BLOB NOT NULL
+);
+`;
+
+const METADATA_COLUMNS = 'id, filename, mime_type, size_bytes, created_at, description, tags, created_by, checksum';
+const ASSOCIATION_COLUMNS = 'process_id, process_instance_id, activity_id, variable_name, tenant_user_id, tenant_org_id';
+
+const SORT_COLUMNS: { [sortBy: string]: string } = {
+	filename: 'filename COLLATE NOCASE',
+	createdAt: 'created_at',
+	size: 'size_bytes'
+};
+
+/**
+ * SQLite implementation of FileRepository, with the content as a BLOB.
+ * List filters on process, instance and creator run as indexed SQL; tag and
+ * MIME type pattern filters run on the selected rows.
+ */
+export class SqliteFileRepository implements FileRepository {
+	constructor(private readonly connection: SqliteConnection) {
+		connection.exec(SCHEMA);
+		logger.info('SqliteFileRepository: Initialized');
+	}
+
+	async store(uploadRequest: FileUploadRequest): Promise<FileReference> {
+		const fileId = uuidv4();
+		const { content, checksum } = await readContent(uploadRequest);
+
+		const metadata: FileMetadata = {
+			id: fileId,
+			filename: uploadRequest.filename,
+			mimeType: uploadRequest.mimeType,
+			sizeBytes: content.length,
+			createdAt: new Date(),
+			description: uploadRequest.description,
+			tags: uploadRequest.tags || [],
+			createdBy: uploadRequest.uploadedBy,
+			checksum
+		};
+		const association: FileAssociation = {
+			...uploadRequest.fileAssociation,
+			fileId
+		};
+
+		this.connection.transaction(() => {
+			this.connection.statement(
+				`INSERT INTO files (${METADATA_COLUMNS}, ${ASSOCIATION_COLUMNS}) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)`
+			).run(
+				fileId,
+				metadata.filename,
+				metadata.mimeType,
+				metadata.sizeBytes,
+				metadata.createdAt.getTime(),
+				metadata.description ?? null,
+				JSON.stringify(metadata.tags),
+				metadata.createdBy ?? null,
+				checksum,
+				association.processId,
+				association.processInstanceId,
+				association.activityId,
+				association.variableName,
+				association.tenantUserId ?? null,
+				association.tenantOrgId ?? null
+			);
+			this.connection.statement('INSERT INTO file_contents (file_id, content) VALUES (?, ?)').run(fileId, content);
+		});
+
+		logger.info('SqliteFileRepository: File stored', {
+			fileId,
+			filename: metadata.filename,
+			sizeBytes: metadata.sizeBytes,
+			mimeType: metadata.mimeType,
+			processInstanceId: association.processInstanceId,
+			activityId: association.activityId
+		});
+
+		return this.reference(metadata, association);
+	}
+
+	async retrieve(fileId: string): Promise<FileReference | null> {
+		const row = this.connection.statement(
+			`SELECT ${METADATA_COLUMNS}, ${ASSOCIATION_COLUMNS} FROM files WHERE id = ?`
+		).get(fileId);
+		if (!row) {
+			logger.warn('SqliteFileRepository: File not found for retrieval', { fileId });
+			return null;
+		}
+		return this.reference(toMetadata(row), toAssociation(row));
+	}
+
+	async getMetadata(fileId: string): Promise<FileMetadata | null> {
+		const row = this.connection.statement(`SELECT ${METADATA_COLUMNS} FROM files WHERE id = ?`).get(fileId);
+		return row ? toMetadata(row) : null;
+	}
+
+	/**
+	 * Get file content by ID (for download)
+	 * @param fileId File ID
+	 * @returns File content buffer or null if not found
+	 */
+	async getContent(fileId: string): Promise<Buffer | null> {
+		const row = this.connection.statement('SELECT content FROM file_contents WHERE file_id = ?').get(fileId);
+		return row ? row.content : null;
+	}
+
+	async delete(fileId: string): Promise<boolean> {
+		// The content row goes with it (ON DELETE CASCADE)
+		const deleted = this.connection.statement('DELETE FROM files WHERE id = ?').run(fileId).changes > 0;
+		if (deleted) {
+			logger.info('SqliteFileRepository: File deleted', { fileId });
+		} else {
+			logger.warn('SqliteFileRepository: File not found for deletion', { fileId });
+		}
+		return deleted;
+	}
+
+	async list(options: FileListOptions = {}): Promise<FileMetadata[]> {
+		const conditions: string[] = [];
+		const params: any[] = [];
+		if (options.processId) {
+			conditions.push('process_id = ?');
+			params.push(options.processId);
+		}
+		if (options.instanceId) {
+			conditions.push('process_instance_id = ?');
+			params.push(options.instanceId);
+		}
+		if (options.createdBy) {
+			conditions.push('created_by = ?');
+			params.push(options.createdBy);
+		}
+		const where = conditions.length > 0 ? `WHERE ${conditions.join(' AND ')}` : '';
+		const sortColumn = (options.sortBy && SORT_COLUMNS[options.sortBy]) || 'rowid';
+		const order = `ORDER BY ${sortColumn} ${options.sortOrder === 'desc' ? 'DESC' : 'ASC'}`;
+
+		const start = options.offset || 0;
+		// Paged in SQL unless rows are still filtered below
+		const filteredHere = (options.tags && options.tags.length > 0) || !!options.mimeTypePattern;
+		const paged = !filteredHere && (options.offset || options.limit);
+		const page = paged ? 'LIMIT ? OFFSET ?' : '';
+		if (paged) {
+			params.push(options.limit ?? -1, start);
+		}
+
+		let results: FileMetadata[] = this.connection.statement(
+			`SELECT ${METADATA_COLUMNS} FROM files ${where} ${order} ${page}`
+		).all(...params).map(toMetadata);
+
+		if (options.tags && options.tags.length > 0) {
+			results = results.filter(metadata => options.tags!.some(tag => metadata.tags?.includes(tag)));
+		}
+		if (options.mimeTypePattern) {
+			const pattern = new RegExp(options.mimeTypePattern, 'i');
+			results = results.filter(metadata => pattern.test(metadata.mimeType));
+		}
+		if (filteredHere && (options.offset || options.limit)) {
+			results = results.slice(start, options.limit ? start + options.limit : undefined);
+		}
+		return results;
+	}
+
+	async exists(fileId: string): Promise<boolean> {
+		return !!this.connection.statement('SELECT 1 FROM files WHERE id = ?').get(fileId);
+	}
+
+	/**
+	 * Delete all files (for testing)
+	 */
+	clear(): void {
+		this.connection.transaction(() => {
+			this.connection.statement('DELETE FROM file_contents').run();
+			this.connection.statement('DELETE FROM files').run();
+		});
+		logger.info('SqliteFileRepository: All files cleared');
+	}
+
+	private reference(metadata: FileMetadata, association: FileAssociation): FileReference {
+		return {
+			fileAssociation: association,
+			metadata,
+			url: `/api/files/${metadata.id}/download`
+		};
+	}
+}
+
+function toMetadata(row: any): FileMetadata {
+	return {
+		id: row.id,
+		filename: row.filename,
+		mimeType: row.mime_type,
+		sizeBytes: row.size_bytes,
+		createdAt: new Date(row.created_at),
+		description: row.description ?? undefined,
+		tags: JSON.parse(row.tags),
+		createdBy: row.created_by ?? undefined,
+		checksum: row.checksum ?? undefined
+	};
+}
+
+function toAssociation(row: any): FileAssociation {
+	return {
+		fileId: row.id,
+		processId: row.process_id,
+		processInstanceId: row.process_instance_id,
+		activityId: row.activity_id,
+		variableName: row.variable_name,
+		tenantUserId: row.tenant_user_id ?? undefined,
+		tenantOrgId: row.tenant_org_id ?? undefined
+	};
+}
@@ -0,0 +1,231 @@
+import fs from 'fs';
+import path from 'path';
+import { ProcessDefinition, ProcessTemplateFlyweight } from '../models/process-types';
+import { ProcessDefinitionRepository } from './process-definition-repository';
+import { Page, PageRequest, decodeCursor, encodeCursor, pageLimit } from './pagination';
+import { ParsedDefinitionCache } from './parsed-definition-cache';
+import { SqliteConnection } from './sqlite-database';
+import { logger } from '../logger';
+
+/**
+ * Options for the SQLite definition repository
+ */
+export interface SqliteDefinitionRepositoryOptions {
+	// Sample definitions stored on open when their ID is not stored yet (default ./samples; false for none)
+	samplesDir?: string | false;
+}
+
+// One row per (id, version), an unversioned definition having version ''.
+// is_latest marks the most recently saved version of each process, which the
+// partial index keeps small for listing, paging and counting processes.
+const SCHEMA = `
+CREATE TABLE IF NOT EXISTS process_definitions (
+	id TEXT NOT NULL,
+	version TEXT NOT NULL DEFAULT '',
+	name TEXT NOT NULL,
+	description TEXT,
+	body TEXT NOT NULL,
+	is_latest INTEGER NOT NULL DEFAULT 0,
+	saved_at INTEGER NOT NULL,
+	PRIMARY KEY (id, version)
+) WITHOUT ROWID;
+CREATE UNIQUE INDEX IF NOT EXISTS process_definitions_latest ON process_definitions (id) WHERE is_latest = 1;
+`;
+
+const UPSERT_DEFINITION = `
+INSERT INTO process_definitions (id, version, name, description, body, is_latest, saved_at)
+VALUES (?, ?, ?, ?, ?, 1, ?)
+ON CONFLICT (id, version) DO UPDATE SET
+	name = excluded.name,
+	description = excluded.description,
+	body = excluded.body,
+	is_latest = 1,
+	saved_at = excluded.saved_at`;
+
+/**
+ * SQLite implementation of ProcessDefinitionRepository.
+ * Every saved version is kept; lookups by ID return the latest saved one.
+ * findByName matches anywhere in the name (LIKE '%name%'), which no index
+ * can serve, so it reads every stored version.
+ * A stored version is parsed again only when its body changes, so repeated
+ * reads return the same object and its compiled graph is reused.
+ */
+export class SqliteProcessDefinitionRepository implements ProcessDefinitionRepository {
+	private parsed = new ParsedDefinitionCache<string>();
+
+	constructor(private readonly connection: SqliteConnection, options: SqliteDefinitionRepositoryOptions = {}) {
+		connection.exec(SCHEMA);
+		const samplesDir = options.samplesDir ?? path.join(process.cwd(), 'samples');
+		if (samplesDir) {
+			this.importSamples(samplesDir);
+		}
+		logger.info('Initialized SqliteProcessDefinitionRepository', {
+			repositoryType: 'sqlite',
+			entityType: 'process-definition',
+			processes: this.countLatest()
+		});
+	}
+
+	async save(processDefinition: ProcessDefinition): Promise<void> {
+		logger.debug(`Saving process definition`, {
+			id: processDefinition.id,
+			name: processDefinition.name,
+			version: processDefinition.version
+		});
+
+		this.connection.transaction(() => {
+			this.connection.statement('UPDATE process_definitions SET is_latest = 0 WHERE id = ? AND is_latest = 1')
+				.run(processDefinition.id);
+			this.connection.statement(UPSERT_DEFINITION).run(
+				processDefinition.id,
+				processDefinition.version ?? '',
+				processDefinition.name,
+				processDefinition.description ?? null,
+				JSON.stringify(processDefinition),
+				Date.now()
+			);
+		});
+	}
+
+	async findById(processId: string): Promise<ProcessDefinition> {
+		const row = this.connection.statement('SELECT id, version, body FROM process_definitions WHERE id = ? AND is_latest = 1')
+			.get(processId);
+		if (!row) {
+			logger.error(`Process definition not found for ID: '${processId}'`);
+			throw new Error(`Process definition not found for ID: '${processId}'`);
+		}
+		return this.definition(row);
+	}
+
+	async findAll(): Promise<ProcessDefinition[]> {
+		return this.definitions('SELECT id, version, body FROM process_definitions WHERE is_latest = 1 ORDER BY id');
+	}
+
+	async delete(processId: string): Promise<boolean> {
+		this.parsed.delete(processId);
+		return this.connection.statement('DELETE FROM process_definitions WHERE id = ?').run(processId).changes > 0;
+	}
+
+	async exists(processId: string): Promise<boolean> {
+		return !!this.connection.statement('SELECT 1 FROM process_definitions WHERE id = ? LIMIT 1').get(processId);
+	}
+
+	async findByName(name: string): Promise<ProcessDefinition[]> {
+		// LIKE is case-insensitive for ASCII; % and _ in the name match literally
+		const pattern = `%${name.replace(/[\\%_]/g, match => `\\${match}`)}%`;
+		return this.definitions(
+			"SELECT id, version, body FROM process_definitions WHERE name LIKE ? ESCAPE '\\' ORDER BY id, version",
+			pattern
+		);
+	}
+
+	async findByVersion(processId: string, version: string): Promise<ProcessDefinition | null> {
+		const row = this.connection.statement('SELECT id, version, body FROM process_definitions WHERE id = ? AND version = ?')
+			.get(processId, version);
+		return row ? this.definition(row) : null;
+	}
+
+	async findAllVersions(processId: string): Promise<ProcessDefinition[]> {
+		return this.definitions('SELECT id, version, body FROM process_definitions WHERE id = ? ORDER BY version DESC', processId);
+	}
+
+	async findLatestVersion(processId: string): Promise<ProcessDefinition | null> {
+		const row = this.connection.statement('SELECT id, version, body FROM process_definitions WHERE id = ? ORDER BY version DESC LIMIT 1')
+			.get(processId);
+		return row ? this.definition(row) : null;
+	}
+
+	async count(): Promise<number> {
+		return this.countLatest();
+	}
+
+	async clear(): Promise<void> {
+		this.connection.statement('DELETE FROM process_definitions').run();
+		this.parsed.clear();
+	}
+
+	async listAvailableTemplates(): Promise<ProcessTemplateFlyweight[]> {
+		return this.connection.statement(
+			'SELECT id, name, description, version FROM process_definitions WHERE is_latest = 1 ORDER BY id'
+		).all().map(toTemplate);
+	}
+
+	async listTemplatesPage(page: PageRequest = {}): Promise<Page<ProcessTemplateFlyweight>> {
+		const limit = pageLimit(page);
+		const after = page.cursor ? decodeCursor(page.cursor, ['string'])[0] as string : undefined;
+		// One extra row tells whether another page follows
+		const rows = after === undefined
+			? this.connection.statement(
+				'SELECT id, name, description, version FROM process_definitions WHERE is_latest = 1 ORDER BY id LIMIT ?'
+			).all(limit + 1)
+			: this.connection.statement(
+				'SELECT id, name, description, version FROM process_definitions WHERE is_latest = 1 AND id > ? ORDER BY id LIMIT ?'
+			).all(after, limit + 1);
+		const items = rows.slice(0, limit).map(toTemplate);
+		return {
+			items,
+			nextCursor: rows.length > limit ? encodeCursor([items[items.length - 1].id]) : undefined
+		};
+	}
+
+	private countLatest(): number {
+		return this.connection.statement('SELECT COUNT(*) AS count FROM process_definitions WHERE is_latest = 1').get().count;
+	}
+
+	private definitions(sql: string, ...params: any[]): ProcessDefinition[] {
+		return this.connection.statement(sql).all(...params).map(row => this.definition(row));
+	}
+
+	private definition(row: any): ProcessDefinition {
+		return this.parsed.get(row.id, row.version, row.body, () => JSON.parse(row.body));
+	}
+
+	/**
+	 * Store the sample definitions whose process ID is not stored yet, so
+	 * definitions saved later are not replaced by their sample on restart
+	 */
+	private importSamples(samplesDir: string): void {
+		if (!fs.existsSync(samplesDir)) {
+			logger.warn('Samples directory not found', { samplesDir });
+			return;
+		}
+
+		let imported = 0;
+		for (const file of fs.readdirSync(samplesDir).filter((name: string) => name.endsWith('.json'))) {
+			const filePath = path.join(samplesDir, file);
+			try {
+				const processDefinition: ProcessDefinition = JSON.parse(fs.readFileSync(filePath, 'utf8'));
+				if (!processDefinition.id || !processDefinition.name) {
+					logger.error('Skipping invalid process definition (missing id or name)', { filePath });
+					continue;
+				}
+				if (!this.connection.statement('SELECT 1 FROM process_definitions WHERE id = ? LIMIT 1').get(processDefinition.id)) {
+					this.connection.statement(UPSERT_DEFINITION).run(
+						processDefinition.id,
+						processDefinition.version ?? '',
+						processDefinition.name,
+						processDefinition.description ?? null,
+						JSON.stringify(processDefinition),
+						Date.now()
+					);
+					imported++;
+				}
+			} catch (error) {
+				logger.error('Failed to import sample process definition', {
+					filePath,
+					error: error instanceof Error ? error.message : String(error)
+				});
+			}
+		}
+		logger.info(`Imported ${imported} sample process definitions`, { samplesDir });
+	}
+}
+
+function toTemplate(row: any): ProcessTemplateFlyweight {
+	return {
+		id: row.id,
+		name: row.name,
+		description: row.description ?? undefined,
+		version: row.version || undefined
+	};
+}
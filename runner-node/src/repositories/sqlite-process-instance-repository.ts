@@ -0,0 +1,412 @@
+import { createHash } from 'crypto';
+import { InstanceQuery, ProcessInstanceRepository } from './process-instance-repository';
+import { ActivityInstance, ProcessInstance, ProcessInstanceFlyweight, ProcessStatus } from '../models/instance-types';
+import { InstanceStatistics, InstanceStatisticsSnapshot } from './instance-statistics';
+import { Page, PageRequest, decodeCursor, encodeCursor, iteratePages, pageLimit } from './pagination';
+import { SqliteConnection } from './sqlite-database';
+import { parseInstance } from './instance-json';
+import { LruCache } from '../utils/lru-cache';
+import { logger } from '../logger';
+
+/**
+ * Options for the SQLite instance repository
+ */
+export interface SqliteInstanceRepositoryOptions {
+	// Instances whose stored activity versions are remembered, so a save writes only changed activities (default 10000)
+	activityCacheSize?: number;
+}
+
+// Every query method has an index whose leading columns match its filter and
+// whose trailing (started_at, instance_id) serve the ORDER BY and the cursor
+const SCHEMA = `
+CREATE TABLE IF NOT EXISTS process_instances (
+	instance_id TEXT PRIMARY KEY,
+	process_id TEXT NOT NULL,
+	process_name TEXT,
+	title TEXT,
+	status TEXT NOT NULL,
+	started_at INTEGER NOT NULL,
+	completed_at INTEGER,
+	duration_ms INTEGER,
+	body TEXT NOT NULL
+);
+CREATE INDEX IF NOT EXISTS process_instances_status ON process_instances (status, started_at, instance_id);
+CREATE INDEX IF NOT EXISTS process_instances_process ON process_instances (process_id, started_at, instance_id);
+CREATE INDEX IF NOT EXISTS process_instances_process_status ON process_instances (process_id, status, started_at, instance_id);
+CREATE INDEX IF NOT EXISTS process_instances_started ON process_instances (started_at, instance_id);
+CREATE INDEX IF NOT EXISTS process_instances_completed ON process_instances (status, completed_at);
+CREATE TABLE IF NOT EXISTS activity_instances (
+	instance_id TEXT NOT NULL REFERENCES process_instances (instance_id) ON DELETE CASCADE,
+	activity_id TEXT NOT NULL,
+	body TEXT NOT NULL,
+	PRIMARY KEY (instance_id, activity_id)
+) WITHOUT ROWID;
+`;
+
+const FLYWEIGHT_COLUMNS = 'instance_id, process_id, process_name, title, status, started_at, completed_at';
+
+const UPSERT_INSTANCE = `
+INSERT INTO process_instances (instance_id, process_id, process_name, title, status, started_at, completed_at, duration_ms, body)
+VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)
+ON CONFLICT (instance_id) DO UPDATE SET
+	process_id = excluded.process_id,
+	process_name = excluded.process_name,
+	title = excluded.title,
+	status = excluded.status,
+	started_at = excluded.started_at,
+	completed_at = excluded.completed_at,
+	duration_ms = excluded.duration_ms,
+	body = excluded.body`;
+
+const UPSERT_ACTIVITY = `
+INSERT INTO activity_instances (instance_id, activity_id, body) VALUES (?, ?, ?)
+ON CONFLICT (instance_id, activity_id) DO UPDATE SET body = excluded.body`;
+
+const DEFAULT_ACTIVITY_CACHE_SIZE = 10000;
+
+interface InstanceRow {
+	instance_id: string;
+	process_id: string;
+	process_name: string;
+	title: string | null;
+	status: ProcessStatus;
+	started_at: number;
+	completed_at: number | null;
+	body?: string;
+}
+
+/**
+ * SQLite implementation of ProcessInstanceRepository.
+ * The instance row holds the queried fields as columns and the rest of the
+ * instance as JSON; each activity instance is a row of its own, so a step
+ * that changes one activity rewrites that row and the instance row only.
+ * Saves run in one transaction each, and reads use the connection's
+ * prepared statements.
+ *
+ * Which activity versions are stored is remembered per instance (a digest
+ * of each), which assumes this repository is the only writer of the file.
+ */
+export class SqliteProcessInstanceRepository implements ProcessInstanceRepository {
+	private statistics = new InstanceStatistics();
+	// instanceId -> activityId -> digest of the stored activity JSON
+	private storedActivities: LruCache<string, Map<string, string>>;
+
+	constructor(private readonly connection: SqliteConnection, options: SqliteInstanceRepositoryOptions = {}) {
+		this.storedActivities = new LruCache(options.activityCacheSize ?? DEFAULT_ACTIVITY_CACHE_SIZE);
+		connection.exec(SCHEMA);
+
+		// Counts of the instances already stored; durations start again empty
+		const groups = connection.statement(
+			'SELECT process_id, status, COUNT(*) AS count FROM process_instances GROUP BY process_id, status'
+		).all();
+		for (const group of groups) {
+			this.statistics.seed(group.process_id, group.status, group.count);
+		}
+
+		logger.info('Initialized SqliteProcessInstanceRepository', {
+			repositoryType: 'sqlite',
+			entityType: 'process-instance',
+			initialSize: this.statistics.snapshot().instances.total
+		});
+	}
+
+	async save(instance: ProcessInstance): Promise<void> {
+		const { activities, ...rest } = instance;
+		const digests = new Map<string, string>();
+		const bodies = new Map<string, string>();
+		for (const [activityId, activity] of Object.entries(activities || {})) {
+			const body = JSON.stringify(activity);
+			bodies.set(activityId, body);
+			digests.set(activityId, createHash('sha1').update(body).digest('base64'));
+		}
+		const startedAt = timeOf(instance.startedAt);
+		const completedAt = timeOf(instance.completedAt);
+		const durationMs = instance.status === ProcessStatus.Completed && startedAt !== null && completedAt !== null
+			? completedAt - startedAt
+			: null;
+
+		const previousStatus = this.connection.transaction(() => {
+			const previous = this.connection.statement('SELECT status FROM process_instances WHERE instance_id = ?')
+				.get(instance.instanceId) as { status: ProcessStatus } | undefined;
+			this.connection.statement(UPSERT_INSTANCE).run(
+				instance.instanceId,
+				instance.processId,
+				instance.processName ?? null,
+				instance.title ?? null,
+				instance.status,
+				startedAt ?? 0,
+				completedAt,
+				durationMs,
+				JSON.stringify(rest)
+			);
+
+			const stored = previous ? this.storedActivities.get(instance.instanceId) : undefined;
+			if (!stored) {
+				// Stored activities not known: replace them all
+				this.connection.statement('DELETE FROM activity_instances WHERE instance_id = ?').run(instance.instanceId);
+			}
+			for (const [activityId, digest] of digests) {
+				if (stored?.get(activityId) !== digest) {
+					this.connection.statement(UPSERT_ACTIVITY).run(instance.instanceId, activityId, bodies.get(activityId));
+				}
+			}
+			for (const activityId of stored?.keys() ?? []) {
+				if (!digests.has(activityId)) {
+					this.connection.statement('DELETE FROM activity_instances WHERE instance_id = ? AND activity_id = ?')
+						.run(instance.instanceId, activityId);
+				}
+			}
+			return previous?.status;
+		});
+
+		// Only once committed, so a rolled back save leaves the known versions as they were
+		this.storedActivities.set(instance.instanceId, digests);
+		this.statistics.record(instance, previousStatus);
+	}
+
+	async findById(instanceId: string): Promise<ProcessInstance> {
+		logger.debug(`Looking up process instance by ID: '${instanceId}'`);
+
+		const row = this.connection.statement('SELECT body FROM process_instances WHERE instance_id = ?').get(instanceId);
+		if (!row) {
+			logger.error(`Process instance not found for ID: '${instanceId}'`);
+			throw new Error(`Process instance with ID '${instanceId}' not found`);
+		}
+		return this.toInstances([{ instance_id: instanceId, body: row.body }])[0];
+	}
+
+	async findAll(): Promise<ProcessInstance[]> {
+		return this.instances('SELECT instance_id, body FROM process_instances ORDER BY started_at, instance_id');
+	}
+
+	async delete(instanceId: string): Promise<boolean> {
+		const deleted = this.connection.transaction(() => {
+			const row = this.connection.statement('SELECT process_id, status FROM process_instances WHERE instance_id = ?')
+				.get(instanceId);
+			if (row) {
+				// Activity rows go with it (ON DELETE CASCADE)
+				this.connection.statement('DELETE FROM process_instances WHERE instance_id = ?').run(instanceId);
+			}
+			return row as { process_id: string; status: ProcessStatus } | undefined;
+		});
+		this.storedActivities.delete(instanceId);
+
+		if (!deleted) {
+			logger.warn(`Failed to delete process instance - not found`, { instanceId });
+			return false;
+		}
+		this.statistics.remove(deleted.process_id, deleted.status);
+		logger.info(`Process instance deleted successfully`, { instanceId });
+		return true;
+	}
+
+	async exists(instanceId: string): Promise<boolean> {
+		return !!this.connection.statement('SELECT 1 FROM process_instances WHERE instance_id = ?').get(instanceId);
+	}
+
+	async findByStatus(status: ProcessStatus): Promise<ProcessInstance[]> {
+		return this.instances(
+			'SELECT instance_id, body FROM process_instances WHERE status = ? ORDER BY started_at, instance_id',
+			status
+		);
+	}
+
+	async findRunningInstances(): Promise<ProcessInstance[]> {
+		return this.findByStatus(ProcessStatus.Running);
+	}
+
+	async findCompletedInstances(): Promise<ProcessInstance[]> {
+		return this.findByStatus(ProcessStatus.Completed);
+	}
+
+	async findFailedInstances(): Promise<ProcessInstance[]> {
+		return this.findByStatus(ProcessStatus.Failed);
+	}
+
+	async findByProcessId(processId: string): Promise<ProcessInstanceFlyweight[]> {
+		return this.connection.statement(
+			`SELECT ${FLYWEIGHT_COLUMNS} FROM process_instances WHERE process_id = ? ORDER BY started_at, instance_id`
+		).all(processId).map(toFlyweight);
+	}
+
+	async findByProcessIdAndStatus(processId: string, status: ProcessStatus): Promise<ProcessInstance[]> {
+		return this.instances(
+			'SELECT instance_id, body FROM process_instances WHERE process_id = ? AND status = ? ORDER BY started_at, instance_id',
+			processId,
+			status
+		);
+	}
+
+	/**
+	 * Instances started within the range (inclusive), oldest first
+	 */
+	async findByDateRange(startDate: Date, endDate: Date): Promise<ProcessInstance[]> {
+		return this.instances(
+			'SELECT instance_id, body FROM process_instances WHERE started_at BETWEEN ? AND ? ORDER BY started_at, instance_id',
+			startDate.getTime(),
+			endDate.getTime()
+		);
+	}
+
+	async findActiveInstancesOlderThan(date: Date): Promise<ProcessInstance[]> {
+		return this.instances(
+			'SELECT instance_id, body FROM process_instances WHERE status = ? AND started_at < ? ORDER BY started_at, instance_id',
+			ProcessStatus.Running,
+			date.getTime()
+		);
+	}
+
+	async findPage(query: InstanceQuery, page: PageRequest = {}): Promise<Page<ProcessInstance>> {
+		const rows = this.pageRows('instance_id, started_at, body', query, page);
+		return {
+			items: this.toInstances(rows.items),
+			nextCursor: rows.nextCursor
+		};
+	}
+
+	async findByProcessIdPage(processId: string, page: PageRequest = {}): Promise<Page<ProcessInstanceFlyweight>> {
+		const rows = this.pageRows(FLYWEIGHT_COLUMNS, { processId }, page);
+		return { items: rows.items.map(toFlyweight), nextCursor: rows.nextCursor };
+	}
+
+	iterate(query: InstanceQuery = {}, batchSize?: number): AsyncIterable<ProcessInstance> {
+		return iteratePages(page => this.findPage(query, page), batchSize);
+	}
+
+	async count(): Promise<number> {
+		return this.connection.statement('SELECT COUNT(*) AS count FROM process_instances').get().count;
+	}
+
+	async countByStatus(status: ProcessStatus): Promise<number> {
+		return this.connection.statement('SELECT COUNT(*) AS count FROM process_instances WHERE status = ?').get(status).count;
+	}
+
+	async countByProcessId(processId: string): Promise<number> {
+		return this.connection.statement('SELECT COUNT(*) AS count FROM process_instances WHERE process_id = ?').get(processId).count;
+	}
+
+	async getAverageExecutionTime(processId?: string): Promise<number> {
+		const row = processId
+			? this.connection.statement(
+				'SELECT AVG(duration_ms) AS average FROM process_instances WHERE process_id = ? AND status = ?'
+			).get(processId, ProcessStatus.Completed)
+			: this.connection.statement('SELECT AVG(duration_ms) AS average FROM process_instances WHERE status = ?')
+				.get(ProcessStatus.Completed);
+		return row.average ?? 0;
+	}
+
+	async getStatistics(): Promise<InstanceStatisticsSnapshot> {
+		return this.statistics.snapshot();
+	}
+
+	async deleteCompletedOlderThan(date: Date): Promise<number> {
+		const deleted = this.connection.transaction(() => {
+			const rows = this.connection.statement(
+				"SELECT instance_id, process_id FROM process_instances WHERE status = 'completed' AND completed_at < ?"
+			).all(date.getTime());
+			this.connection.statement(
+				"DELETE FROM process_instances WHERE status = 'completed' AND completed_at < ?"
+			).run(date.getTime());
+			return rows as { instance_id: string; process_id: string }[];
+		});
+
+		for (const row of deleted) {
+			this.storedActivities.delete(row.instance_id);
+			this.statistics.remove(row.process_id, ProcessStatus.Completed);
+		}
+		return deleted.length;
+	}
+
+	async clear(): Promise<void> {
+		this.connection.transaction(() => {
+			this.connection.statement('DELETE FROM activity_instances').run();
+			this.connection.statement('DELETE FROM process_instances').run();
+		});
+		this.storedActivities.clear();
+		this.statistics.clear();
+	}
+
+	/**
+	 * One page of the matching rows, ordered by started_at then instance_id
+	 */
+	private pageRows(columns: string, query: InstanceQuery, page: PageRequest): Page<InstanceRow> {
+		const limit = pageLimit(page);
+		const conditions: string[] = [];
+		const params: any[] = [];
+		if (query.processId !== undefined) {
+			conditions.push('process_id = ?');
+			params.push(query.processId);
+		}
+		if (query.status !== undefined) {
+			conditions.push('status = ?');
+			params.push(query.status);
+		}
+		if (page.cursor) {
+			const [time, id] = decodeCursor(page.cursor, ['number', 'string']) as [number, string];
+			conditions.push('(started_at, instance_id) > (?, ?)');
+			params.push(time, id);
+		}
+		const where = conditions.length > 0 ? `WHERE ${conditions.join(' AND ')}` : '';
+
+		// One extra row tells whether another page follows
+		const rows: InstanceRow[] = this.connection.statement(
+			`SELECT ${columns} FROM process_instances ${where} ORDER BY started_at, instance_id LIMIT ?`
+		).all(...params, limit + 1);
+		const items = rows.slice(0, limit);
+		const last = items[items.length - 1];
+		return {
+			items,
+			nextCursor: rows.length > limit ? encodeCursor([last.started_at, last.instance_id]) : undefined
+		};
+	}
+
+	private instances(sql: string, ...params: any[]): ProcessInstance[] {
+		return this.toInstances(this.connection.statement(sql).all(...params));
+	}
+
+	/**
+	 * Parse instance rows and attach their activities, read for all the rows
+	 * in one query (the IDs go in as one JSON array, so any number of rows
+	 * uses the same prepared statement)
+	 */
+	private toInstances(rows: Pick<InstanceRow, 'instance_id' | 'body'>[]): ProcessInstance[] {
+		const byId = new Map<string, ProcessInstance>();
+		const instances = rows.map(row => {
+			const instance = parseInstance(row.body!);
+			instance.activities = {};
+			byId.set(row.instance_id, instance);
+			return instance;
+		});
+		if (rows.length === 0) {
+			return instances;
+		}
+
+		const activities = this.connection.statement(
+			'SELECT a.instance_id, a.activity_id, a.body FROM json_each(?) AS ids JOIN activity_instances a ON a.instance_id = ids.value'
+		).all(JSON.stringify(rows.map(row => row.instance_id)));
+		for (const row of activities) {
+			byId.get(row.instance_id)!.activities[row.activity_id] = parseInstance<ActivityInstance>(row.body);
+		}
+		return instances;
+	}
+}
+
+function toFlyweight(row: InstanceRow): ProcessInstanceFlyweight {
+	return {
+		instanceId: row.instance_id,
+		processId: row.process_id,
+		processName: row.process_name,
+		title: row.title ?? undefined,
+		status: row.status,
+		startedAt: new Date(row.started_at),
+		completedAt: row.completed_at !== null ? new Date(row.completed_at) : undefined
+	};
+}
+
+function timeOf(date: Date | string | undefined): number | null {
+	if (date === undefined || date === null) {
+		return null;
+	}
+	const time = new Date(date).getTime();
+	return Number.isNaN(time) ? null : time;
+}
@@ -0,0 +1,258 @@
+import { createReadStream } from 'fs';
+import * as fsp from 'fs/promises';
+import { logger } from '../logger';
+
+/**
+ * Options for a write-ahead log
+ */
+export interface WriteAheadLogOptions {
+	// How long an append waits for others to share its fsync (default 2, 0 = as soon as possible)
+	groupCommitMs?: number;
+	// fsync each batch before appends resolve (default true; turning it off trades durability for speed)
+	fsync?: boolean;
+}
+
+/**
+ * Snapshot of the write-ahead log counters
+ */
+export interface WriteAheadLogStats {
+	generation: number;
+	bytes: number;
+	appends: number;
+	// Batches written, each with one fsync
+	commits: number;
+	pending: number;
+}
+
+interface PendingAppend {
+	data: string;
+	resolve: () => void;
+	reject: (error: Error) => void;
+}
+
+/**
+ * An append-only log of newline-terminated JSON records, one file per
+ * generation. Appends made close together are written and fsynced as one
+ * batch (group commit); each append resolves once its batch is on disk.
+ */
+export class WriteAheadLog {
+	private handle?: fsp.FileHandle;
+	private pending: PendingAppend[] = [];
+	private timer?: NodeJS.Timeout;
+	private flushing?: Promise<void>;
+	private rotateTo?: number;
+	private closed = false;
+	private readonly groupCommitMs: number;
+	private readonly fsync: boolean;
+	private bytes = 0;
+	private appends = 0;
+	private commits = 0;
+
+	private constructor(private readonly path: (generation: number) => string, private currentGeneration: number, options: WriteAheadLogOptions) {
+		this.groupCommitMs = Math.max(0, options.groupCommitMs ?? 2);
+		this.fsync = options.fsync ?? true;
+	}
+
+	/**
+	 * Open a generation for appending, cutting off a torn record at its end
+	 * @param validBytes Length of the complete records, as found by replay
+	 */
+	static async open(path: (generation: number) => string, generation: number, validBytes: number, options: WriteAheadLogOptions = {}): Promise<WriteAheadLog> {
+		const log = new WriteAheadLog(path, generation, options);
+		log.handle = await fsp.open(path(generation), 'a+');
+		const { size } = await log.handle.stat();
+		if (size > validBytes) {
+			logger.warn('WriteAheadLog: truncating torn records', { file: path(generation), size, validBytes });
+			await log.handle.truncate(validBytes);
+		}
+		log.bytes = validBytes;
+		return log;
+	}
+
+	get generation(): number {
+		return this.currentGeneration;
+	}
+
+	/**
+	 * Append one record; resolves when it is durable
+	 */
+	append(record: any): Promise<void> {
+		if (this.closed) {
+			return Promise.reject(new Error('Write-ahead log is closed'));
+		}
+		const data = JSON.stringify(record) + '\n';
+		return new Promise<void>((resolve, reject) => {
+			this.pending.push({ data, resolve, reject });
+			this.scheduleFlush();
+		});
+	}
+
+	/**
+	 * Start a new generation; records appended from now on go to it
+	 * @returns The generation the log moves to
+	 */
+	rotate(): number {
+		this.rotateTo = this.currentGeneration + 1;
+		this.scheduleFlush();
+		return this.rotateTo;
+	}
+
+	/**
+	 * Wait until every append made so far is on disk
+	 */
+	async flush(): Promise<void> {
+		if (this.timer) {
+			clearTimeout(this.timer);
+			this.timer = undefined;
+		}
+		while (this.flushing || this.pending.length > 0 || this.rotateTo !== undefined) {
+			await (this.flushing ?? this.startFlush());
+		}
+	}
+
+	async close(): Promise<void> {
+		await this.flush();
+		this.closed = true;
+		await this.handle?.close();
+		this.handle = undefined;
+	}
+
+	snapshot(): WriteAheadLogStats {
+		return {
+			generation: this.currentGeneration,
+			bytes: this.bytes,
+			appends: this.appends,
+			commits: this.commits,
+			pending: this.pending.length
+		};
+	}
+
+	private scheduleFlush(): void {
+		if (this.timer || this.flushing) {
+			// A running flush picks up whatever is queued when it ends
+			return;
+		}
+		this.timer = setTimeout(() => this.startFlush(), this.groupCommitMs);
+	}
+
+	private startFlush(): Promise<void> {
+		this.timer = undefined;
+		if (!this.flushing) {
+			this.flushing = this.writeBatches().finally(() => {
+				this.flushing = undefined;
+				// Appends that arrived as the last batch finished
+				if (this.pending.length > 0 || this.rotateTo !== undefined) this.scheduleFlush();
+			});
+		}
+		return this.flushing;
+	}
+
+	// Write queued appends until none are left; appends arriving during an fsync form the next batch
+	private async writeBatches(): Promise<void> {
+		while (this.pending.length > 0 || this.rotateTo !== undefined) {
+			if (this.rotateTo !== undefined) {
+				await this.switchGeneration(this.rotateTo);
+				continue;
+			}
+			const batch = this.pending.splice(0);
+			const buffer = Buffer.from(batch.map(append => append.data).join(''), 'utf8');
+			try {
+				await this.handle!.appendFile(buffer);
+				if (this.fsync) {
+					await this.handle!.datasync();
+				}
+				this.bytes += buffer.length;
+				this.appends += batch.length;
+				this.commits++;
+				batch.forEach(append => append.resolve());
+			} catch (error) {
+				logger.error('WriteAheadLog: append failed', {
+					generation: this.currentGeneration,
+					records: batch.length,
+					error: error instanceof Error ? error.message : String(error)
+				});
+				// Cut off whatever part of the batch made it, so later records follow complete ones
+				await this.handle!.truncate(this.bytes).catch(() => undefined);
+				batch.forEach(append => append.reject(error instanceof Error ? error : new Error(String(error))));
+			}
+		}
+	}
+
+	private async switchGeneration(generation: number): Promise<void> {
+		this.rotateTo = undefined;
+		await this.handle?.close();
+		this.handle = await fsp.open(this.path(generation), 'a');
+		this.currentGeneration = generation;
+		this.bytes = 0;
+	}
+}
+
+/**
+ * Read a file of newline-terminated records
+ * @param apply Called with each complete line, in order
+ * @returns Length of the file up to the end of the last record that applied,
+ * whether anything after it was skipped, and whether a readable record
+ * follows the one that failed (corruption, where a torn tail has none)
+ */
+export async function readRecords(
+	file: string,
+	apply: (line: string) => void | Promise<void>
+): Promise<{ validBytes: number; skipped: boolean; corrupt: boolean }> {
+	let validBytes = 0;
+	let rest: Buffer = Buffer.alloc(0);
+	let failed = false;
+	let corrupt = false;
+
+	for await (const chunk of createReadStream(file)) {
+		const data = rest.length > 0 ? Buffer.concat([rest, chunk as Buffer]) : chunk as Buffer;
+		let start = 0;
+		let newline: number;
+		while (!corrupt && (newline = data.indexOf(0x0a, start)) >= 0) {
+			const line = data.toString('utf8', start, newline);
+			if (!failed) {
+				try {
+					if (line.length > 0) await apply(line);
+					validBytes += newline + 1 - start;
+				} catch {
+					failed = true;
+				}
+			} else {
+				// Past a bad record only a tear is expected, never another record
+				corrupt = isRecord(line);
+			}
+			start = newline + 1;
+		}
+		if (corrupt) {
+			break;
+		}
+		rest = data.subarray(start);
+	}
+
+	const { size } = await fsp.stat(file);
+	return { validBytes, skipped: size > validBytes, corrupt };
+}
+
+// Records are JSON objects; a tear leaves a fragment or zeroed bytes
+function isRecord(line: string): boolean {
+	try {
+		const value = JSON.parse(line);
+		return typeof value === 'object' && value !== null;
+	} catch {
+		return false;
+	}
+}
+
+/**
+ * Make renames and new files in a directory durable (not supported everywhere)
+ */
+export async function syncDirectory(dir: string): Promise<void> {
+	let handle: fsp.FileHandle | undefined;
+	try {
+		handle = await fsp.open(dir, 'r');
+		await handle.sync();
+	} catch {
+		// Some platforms cannot open or fsync a directory
+	} finally {
+		await handle?.close();
+	}
+}
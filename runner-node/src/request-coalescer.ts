@@ -0,0 +1,118 @@
+/**
+ * Snapshot of the request coalescer counters
+ */
+export interface CoalescerStats {
+	// Distinct requests currently on the wire
+	inFlight: number;
+	// Requests actually sent
+	requests: number;
+	// Calls that joined a request already in flight instead of sending their own
+	coalesced: number;
+	// Shared requests aborted because every caller cancelled
+	aborted: number;
+}
+
+/**
+ * Outcome of a coalesced call
+ */
+export interface CoalescedResult<T> {
+	value: T;
+	// True when other callers received the same value - the caller must copy
+	// anything it will mutate
+	shared: boolean;
+}
+
+interface Flight {
+	promise: Promise<any>;
+	controller: AbortController;
+	waiters: number;
+}
+
+/**
+ * Single-flight coalescing: concurrent calls with the same key share one
+ * in-flight request. The shared request is only aborted once every caller
+ * waiting for it has cancelled.
+ */
+export class RequestCoalescer {
+	private inFlight = new Map<string, Flight>();
+	private requests = 0;
+	private coalesced = 0;
+	private aborted = 0;
+
+	/**
+	 * Run a request, or join the identical one already in flight
+	 * @param key Identity of the request (method, URL, headers, body)
+	 * @param request Sends the request; receives the signal of the shared request
+	 * @param signal Cancels this caller's wait
+	 */
+	run<T>(key: string, request: (signal: AbortSignal) => Promise<T>, signal?: AbortSignal): Promise<CoalescedResult<T>> {
+		if (signal?.aborted) {
+			return Promise.reject(new Error('HTTP request cancelled'));
+		}
+
+		let flight = this.inFlight.get(key);
+		if (flight) {
+			this.coalesced++;
+		} else {
+			const controller = new AbortController();
+			const created: Flight = { controller, waiters: 0, promise: Promise.resolve() };
+			created.promise = request(controller.signal).finally(() => {
+				if (this.inFlight.get(key) === created) {
+					this.inFlight.delete(key);
+				}
+			});
+			// Waiters attach their own handlers; this keeps an abandoned flight's
+			// rejection from being reported as unhandled
+			created.promise.catch(() => undefined);
+			this.inFlight.set(key, created);
+			this.requests++;
+			flight = created;
+		}
+		flight.waiters++;
+
+		return this.wait(flight, key, signal);
+	}
+
+	snapshot(): CoalescerStats {
+		return {
+			inFlight: this.inFlight.size,
+			requests: this.requests,
+			coalesced: this.coalesced,
+			aborted: this.aborted
+		};
+	}
+
+	private wait<T>(flight: Flight, key: string, signal?: AbortSignal): Promise<CoalescedResult<T>> {
+		// The flight leaves the map before it settles, so the waiter count is final here
+		const settle = (value: T): CoalescedResult<T> => ({ value, shared: flight.waiters > 1 });
+		if (!signal) {
+			return flight.promise.then(settle);
+		}
+		return new Promise<CoalescedResult<T>>((resolve, reject) => {
+			const onAbort = () => {
+				flight.waiters--;
+				if (flight.waiters === 0) {
+					// Nobody is left to use the response - stop the request and let the
+					// next identical call start a fresh one
+					if (this.inFlight.get(key) === flight) {
+						this.inFlight.delete(key);
+					}
+					this.aborted++;
+					flight.controller.abort();
+				}
+				reject(new Error('HTTP request cancelled'));
+			};
+			signal.addEventListener('abort', onAbort, { once: true });
+			flight.promise.then(
+				value => {
+					signal.removeEventListener('abort', onAbort);
+					resolve(settle(value));
+				},
+				error => {
+					signal.removeEventListener('abort', onAbort);
+					reject(error);
+				}
+			);
+		});
+	}
+}
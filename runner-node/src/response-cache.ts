@@ -0,0 +1,223 @@
+import { APICachePolicy } from './models/process-types';
+import { LruCache } from './utils/lru-cache';
+import { logger } from './logger';
+
+/**
+ * The response shape APIExecutor returns and the engine stores as responseData
+ */
+export interface APIResponse {
+	status: number;
+	statusText: string;
+	headers: { [name: string]: any };
+	data: any;
+}
+
+/**
+ * Options for the shared API response cache
+ */
+export interface ResponseCacheOptions {
+	// Responses kept; the least recently used one is evicted beyond this (default 500)
+	maxEntries?: number;
+}
+
+/**
+ * Snapshot of the response cache counters
+ */
+export interface ResponseCacheStats {
+	size: number;
+	maxSize: number;
+	// Fresh entries served without a request
+	hits: number;
+	// Stale entries found, and those confirmed by a 304 Not Modified
+	stale: number;
+	revalidated: number;
+	misses: number;
+	stored: number;
+	// Responses not stored because of Cache-Control: no-store (or no validators with no-cache)
+	uncacheable: number;
+	evictions: number;
+	// (hits + revalidated) / lookups
+	hitRatio: number;
+}
+
+interface CacheEntry {
+	// The response as JSON, so callers never share (and mutate) cached objects
+	body: string;
+	expiresAt: number;
+	etag?: string;
+	lastModified?: string;
+}
+
+/**
+ * Result of a cache lookup: a fresh response, or a stale entry to revalidate
+ */
+export interface CacheLookup {
+	fresh: boolean;
+	entry: CacheEntry;
+}
+
+const DEFAULT_MAX_ENTRIES = 500;
+
+/**
+ * Bounded in-process cache of GET responses for API activities with a cache
+ * policy. Entries live for the policy's ttlSeconds, capped by the response's
+ * Cache-Control max-age. Stale entries that carry an ETag or Last-Modified are
+ * revalidated with a conditional request instead of being fetched again.
+ */
+export class ResponseCache {
+	private entries: LruCache<string, CacheEntry>;
+	private hits = 0;
+	private revalidated = 0;
+	private misses = 0;
+	private stale = 0;
+	private stored = 0;
+	private uncacheable = 0;
+
+	constructor(options: ResponseCacheOptions = {}) {
+		this.entries = new LruCache(options.maxEntries ?? DEFAULT_MAX_ENTRIES);
+	}
+
+	/**
+	 * Cache key of a request: the URL with its query parameters and the values
+	 * of the `vary` request headers. Authorization always varies the key so
+	 * callers with different credentials never share a response.
+	 */
+	keyFor(url: string, queryParams: { [key: string]: any }, headers: { [key: string]: any }, policy: APICachePolicy): string {
+		const query = Object.keys(queryParams).sort().map(key => `${key}=${queryParams[key]}`).join('&');
+		const lowerHeaders: { [name: string]: any } = {};
+		for (const [name, value] of Object.entries(headers)) {
+			lowerHeaders[name.toLowerCase()] = value;
+		}
+		const varyNames = Array.from(new Set(['authorization', ...(policy.vary || []).map(name => name.toLowerCase())])).sort();
+		const vary = varyNames.map(name => `${name}:${lowerHeaders[name] ?? ''}`).join('\n');
+		return `GET ${url}?${query}\n${vary}`;
+	}
+
+	lookup(key: string): CacheLookup | undefined {
+		const entry = this.entries.get(key);
+		if (!entry) {
+			this.misses++;
+			return undefined;
+		}
+		const fresh = entry.expiresAt > Date.now();
+		if (fresh) {
+			this.hits++;
+		} else {
+			this.stale++;
+		}
+		return { fresh, entry };
+	}
+
+	/**
+	 * A private copy of a cached response
+	 */
+	responseOf(entry: CacheEntry): APIResponse {
+		return JSON.parse(entry.body);
+	}
+
+	/**
+	 * Validator headers for revalidating a stale entry
+	 */
+	conditionalHeaders(entry: CacheEntry): { [name: string]: string } {
+		const headers: { [name: string]: string } = {};
+		if (entry.etag) headers['If-None-Match'] = entry.etag;
+		if (entry.lastModified) headers['If-Modified-Since'] = entry.lastModified;
+		return headers;
+	}
+
+	/**
+	 * Renew a stale entry after a 304 Not Modified
+	 * @returns a copy of the cached response
+	 */
+	revalidate(key: string, entry: CacheEntry, notModifiedHeaders: { [name: string]: any }, policy: APICachePolicy): APIResponse {
+		this.revalidated++;
+		// A 304 may carry updated freshness information
+		const lifetime = freshnessLifetime(notModifiedHeaders, policy);
+		entry.expiresAt = Date.now() + (lifetime ?? 0) * 1000;
+		entry.etag = header(notModifiedHeaders, 'etag') ?? entry.etag;
+		this.entries.set(key, entry);
+		return this.responseOf(entry);
+	}
+
+	/**
+	 * Store a response unless its Cache-Control forbids it
+	 * @returns true when the response was stored
+	 */
+	store(key: string, response: APIResponse, policy: APICachePolicy): boolean {
+		const lifetime = freshnessLifetime(response.headers, policy);
+		const etag = header(response.headers, 'etag');
+		const lastModified = header(response.headers, 'last-modified');
+		// Never fresh and nothing to revalidate with - storing it would not save a request
+		if (lifetime === undefined || (lifetime === 0 && !etag && !lastModified)) {
+			this.uncacheable++;
+			return false;
+		}
+		try {
+			this.entries.set(key, { body: JSON.stringify(response), expiresAt: Date.now() + lifetime * 1000, etag, lastModified });
+		} catch (error) {
+			logger.warn('ResponseCache: response is not serializable, not cached', { error: error instanceof Error ? error.message : String(error) });
+			this.uncacheable++;
+			return false;
+		}
+		this.stored++;
+		return true;
+	}
+
+	snapshot(): ResponseCacheStats {
+		const { size, maxSize, evictions } = this.entries.stats();
+		const lookups = this.hits + this.stale + this.misses;
+		return {
+			size,
+			maxSize,
+			hits: this.hits,
+			stale: this.stale,
+			revalidated: this.revalidated,
+			misses: this.misses,
+			stored: this.stored,
+			uncacheable: this.uncacheable,
+			evictions,
+			hitRatio: lookups > 0 ? (this.hits + this.revalidated) / lookups : 0
+		};
+	}
+
+	clear(): void {
+		this.entries.clear();
+	}
+}
+
+/**
+ * Seconds a response stays fresh: the policy TTL, capped by Cache-Control
+ * max-age (s-maxage wins, as for any shared cache)
+ * @returns undefined when the response must not be stored, 0 when it must
+ * always be revalidated
+ */
+function freshnessLifetime(headers: { [name: string]: any }, policy: APICachePolicy): number | undefined {
+	const ttl = Math.max(0, Number(policy.ttlSeconds) || 0);
+	const cacheControl = String(header(headers, 'cache-control') ?? '').toLowerCase();
+	if (!cacheControl) {
+		return ttl;
+	}
+	const directives = new Map<string, string | undefined>();
+	for (const part of cacheControl.split(',')) {
+		const [name, value] = part.trim().split('=');
+		if (name) directives.set(name, value?.replace(/"/g, ''));
+	}
+	if (directives.has('no-store')) {
+		return undefined;
+	}
+	if (directives.has('no-cache')) {
+		return 0;
+	}
+	const maxAge = Number(directives.get('s-maxage') ?? directives.get('max-age'));
+	return Number.isFinite(maxAge) ? Math.min(ttl, Math.max(0, maxAge)) : ttl;
+}
+
+function header(headers: { [name: string]: any } | undefined, name: string): string | undefined {
+	if (!headers) return undefined;
+	for (const [key, value] of Object.entries(headers)) {
+		if (key.toLowerCase() === name) {
+			return value === undefined || value === null ? undefined : String(value);
+		}
+	}
+	return undefined;
+}
@@ -0,0 +1,344 @@
+import { Worker } from 'worker_threads';
+import { performance } from 'perf_hooks';
+import { StepLatencyStats } from './step-metrics';
+import { logger } from './logger';
+
+/**
+ * Options for the worker thread sandbox
+ */
+export interface SandboxPoolOptions {
+	// Number of worker threads (default 2)
+	size?: number;
+	// Calls allowed to wait for a free worker before new calls are rejected (default 100)
+	maxQueue?: number;
+	// Wall clock budget of one call; the worker is restarted when it is exceeded (default 1000)
+	timeoutMs?: number;
+	// Old generation heap limit of each worker (default 64)
+	maxHeapMb?: number;
+}
+
+/**
+ * One code block to run in the sandbox. Values must be structured-cloneable.
+ */
+export interface SandboxTask {
+	// Translated JavaScript body
+	js: string;
+	// Run as a statement block rather than a `return` expression
+	statement: boolean;
+	// Function parameter names and their values (Math and console are added by the worker)
+	params: string[];
+	values: { [name: string]: any };
+	// `this.xxx` properties assigned by the code
+	thisProps: string[];
+}
+
+/**
+ * What a sandbox call sends back: the code result (resolved the same way as
+ * ExpressionEvaluator.executeCode) and the state it may have changed
+ */
+export interface SandboxOutcome {
+	result: any;
+	process: { [key: string]: any };
+	activities: { [activityId: string]: any };
+}
+
+/**
+ * Snapshot of the sandbox metrics
+ */
+export interface SandboxPoolMetrics {
+	workers: number;
+	busy: number;
+	queued: number;
+	calls: number;
+	failed: number;
+	timedOut: number;
+	rejected: number;
+	restarts: number;
+	queueWait: StepLatencyStats;
+	execution: StepLatencyStats;
+}
+
+interface PendingTask {
+	id: number;
+	task: SandboxTask;
+	enqueuedAt: number;
+	startedAt?: number;
+	timer?: NodeJS.Timeout;
+	resolve: (outcome: SandboxOutcome) => void;
+	reject: (error: Error) => void;
+}
+
+interface PoolWorker {
+	worker: Worker;
+	current?: PendingTask;
+}
+
+const DEFAULT_POOL_SIZE = 2;
+const DEFAULT_MAX_QUEUE = 100;
+const DEFAULT_TIMEOUT_MS = 1000;
+const DEFAULT_MAX_HEAP_MB = 64;
+
+// Worker body, evaluated as a script so it also runs under ts-node/ts-jest.
+// Mirrors ExpressionEvaluator.safeEval: expression first, statement block as fallback.
+const WORKER_SOURCE = `
+const { parentPort } = require('worker_threads');
+const compiled = new Map();
+
+function compile(params, body, statement) {
+	const key = (statement ? 's' : 'e') + '\\u0000' + params.join(',') + '\\u0000' + body;
+	let fn = compiled.get(key);
+	if (!fn) {
+		fn = new Function(...params, statement ? body : 'return ' + body);
+		if (compiled.size >= 500) compiled.clear();
+		compiled.set(key, fn);
+	}
+	return fn;
+}
+
+parentPort.on('message', ({ id, task }) => {
+	let reply;
+	try {
+		const values = task.values;
+		values.Math = Math;
+		values.console = { log: (...args) => process.stdout.write('[Sandbox] ' + args.join(' ') + '\\n') };
+		const args = task.params.map(name => values[name]);
+		let result;
+		try {
+			result = compile(task.params, task.js, task.statement)(...args);
+		} catch (error) {
+			if (task.statement) throw error;
+			result = compile(task.params, task.js, true)(...args);
+		}
+
+		if (task.thisProps.length > 0) {
+			const out = {};
+			for (const p of task.thisProps) out[p] = values.currentActivity[p];
+			result = out;
+		} else if (result === undefined) {
+			result = values.currentActivity;
+		}
+		reply = { id, ok: true, outcome: { result, process: values.process, activities: values.activities } };
+	} catch (error) {
+		reply = { id, ok: false, error: error && error.message ? error.message : String(error) };
+	}
+	try {
+		parentPort.postMessage(reply);
+	} catch (error) {
+		parentPort.postMessage({ id, ok: false, error: 'Sandbox result is not serializable: ' + (error && error.message ? error.message : String(error)) });
+	}
+});
+`;
+
+/**
+ * Pool of worker threads that run compute and post-API code off the main
+ * event loop. Each call gets a wall clock budget and each worker a heap
+ * limit; a worker that exceeds either is terminated and replaced, so a
+ * runaway script fails its activity instead of stalling the node.
+ */
+export class SandboxPool {
+	private readonly size: number;
+	private readonly maxQueue: number;
+	private readonly timeoutMs: number;
+	private readonly maxHeapMb: number;
+	private workers: PoolWorker[] = [];
+	private queue: PendingTask[] = [];
+	private nextId = 1;
+	private closed = false;
+
+	private calls = 0;
+	private failed = 0;
+	private timedOut = 0;
+	private rejected = 0;
+	private restarts = 0;
+	private queueWait = { count: 0, totalMs: 0, maxMs: 0 };
+	private execution = { count: 0, totalMs: 0, maxMs: 0 };
+
+	constructor(options: SandboxPoolOptions = {}) {
+		this.size = Math.max(1, options.size ?? DEFAULT_POOL_SIZE);
+		this.maxQueue = Math.max(0, options.maxQueue ?? DEFAULT_MAX_QUEUE);
+		this.timeoutMs = Math.max(1, options.timeoutMs ?? DEFAULT_TIMEOUT_MS);
+		this.maxHeapMb = Math.max(8, options.maxHeapMb ?? DEFAULT_MAX_HEAP_MB);
+
+		for (let i = 0; i < this.size; i++) {
+			this.workers.push(this.spawn());
+		}
+		logger.info('SandboxPool: started', { size: this.size, maxQueue: this.maxQueue, timeoutMs: this.timeoutMs, maxHeapMb: this.maxHeapMb });
+	}
+
+	/**
+	 * Run a code block on the next free worker
+	 * @param task The code and its context values
+	 * @returns the code result and the state it left behind
+	 */
+	run(task: SandboxTask): Promise<SandboxOutcome> {
+		if (this.closed) {
+			return Promise.reject(new Error('Sandbox pool is closed'));
+		}
+		const idle = this.workers.find(w => !w.current);
+		if (!idle && this.queue.length >= this.maxQueue) {
+			this.rejected++;
+			return Promise.reject(new Error(`Sandbox queue is full (${this.maxQueue} waiting)`));
+		}
+
+		return new Promise<SandboxOutcome>((resolve, reject) => {
+			const pending: PendingTask = { id: this.nextId++, task, enqueuedAt: performance.now(), resolve, reject };
+			this.calls++;
+			if (idle) {
+				this.dispatch(idle, pending);
+			} else {
+				this.queue.push(pending);
+			}
+		});
+	}
+
+	snapshot(): SandboxPoolMetrics {
+		return {
+			workers: this.workers.length,
+			busy: this.workers.filter(w => w.current).length,
+			queued: this.queue.length,
+			calls: this.calls,
+			failed: this.failed,
+			timedOut: this.timedOut,
+			rejected: this.rejected,
+			restarts: this.restarts,
+			queueWait: summarize(this.queueWait),
+			execution: summarize(this.execution)
+		};
+	}
+
+	/**
+	 * Terminate the workers; queued and running calls are rejected
+	 */
+	async close(): Promise<void> {
+		this.closed = true;
+		const error = new Error('Sandbox pool is closed');
+		for (const pending of this.queue.splice(0)) {
+			pending.reject(error);
+		}
+		await Promise.all(this.workers.map(async poolWorker => {
+			const pending = poolWorker.current;
+			poolWorker.current = undefined;
+			if (pending) {
+				clearTimeout(pending.timer);
+				pending.reject(error);
+			}
+			await poolWorker.worker.terminate();
+		}));
+		this.workers = [];
+	}
+
+	private spawn(): PoolWorker {
+		const worker = new Worker(WORKER_SOURCE, {
+			eval: true,
+			resourceLimits: { maxOldGenerationSizeMb: this.maxHeapMb }
+		});
+		const poolWorker: PoolWorker = { worker };
+		// Idle workers must not keep the process alive
+		worker.unref();
+
+		worker.on('message', (message: { id: number; ok: boolean; outcome?: SandboxOutcome; error?: string }) => {
+			const pending = poolWorker.current;
+			if (!pending || pending.id !== message.id) return;
+			this.finish(poolWorker, pending);
+			if (message.ok) {
+				pending.resolve(message.outcome!);
+			} else {
+				this.failed++;
+				pending.reject(new Error(message.error));
+			}
+			this.next(poolWorker);
+		});
+
+		worker.on('error', (error: Error) => {
+			// Uncaught worker errors include running out of heap (ERR_WORKER_OUT_OF_MEMORY)
+			logger.warn('SandboxPool: worker failed', { error: error.message });
+			this.replace(poolWorker, new Error(`Sandbox worker failed: ${error.message}`));
+		});
+
+		worker.on('exit', () => {
+			if (!this.closed && this.workers.includes(poolWorker)) {
+				this.replace(poolWorker, new Error('Sandbox worker exited'));
+			}
+		});
+
+		return poolWorker;
+	}
+
+	private dispatch(poolWorker: PoolWorker, pending: PendingTask): void {
+		pending.startedAt = performance.now();
+		record(this.queueWait, pending.startedAt - pending.enqueuedAt);
+		poolWorker.current = pending;
+		poolWorker.worker.ref();
+		pending.timer = setTimeout(() => {
+			this.timedOut++;
+			logger.warn('SandboxPool: call exceeded its time budget, restarting worker', { timeoutMs: this.timeoutMs });
+			this.replace(poolWorker, new Error(`Sandbox execution timed out after ${this.timeoutMs}ms`));
+		}, this.timeoutMs);
+
+		try {
+			poolWorker.worker.postMessage({ id: pending.id, task: pending.task });
+		} catch (error) {
+			this.finish(poolWorker, pending);
+			this.failed++;
+			pending.reject(new Error(`Sandbox context is not serializable: ${error instanceof Error ? error.message : String(error)}`));
+			this.next(poolWorker);
+		}
+	}
+
+	private finish(poolWorker: PoolWorker, pending: PendingTask): void {
+		clearTimeout(pending.timer);
+		record(this.execution, performance.now() - (pending.startedAt ?? pending.enqueuedAt));
+		poolWorker.current = undefined;
+		poolWorker.worker.unref();
+	}
+
+	private next(poolWorker: PoolWorker): void {
+		const pending = this.queue.shift();
+		if (pending) {
+			this.dispatch(poolWorker, pending);
+		}
+	}
+
+	/**
+	 * Fail the worker's current call and swap in a fresh worker
+	 */
+	private replace(poolWorker: PoolWorker, error: Error): void {
+		const index = this.workers.indexOf(poolWorker);
+		if (index < 0) return;
+
+		const pending = poolWorker.current;
+		if (pending) {
+			this.finish(poolWorker, pending);
+			this.failed++;
+			pending.reject(error);
+		}
+		poolWorker.worker.removeAllListeners();
+		poolWorker.worker.terminate().catch(() => undefined);
+
+		if (this.closed) {
+			this.workers.splice(index, 1);
+			return;
+		}
+		this.restarts++;
+		const replacement = this.spawn();
+		this.workers[index] = replacement;
+		this.next(replacement);
+	}
+}
+
+function record(stats: { count: number; totalMs: number; maxMs: number }, durationMs: number): void {
+	stats.count++;
+	stats.totalMs += durationMs;
+	if (durationMs > stats.maxMs) {
+		stats.maxMs = durationMs;
+	}
+}
+
+function summarize(stats: { count: number; totalMs: number; maxMs: number }): StepLatencyStats {
+	return {
+		count: stats.count,
+		totalMs: stats.totalMs,
+		meanMs: stats.count > 0 ? stats.totalMs / stats.count : 0,
+		maxMs: stats.maxMs
+	};
+}
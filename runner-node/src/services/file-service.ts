@@ -32,7 +32,7 @@ export class FileService {
 	 * @returns Variable containing the file reference
 	 */
 	async uploadAndCreateVariable(
-		uploadData: { filename: string; mimeType: string; content: Buffer; description?: string },
+		uploadData: { filename: string; mimeType: string; content: Buffer | AsyncIterable<Uint8Array>; description?: string; maxBytes?: number },
 		variableName: string,
 		processInstanceId: string,
 		activityId: string,
@@ -42,7 +42,7 @@ export class FileService {
 		logger.info('FileService: Uploading file and creating variable', {
 			filename: uploadData.filename,
 			variableName,
-			size: uploadData.content.length
+			size: Buffer.isBuffer(uploadData.content) ? uploadData.content.length : 'streamed'
 		});
 
 		const uploadRequest: FileUploadRequest = {
@@ -58,7 +58,8 @@ export class FileService {
 			filename: uploadData.filename,
 			mimeType: uploadData.mimeType,
 			content: uploadData.content,
-			description: uploadData.description
+			description: uploadData.description,
+			maxBytes: uploadData.maxBytes
 		};
 
 		const fileReference = await this.fileRepo.store(uploadRequest);
@@ -73,7 +74,8 @@ export class FileService {
 		logger.info('FileService: File uploaded and variable created', {
 			fileId: fileReference.metadata.id,
 			variableName,
-			filename: fileReference.metadata.filename
+			filename: fileReference.metadata.filename,
+			sizeBytes: fileReference.metadata.sizeBytes
 		});
 
 		return variable;
@@ -0,0 +1,69 @@
+/**
+ * Latency summary for one kind of engine step
+ */
+export interface StepLatencyStats {
+	count: number;
+	totalMs: number;
+	meanMs: number;
+	maxMs: number;
+}
+
+/**
+ * Snapshot of the step driver metrics
+ */
+export interface StepMetricsSnapshot {
+	runs: number;
+	budgetExhausted: number;
+	steps: { [stepType: string]: StepLatencyStats };
+}
+
+/**
+ * Accumulates per-step latency for the ProcessEngine step driver.
+ * Every transition the driver applies is timed here, so this is the one
+ * place to look at how long executing / completing activities takes.
+ */
+export class StepMetrics {
+	private runs = 0;
+	private budgetExhausted = 0;
+	private steps = new Map<string, { count: number; totalMs: number; maxMs: number }>();
+
+	recordRun(): void {
+		this.runs++;
+	}
+
+	recordBudgetExhausted(): void {
+		this.budgetExhausted++;
+	}
+
+	record(stepType: string, durationMs: number): void {
+		let stats = this.steps.get(stepType);
+		if (!stats) {
+			stats = { count: 0, totalMs: 0, maxMs: 0 };
+			this.steps.set(stepType, stats);
+		}
+		stats.count++;
+		stats.totalMs += durationMs;
+		if (durationMs > stats.maxMs) {
+			stats.maxMs = durationMs;
+		}
+	}
+
+	snapshot(): StepMetricsSnapshot {
+		const steps: { [stepType: string]: StepLatencyStats } = {};
+		for (const [stepType, stats] of this.steps.entries()) {
+			steps[stepType] = {
+				count: stats.count,
+				totalMs: stats.totalMs,
+				meanMs: stats.count > 0 ? stats.totalMs / stats.count : 0,
+				maxMs: stats.maxMs
+			};
+		}
+		return { runs: this.runs, budgetExhausted: this.budgetExhausted, steps };
+	}
+
+	reset(): void {
+		this.runs = 0;
+		this.budgetExhausted = 0;
+		this.steps.clear();
+	}
+}
@@ -0,0 +1,80 @@
+import { ProcessInstance } from './models/instance-types';
+import { ProcessGraph } from './process-graph';
+import { ProcessInstanceRepository } from './repositories/process-instance-repository';
+import { logger } from './logger';
+
+/**
+ * When the engine writes a running instance back to its repository
+ * - 'wait-state' : once, when a run stops at a human task, terminate,
+ *                  failure or the step budget (default)
+ * - 'every-step' : after every step that changed the instance, so a crash
+ *                  mid-run loses at most one step
+ */
+export type CheckpointPolicy = 'wait-state' | 'every-step';
+
+/**
+ * Step-scoped unit of work for a single process instance.
+ * The instance and its compiled definition are loaded once, mutated in
+ * memory by every activity handler of the run, and committed according
+ * to the checkpoint policy.
+ */
+export class InstanceUnitOfWork {
+	readonly instance: ProcessInstance;
+	// Undefined when the process definition could not be found
+	readonly graph?: ProcessGraph;
+	private dirty: boolean;
+	private writes = 0;
+
+	constructor(
+		private readonly repository: ProcessInstanceRepository,
+		instance: ProcessInstance,
+		graph: ProcessGraph | undefined,
+		private readonly policy: CheckpointPolicy,
+		isNew: boolean = false
+	) {
+		this.instance = instance;
+		this.graph = graph;
+		this.dirty = isNew;
+	}
+
+	get instanceId(): string {
+		return this.instance.instanceId;
+	}
+
+	/**
+	 * Record that the in-memory instance has changed and must be written
+	 */
+	markDirty(): void {
+		this.dirty = true;
+	}
+
+	/**
+	 * Called by the step driver after each step. Only writes under the
+	 * 'every-step' policy
+	 */
+	async checkpoint(): Promise<void> {
+		if (this.policy === 'every-step') {
+			await this.commit();
+		}
+	}
+
+	/**
+	 * Write the instance if anything changed since the last write
+	 */
+	async commit(): Promise<void> {
+		if (!this.dirty) {
+			return;
+		}
+		await this.repository.save(this.instance);
+		this.dirty = false;
+		this.writes++;
+		logger.debug(`InstanceUnitOfWork: Committed instance '${this.instanceId}' (write ${this.writes})`);
+	}
+
+	/**
+	 * Number of repository writes made by this unit of work
+	 */
+	get writeCount(): number {
+		return this.writes;
+	}
+}
@@ -0,0 +1,331 @@
+/**
+ * One-pass lexer for JPEL references embedded in JavaScript code or in
+ * plain text templates (URLs, headers, bodies).
+ *
+ * The source is split into a flat list of nodes: verbatim text, string
+ * literals (code only) and the JPEL references
+ *   a:activity.v:variable   a:activity.f:field (legacy)   a:activity.property
+ *   v:variable / var:variable   p:property   env:NAME   process.name   this.name
+ * Consumers walk the nodes instead of running a chain of regex replacements.
+ */
+
+export type JpelMode = 'code' | 'template';
+
+// Operator that follows a reference when it is assigned to
+export type JpelWriteOperator = '=' | '+=' | '-=' | '*=' | '/=' | '%=' | '++' | '--';
+
+interface NodeBase {
+	// The exact source text of the node
+	readonly raw: string;
+}
+
+export interface TextNode extends NodeBase {
+	readonly kind: 'text';
+}
+
+export interface StringNode extends NodeBase {
+	readonly kind: 'string';
+}
+
+interface ReferenceBase extends NodeBase {
+	readonly write?: JpelWriteOperator;
+}
+
+export interface ActivityVariableNode extends ReferenceBase {
+	readonly kind: 'activityVariable';
+	readonly activityId: string;
+	readonly name: string;
+}
+
+export interface ActivityFieldNode extends ReferenceBase {
+	readonly kind: 'activityField';
+	readonly activityId: string;
+	readonly name: string;
+}
+
+export interface ActivityPropertyNode extends ReferenceBase {
+	readonly kind: 'activityProperty';
+	readonly activityId: string;
+	readonly name: string;
+}
+
+export interface ProcessVariableNode extends ReferenceBase {
+	readonly kind: 'processVariable';
+	readonly name: string;
+}
+
+export interface PropertyNode extends ReferenceBase {
+	readonly kind: 'property';
+	readonly name: string;
+}
+
+export interface EnvNode extends ReferenceBase {
+	readonly kind: 'env';
+	readonly name: string;
+}
+
+export interface ProcessFieldNode extends ReferenceBase {
+	readonly kind: 'processField';
+	readonly name: string;
+}
+
+export interface ThisPropertyNode extends ReferenceBase {
+	readonly kind: 'thisProperty';
+	readonly name: string;
+}
+
+export type JpelReferenceNode =
+	| ActivityVariableNode
+	| ActivityFieldNode
+	| ActivityPropertyNode
+	| ProcessVariableNode
+	| PropertyNode
+	| EnvNode
+	| ProcessFieldNode
+	| ThisPropertyNode;
+
+export type JpelNode = TextNode | StringNode | JpelReferenceNode;
+
+// Character classes as char code predicates - the lexer looks at every
+// character, so these avoid a regex test per character
+const isAlnum = (c: number) => (c >= 97 && c <= 122) || (c >= 65 && c <= 90) || (c >= 48 && c <= 57);
+// [A-Za-z0-9_-]
+const ID_CHAR = (c: number) => isAlnum(c) || c === 95 || c === 45;
+// \w
+const WORD_CHAR = (c: number) => isAlnum(c) || c === 95;
+// [A-Za-z0-9_$]
+const VAR_START = (c: number) => isAlnum(c) || c === 95 || c === 36;
+// [A-Za-z0-9_$-]
+const VAR_CHAR = (c: number) => VAR_START(c) || c === 45;
+// Characters that make a following letter part of a longer word or member access: [A-Za-z0-9_$.]
+const BOUNDARY_BLOCKER = (c: number) => VAR_START(c) || c === 46;
+
+// A reference node while it is being built
+type ReferenceDraft = { kind: JpelReferenceNode['kind']; activityId?: string; name: string; raw?: string; write?: JpelWriteOperator };
+
+const WRITE_OPERATORS: JpelWriteOperator[] = ['+=', '-=', '*=', '/=', '%=', '++', '--'];
+
+class JpelLexer {
+	private pos = 0;
+	private textStart = 0;
+	private nodes: JpelNode[] = [];
+
+	constructor(private readonly src: string, private readonly mode: JpelMode) {}
+
+	/**
+	 * Lex until the end of the source, or until the `}` closing a template
+	 * literal substitution when nested is set
+	 * @returns the position after the last consumed character
+	 */
+	run(nested = false): { nodes: JpelNode[]; end: number } {
+		const src = this.src;
+		const code = this.mode === 'code';
+		let depth = 0;
+		while (this.pos < src.length) {
+			const c = src.charCodeAt(this.pos);
+
+			if (code) {
+				// " ' `
+				if (c === 34 || c === 39) {
+					this.flushText();
+					this.readQuoted(src[this.pos]);
+					continue;
+				}
+				if (c === 96) {
+					this.flushText();
+					this.readTemplateLiteral();
+					continue;
+				}
+				if (nested) {
+					if (c === 123) depth++;
+					if (c === 125) {
+						if (depth === 0) break;
+						depth--;
+					}
+				}
+			}
+
+			// Only a, v, p, e and t can start a reference
+			if ((c === 97 || c === 118 || c === 112 || c === 101 || c === 116)
+				&& this.atWordStart() && this.readReference()) {
+				continue;
+			}
+			this.pos++;
+		}
+		this.flushText();
+		return { nodes: this.nodes, end: this.pos };
+	}
+
+	private atWordStart(): boolean {
+		return this.pos === 0 || !BOUNDARY_BLOCKER(this.src.charCodeAt(this.pos - 1));
+	}
+
+	private flushText(): void {
+		if (this.pos > this.textStart) {
+			const raw = this.src.substring(this.textStart, this.pos);
+			const last = this.nodes[this.nodes.length - 1];
+			if (last && last.kind === 'text') {
+				this.nodes[this.nodes.length - 1] = { kind: 'text', raw: last.raw + raw };
+			} else {
+				this.nodes.push({ kind: 'text', raw });
+			}
+		}
+		this.textStart = this.pos;
+	}
+
+	private push(node: JpelNode, end: number): void {
+		this.flushText();
+		this.nodes.push(node);
+		this.pos = end;
+		this.textStart = end;
+	}
+
+	private readQuoted(quote: string): void {
+		let end = this.pos + 1;
+		while (end < this.src.length && this.src[end] !== quote && this.src[end] !== '\n') {
+			end += this.src[end] === '\\' ? 2 : 1;
+		}
+		end = Math.min(this.src.length, end + 1);
+		this.push({ kind: 'string', raw: this.src.substring(this.pos, end) }, end);
+	}
+
+	/**
+	 * Template literal text is kept verbatim, `${...}` substitutions are lexed as code
+	 */
+	private readTemplateLiteral(): void {
+		let end = this.pos + 1;
+		let chunkStart = this.pos;
+		while (end < this.src.length && this.src[end] !== '`') {
+			if (this.src[end] === '\\') {
+				end += 2;
+				continue;
+			}
+			if (this.src[end] === '$' && this.src[end + 1] === '{') {
+				this.push({ kind: 'string', raw: this.src.substring(chunkStart, end + 2) }, end + 2);
+				const inner = new JpelLexer(this.src, 'code');
+				inner.pos = end + 2;
+				inner.textStart = end + 2;
+				const { nodes, end: innerEnd } = inner.run(true);
+				nodes.forEach(node => this.nodes.push(node));
+				this.pos = innerEnd;
+				this.textStart = innerEnd;
+				chunkStart = innerEnd;
+				end = innerEnd + 1;
+				continue;
+			}
+			end++;
+		}
+		end = Math.min(this.src.length, end + 1);
+		this.pos = chunkStart;
+		this.textStart = chunkStart;
+		if (end > chunkStart) {
+			this.push({ kind: 'string', raw: this.src.substring(chunkStart, end) }, end);
+		}
+	}
+
+	/**
+	 * Try to read a JPEL reference at the current position
+	 * @returns true when a reference node was produced
+	 */
+	private readReference(): boolean {
+		const src = this.src;
+		const start = this.pos;
+
+		if (src.startsWith('a:', start)) {
+			const idEnd = this.scan(start + 2, ID_CHAR);
+			if (idEnd > start + 2 && src[idEnd] === '.') {
+				const activityId = src.substring(start + 2, idEnd);
+				if (src.startsWith('v:', idEnd + 1) || src.startsWith('f:', idEnd + 1)) {
+					const nameEnd = this.scan(idEnd + 3, ID_CHAR);
+					if (nameEnd > idEnd + 3) {
+						const kind = src[idEnd + 1] === 'v' ? 'activityVariable' : 'activityField';
+						return this.reference({ kind, activityId, name: src.substring(idEnd + 3, nameEnd) }, nameEnd);
+					}
+				}
+				const propEnd = this.scan(idEnd + 1, WORD_CHAR);
+				if (propEnd > idEnd + 1) {
+					return this.reference({ kind: 'activityProperty', activityId, name: src.substring(idEnd + 1, propEnd) }, propEnd);
+				}
+			}
+			return false;
+		}
+
+		if (src.startsWith('v:', start) || src.startsWith('var:', start)) {
+			const nameStart = start + (src[start + 1] === ':' ? 2 : 4);
+			if (!VAR_START(src.charCodeAt(nameStart))) return false;
+			let nameEnd = this.scan(nameStart, VAR_CHAR);
+			// A trailing '-' belongs to an operator (x-- / x-=)
+			while (src[nameEnd - 1] === '-' && nameEnd - 1 > nameStart) nameEnd--;
+			return this.reference({ kind: 'processVariable', name: src.substring(nameStart, nameEnd) }, nameEnd);
+		}
+
+		if (src.startsWith('p:', start) || src.startsWith('env:', start)) {
+			const kind = src[start] === 'p' ? 'property' : 'env';
+			const nameStart = start + (kind === 'property' ? 2 : 4);
+			const nameEnd = this.scan(nameStart, ID_CHAR);
+			if (nameEnd === nameStart) return false;
+			return this.reference({ kind, name: src.substring(nameStart, nameEnd) }, nameEnd);
+		}
+
+		if (src.startsWith('process.', start)) {
+			const nameEnd = this.scan(start + 8, ID_CHAR);
+			if (nameEnd === start + 8) return false;
+			return this.reference({ kind: 'processField', name: src.substring(start + 8, nameEnd) }, nameEnd);
+		}
+
+		if (this.mode === 'code' && src.startsWith('this.', start)) {
+			const nameEnd = this.scan(start + 5, WORD_CHAR);
+			if (nameEnd === start + 5) return false;
+			return this.reference({ kind: 'thisProperty', name: src.substring(start + 5, nameEnd) }, nameEnd);
+		}
+
+		return false;
+	}
+
+	private reference(node: ReferenceDraft, end: number): boolean {
+		node.raw = this.src.substring(this.pos, end);
+		const write = this.mode === 'code' ? this.writeOperatorAt(end) : undefined;
+		if (write) node.write = write;
+		this.push(node as JpelReferenceNode, end);
+		return true;
+	}
+
+	private writeOperatorAt(pos: number): JpelWriteOperator | undefined {
+		const src = this.src;
+		while (src[pos] === ' ' || src[pos] === '\t') pos++;
+		const next = src[pos + 1];
+		if (src[pos] === '=') {
+			return next !== '=' && next !== '>' ? '=' : undefined;
+		}
+		if (next === '=' || next === src[pos]) {
+			const op = src.substring(pos, pos + 2) as JpelWriteOperator;
+			return WRITE_OPERATORS.includes(op) ? op : undefined;
+		}
+		return undefined;
+	}
+
+	private scan(pos: number, chars: (c: number) => boolean): number {
+		const src = this.src;
+		while (pos < src.length && chars(src.charCodeAt(pos))) pos++;
+		return pos;
+	}
+}
+
+/**
+ * Split JPEL source into nodes in one pass
+ * @param source The code or template text
+ * @param mode 'code' recognises string literals (references inside them are
+ * left alone) and `this.`, 'template' treats everything as text
+ * @returns the nodes, which concatenated by `raw` reproduce the source
+ */
+export function parseJpel(source: string, mode: JpelMode = 'code'): JpelNode[] {
+	if (!source) return [];
+	return new JpelLexer(source, mode).run().nodes;
+}
+
+/**
+ * Whether a node is a JPEL reference (as opposed to text or a string literal)
+ */
+export function isReference(node: JpelNode): node is JpelReferenceNode {
+	return node.kind !== 'text' && node.kind !== 'string';
+}
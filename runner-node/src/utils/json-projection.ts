@@ -0,0 +1,118 @@
+import { LruCache } from './lru-cache';
+
+/**
+ * JSONPath-like selectors for projecting API responses:
+ *   $                 the whole value
+ *   $.a.b / $['a b']  object members
+ *   $.items[0]        array index (negative counts from the end)
+ *   $.items[*].id     every element (or member value); the result is an array
+ */
+
+type Step =
+	| { kind: 'member'; name: string }
+	| { kind: 'index'; index: number }
+	| { kind: 'wildcard' };
+
+export type Selector = readonly Step[];
+
+// Selectors come from process definitions, so few distinct strings are ever seen
+const compiled = new LruCache<string, Selector>(1000);
+
+/**
+ * Parse a selector, reusing earlier parses of the same string
+ * @throws Error for selectors that are not valid
+ */
+export function compileSelector(path: string): Selector {
+	const cached = compiled.get(path);
+	if (cached) return cached;
+	const selector = parseSelector(path);
+	compiled.set(path, selector);
+	return selector;
+}
+
+/**
+ * Select a value; missing members and indexes select undefined
+ */
+export function select(value: any, selector: Selector): any {
+	return walk(value, selector, 0);
+}
+
+/**
+ * Build an object of the selected values, one property per spec entry.
+ * Entries that select nothing are left out.
+ */
+export function project(value: any, spec: { [name: string]: string }): { [name: string]: any } {
+	const result: { [name: string]: any } = {};
+	for (const [name, path] of Object.entries(spec)) {
+		const selected = select(value, compileSelector(path));
+		if (selected !== undefined) {
+			result[name] = selected;
+		}
+	}
+	return result;
+}
+
+function walk(value: any, selector: Selector, from: number): any {
+	let current = value;
+	for (let i = from; i < selector.length; i++) {
+		if (current === null || current === undefined || typeof current !== 'object') {
+			return undefined;
+		}
+		const step = selector[i];
+		if (step.kind === 'wildcard') {
+			const items = Array.isArray(current) ? current : Object.values(current);
+			return items.map(item => walk(item, selector, i + 1)).filter(item => item !== undefined);
+		}
+		if (step.kind === 'index') {
+			if (!Array.isArray(current)) return undefined;
+			current = current[step.index < 0 ? current.length + step.index : step.index];
+		} else {
+			current = Object.prototype.hasOwnProperty.call(current, step.name) ? current[step.name] : undefined;
+		}
+	}
+	return current;
+}
+
+function parseSelector(path: string): Selector {
+	const fail = (reason: string): never => {
+		throw new Error(`Invalid selector '${path}': ${reason}`);
+	};
+	if (typeof path !== 'string' || path[0] !== '$') {
+		fail("must start with '$'");
+	}
+
+	const steps: Step[] = [];
+	let pos = 1;
+	while (pos < path.length) {
+		const c = path[pos];
+		if (c === '.') {
+			pos++;
+			if (path[pos] === '*') {
+				steps.push({ kind: 'wildcard' });
+				pos++;
+				continue;
+			}
+			const start = pos;
+			while (pos < path.length && /[A-Za-z0-9_$-]/.test(path[pos])) pos++;
+			if (pos === start) fail(`expected a member name at ${start}`);
+			steps.push({ kind: 'member', name: path.substring(start, pos) });
+		} else if (c === '[') {
+			const end = path.indexOf(']', pos);
+			if (end < 0) fail(`unclosed '[' at ${pos}`);
+			const inner = path.substring(pos + 1, end).trim();
+			if (inner === '*') {
+				steps.push({ kind: 'wildcard' });
+			} else if (/^-?\d+$/.test(inner)) {
+				steps.push({ kind: 'index', index: Number(inner) });
+			} else if (/^(['"]).*\1$/.test(inner)) {
+				steps.push({ kind: 'member', name: inner.slice(1, -1) });
+			} else {
+				fail(`unsupported '[${inner}]'`);
+			}
+			pos = end + 1;
+		} else {
+			fail(`unexpected '${c}' at ${pos}`);
+		}
+	}
+	return steps;
+}
@@ -0,0 +1,114 @@
+/**
+ * Hit/miss counters for an LruCache
+ */
+export interface LruCacheStats {
+	size: number;
+	maxSize: number;
+	hits: number;
+	misses: number;
+	evictions: number;
+	hitRatio: number;
+}
+
+/**
+ * Small bounded least-recently-used cache.
+ * Relies on Map iteration order: the first key is always the least recently used.
+ */
+export class LruCache<K, V> {
+	private entries = new Map<K, V>();
+	private hits = 0;
+	private misses = 0;
+	private evictions = 0;
+
+	constructor(private maxSize: number) {
+		if (!Number.isInteger(maxSize) || maxSize < 1) {
+			throw new Error(`LruCache size must be a positive integer, got ${maxSize}`);
+		}
+	}
+
+	get(key: K): V | undefined {
+		if (!this.entries.has(key)) {
+			this.misses++;
+			return undefined;
+		}
+		const value = this.entries.get(key) as V;
+		// Move to the most recently used position
+		this.entries.delete(key);
+		this.entries.set(key, value);
+		this.hits++;
+		return value;
+	}
+
+	set(key: K, value: V): void {
+		if (this.entries.has(key)) {
+			this.entries.delete(key);
+		} else if (this.entries.size >= this.maxSize) {
+			const oldest = this.entries.keys().next().value as K;
+			this.entries.delete(oldest);
+			this.evictions++;
+		}
+		this.entries.set(key, value);
+	}
+
+	/**
+	 * Get a value, computing and caching it on a miss
+	 */
+	getOrCreate(key: K, create: () => V): V {
+		const cached = this.get(key);
+		if (cached !== undefined) {
+			return cached;
+		}
+		const value = create();
+		this.set(key, value);
+		return value;
+	}
+
+	has(key: K): boolean {
+		return this.entries.has(key);
+	}
+
+	delete(key: K): boolean {
+		return this.entries.delete(key);
+	}
+
+	clear(): void {
+		this.entries.clear();
+	}
+
+	/**
+	 * Change the capacity, evicting least recently used entries if needed
+	 */
+	resize(maxSize: number): void {
+		if (!Number.isInteger(maxSize) || maxSize < 1) {
+			throw new Error(`LruCache size must be a positive integer, got ${maxSize}`);
+		}
+		this.maxSize = maxSize;
+		while (this.entries.size > this.maxSize) {
+			const oldest = this.entries.keys().next().value as K;
+			this.entries.delete(oldest);
+			this.evictions++;
+		}
+	}
+
+	get size(): number {
+		return this.entries.size;
+	}
+
+	stats(): LruCacheStats {
+		const lookups = this.hits + this.misses;
+		return {
+			size: this.entries.size,
+			maxSize: this.maxSize,
+			hits: this.hits,
+			misses: this.misses,
+			evictions: this.evictions,
+			hitRatio: lookups > 0 ? this.hits / lookups : 0
+		};
+	}
+
+	resetStats(): void {
+		this.hits = 0;
+		this.misses = 0;
+		this.evictions = 0;
+	}
+}
@@ -0,0 +1,109 @@
+/**
+ * Count, mean, variance, min and max of a stream of values in constant
+ * space (Welford's online algorithm)
+ */
+export class RunningStats {
+	count = 0;
+	mean = 0;
+	min = Infinity;
+	max = -Infinity;
+	// Sum of squared differences from the mean
+	private m2 = 0;
+
+	add(value: number): void {
+		this.count++;
+		const delta = value - this.mean;
+		this.mean += delta / this.count;
+		this.m2 += delta * (value - this.mean);
+		if (value < this.min) this.min = value;
+		if (value > this.max) this.max = value;
+	}
+
+	/**
+	 * Sample variance (0 below two values)
+	 */
+	get variance(): number {
+		return this.count > 1 ? this.m2 / (this.count - 1) : 0;
+	}
+
+	get stdDev(): number {
+		return Math.sqrt(this.variance);
+	}
+}
+
+/**
+ * Streaming estimate of one quantile in constant space (the P² algorithm of
+ * Jain and Chlamtac): five markers track the minimum, the quantile, the
+ * maximum and two points between, and are moved along a parabola as values
+ * arrive. Exact for the first five values.
+ */
+export class P2Quantile {
+	private count = 0;
+	// Marker heights, their positions and desired positions (0-based)
+	private heights: number[] = [];
+	private positions = [0, 1, 2, 3, 4];
+	private desired: number[];
+	private increments: number[];
+
+	constructor(readonly p: number) {
+		this.desired = [0, 2 * p, 4 * p, 2 + 2 * p, 4];
+		this.increments = [0, p / 2, p, (1 + p) / 2, 1];
+	}
+
+	add(value: number): void {
+		this.count++;
+		const q = this.heights;
+		if (this.count <= 5) {
+			q.push(value);
+			if (this.count === 5) q.sort((a, b) => a - b);
+			return;
+		}
+
+		// Cell the value falls in, widening the extremes if needed
+		let k: number;
+		if (value < q[0]) {
+			q[0] = value;
+			k = 0;
+		} else if (value >= q[4]) {
+			q[4] = value;
+			k = 3;
+		} else {
+			k = 0;
+			while (value >= q[k + 1]) k++;
+		}
+
+		const n = this.positions;
+		for (let i = k + 1; i < 5; i++) n[i]++;
+		for (let i = 0; i < 5; i++) this.desired[i] += this.increments[i];
+
+		// Move the middle markers that are off their desired position by one or more
+		for (let i = 1; i <= 3; i++) {
+			const offset = this.desired[i] - n[i];
+			if ((offset >= 1 && n[i + 1] - n[i] > 1) || (offset <= -1 && n[i - 1] - n[i] < -1)) {
+				const d = offset > 0 ? 1 : -1;
+				const parabolic = q[i] + d / (n[i + 1] - n[i - 1]) * (
+					(n[i] - n[i - 1] + d) * (q[i + 1] - q[i]) / (n[i + 1] - n[i]) +
+					(n[i + 1] - n[i] - d) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+				q[i] = q[i - 1] < parabolic && parabolic < q[i + 1]
+					? parabolic
+					: q[i] + d * (q[i + d] - q[i]) / (n[i + d] - n[i]);
+				n[i] += d;
+			}
+		}
+	}
+
+	/**
+	 * Current estimate (0 before any value)
+	 */
+	value(): number {
+		if (this.count === 0) {
+			return 0;
+		}
+		if (this.count <= 5) {
+			// Nearest rank over the few values seen
+			const sorted = [...this.heights].sort((a, b) => a - b);
+			return sorted[Math.max(0, Math.ceil(this.p * sorted.length) - 1)];
+		}
+		return this.heights[2];
+	}
+}
@@ -1,42 +1,140 @@
-import { ProcessInstance } from '../models/instance-types';
-import { ACTIVITY_VAR_PATTERN, ACTIVITY_FIELD_PATTERN, PROCESS_VAR_PATTERN, ENV_VAR_PATTERN, mapVariablesArray } from './patterns';
+import { ProcessInstance, ActivityInstance } from '../models/instance-types';
+import { JpelNode, parseJpel, isReference } from './jpel-parser';
+import { LruCache } from './lru-cache';
+
+/**
+ * A template split into text and JPEL references once, rendered many times
+ */
+export interface CompiledTemplate {
+    readonly source: string;
+    readonly nodes: readonly JpelNode[];
+    // No references - renders to the source itself
+    readonly constant: boolean;
+}
+
+/**
+ * A JSON request body with every string (keys included) compiled as a template
+ */
+export type CompiledBody =
+    | { readonly kind: 'constant'; readonly value: any }
+    | { readonly kind: 'string'; readonly template: CompiledTemplate }
+    | { readonly kind: 'array'; readonly items: readonly CompiledBody[] }
+    | { readonly kind: 'object'; readonly entries: readonly (readonly [CompiledTemplate, CompiledBody])[] };
+
+// Templates come from process definitions, so the set of distinct strings is small
+const templates = new LruCache<string, CompiledTemplate>(5000);
+
+/**
+ * Parse a template, reusing earlier parses of the same text
+ */
+export function compileTemplate(text: string): CompiledTemplate {
+    const source = text ?? '';
+    const cached = templates.get(source);
+    if (cached) return cached;
+    const nodes = parseJpel(source, 'template');
+    const template: CompiledTemplate = { source, nodes, constant: !nodes.some(isReference) };
+    templates.set(source, template);
+    return template;
+}
+
+/**
+ * Render a compiled template against an instance
+ */
+export function renderTemplate(template: CompiledTemplate, instance: ProcessInstance): string {
+    if (template.constant) return template.source;
+    let result = '';
+    for (const node of template.nodes) {
+        result += resolveNode(node, instance);
+    }
+    return result;
+}
+
+/**
+ * Compile the strings of a JSON body; subtrees without references stay constant
+ */
+export function compileBody(value: any): CompiledBody {
+    if (typeof value === 'string') {
+        const template = compileTemplate(value);
+        return template.constant ? { kind: 'constant', value } : { kind: 'string', template };
+    }
+    if (Array.isArray(value)) {
+        const items = value.map(compileBody);
+        return items.every(item => item.kind === 'constant') ? { kind: 'constant', value } : { kind: 'array', items };
+    }
+    if (value !== null && typeof value === 'object') {
+        const entries = Object.entries(value).map(([key, item]) => [compileTemplate(key), compileBody(item)] as const);
+        return entries.every(([key, item]) => key.constant && item.kind === 'constant') ? { kind: 'constant', value } : { kind: 'object', entries };
+    }
+    return { kind: 'constant', value };
+}
+
+/**
+ * Render a compiled body. Substituted values stay strings, so a value can
+ * never break the structure of the body. Constant subtrees are shared with
+ * the definition and must not be mutated.
+ */
+export function renderBody(body: CompiledBody, instance: ProcessInstance): any {
+    switch (body.kind) {
+        case 'constant':
+            return body.value;
+        case 'string':
+            return renderTemplate(body.template, instance);
+        case 'array':
+            return body.items.map(item => renderBody(item, instance));
+        case 'object': {
+            const result: { [key: string]: any } = {};
+            for (const [key, item] of body.entries) {
+                result[renderTemplate(key, instance)] = renderBody(item, instance);
+            }
+            return result;
+        }
+    }
+}
 
 /**
  * Resolve inline template tokens inside a string, e.g. "a:act.v:var" or "process.name" or "env:API_KEY".
  * Pure helper that does not depend on ExpressionEvaluator state.
+ * Tokens are found in one pass, so a resolved value is never scanned again;
+ * tokens that cannot be resolved are kept as written.
  */
 export function resolveInlineTemplate(text: string, instance: ProcessInstance): string {
     if (!text) return text;
-    let result = text;
-
-    result = result.replace(ACTIVITY_VAR_PATTERN, (match, activityId, variableName) => {
-        const activity = instance.activities[activityId];
-        const activityData = mapVariablesArray(activity as any);
-        if (activityData && activityData[variableName] !== undefined) return String(activityData[variableName]);
-        return match;
-    });
-
-    result = result.replace(ACTIVITY_FIELD_PATTERN, (match, activityId, fieldName) => {
-        const activity = instance.activities[activityId];
-        const activityData = mapVariablesArray(activity as any);
-        if (activityData && activityData[fieldName] !== undefined) return String(activityData[fieldName]);
-        return match;
-    });
-
-    result = result.replace(PROCESS_VAR_PATTERN, (match, variableName) => {
-        if (instance.variables && instance.variables[variableName] !== undefined) return String(instance.variables[variableName]);
-        return match;
-    });
-
-    result = result.replace(ENV_VAR_PATTERN, (match, envVarName) => {
-        const envValue = process.env[envVarName];
-        if (envValue !== undefined) return envValue;
-        // Log warning for missing environment variables but don't fail
-        console.warn(`Environment variable '${envVarName}' not found, keeping placeholder: ${match}`);
-        return match;
-    });
+    return renderTemplate(compileTemplate(text), instance);
+}
 
-    return result;
+function resolveNode(node: JpelNode, instance: ProcessInstance): string {
+    switch (node.kind) {
+        case 'activityVariable':
+        case 'activityField': {
+            const value = activityVariable(instance.activities[node.activityId], node.name);
+            return value !== undefined ? String(value) : node.raw;
+        }
+        case 'processField':
+            if (instance.variables && instance.variables[node.name] !== undefined) return String(instance.variables[node.name]);
+            return node.raw;
+        case 'env': {
+            const envValue = process.env[node.name];
+            if (envValue !== undefined) return envValue;
+            // Log warning for missing environment variables but don't fail
+            console.warn(`Environment variable '${node.name}' not found, keeping placeholder: ${node.raw}`);
+            return node.raw;
+        }
+        default:
+            return node.raw;
+    }
+}
+
+/**
+ * Value of an activity variable, looked up without building a map of all of
+ * them (the last entry wins, as with mapVariablesArray)
+ */
+function activityVariable(activity: ActivityInstance | undefined, name: string): any {
+    const variables = activity?.variables;
+    if (!variables || !Array.isArray(variables)) return undefined;
+    for (let i = variables.length - 1; i >= 0; i--) {
+        if (variables[i].name === name) return variables[i].value;
+    }
+    return undefined;
 }
 
 /**
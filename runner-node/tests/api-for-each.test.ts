@@ -0,0 +1,138 @@
+import { ProcessEngine } from '../src/process-engine';
+import ProcessLoader from '../src/process-loader';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ActivityType } from '../src/models/process-types';
+import { ProcessStatus, ActivityStatus } from '../src/models/instance-types';
+jest.mock('axios');
+
+const axios = require('axios') as any;
+
+const SERIALS = Array.from({ length: 20 }, (_, i) => `SN-${i}`);
+
+const definition = (forEach: any, extra: any = {}) => ({
+	id: 'validate-serials',
+	name: 'Validate Serials',
+	version: '1.0.0',
+	start: 'a:root',
+	variables: [{ name: 'serials', type: 'text', defaultValue: JSON.stringify(SERIALS.map(serial => ({ serial, site: 'b1' }))) }],
+	activities: {
+		root: { id: 'root', type: ActivityType.Sequence, activities: ['a:validate', 'a:summary'] },
+		validate: {
+			id: 'validate',
+			type: ActivityType.API,
+			method: 'POST',
+			url: 'https://registry.example.com/serials/a:validate.v:serial/check',
+			body: { site: 'a:validate.v:site', position: 'a:validate.v:index' },
+			forEach,
+			...extra
+		},
+		summary: { id: 'summary', type: ActivityType.Compute, code: ['v:checked = a:validate.v:results.length;'] }
+	}
+});
+
+const variable = (activity: any, name: string) => activity.variables.find((v: any) => v.name === name)?.value;
+
+describe('forEach API activities', () => {
+	let engine: ProcessEngine;
+
+	beforeEach(() => {
+		RepositoryFactory.initializeInMemory();
+		engine = new ProcessEngine({ resilience: { baseDelayMs: 10, maxDelayMs: 10 } });
+	});
+
+	afterEach(async () => {
+		await engine.close();
+		axios.mockReset();
+	});
+
+	test('one request per item with bounded concurrency, results in item order and partial failures reported', async () => {
+		let inFlight = 0;
+		let maxInFlight = 0;
+		axios.mockImplementation((cfg: any) => {
+			inFlight++;
+			maxInFlight = Math.max(maxInFlight, inFlight);
+			const serial = cfg.url.split('/')[4];
+			return new Promise(resolve => setTimeout(() => {
+				inFlight--;
+				resolve(serial === 'SN-7'
+					? { status: 404, statusText: 'Not Found', headers: {}, data: {} }
+					: { status: 200, statusText: 'OK', headers: {}, data: { serial, valid: true, site: cfg.data.site, position: cfg.data.position } });
+			}, 1 + Math.floor(Math.random() * 5)));
+		});
+		await engine.loadProcess(definition({ items: 'v:serials', concurrency: 4 }) as any);
+
+		const result = await engine.createInstance('validate-serials');
+		expect(result.status).toBe(ProcessStatus.Completed);
+		expect(axios).toHaveBeenCalledTimes(SERIALS.length);
+		expect(maxInFlight).toBe(4);
+
+		const instance = (await engine.getInstance(result.instanceId))!;
+		const validate = instance.activities.validate as any;
+		const results = variable(validate, 'results');
+		expect(results).toHaveLength(SERIALS.length);
+		expect(results[3]).toEqual({ serial: 'SN-3', valid: true, site: 'b1', position: '3' });
+		expect(results[7]).toBeNull();
+		expect(variable(validate, 'failures')).toEqual([
+			{ index: 7, item: { serial: 'SN-7', site: 'b1' }, error: expect.stringMatching(/Unexpected HTTP status 404/) }
+		]);
+		expect(validate.responseData.status).toBe(207);
+		expect(validate.forEachProgress).toBeUndefined();
+		expect(instance.variables.checked).toBe(SERIALS.length);
+	});
+
+	test('failOnError fails the activity when an item failed', async () => {
+		axios.mockImplementation(async (cfg: any) => cfg.url.includes('SN-2/')
+			? { status: 400, statusText: 'Bad Request', headers: {}, data: {} }
+			: { status: 200, statusText: 'OK', headers: {}, data: {} });
+		await engine.loadProcess(definition({ items: 'v:serials', failOnError: true }) as any);
+
+		const result = await engine.createInstance('validate-serials');
+
+		const validate = (await engine.getInstance(result.instanceId))!.activities.validate;
+		expect(validate.status).toBe(ActivityStatus.Failed);
+		expect(validate.error).toMatch(/1 of 20 requests failed/);
+	});
+
+	test('progress is persisted, so a restarted engine only sends the unfinished requests', async () => {
+		// Every fifth item fails once with a transient error, retried no sooner than 100ms later
+		const seen = new Set<string>();
+		axios.mockImplementation(async (cfg: any) => {
+			const serial = cfg.url.split('/')[4];
+			const index = Number(serial.split('-')[1]);
+			if (index % 5 === 0 && !seen.has(serial)) {
+				seen.add(serial);
+				return { status: 503, statusText: 'Unavailable', headers: { 'retry-after': '0.1' }, data: {} };
+			}
+			return { status: 200, statusText: 'OK', headers: {}, data: { serial } };
+		});
+		await engine.loadProcess(definition({ items: 'v:serials', concurrency: 3, checkpointEvery: 5 }, { retries: 2 }) as any);
+
+		const first = await engine.createInstance('validate-serials');
+		expect(first.status).toBe(ProcessStatus.Running);
+		const stored = (await engine.getInstance(first.instanceId))!.activities.validate as any;
+		expect(stored.forEachProgress.states.filter((state: any) => state.status === 'completed')).toHaveLength(16);
+		expect(stored.forEachProgress.states.filter((state: any) => state.status === 'pending')).toHaveLength(4);
+
+		// Simulate a restart: the pending retry timers are gone, a new engine continues the instance
+		await engine.close();
+		axios.mockClear();
+		engine = new ProcessEngine({ resilience: { baseDelayMs: 10, maxDelayMs: 10 } });
+		await new Promise(resolve => setTimeout(resolve, 120));
+
+		const resumed = await engine.executeNextStep(first.instanceId);
+		expect(resumed.status).toBe(ProcessStatus.Completed);
+		expect(axios.mock.calls.map((call: any[]) => call[0].url.split('/')[4]).sort()).toEqual(['SN-0', 'SN-10', 'SN-15', 'SN-5']);
+		const validate = (await engine.getInstance(first.instanceId))!.activities.validate as any;
+		expect(variable(validate, 'results').every((r: any) => r !== null)).toBe(true);
+		expect(variable(validate, 'failures')).toEqual([]);
+	});
+
+	test('validation rejects forEach without items and with file responses', () => {
+		const result = ProcessLoader.validate(definition({ concurrency: 0 }, { responseMode: 'file' }) as any);
+		expect(result.errors).toEqual(expect.arrayContaining([
+			"Activity 'validate' forEach needs an 'items' expression",
+			"Activity 'validate' forEach concurrency must be a positive integer",
+			"Activity 'validate' forEach cannot be combined with responseMode 'file'"
+		]));
+	});
+});
@@ -0,0 +1,189 @@
+import { ApiResilience, APIRequestError } from '../src/api-resilience';
+import { APIExecutor } from '../src/api-executor';
+import { HttpAgentPool } from '../src/http-agent-pool';
+import { ResponseCache } from '../src/response-cache';
+import { RequestCoalescer } from '../src/request-coalescer';
+import { ProcessEngine } from '../src/process-engine';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ActivityType } from '../src/models/process-types';
+import { ProcessStatus, ActivityStatus } from '../src/models/instance-types';
+import { createMockProcessInstance } from './setup';
+jest.mock('axios');
+
+const axios = require('axios') as any;
+
+const activity = (extra: any = {}): any => ({
+	id: 'fetch',
+	type: ActivityType.API,
+	method: 'GET',
+	url: 'https://flaky.example.com/orders',
+	retries: 3,
+	...extra
+});
+
+const reply = (status: number, headers: any = {}) => ({ status, statusText: String(status), headers, data: { status } });
+
+const waitFor = async (check: () => Promise<boolean>, timeoutMs = 2000) => {
+	const deadline = Date.now() + timeoutMs;
+	while (!(await check())) {
+		if (Date.now() > deadline) throw new Error('Timed out');
+		await new Promise(resolve => setTimeout(resolve, 5));
+	}
+};
+
+describe('ApiResilience', () => {
+	test('breaker opens after consecutive failures, fails fast, then lets one probe through', () => {
+		const resilience = new ApiResilience({ failureThreshold: 3, openMs: 50 });
+		for (let i = 0; i < 3; i++) {
+			resilience.beforeRequest('h');
+			resilience.recordFailure('h');
+		}
+
+		expect(() => resilience.beforeRequest('h')).toThrow(APIRequestError);
+		expect(resilience.snapshot()).toMatchObject({ openCircuits: 1, hosts: [{ host: 'h', state: 'open', opened: 1, rejected: 1 }] });
+
+		const nowSpy = jest.spyOn(Date, 'now').mockReturnValue(Date.now() + 60);
+		try {
+			resilience.beforeRequest('h');
+			// Only the probe goes through while half-open
+			expect(() => resilience.beforeRequest('h')).toThrow(/half-open/);
+			resilience.recordSuccess('h');
+			expect(() => resilience.beforeRequest('h')).not.toThrow();
+			expect(resilience.snapshot().hosts[0].state).toBe('closed');
+		} finally {
+			nowSpy.mockRestore();
+		}
+	});
+
+	test('failed probe reopens the breaker', () => {
+		const resilience = new ApiResilience({ failureThreshold: 1, openMs: 0 });
+		resilience.beforeRequest('h');
+		resilience.recordFailure('h');
+		resilience.beforeRequest('h');
+		resilience.recordFailure('h');
+		expect(resilience.snapshot().hosts[0].opened).toBe(2);
+	});
+
+	test('retry budget caps retries per host', () => {
+		const resilience = new ApiResilience({ minRetriesPerWindow: 2, retryBudgetRatio: 0.5 });
+		for (let i = 0; i < 4; i++) resilience.beforeRequest('h');
+
+		// 2 + 0.5 * 4 requests
+		const granted = Array.from({ length: 6 }, () => resilience.tryAcquireRetry('h')).filter(Boolean).length;
+		expect(granted).toBe(4);
+		expect(resilience.tryAcquireRetry('other')).toBe(true);
+		expect(resilience.snapshot().hosts.find(h => h.host === 'h')!.budgetExhausted).toBe(2);
+	});
+
+	test('backoff uses full jitter within the capped exponential bound', () => {
+		const resilience = new ApiResilience({ baseDelayMs: 100, maxDelayMs: 1000 });
+		for (let attempt = 0; attempt < 8; attempt++) {
+			const ceiling = Math.min(1000, 100 * Math.pow(2, attempt));
+			for (let i = 0; i < 50; i++) {
+				const delay = resilience.backoffDelay(attempt);
+				expect(delay).toBeGreaterThanOrEqual(0);
+				expect(delay).toBeLessThan(ceiling);
+			}
+		}
+	});
+});
+
+describe('APIExecutor retry planning', () => {
+	let executor: APIExecutor;
+	const instance = createMockProcessInstance() as any;
+
+	beforeEach(() => {
+		executor = new APIExecutor(new HttpAgentPool(), new ResponseCache(), new RequestCoalescer(), new ApiResilience({ baseDelayMs: 10 }));
+	});
+
+	afterEach(() => {
+		axios.mockReset();
+	});
+
+	test('5xx is retryable and honours Retry-After', async () => {
+		axios.mockResolvedValue(reply(503, { 'retry-after': '2' }));
+
+		const error = await executor.execute(activity(), instance).catch(e => e);
+		expect(error).toBeInstanceOf(APIRequestError);
+		expect(error.retryable).toBe(true);
+		expect(executor.planRetry(activity(), 0, error)).toBe(2000);
+		expect(executor.planRetry(activity(), 3, error)).toBeUndefined();
+	});
+
+	test('4xx and network errors', async () => {
+		axios.mockResolvedValueOnce(reply(404));
+		const notFound = await executor.execute(activity(), instance).catch(e => e);
+		expect(notFound.retryable).toBe(false);
+		expect(executor.planRetry(activity(), 0, notFound)).toBeUndefined();
+
+		axios.mockRejectedValueOnce(new Error('ECONNRESET'));
+		const reset = await executor.execute(activity(), instance).catch(e => e);
+		expect(reset.retryable).toBe(true);
+		expect(executor.planRetry(activity(), 0, reset)).toBeLessThan(10);
+	});
+});
+
+describe('Deferred API retries', () => {
+	let engine: ProcessEngine;
+
+	beforeEach(async () => {
+		RepositoryFactory.initializeInMemory();
+		engine = new ProcessEngine({ resilience: { baseDelayMs: 20, maxDelayMs: 20 } });
+		await engine.loadProcess({
+			id: 'flaky',
+			name: 'Flaky',
+			version: '1.0.0',
+			start: 'a:fetch',
+			activities: { fetch: activity() }
+		} as any);
+	});
+
+	afterEach(async () => {
+		await engine.close();
+		axios.mockReset();
+	});
+
+	test('a failed attempt yields and the retry completes the instance later', async () => {
+		axios.mockResolvedValueOnce(reply(503)).mockResolvedValueOnce(reply(200));
+
+		const result = await engine.createInstance('flaky');
+		expect(result.status).toBe(ProcessStatus.Running);
+		expect(result.currentActivity).toBe('fetch');
+		expect(result.message).toMatch(/retrying/);
+		expect(engine.getMetrics().resilience.pendingRetries).toBe(1);
+
+		await waitFor(async () => (await engine.getInstance(result.instanceId))!.status === ProcessStatus.Completed);
+		const fetch = (await engine.getInstance(result.instanceId))!.activities.fetch as any;
+		expect(fetch.status).toBe(ActivityStatus.Completed);
+		expect(fetch.responseData.status).toBe(200);
+		expect(fetch.retryAttempt).toBeUndefined();
+		expect(axios).toHaveBeenCalledTimes(2);
+	});
+
+	test('a retry scheduled before a restart runs on the recreated engine', async () => {
+		axios.mockResolvedValueOnce(reply(503)).mockResolvedValueOnce(reply(200));
+
+		const { instanceId } = await engine.createInstance('flaky');
+		// The timer is lost with the engine; the retry is due by the time the next one starts
+		await engine.close();
+		await new Promise(resolve => setTimeout(resolve, 40));
+		engine = new ProcessEngine({ resilience: { baseDelayMs: 20, maxDelayMs: 20 } });
+		expect(axios).toHaveBeenCalledTimes(1);
+
+		expect(await engine.recoverRetries()).toBe(1);
+		await waitFor(async () => (await engine.getInstance(instanceId))!.status === ProcessStatus.Completed);
+		expect(axios).toHaveBeenCalledTimes(2);
+		expect(await engine.recoverRetries()).toBe(0);
+	});
+
+	test('the activity fails once its retries are used up', async () => {
+		axios.mockResolvedValue(reply(500));
+
+		const { instanceId } = await engine.createInstance('flaky');
+		await waitFor(async () => (await engine.getInstance(instanceId))!.activities.fetch.status === ActivityStatus.Failed);
+
+		const fetch = (await engine.getInstance(instanceId))!.activities.fetch;
+		expect(fetch.error).toMatch(/failed after 4 attempts/);
+		expect(axios).toHaveBeenCalledTimes(4);
+	});
+});
@@ -0,0 +1,120 @@
+import { ProcessEngine, ProcessEngineOptions } from '../src/process-engine';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ExpressionEvaluator, responseContext } from '../src/expression-evaluator';
+import { ActivityType } from '../src/models/process-types';
+import { ProcessStatus } from '../src/models/instance-types';
+import { createMockActivityInstance, createMockProcessInstance } from './setup';
+jest.mock('axios');
+
+const axios = require('axios') as any;
+
+const INSTANCES = 20;
+const LOOKUPS = 5;
+
+// Each lookup answers with its own name after a random delay, so responses arrive interleaved
+const mockEcho = () => {
+	axios.mockImplementation((cfg: any) => new Promise(resolve => {
+		const name = cfg.url.split('/').pop();
+		setTimeout(() => resolve({
+			status: 200,
+			statusText: 'OK',
+			headers: { 'x-name': name },
+			data: { name }
+		}), 1 + Math.floor(Math.random() * 15));
+	}));
+};
+
+// Fan out LOOKUPS API calls whose post-API code copies what it sees into activity variables
+const buildProcess = () => {
+	const lookups: any = {};
+	for (let i = 0; i < LOOKUPS; i++) {
+		lookups[`l${i}`] = {
+			id: `l${i}`,
+			type: ActivityType.API,
+			method: 'GET',
+			url: `https://echo.example.com/l${i}`,
+			code: [
+				'this.echo = response.data.name;',
+				'this.status = status;',
+				'this.header = headers["x-name"];'
+			]
+		};
+	}
+	return {
+		id: 'response-isolation',
+		name: 'Response Isolation',
+		version: '1.0.0',
+		start: 'a:root',
+		activities: {
+			root: { id: 'root', type: ActivityType.Sequence, activities: ['a:fork'] },
+			fork: { id: 'fork', type: ActivityType.Parallel, activities: Object.keys(lookups).map(id => `a:${id}`) },
+			...lookups
+		}
+	};
+};
+
+const runConcurrently = async (options: ProcessEngineOptions) => {
+	const engine = new ProcessEngine(options);
+	try {
+		await engine.loadProcess(buildProcess() as any);
+		const results = await Promise.all(Array.from({ length: INSTANCES }, () => engine.createInstance('response-isolation')));
+
+		for (const result of results) {
+			expect(result.status).toBe(ProcessStatus.Completed);
+			const instance = await engine.getInstance(result.instanceId);
+			for (let i = 0; i < LOOKUPS; i++) {
+				const values = Object.fromEntries(instance!.activities[`l${i}`].variables!.map(v => [v.name, v.value]));
+				expect(values).toEqual({ echo: `l${i}`, status: 200, header: `l${i}` });
+			}
+		}
+	} finally {
+		await engine.close();
+	}
+};
+
+describe('API response context', () => {
+	beforeEach(() => {
+		RepositoryFactory.initializeInMemory();
+		mockEcho();
+	});
+
+	afterEach(() => {
+		axios.mockReset();
+	});
+
+	test('response, status and headers are evaluation parameters, not globals', () => {
+		const evaluator = new ExpressionEvaluator();
+		const instance = createMockProcessInstance({
+			activities: { fetch: createMockActivityInstance({ id: 'fetch' }) }
+		} as any) as any;
+
+		const result = evaluator.executeCode(['this.code = status; this.kind = headers.kind; this.n = response.data.n;'], instance, 'fetch',
+			responseContext({ status: 201, headers: { kind: 'json' }, data: { n: 3 } } as any));
+
+		expect(result).toEqual({ code: 201, kind: 'json', n: 3 });
+		expect((global as any).response).toBeUndefined();
+		expect(() => evaluator.executeCode(['this.x = response.data'], instance, 'fetch')).toThrow();
+	});
+
+	test('a response global hides an activity shortcut of the same name', () => {
+		const evaluator = new ExpressionEvaluator();
+		const instance = createMockProcessInstance({
+			activities: {
+				fetch: createMockActivityInstance({ id: 'fetch' }),
+				headers: createMockActivityInstance({ id: 'headers' })
+			}
+		} as any) as any;
+
+		const result = evaluator.executeCode(['this.kind = headers.kind'], instance, 'fetch', responseContext({ status: 200, headers: { kind: 'json' } }));
+		expect(result).toEqual({ kind: 'json' });
+	});
+
+	test('post-API code of concurrent instances and parallel branches sees only its own response', async () => {
+		await runConcurrently({});
+		expect((global as any).response).toBeUndefined();
+	});
+
+	test('isolation holds when post-API code runs in the sandbox', async () => {
+		await runConcurrently({ sandbox: { size: 3 } });
+	}, 20000);
+});
@@ -0,0 +1,92 @@
+import { Readable } from 'stream';
+import { createHash } from 'crypto';
+import { ProcessEngine } from '../src/process-engine';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { InMemoryFileRepository } from '../src/repositories/in-memory-file-repository';
+import { ActivityType } from '../src/models/process-types';
+import { ProcessStatus, ActivityStatus } from '../src/models/instance-types';
+import { FieldType } from '../src/models/common-types';
+jest.mock('axios');
+
+const axios = require('axios') as any;
+
+const chunks = Array.from({ length: 8 }, (_, i) => Buffer.alloc(64 * 1024, i));
+const body = Buffer.concat(chunks);
+
+const download = (extra: any = {}) => ({
+	id: 'download',
+	type: ActivityType.API,
+	method: 'GET',
+	url: 'https://reports.example.com/monthly/report-2026-09.pdf',
+	responseMode: 'file',
+	code: ['this.fileId = response.data.metadata.id;'],
+	...extra
+});
+
+const loadProcess = async (engine: ProcessEngine, activity: any) => {
+	await engine.loadProcess({
+		id: 'report',
+		name: 'Report',
+		version: '1.0.0',
+		start: 'a:download',
+		activities: { download: activity }
+	} as any);
+};
+
+describe('API responseMode file', () => {
+	let engine: ProcessEngine;
+
+	beforeEach(() => {
+		RepositoryFactory.initializeInMemory();
+		engine = new ProcessEngine();
+	});
+
+	afterEach(async () => {
+		await engine.close();
+		axios.mockReset();
+	});
+
+	test('streams the body into the file repository and exposes a FileReference variable', async () => {
+		axios.mockImplementation(async (cfg: any) => {
+			expect(cfg.responseType).toBe('stream');
+			return { status: 200, statusText: 'OK', headers: { 'content-type': 'application/pdf' }, data: Readable.from(chunks) };
+		});
+		await loadProcess(engine, download());
+
+		const result = await engine.createInstance('report');
+		expect(result.status).toBe(ProcessStatus.Completed);
+
+		const activity = (await engine.getInstance(result.instanceId))!.activities.download as any;
+		const file = activity.variables.find((v: any) => v.name === 'file');
+		expect(file.type).toBe(FieldType.File);
+		expect(file.value.metadata).toMatchObject({
+			filename: 'report-2026-09.pdf',
+			mimeType: 'application/pdf',
+			sizeBytes: body.length,
+			checksum: createHash('sha256').update(body).digest('hex')
+		});
+		// Only the reference is kept on the instance
+		expect(activity.responseData.data).toEqual(file.value);
+		expect(activity.variables.find((v: any) => v.name === 'fileId').value).toBe(file.value.metadata.id);
+
+		const repo = RepositoryFactory.getFileRepository() as InMemoryFileRepository;
+		expect((await repo.getContent(file.value.metadata.id))!.equals(body)).toBe(true);
+	});
+
+	test('Content-Disposition names the file and maxBytes bounds it', async () => {
+		axios.mockImplementation(async () => ({
+			status: 200,
+			statusText: 'OK',
+			headers: { 'content-disposition': 'attachment; filename="september.pdf"' },
+			data: Readable.from(chunks)
+		}));
+		await loadProcess(engine, download({ responseFile: { variable: 'report', maxBytes: 100 * 1024 } }));
+
+		const result = await engine.createInstance('report');
+
+		const activity = (await engine.getInstance(result.instanceId))!.activities.download;
+		expect(activity.status).toBe(ActivityStatus.Failed);
+		expect(activity.error).toMatch(/september\.pdf' exceeds 102400 bytes/);
+		expect((RepositoryFactory.getFileRepository() as InMemoryFileRepository).getFileCount()).toBe(0);
+	});
+});
@@ -0,0 +1,142 @@
+import { LruCache } from '../src/utils/lru-cache';
+import { ExpressionEvaluator } from '../src/expression-evaluator';
+import { ProcessEngine } from '../src/process-engine';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ActivityType } from '../src/models/process-types';
+import { ActivityStatus, ProcessStatus } from '../src/models/instance-types';
+
+describe('LruCache', () => {
+	test('evicts the least recently used entry and counts hits and misses', () => {
+		const cache = new LruCache<string, number>(2);
+		cache.set('a', 1);
+		cache.set('b', 2);
+		expect(cache.get('a')).toBe(1);
+		cache.set('c', 3);
+
+		expect(cache.has('a')).toBe(true);
+		expect(cache.has('b')).toBe(false);
+		expect(cache.get('b')).toBeUndefined();
+
+		const stats = cache.stats();
+		expect(stats).toMatchObject({ size: 2, maxSize: 2, hits: 1, misses: 1, evictions: 1 });
+		expect(stats.hitRatio).toBe(0.5);
+	});
+
+	test('getOrCreate only creates on a miss', () => {
+		const cache = new LruCache<string, string>(4);
+		const create = jest.fn(() => 'value');
+		expect(cache.getOrCreate('k', create)).toBe('value');
+		expect(cache.getOrCreate('k', create)).toBe('value');
+		expect(create).toHaveBeenCalledTimes(1);
+	});
+
+	test('resize evicts down to the new capacity', () => {
+		const cache = new LruCache<number, number>(3);
+		[1, 2, 3].forEach(n => cache.set(n, n));
+		cache.resize(1);
+		expect(cache.size).toBe(1);
+		expect(cache.has(3)).toBe(true);
+		expect(() => cache.resize(0)).toThrow('positive integer');
+	});
+});
+
+describe('Compiled expression cache', () => {
+	const process = {
+		id: 'expression-cache-test',
+		name: 'Expression Cache Test',
+		version: '1.0.0',
+		start: 'a:root',
+		activities: {
+			root: { id: 'root', type: ActivityType.Sequence, activities: ['a:calc', 'a:check', 'a:pick'] },
+			calc: { id: 'calc', type: ActivityType.Compute, code: ['const base = 20;', 'this.total = base + 1;'] },
+			check: { id: 'check', type: ActivityType.Branch, condition: 'a:calc.v:total > 10', then: 'a:big', else: 'a:small' },
+			pick: { id: 'pick', type: ActivityType.Switch, expression: 'a:calc.v:total', cases: { '21': 'a:tag' }, default: 'a:small' },
+			big: { id: 'big', type: ActivityType.Compute, code: ['this.size = "big"'] },
+			small: { id: 'small', type: ActivityType.Compute, code: ['this.size = "small"'] },
+			tag: { id: 'tag', type: ActivityType.Compute, code: ['this.tagged = true'] }
+		}
+	};
+
+	beforeEach(() => {
+		RepositoryFactory.initializeInMemory();
+		ExpressionEvaluator.clearCache();
+	});
+
+	test('expressions are compiled when the definition is loaded', async () => {
+		const engine = new ProcessEngine();
+		await engine.loadProcess(JSON.parse(JSON.stringify(process)));
+
+		const afterLoad = ExpressionEvaluator.getCacheStats();
+		expect(afterLoad.functions.size).toBeGreaterThanOrEqual(6);
+
+		const result = await engine.createInstance('expression-cache-test');
+		expect(result.status).toBe(ProcessStatus.Completed);
+
+		const afterRun = engine.getMetrics().expressions;
+		// Running the instance compiles nothing new
+		expect(afterRun.functions.size).toBe(afterLoad.functions.size);
+		expect(afterRun.functions.misses).toBe(afterLoad.functions.misses);
+		expect(afterRun.functions.hits).toBeGreaterThan(afterLoad.functions.hits);
+		expect(afterRun.translations.hits).toBeGreaterThan(0);
+
+		const instance = await engine.getInstance(result.instanceId);
+		expect(instance!.activities['big'].variables!.find(v => v.name === 'size')!.value).toBe('big');
+		expect(instance!.activities['tag'].status).toBe(ActivityStatus.Completed);
+	});
+
+	test('compile errors are cached and still reported', () => {
+		const evaluator = new ExpressionEvaluator();
+		const instance: any = { instanceId: 'i1', processId: 'p', variables: {}, activities: {} };
+
+		expect(() => evaluator.evaluateCondition('1 +* 2', instance)).toThrow('Condition evaluation failed');
+		const misses = ExpressionEvaluator.getCacheStats().functions.misses;
+		expect(() => evaluator.evaluateCondition('1 +* 2', instance)).toThrow('Condition evaluation failed');
+		expect(ExpressionEvaluator.getCacheStats().functions.misses).toBe(misses);
+	});
+});
+
+describe('Lazy evaluation context', () => {
+	const buildInstance = (count: number): any => {
+		const activities: any = {};
+		for (let i = 0; i < count; i++) {
+			activities[`step${i}`] = { id: `step${i}`, type: ActivityType.Compute, status: 'completed', variables: [{ name: 'n', value: i }] };
+		}
+		return { instanceId: 'lazy', processId: 'p', variables: {}, activities };
+	};
+
+	beforeEach(() => {
+		ExpressionEvaluator.clearCache();
+	});
+
+	test('only materialises the activities an expression reads', () => {
+		const evaluator = new ExpressionEvaluator();
+		const instance = buildInstance(80);
+
+		expect(evaluator.evaluateCondition('a:step7.v:n === 7', instance)).toBe(true);
+		expect(instance.activities['step7'].v).toEqual({ n: 7 });
+		expect(instance.activities['step8'].v).toBeUndefined();
+		expect(ExpressionEvaluator.getCacheStats().variableViews).toEqual({ rebuilt: 1, reused: 0 });
+	});
+
+	test('reuses unchanged variable maps and rebuilds changed ones', () => {
+		const evaluator = new ExpressionEvaluator();
+		const instance = buildInstance(3);
+
+		evaluator.evaluateCondition('a:step1.v:n > 0', instance);
+		const view = instance.activities['step1'].v;
+		evaluator.evaluateCondition('a:step1.v:n > 0', instance);
+		expect(instance.activities['step1'].v).toBe(view);
+		expect(ExpressionEvaluator.getCacheStats().variableViews).toEqual({ rebuilt: 1, reused: 1 });
+
+		instance.activities['step1'].variables[0].value = -1;
+		expect(evaluator.evaluateCondition('a:step1.v:n > 0', instance)).toBe(false);
+		expect(ExpressionEvaluator.getCacheStats().variableViews.rebuilt).toBe(2);
+	});
+
+	test('activity shortcuts remain available when referenced', () => {
+		const evaluator = new ExpressionEvaluator();
+		const instance = buildInstance(3);
+		const result = evaluator.executeCode(['this.total = step0.v.n + step2.v.n'], instance, 'step1');
+		expect(result).toEqual({ total: 2 });
+	});
+});
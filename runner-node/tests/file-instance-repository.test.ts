@@ -0,0 +1,238 @@
+import * as fs from 'fs';
+import * as os from 'os';
+import * as path from 'path';
+import { FileProcessInstanceRepository } from '../src/repositories/file-process-instance-repository';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ProcessInstance, ProcessStatus } from '../src/models/instance-types';
+import { ExecutionContext } from '../src/execution-context';
+
+describe('FileProcessInstanceRepository', () => {
+	let dir: string;
+	const open: FileProcessInstanceRepository[] = [];
+
+	const openRepo = async (options: { compactBytes?: number; groupCommitMs?: number } = {}) => {
+		const repo = await FileProcessInstanceRepository.open({ dir, ...options });
+		open.push(repo);
+		return repo;
+	};
+
+	function instance(id: string, status = ProcessStatus.Running, startedMin = 0): ProcessInstance {
+		return {
+			instanceId: id,
+			processId: 'p1',
+			processName: 'P1',
+			status,
+			startedAt: new Date(Date.UTC(2025, 0, 1, 0, startedMin)),
+			completedAt: status === ProcessStatus.Completed ? new Date(Date.UTC(2025, 0, 1, 1, startedMin)) : undefined,
+			variables: { amount: 10 },
+			activities: { review: { id: 'review', type: 'human', status: 'running', startedAt: new Date(Date.UTC(2025, 0, 1)) } as any },
+			executionContext: { currentActivity: 'review' } as any
+		};
+	}
+
+	beforeEach(() => {
+		dir = fs.mkdtempSync(path.join(os.tmpdir(), 'jpel-file-repo-'));
+	});
+
+	afterEach(async () => {
+		for (const repo of open.splice(0)) {
+			await repo.close().catch(() => undefined);
+		}
+		fs.rmSync(dir, { recursive: true, force: true });
+	});
+
+	test('recovers saved instances, with dates, after a restart', async () => {
+		const repo = await openRepo();
+		await repo.save(instance('i1'));
+		await repo.save({ ...instance('i1'), variables: { amount: 20 } });
+		await repo.save(instance('i2'));
+		expect(await repo.delete('i2')).toBe(true);
+		await repo.close();
+
+		const reopened = await openRepo();
+		expect(await reopened.count()).toBe(1);
+		const recovered = await reopened.findById('i1');
+		expect(recovered.variables.amount).toBe(20);
+		expect(recovered.startedAt).toBeInstanceOf(Date);
+		expect((recovered.activities.review as any).startedAt).toBeInstanceOf(Date);
+		expect(await reopened.exists('i2')).toBe(false);
+		expect(reopened.recoveryStats().logRecords).toBe(4);
+		expect(await reopened.countByStatus(ProcessStatus.Running)).toBe(1);
+	});
+
+	test('keeps the state a save saw, not later changes to the object', async () => {
+		const repo = await openRepo();
+		const live = instance('i1');
+		const saved = repo.save(live);
+		live.status = ProcessStatus.Failed;
+		await saved;
+		await repo.close();
+
+		expect((await (await openRepo()).findById('i1')).status).toBe(ProcessStatus.Running);
+	});
+
+	test('restores the execution context from the log and from a snapshot', async () => {
+		const repo = await openRepo();
+		const context = new ExecutionContext();
+		context.pushFrame('main');
+		context.pushFrame('review', 'main', 1);
+		await repo.save({ ...instance('i1'), executionContext: context });
+		await repo.close();
+
+		let reopened = await openRepo();
+		let restored = (await reopened.findById('i1')).executionContext;
+		expect(restored).toBeInstanceOf(ExecutionContext);
+		expect(restored.currentActivity).toBe('review');
+		expect(restored.getParentFrame()).toEqual({ activityId: 'main' });
+		await reopened.compact();
+		await reopened.close();
+
+		reopened = await openRepo();
+		expect(reopened.recoveryStats().snapshotGeneration).toBeDefined();
+		restored = (await reopened.findById('i1')).executionContext;
+		expect(restored.popFrame()).toEqual({ activityId: 'review', parentId: 'main', position: 1 });
+		expect(restored.currentActivity).toBe('main');
+	});
+
+	test('group commits concurrent saves into fewer fsyncs', async () => {
+		const repo = await openRepo({ groupCommitMs: 5 });
+		await Promise.all(Array.from({ length: 50 }, (_, i) => repo.save(instance(`i${i}`))));
+		const stats = repo.logStats();
+		expect(stats.appends).toBe(50);
+		expect(stats.commits).toBeLessThan(50);
+		expect(await repo.count()).toBe(50);
+	});
+
+	test('compacts into a snapshot and recovers from it plus the newer log', async () => {
+		const repo = await openRepo({ compactBytes: 2000 });
+		for (let i = 0; i < 20; i++) {
+			await repo.save(instance(`i${i}`, ProcessStatus.Completed, i));
+		}
+		await repo.compact();
+		await repo.save(instance('late'));
+		expect(await repo.deleteCompletedOlderThan(new Date(Date.UTC(2025, 0, 1, 1, 5)))).toBe(5);
+		await repo.close();
+
+		const files = fs.readdirSync(dir);
+		expect(files.some(f => f.startsWith('snapshot-'))).toBe(true);
+		// Logs older than the newest snapshot are removed
+		expect(files.filter(f => f.startsWith('wal-')).length).toBeLessThanOrEqual(2);
+
+		const reopened = await openRepo();
+		const stats = reopened.recoveryStats();
+		expect(stats.snapshotGeneration).toBeDefined();
+		expect(stats.snapshotInstances).toBeGreaterThan(0);
+		expect(await reopened.count()).toBe(16);
+		expect(await reopened.exists('late')).toBe(true);
+		expect(await reopened.exists('i0')).toBe(false);
+		expect(await reopened.exists('i5')).toBe(true);
+	});
+
+	test('ignores a torn record at the end of the log', async () => {
+		const repo = await openRepo();
+		await repo.save(instance('i1'));
+		await repo.close();
+
+		const log = fs.readdirSync(dir).find(f => f.startsWith('wal-'))!;
+		fs.appendFileSync(path.join(dir, log), '{"op":"save","instance":{"instanceId":"i2"');
+
+		const reopened = await openRepo();
+		expect(reopened.recoveryStats().skippedLogs).toBe(1);
+		expect(await reopened.count()).toBe(1);
+
+		// Appends after recovery follow the last complete record
+		await reopened.save(instance('i3'));
+		await reopened.close();
+		expect(await (await openRepo()).count()).toBe(2);
+	});
+
+	test('treats a bad final record followed only by zeroed bytes as a torn tail', async () => {
+		const repo = await openRepo();
+		await repo.save(instance('i1'));
+		await repo.close();
+
+		const log = fs.readdirSync(dir).find(f => f.startsWith('wal-'))!;
+		fs.appendFileSync(path.join(dir, log), '{"op":"save","inst\n' + '\0'.repeat(64));
+
+		const reopened = await openRepo();
+		expect(reopened.recoveryStats().skippedLogs).toBe(1);
+		expect(await reopened.count()).toBe(1);
+	});
+
+	test('fails to start when readable records follow a corrupt one', async () => {
+		const repo = await openRepo();
+		for (const id of ['i1', 'i2', 'i3']) {
+			await repo.save(instance(id));
+		}
+		await repo.close();
+
+		const file = path.join(dir, fs.readdirSync(dir).find(f => f.startsWith('wal-'))!);
+		const lines = fs.readFileSync(file, 'utf8').split('\n');
+		lines[1] = 'X' + lines[1].substring(1);
+		fs.writeFileSync(file, lines.join('\n'));
+		const size = fs.statSync(file).size;
+
+		await expect(FileProcessInstanceRepository.open({ dir })).rejects.toThrow(/is corrupt at byte/);
+		// Nothing is cut off, so the records can still be repaired by hand
+		expect(fs.statSync(file).size).toBe(size);
+	});
+
+	test('recovers writes made during a snapshot after a crash before or after its rename', async () => {
+		const repo = await openRepo();
+		for (let i = 0; i < 10; i++) {
+			await repo.save(instance(`i${i}`));
+		}
+		const firstLog = fs.readdirSync(dir).find(f => f.startsWith('wal-'))!;
+		const firstLogData = fs.readFileSync(path.join(dir, firstLog));
+
+		// Saves made while the snapshot is written go to the next log generation
+		const compaction = repo.compact();
+		await Promise.all([repo.save({ ...instance('i0'), variables: { amount: 99 } }), repo.save(instance('during'))]);
+		await compaction;
+		await repo.close();
+
+		const snapshot = fs.readdirSync(dir).find(f => f.startsWith('snapshot-'))!;
+		const secondLog = fs.readdirSync(dir).find(f => f.startsWith('wal-'))!;
+		expect(secondLog).not.toBe(firstLog);
+		expect(fs.statSync(path.join(dir, secondLog)).size).toBeGreaterThan(0);
+		const snapshotData = fs.readFileSync(path.join(dir, snapshot));
+
+		// Crash after the rename, before the old log was removed
+		fs.writeFileSync(path.join(dir, firstLog), firstLogData);
+		let reopened = await openRepo();
+		expect(reopened.recoveryStats().snapshotGeneration).toBeDefined();
+		expect(await reopened.count()).toBe(11);
+		expect((await reopened.findById('i0')).variables.amount).toBe(99);
+		await reopened.close();
+
+		// Crash before the rename: the snapshot is only a partly written temporary file
+		fs.rmSync(path.join(dir, snapshot));
+		fs.writeFileSync(path.join(dir, `${snapshot}.tmp`), snapshotData.subarray(0, snapshotData.length >> 1));
+		reopened = await openRepo();
+		expect(reopened.recoveryStats().snapshotGeneration).toBeUndefined();
+		expect(await reopened.count()).toBe(11);
+		expect((await reopened.findById('i0')).variables.amount).toBe(99);
+		expect(await reopened.exists('during')).toBe(true);
+		expect(fs.existsSync(path.join(dir, `${snapshot}.tmp`))).toBe(false);
+	});
+
+	test('clear is durable', async () => {
+		const repo = await openRepo();
+		await repo.save(instance('i1'));
+		await repo.clear();
+		await repo.save(instance('i2'));
+		await repo.close();
+
+		const reopened = await openRepo();
+		expect(await reopened.exists('i1')).toBe(false);
+		expect(await reopened.exists('i2')).toBe(true);
+	});
+
+	test('RepositoryFactory opens it for type file', async () => {
+		await RepositoryFactory.initialize({ type: 'file', options: { dir } });
+		const repo = RepositoryFactory.getProcessInstanceRepository();
+		expect(repo).toBeInstanceOf(FileProcessInstanceRepository);
+		open.push(repo as FileProcessInstanceRepository);
+		RepositoryFactory.reset();
+	});
+});
@@ -0,0 +1,106 @@
+import http from 'http';
+import { AddressInfo } from 'net';
+import { HttpAgentPool } from '../src/http-agent-pool';
+import { APIExecutor } from '../src/api-executor';
+import { ActivityType } from '../src/models/process-types';
+import { createMockProcessInstance } from './setup';
+
+describe('HttpAgentPool', () => {
+	let server: http.Server;
+	let baseUrl: string;
+	let connections: number;
+	let pool: HttpAgentPool;
+
+	beforeEach(async () => {
+		connections = 0;
+		server = http.createServer((req, res) => {
+			setTimeout(() => res.end(JSON.stringify({ path: req.url })), 20);
+		});
+		server.on('connection', () => connections++);
+		await new Promise<void>(resolve => server.listen(0, '127.0.0.1', resolve));
+		baseUrl = `http://127.0.0.1:${(server.address() as AddressInfo).port}`;
+	});
+
+	afterEach(async () => {
+		pool.close();
+		await new Promise(resolve => server.close(resolve));
+	});
+
+	const get = (url: string) => new Promise<void>((resolve, reject) => {
+		http.get(url, { agent: pool.agentsFor(url).httpAgent }, res => {
+			res.resume();
+			res.on('end', resolve);
+		}).on('error', reject);
+	});
+
+	test('API activities to the same origin reuse one keep-alive connection', async () => {
+		pool = new HttpAgentPool();
+		const executor = new APIExecutor(pool);
+		const instance = createMockProcessInstance() as any;
+
+		for (let i = 0; i < 5; i++) {
+			const response = await executor.execute({ id: 'lookup', type: ActivityType.API, method: 'GET', url: `${baseUrl}/item/${i}` } as any, instance);
+			expect(response.data).toEqual({ path: `/item/${i}` });
+		}
+
+		// Sockets return to the free list once the response has been consumed
+		await new Promise(resolve => setImmediate(resolve));
+		expect(connections).toBe(1);
+		const stats = pool.snapshot();
+		expect(stats.origins).toBe(1);
+		expect(stats.byOrigin[0]).toMatchObject({ origin: baseUrl, active: 0, free: 1, queued: 0, requests: 5 });
+	});
+
+	test('per-host maxSockets queues requests beyond the limit', async () => {
+		pool = new HttpAgentPool({ hosts: { '127.0.0.1': { maxSockets: 1 } } });
+
+		const pending = [get(`${baseUrl}/a`), get(`${baseUrl}/b`), get(`${baseUrl}/c`)];
+		expect(pool.snapshot()).toMatchObject({ active: 1, queued: 2, requests: 3 });
+
+		await Promise.all(pending);
+		await new Promise(resolve => setImmediate(resolve));
+		expect(connections).toBe(1);
+		expect(pool.snapshot()).toMatchObject({ active: 0, queued: 0 });
+	});
+
+	test('idleTimeoutMs closes free sockets without timing out requests in flight', async () => {
+		pool = new HttpAgentPool({ idleTimeoutMs: 5 });
+		const url = `${baseUrl}/slow`;
+		let timedOut = false;
+
+		// The server answers after 20ms, longer than the idle timeout
+		for (let i = 0; i < 2; i++) {
+			await new Promise<void>((resolve, reject) => {
+				http.get(url, { agent: pool.agentsFor(url).httpAgent }, res => {
+					res.resume();
+					res.on('end', resolve);
+				}).on('timeout', () => { timedOut = true; }).on('error', reject);
+			});
+		}
+		expect(timedOut).toBe(false);
+		expect(connections).toBe(1);
+
+		await new Promise(resolve => setTimeout(resolve, 50));
+		expect(pool.snapshot()).toMatchObject({ active: 0, free: 0 });
+	});
+
+	test('host overrides are merged over the defaults', () => {
+		pool = new HttpAgentPool({ maxSockets: 20, idleTimeoutMs: 5000, hosts: { 'erp.example.com': { maxSockets: 200 }, 'erp.example.com:8443': { keepAlive: false } } });
+
+		expect(pool.optionsFor('erp.example.com')).toEqual({ keepAlive: true, maxSockets: 200, maxFreeSockets: 10, idleTimeoutMs: 5000 });
+		expect(pool.optionsFor('erp.example.com:8443', 'erp.example.com')).toMatchObject({ keepAlive: false, maxSockets: 20 });
+		expect(pool.optionsFor('other.example.com')).toMatchObject({ maxSockets: 20 });
+	});
+
+	test('agents are kept per origin and bounded', () => {
+		pool = new HttpAgentPool({ maxOrigins: 2 });
+
+		const first = pool.agentsFor('http://one.example.com/x').httpAgent;
+		expect(pool.agentsFor('http://one.example.com/y').httpAgent).toBe(first);
+		expect(pool.agentsFor('https://one.example.com/x').httpsAgent).toBeDefined();
+		pool.agentsFor('http://two.example.com/');
+
+		expect(pool.snapshot().byOrigin.map(o => o.origin)).toEqual(['https://one.example.com', 'http://two.example.com']);
+		expect(pool.agentsFor('not a url')).toEqual({});
+	});
+});
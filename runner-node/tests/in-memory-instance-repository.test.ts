@@ -0,0 +1,167 @@
+import { InMemoryProcessInstanceRepository } from '../src/repositories/in-memory-process-instance-repository';
+import { ProcessInstance, ProcessStatus } from '../src/models/instance-types';
+import { PageRequestError } from '../src/repositories/pagination';
+import { SortedTimeIndex } from '../src/repositories/instance-indexes';
+
+describe('InMemoryProcessInstanceRepository indexes', () => {
+	const base = new Date('2025-01-01T00:00:00Z').getTime();
+	const at = (minutes: number) => new Date(base + minutes * 60000);
+
+	function instance(id: string, processId: string, status: ProcessStatus, startedMin: number, completedMin?: number): ProcessInstance {
+		return {
+			instanceId: id,
+			processId,
+			processName: processId,
+			status,
+			startedAt: at(startedMin),
+			completedAt: completedMin !== undefined ? at(completedMin) : undefined,
+			variables: {},
+			activities: {},
+			executionContext: {} as any
+		};
+	}
+
+	let repo: InMemoryProcessInstanceRepository;
+
+	beforeEach(async () => {
+		repo = new InMemoryProcessInstanceRepository();
+		await repo.save(instance('i1', 'p1', ProcessStatus.Running, 0));
+		await repo.save(instance('i2', 'p1', ProcessStatus.Completed, 10, 20));
+		await repo.save(instance('i3', 'p2', ProcessStatus.Running, 20));
+		await repo.save(instance('i4', 'p2', ProcessStatus.Completed, 30, 70));
+		await repo.save(instance('i5', 'p1', ProcessStatus.Failed, 30));
+	});
+
+	const ids = (instances: { instanceId: string }[]) => instances.map(i => i.instanceId).sort();
+
+	test('finds and counts by status and process', async () => {
+		expect(ids(await repo.findByStatus(ProcessStatus.Running))).toEqual(['i1', 'i3']);
+		expect(ids(await repo.findByProcessId('p1'))).toEqual(['i1', 'i2', 'i5']);
+		expect(ids(await repo.findByProcessIdAndStatus('p2', ProcessStatus.Completed))).toEqual(['i4']);
+		expect(await repo.countByStatus(ProcessStatus.Completed)).toBe(2);
+		expect(await repo.countByProcessId('p2')).toBe(2);
+		expect(await repo.countByStatus(ProcessStatus.Cancelled)).toBe(0);
+		expect(await repo.findByProcessId('missing')).toEqual([]);
+	});
+
+	test('moves an instance between indexes when it is saved with a new status', async () => {
+		const running = await repo.findById('i1');
+		await repo.save({ ...running, status: ProcessStatus.Completed, completedAt: at(5) });
+
+		expect(ids(await repo.findByStatus(ProcessStatus.Running))).toEqual(['i3']);
+		expect(ids(await repo.findByProcessIdAndStatus('p1', ProcessStatus.Completed))).toEqual(['i1', 'i2']);
+		expect(await repo.countByStatus(ProcessStatus.Completed)).toBe(3);
+		expect(await repo.countByProcessId('p1')).toBe(3);
+	});
+
+	test('finds by start date range inclusively, oldest first', async () => {
+		const found = await repo.findByDateRange(at(10), at(30));
+		expect(found.map(i => i.instanceId)).toEqual(['i2', 'i3', 'i4', 'i5']);
+		expect(await repo.findByDateRange(at(31), at(60))).toEqual([]);
+	});
+
+	test('finds running instances started before a date', async () => {
+		expect(ids(await repo.findActiveInstancesOlderThan(at(20)))).toEqual(['i1']);
+		expect(ids(await repo.findActiveInstancesOlderThan(at(21)))).toEqual(['i1', 'i3']);
+
+		// Many old finished instances - the running set is the smaller side
+		for (let i = 0; i < 20; i++) {
+			await repo.save(instance(`old${i}`, 'p3', ProcessStatus.Completed, -100 + i, -50));
+		}
+		expect(ids(await repo.findActiveInstancesOlderThan(at(21)))).toEqual(['i1', 'i3']);
+	});
+
+	test('keeps average execution time per process', async () => {
+		expect(await repo.getAverageExecutionTime('p1')).toBe(10 * 60000);
+		expect(await repo.getAverageExecutionTime('p2')).toBe(40 * 60000);
+		expect(await repo.getAverageExecutionTime()).toBe(25 * 60000);
+		expect(await repo.getAverageExecutionTime('p3')).toBe(0);
+	});
+
+	test('delete and deleteCompletedOlderThan remove index entries', async () => {
+		expect(await repo.delete('i3')).toBe(true);
+		expect(ids(await repo.findByStatus(ProcessStatus.Running))).toEqual(['i1']);
+		expect(await repo.countByProcessId('p2')).toBe(1);
+
+		expect(await repo.deleteCompletedOlderThan(at(30))).toBe(1);
+		expect(await repo.exists('i2')).toBe(false);
+		expect(await repo.exists('i4')).toBe(true);
+		expect(await repo.getAverageExecutionTime('p1')).toBe(0);
+		expect(ids(await repo.findByDateRange(at(0), at(100)))).toEqual(['i1', 'i4', 'i5']);
+
+		await repo.clear();
+		expect(await repo.countByStatus(ProcessStatus.Completed)).toBe(0);
+		expect(await repo.findByDateRange(at(0), at(100))).toEqual([]);
+	});
+
+	test('pages through instances by start time with a cursor', async () => {
+		const first = await repo.findPage({}, { limit: 2 });
+		expect(first.items.map(i => i.instanceId)).toEqual(['i1', 'i2']);
+		expect(first.nextCursor).toBeDefined();
+
+		// Added after the first page, with a later start - shows up on a later page
+		await repo.save(instance('i6', 'p1', ProcessStatus.Running, 40));
+
+		const second = await repo.findPage({}, { limit: 2, cursor: first.nextCursor });
+		expect(second.items.map(i => i.instanceId)).toEqual(['i3', 'i4']);
+		const third = await repo.findPage({}, { limit: 2, cursor: second.nextCursor });
+		expect(third.items.map(i => i.instanceId)).toEqual(['i5', 'i6']);
+		expect(third.nextCursor).toBeUndefined();
+	});
+
+	test('pages filtered by process and status', async () => {
+		const flyweights = await repo.findByProcessIdPage('p1', { limit: 2 });
+		expect(flyweights.items.map(i => i.instanceId)).toEqual(['i1', 'i2']);
+		expect(flyweights.items[0]).not.toHaveProperty('activities');
+		const rest = await repo.findByProcessIdPage('p1', { limit: 2, cursor: flyweights.nextCursor });
+		expect(rest.items.map(i => i.instanceId)).toEqual(['i5']);
+		expect(rest.nextCursor).toBeUndefined();
+
+		const running = await repo.findPage({ processId: 'p2', status: ProcessStatus.Running });
+		expect(running.items.map(i => i.instanceId)).toEqual(['i3']);
+	});
+
+	test('streams instances a page at a time', async () => {
+		const streamed: string[] = [];
+		for await (const found of repo.iterate({ status: ProcessStatus.Completed }, 1)) {
+			streamed.push(found.instanceId);
+		}
+		expect(streamed).toEqual(['i2', 'i4']);
+	});
+
+	test('rejects a cursor it did not make', async () => {
+		await expect(repo.findPage({}, { cursor: 'not-a-cursor' })).rejects.toThrow(PageRequestError);
+	});
+
+	test('returns copies that do not change the stored instance', async () => {
+		const [found] = await repo.findByStatus(ProcessStatus.Failed);
+		found.status = ProcessStatus.Running;
+		expect(ids(await repo.findByStatus(ProcessStatus.Failed))).toEqual(['i5']);
+		expect((await repo.findById('i5')).status).toBe(ProcessStatus.Failed);
+	});
+});
+
+describe('SortedTimeIndex', () => {
+	test('stays ordered across bucket splits and removals', () => {
+		const index = new SortedTimeIndex();
+		const entries: { time: number; id: string }[] = [];
+		// Enough entries for several buckets, inserted out of order with tied times
+		for (let i = 0; i < 5000; i++) {
+			entries.push({ time: (i * 7919) % 1000, id: `i${String(i).padStart(4, '0')}` });
+		}
+		entries.forEach(entry => index.add(entry.time, entry.id));
+		entries.sort((a, b) => a.time - b.time || (a.id < b.id ? -1 : 1));
+		// Every third one is removed again
+		const removed = entries.filter((_, i) => i % 3 === 0);
+		removed.forEach(entry => index.remove(entry.time, entry.id));
+		const kept = entries.filter((_, i) => i % 3 !== 0);
+
+		expect(index.size).toBe(kept.length);
+		expect(Array.from(index)).toEqual(kept.map(entry => entry.id));
+		expect(index.range(250, 260)).toEqual(kept.filter(entry => entry.time >= 250 && entry.time <= 260).map(entry => entry.id));
+		expect(index.before(3)).toEqual(kept.filter(entry => entry.time < 3).map(entry => entry.id));
+		// A cursor that was removed still pages from its position
+		expect(index.after(removed[1000], 3)).toEqual(kept.filter(entry => entry.time > removed[1000].time || (entry.time === removed[1000].time && entry.id > removed[1000].id)).slice(0, 3));
+		expect(index.after(kept[kept.length - 1], 3)).toEqual([]);
+	});
+});
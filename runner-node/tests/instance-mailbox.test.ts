@@ -0,0 +1,104 @@
+import { InstanceMailbox } from '../src/instance-mailbox';
+import { ProcessEngine } from '../src/process-engine';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ActivityType } from '../src/models/process-types';
+import { FieldType } from '../src/models/common-types';
+import { ProcessStatus } from '../src/models/instance-types';
+
+const delay = (ms: number) => new Promise(resolve => setTimeout(resolve, ms));
+
+describe('InstanceMailbox', () => {
+	test('serializes operations for the same instance in arrival order', async () => {
+		const mailbox = new InstanceMailbox();
+		const events: string[] = [];
+
+		const op = (name: string, ms: number) => async () => {
+			events.push(`start ${name}`);
+			await delay(ms);
+			events.push(`end ${name}`);
+			return name;
+		};
+
+		const results = await Promise.all([
+			mailbox.run('i1', op('a', 20)),
+			mailbox.run('i1', op('b', 1)),
+			mailbox.run('i1', op('c', 1))
+		]);
+
+		expect(results).toEqual(['a', 'b', 'c']);
+		expect(events).toEqual(['start a', 'end a', 'start b', 'end b', 'start c', 'end c']);
+
+		const metrics = mailbox.snapshot();
+		expect(metrics.operations).toBe(3);
+		expect(metrics.maxQueueDepth).toBe(3);
+		expect(metrics.queued).toBe(0);
+		expect(metrics.activeInstances).toBe(0);
+		expect(metrics.wait.count).toBe(3);
+		expect(metrics.wait.maxMs).toBeGreaterThan(0);
+	});
+
+	test('runs different instances concurrently', async () => {
+		const mailbox = new InstanceMailbox();
+		const events: string[] = [];
+
+		await Promise.all([
+			mailbox.run('i1', async () => { events.push('start 1'); await delay(20); events.push('end 1'); }),
+			mailbox.run('i2', async () => { events.push('start 2'); await delay(1); events.push('end 2'); })
+		]);
+
+		expect(events).toEqual(['start 1', 'start 2', 'end 2', 'end 1']);
+		expect(mailbox.snapshot().maxQueueDepth).toBe(1);
+	});
+
+	test('a failed operation does not block the next one', async () => {
+		const mailbox = new InstanceMailbox();
+
+		const failed = mailbox.run('i1', async () => { throw new Error('boom'); });
+		const next = mailbox.run('i1', async () => 'ok');
+
+		await expect(failed).rejects.toThrow('boom');
+		await expect(next).resolves.toBe('ok');
+		expect(mailbox.depth('i1')).toBe(0);
+	});
+});
+
+describe('ProcessEngine concurrent submits', () => {
+	beforeEach(() => {
+		RepositoryFactory.initializeInMemory();
+	});
+
+	test('only one of two concurrent submits for the same task is applied', async () => {
+		const engine = new ProcessEngine();
+		await engine.loadProcess({
+			id: 'mailbox-test',
+			name: 'Mailbox Test',
+			version: '1.0.0',
+			start: 'a:root',
+			activities: {
+				root: { id: 'root', type: ActivityType.Sequence, activities: ['a:ask', 'a:calc', 'a:confirm'] },
+				ask: { id: 'ask', type: ActivityType.Human, inputs: [{ name: 'x', type: FieldType.Number }] },
+				calc: { id: 'calc', type: ActivityType.Compute, code: ['this.y = Number(a:ask.v:x) + 1'] },
+				confirm: { id: 'confirm', type: ActivityType.Human, inputs: [{ name: 'ok', type: FieldType.Boolean }] }
+			}
+		} as any);
+
+		const created = await engine.createInstance('mailbox-test');
+
+		const [first, second] = await Promise.all([
+			engine.submitHumanTask(created.instanceId, 'ask', { x: 1 }),
+			engine.submitHumanTask(created.instanceId, 'ask', { x: 2 })
+		]);
+
+		expect(first.currentActivity).toBe('confirm');
+		expect(second.status).toBe(ProcessStatus.Failed);
+		expect(second.message).toBe('Activity not found or not waiting for input');
+
+		const instance = await engine.getInstance(created.instanceId);
+		expect(instance!.executionContext.currentActivity).toBe('confirm');
+		expect(instance!.activities['calc'].variables!.find(v => v.name === 'y')!.value).toBe(2);
+
+		const metrics = engine.getMetrics();
+		expect(metrics.mailbox.maxQueueDepth).toBe(2);
+		expect(metrics.steps.runs).toBeGreaterThan(0);
+	});
+});
@@ -0,0 +1,121 @@
+import { InMemoryProcessInstanceRepository } from '../src/repositories/in-memory-process-instance-repository';
+import { ActivityStatus, ProcessInstance, ProcessStatus } from '../src/models/instance-types';
+import { ActivityType } from '../src/models/process-types';
+import { P2Quantile, RunningStats } from '../src/utils/streaming-stats';
+
+describe('Streaming statistics', () => {
+	test('RunningStats keeps mean and sample variance', () => {
+		const stats = new RunningStats();
+		[2, 4, 4, 4, 5, 5, 7, 9].forEach(v => stats.add(v));
+		expect(stats.count).toBe(8);
+		expect(stats.mean).toBe(5);
+		expect(stats.variance).toBeCloseTo(32 / 7);
+		expect(stats.min).toBe(2);
+		expect(stats.max).toBe(9);
+	});
+
+	test('P2Quantile is exact for a few values', () => {
+		const p95 = new P2Quantile(0.95);
+		expect(p95.value()).toBe(0);
+		[5, 1, 3].forEach(v => p95.add(v));
+		expect(p95.value()).toBe(5);
+	});
+
+	test('P2Quantile estimates quantiles of a long stream', () => {
+		const estimates = [0.5, 0.95, 0.99].map(p => new P2Quantile(p));
+		// A shuffled 1..10000 sequence (deterministic)
+		for (let i = 0; i < 10000; i++) {
+			const value = ((i * 7919) % 10000) + 1;
+			estimates.forEach(e => e.add(value));
+		}
+		expect(estimates[0].value()).toBeGreaterThan(4800);
+		expect(estimates[0].value()).toBeLessThan(5200);
+		expect(estimates[1].value()).toBeGreaterThan(9400);
+		expect(estimates[1].value()).toBeLessThan(9600);
+		expect(estimates[2].value()).toBeGreaterThan(9850);
+		expect(estimates[2].value()).toBeLessThan(9950);
+	});
+});
+
+describe('Instance statistics of InMemoryProcessInstanceRepository', () => {
+	const base = new Date('2025-01-01T00:00:00Z').getTime();
+	const at = (ms: number) => new Date(base + ms);
+
+	function instance(id: string, processId: string, status: ProcessStatus, durationMs?: number): ProcessInstance {
+		return {
+			instanceId: id,
+			processId,
+			processName: processId,
+			status,
+			startedAt: at(0),
+			completedAt: durationMs !== undefined ? at(durationMs) : undefined,
+			variables: {},
+			activities: durationMs !== undefined ? {
+				work: {
+					id: 'work',
+					type: ActivityType.Compute,
+					status: ActivityStatus.Completed,
+					startedAt: at(0),
+					completedAt: at(durationMs / 2)
+				} as any
+			} : {},
+			executionContext: {} as any
+		};
+	}
+
+	let repo: InMemoryProcessInstanceRepository;
+
+	beforeEach(() => {
+		repo = new InMemoryProcessInstanceRepository();
+	});
+
+	test('counts follow status transitions and deletes', async () => {
+		await repo.save(instance('i1', 'p1', ProcessStatus.Running));
+		await repo.save(instance('i2', 'p1', ProcessStatus.Running));
+		await repo.save(instance('i3', 'p2', ProcessStatus.Running));
+		await repo.save(instance('i1', 'p1', ProcessStatus.Completed, 100));
+		// Saving again with the same status changes nothing
+		await repo.save(instance('i1', 'p1', ProcessStatus.Completed, 100));
+		await repo.delete('i3');
+
+		const stats = await repo.getStatistics();
+		expect(stats.instances).toEqual({ total: 2, byStatus: { running: 1, completed: 1 } });
+		expect(stats.processes.p1.instances).toEqual({ total: 2, byStatus: { running: 1, completed: 1 } });
+		expect(stats.processes.p2.instances).toEqual({ total: 0, byStatus: {} });
+		expect(stats.executionTime.count).toBe(1);
+	});
+
+	test('keeps execution time distributions per process and activity', async () => {
+		const durations = [100, 200, 300, 400];
+		for (const [i, ms] of durations.entries()) {
+			await repo.save(instance(`i${i}`, 'p1', ProcessStatus.Running));
+			await repo.save(instance(`i${i}`, 'p1', ProcessStatus.Completed, ms));
+		}
+		await repo.save(instance('f1', 'p1', ProcessStatus.Failed, 1000));
+
+		const p1 = (await repo.getStatistics()).processes.p1;
+		expect(p1.executionTime.count).toBe(4);
+		expect(p1.executionTime.meanMs).toBe(250);
+		expect(p1.executionTime.stdDevMs).toBeCloseTo(Math.sqrt(50000 / 3));
+		expect(p1.executionTime.minMs).toBe(100);
+		expect(p1.executionTime.maxMs).toBe(400);
+		expect(p1.executionTime.p50Ms).toBe(200);
+		expect(p1.executionTime.p99Ms).toBe(400);
+
+		// Activities of the failed instance count as well
+		expect(p1.activities.work.count).toBe(5);
+		expect(p1.activities.work.maxMs).toBe(500);
+	});
+
+	test('durations stay after the instance is deleted', async () => {
+		await repo.save(instance('i1', 'p1', ProcessStatus.Completed, 100));
+		await repo.deleteCompletedOlderThan(at(1000));
+
+		const stats = await repo.getStatistics();
+		expect(stats.instances.total).toBe(0);
+		expect(stats.executionTime.count).toBe(1);
+
+		await repo.clear();
+		expect((await repo.getStatistics()).executionTime.count).toBe(0);
+	});
+});
@@ -0,0 +1,55 @@
+import { parseJpel } from '../src/utils/jpel-parser';
+import { translateJpelToJavaScript } from '../src/expression-evaluator';
+import { resolveInlineTemplate } from '../src/utils/substitution';
+
+describe('JPEL lexer', () => {
+	test('splits code into text, strings and references in one pass', () => {
+		const nodes = parseJpel('this.total = a:calc.v:amount * v:rate + a:check.passFail; v:count += 1');
+
+		expect(nodes.map(n => n.kind)).toEqual([
+			'thisProperty', 'text', 'activityVariable', 'text', 'processVariable', 'text', 'activityProperty', 'text', 'processVariable', 'text'
+		]);
+		expect(nodes[0]).toMatchObject({ name: 'total', write: '=' });
+		expect(nodes[2]).toMatchObject({ activityId: 'calc', name: 'amount' });
+		expect(nodes[2]).not.toHaveProperty('write');
+		expect(nodes[8]).toMatchObject({ name: 'count', write: '+=' });
+		expect(nodes.map(n => n.raw).join('')).toBe('this.total = a:calc.v:amount * v:rate + a:check.passFail; v:count += 1');
+	});
+
+	test('leaves references inside any kind of string literal alone', () => {
+		const nodes = parseJpel(`'a:x.v:y' + "v:z" + \`v:q \${v:inner}\``);
+		const references = nodes.filter(n => n.kind !== 'text' && n.kind !== 'string');
+		expect(references).toEqual([{ kind: 'processVariable', name: 'inner', raw: 'v:inner' }]);
+	});
+
+	test('only matches references at word boundaries', () => {
+		expect(parseJpel('nav:x + data:y.z + obj.v:w').every(n => n.kind === 'text')).toBe(true);
+	});
+
+	test('template mode finds references everywhere, including inside quotes', () => {
+		const nodes = parseJpel('{"id": "a:lookup.v:id", "region": "process.region", "key": "env:KEY"}', 'template');
+		expect(nodes.filter(n => n.kind !== 'text').map(n => n.kind)).toEqual(['activityVariable', 'processField', 'env']);
+	});
+});
+
+describe('JPEL translation', () => {
+	test('translates references the same way the regex chain did', () => {
+		expect(translateJpelToJavaScript('this.y = a:first.v:x * 2')).toBe('currentActivity.y = activities["first"].v["x"] * 2');
+		expect(translateJpelToJavaScript('v:customer = a:enter-name.v:customer-name')).toBe('process.customer = activities["enter-name"].v["customer-name"]');
+		expect(translateJpelToJavaScript('var:my-var == "v:kept"')).toBe('process["my-var"] == "v:kept"');
+	});
+
+	test('no longer rewrites single-quoted strings or call arguments', () => {
+		expect(translateJpelToJavaScript(`this.msg = 'this.x is v:y'`)).toBe(`currentActivity.msg = 'this.x is v:y'`);
+		expect(translateJpelToJavaScript('Number(v:x)')).toBe('Number(process.x)');
+	});
+
+	test('still rejects the legacy field syntax', () => {
+		expect(() => translateJpelToJavaScript('a:act.f:name')).toThrow('Legacy field syntax');
+	});
+
+	test('substitution resolves a value only once', () => {
+		const instance: any = { variables: { a: 'process.b', b: 'second' }, activities: {} };
+		expect(resolveInlineTemplate('value=process.a', instance)).toBe('value=process.b');
+	});
+});
@@ -0,0 +1,102 @@
+import { compileSelector, select, project } from '../src/utils/json-projection';
+import { ProcessEngine } from '../src/process-engine';
+import ProcessLoader from '../src/process-loader';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ActivityType } from '../src/models/process-types';
+import { ProcessStatus } from '../src/models/instance-types';
+jest.mock('axios');
+
+const axios = require('axios') as any;
+
+const order = {
+	id: 'o-1',
+	customer: { name: 'Ada', 'first name': 'Ada' },
+	items: [
+		{ sku: 'a', qty: 1 },
+		{ sku: 'b', qty: 2 },
+		{ sku: 'c' }
+	],
+	notes: 'x'.repeat(10000)
+};
+
+describe('JSON projection selectors', () => {
+	test('members, indexes and wildcards', () => {
+		expect(select(order, compileSelector('$'))).toBe(order);
+		expect(select(order, compileSelector('$.customer.name'))).toBe('Ada');
+		expect(select(order, compileSelector("$.customer['first name']"))).toBe('Ada');
+		expect(select(order, compileSelector('$.items[1].sku'))).toBe('b');
+		expect(select(order, compileSelector('$.items[-1].sku'))).toBe('c');
+		expect(select(order, compileSelector('$.items[*].qty'))).toEqual([1, 2]);
+		expect(select(order, compileSelector('$.customer.*'))).toEqual(['Ada', 'Ada']);
+		expect(select(order, compileSelector('$.missing.deeper'))).toBeUndefined();
+		expect(select(order, compileSelector('$.items.constructor'))).toBeUndefined();
+	});
+
+	test('project leaves out selections that match nothing', () => {
+		expect(project(order, { id: '$.id', skus: '$.items[*].sku', gone: '$.nope' })).toEqual({ id: 'o-1', skus: ['a', 'b', 'c'] });
+	});
+
+	test('invalid selectors are rejected', () => {
+		expect(() => compileSelector('items[0]')).toThrow(/must start with/);
+		expect(() => compileSelector('$.items[0')).toThrow(/unclosed/);
+		expect(() => compileSelector('$.items[?(@.qty)]')).toThrow(/unsupported/);
+		expect(() => compileSelector('$..sku')).toThrow(/member name/);
+	});
+
+	test('process validation reports invalid selectors', () => {
+		const result = ProcessLoader.validate({
+			id: 'p',
+			name: 'P',
+			start: 'a:fetch',
+			activities: { fetch: { id: 'fetch', type: 'api', method: 'GET', url: 'https://x', extract: { bad: 'items' } } }
+		} as any);
+		expect(result.errors.some(error => error.includes("extract 'bad'"))).toBe(true);
+	});
+});
+
+describe('API response projection', () => {
+	let engine: ProcessEngine;
+
+	beforeEach(async () => {
+		RepositoryFactory.initializeInMemory();
+		engine = new ProcessEngine();
+		axios.mockResolvedValue({ status: 200, statusText: 'OK', headers: { 'content-type': 'application/json', etag: '"v1"', 'x-request-id': 'r-1' }, data: order });
+	});
+
+	afterEach(async () => {
+		await engine.close();
+		axios.mockReset();
+	});
+
+	test('only the extracted values and kept headers are retained', async () => {
+		await engine.loadProcess({
+			id: 'orders',
+			name: 'Orders',
+			version: '1.0.0',
+			start: 'a:fetch',
+			activities: {
+				fetch: {
+					id: 'fetch',
+					type: ActivityType.API,
+					method: 'GET',
+					url: 'https://shop.example.com/orders/o-1',
+					extract: { id: '$.id', skus: '$.items[*].sku' },
+					keepHeaders: ['ETag'],
+					code: ['this.count = response.data.skus.length;']
+				}
+			}
+		} as any);
+
+		const result = await engine.createInstance('orders');
+		expect(result.status).toBe(ProcessStatus.Completed);
+
+		const fetch = (await engine.getInstance(result.instanceId))!.activities.fetch as any;
+		expect(fetch.responseData).toEqual({
+			status: 200,
+			statusText: 'OK',
+			headers: { etag: '"v1"' },
+			data: { id: 'o-1', skus: ['a', 'b', 'c'] }
+		});
+		expect(fetch.variables.find((v: any) => v.name === 'count').value).toBe(3);
+	});
+});
@@ -0,0 +1,54 @@
+import { InMemoryProcessDefinitionRepository } from '../src/repositories/in-memory-process-definition-repository';
+import { decodeCursor, encodeCursor, iteratePages, pageLimit, PageRequestError, MAX_PAGE_LIMIT } from '../src/repositories/pagination';
+
+describe('Pagination helpers', () => {
+	test('cursors round-trip and reject other shapes', () => {
+		const cursor = encodeCursor([1700000000000, 'abc']);
+		expect(decodeCursor(cursor, ['number', 'string'])).toEqual([1700000000000, 'abc']);
+		expect(() => decodeCursor(cursor, ['string'])).toThrow(PageRequestError);
+		expect(() => decodeCursor('%%%', ['string'])).toThrow(PageRequestError);
+	});
+
+	test('clamps the page limit', () => {
+		expect(pageLimit({})).toBe(100);
+		expect(pageLimit({ limit: 0 })).toBe(1);
+		expect(pageLimit({ limit: 5000 })).toBe(MAX_PAGE_LIMIT);
+	});
+
+	test('iteratePages follows the cursor until it is absent', async () => {
+		const data = ['a', 'b', 'c', 'd', 'e'];
+		const requested: (string | undefined)[] = [];
+		const fetchPage = async (page: { limit?: number; cursor?: string }) => {
+			requested.push(page.cursor);
+			const from = page.cursor ? Number(page.cursor) : 0;
+			const to = from + page.limit!;
+			return { items: data.slice(from, to), nextCursor: to < data.length ? String(to) : undefined };
+		};
+
+		const items: string[] = [];
+		for await (const item of iteratePages(fetchPage, 2)) {
+			items.push(item);
+		}
+		expect(items).toEqual(data);
+		expect(requested).toEqual([undefined, '2', '4']);
+	});
+});
+
+describe('InMemoryProcessDefinitionRepository template pages', () => {
+	test('pages through the sample templates by process ID', async () => {
+		const repo = new InMemoryProcessDefinitionRepository();
+		const all = (await repo.listAvailableTemplates()).map(t => t.id).sort();
+		expect(all.length).toBeGreaterThan(3);
+
+		const paged: string[] = [];
+		let cursor: string | undefined;
+		do {
+			const page = await repo.listTemplatesPage({ limit: 3, cursor });
+			expect(page.items.length).toBeLessThanOrEqual(3);
+			paged.push(...page.items.map(t => t.id));
+			cursor = page.nextCursor;
+		} while (cursor);
+
+		expect(paged).toEqual(all);
+	});
+});
@@ -0,0 +1,195 @@
+import { ProcessEngine } from '../src/process-engine';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ActivityType } from '../src/models/process-types';
+import { FieldType } from '../src/models/common-types';
+import { ActivityStatus, ParallelActivityInstance, ProcessStatus } from '../src/models/instance-types';
+import ProcessLoader from '../src/process-loader';
+jest.mock('axios');
+
+const axios = require('axios') as any;
+
+// Mocked lookup service - the URL path selects the delay and outcome
+const mockLookups = () => {
+	axios.mockImplementation((cfg: any) => new Promise((resolve, reject) => {
+		const [, name, ms] = /\/(\w+)\/(\d+)$/.exec(cfg.url) || [];
+		const timer = setTimeout(() => {
+			if (name === 'fail') {
+				resolve({ status: 500, statusText: 'Error', headers: {}, data: {} });
+			} else {
+				resolve({ status: 200, statusText: 'OK', headers: {}, data: { name } });
+			}
+		}, Number(ms));
+		cfg.signal?.addEventListener('abort', () => {
+			clearTimeout(timer);
+			reject(new Error('canceled'));
+		});
+	}));
+};
+
+const lookup = (id: string, path: string) => ({
+	id,
+	type: ActivityType.API,
+	method: 'GET',
+	url: `https://lookup.example.com/${path}`
+});
+
+const buildProcess = (id: string, parallel: any, extra: any = {}) => ({
+	id,
+	name: 'Parallel Test',
+	version: '1.0.0',
+	start: 'a:root',
+	activities: {
+		root: { id: 'root', type: ActivityType.Sequence, activities: ['a:fork', 'a:after'] },
+		fork: { id: 'fork', type: ActivityType.Parallel, ...parallel },
+		after: { id: 'after', type: ActivityType.Compute, code: ['this.done = true'] },
+		...extra
+	}
+});
+
+describe('Parallel activity', () => {
+	let engine: ProcessEngine;
+
+	beforeEach(() => {
+		RepositoryFactory.initializeInMemory();
+		engine = new ProcessEngine();
+		mockLookups();
+	});
+
+	afterEach(() => {
+		axios.mockReset();
+	});
+
+	test('runs API children concurrently and joins on all', async () => {
+		await engine.loadProcess(buildProcess('parallel-all', { activities: ['a:l1', 'a:l2', 'a:l3'] }, {
+			l1: lookup('l1', 'one/60'),
+			l2: lookup('l2', 'two/60'),
+			l3: lookup('l3', 'three/60')
+		}) as any);
+
+		const started = Date.now();
+		const result = await engine.createInstance('parallel-all');
+		const elapsed = Date.now() - started;
+
+		expect(result.status).toBe(ProcessStatus.Completed);
+		// three 60ms lookups in sequence would take at least 180ms
+		expect(elapsed).toBeLessThan(170);
+
+		const instance = await engine.getInstance(result.instanceId);
+		const fork = instance!.activities['fork'] as ParallelActivityInstance;
+		expect(fork.status).toBe(ActivityStatus.Completed);
+		expect(fork.parallelState).toBe('joined');
+		expect([...fork.completedActivities!].sort()).toEqual(['l1', 'l2', 'l3']);
+		expect(instance!.activities['after'].status).toBe(ActivityStatus.Completed);
+	});
+
+	test('join any completes on the first child and cancels the rest', async () => {
+		await engine.loadProcess(buildProcess('parallel-any', { activities: ['a:fast', 'a:slow'], join: 'any' }, {
+			fast: lookup('fast', 'fast/5'),
+			slow: lookup('slow', 'slow/5000')
+		}) as any);
+
+		const started = Date.now();
+		const result = await engine.createInstance('parallel-any');
+		expect(Date.now() - started).toBeLessThan(1000);
+		expect(result.status).toBe(ProcessStatus.Completed);
+
+		const instance = await engine.getInstance(result.instanceId);
+		expect(instance!.activities['fast'].status).toBe(ActivityStatus.Completed);
+		expect(instance!.activities['slow'].status).toBe(ActivityStatus.Cancelled);
+		expect(instance!.activities['slow'].error).toBeUndefined();
+	});
+
+	test('n-of-m tolerates failures until the join can no longer be met', async () => {
+		await engine.loadProcess(buildProcess('parallel-nofm', { activities: ['a:ok1', 'a:bad', 'a:ok2'], join: 'n-of-m', requiredCount: 2 }, {
+			ok1: lookup('ok1', 'ok/5'),
+			bad: lookup('bad', 'fail/5'),
+			ok2: lookup('ok2', 'ok/10')
+		}) as any);
+		const passed = await engine.createInstance('parallel-nofm');
+		expect(passed.status).toBe(ProcessStatus.Completed);
+
+		await engine.loadProcess(buildProcess('parallel-nofm-fail', { activities: ['a:ok1', 'a:bad', 'a:bad2'], join: 'n-of-m', requiredCount: 2 }, {
+			ok1: lookup('ok1', 'ok/5'),
+			bad: lookup('bad', 'fail/5'),
+			bad2: lookup('bad2', 'fail/10')
+		}) as any);
+		const failed = await engine.createInstance('parallel-nofm-fail');
+		expect(failed.status).toBe(ProcessStatus.Failed);
+		expect(failed.message).toContain("Parallel activity 'fork' failed");
+
+		const instance = await engine.getInstance(failed.instanceId);
+		expect((instance!.activities['fork'] as ParallelActivityInstance).parallelState).toBe('failed');
+		expect(instance!.activities['after'].status).toBe(ActivityStatus.Pending);
+	});
+
+	test('human children are entered through the call stack after inline children', async () => {
+		await engine.loadProcess(buildProcess('parallel-human', { activities: ['a:check', 'a:approve'] }, {
+			check: lookup('check', 'check/5'),
+			approve: { id: 'approve', type: ActivityType.Human, inputs: [{ name: 'ok', type: FieldType.Boolean }] }
+		}) as any);
+
+		const created = await engine.createInstance('parallel-human');
+		expect(created.currentActivity).toBe('approve');
+
+		let instance = await engine.getInstance(created.instanceId);
+		const fork = instance!.activities['fork'] as ParallelActivityInstance;
+		expect(fork.completedActivities).toEqual(['check']);
+		expect(fork.activeActivities).toEqual(['approve']);
+
+		const result = await engine.submitHumanTask(created.instanceId, 'approve', { ok: true });
+		expect(result.status).toBe(ProcessStatus.Completed);
+
+		instance = await engine.getInstance(created.instanceId);
+		expect(instance!.activities['fork'].status).toBe(ActivityStatus.Completed);
+		expect(instance!.activities['after'].status).toBe(ActivityStatus.Completed);
+	});
+
+	test('a failing child entered through the call stack does not fail a join any', async () => {
+		await engine.loadProcess(buildProcess('parallel-any-stack-failure', { activities: ['a:broken', 'a:approve'], join: 'any' }, {
+			broken: { id: 'broken', type: ActivityType.Sequence, activities: ['a:explode'] },
+			explode: { id: 'explode', type: ActivityType.Compute, code: ["throw new Error('boom')"] },
+			approve: { id: 'approve', type: ActivityType.Human, inputs: [{ name: 'ok', type: FieldType.Boolean }] }
+		}) as any);
+
+		const created = await engine.createInstance('parallel-any-stack-failure');
+		expect(created.status).toBe(ProcessStatus.Running);
+		expect(created.currentActivity).toBe('approve');
+
+		let instance = await engine.getInstance(created.instanceId);
+		const fork = instance!.activities['fork'] as ParallelActivityInstance;
+		expect(fork.failedActivities).toEqual(['broken']);
+		expect(fork.activeActivities).toEqual(['approve']);
+		expect(instance!.activities['broken'].status).toBe(ActivityStatus.Failed);
+
+		const result = await engine.submitHumanTask(created.instanceId, 'approve', { ok: true });
+		expect(result.status).toBe(ProcessStatus.Completed);
+		instance = await engine.getInstance(created.instanceId);
+		expect((instance!.activities['fork'] as ParallelActivityInstance).parallelState).toBe('joined');
+		expect(instance!.activities['after'].status).toBe(ActivityStatus.Completed);
+	});
+
+	test('a failing child entered through the call stack fails a join all', async () => {
+		await engine.loadProcess(buildProcess('parallel-all-stack-failure', { activities: ['a:approve', 'a:broken'] }, {
+			broken: { id: 'broken', type: ActivityType.Sequence, activities: ['a:explode'] },
+			explode: { id: 'explode', type: ActivityType.Compute, code: ["throw new Error('boom')"] },
+			approve: { id: 'approve', type: ActivityType.Human, inputs: [{ name: 'ok', type: FieldType.Boolean }] }
+		}) as any);
+
+		const created = await engine.createInstance('parallel-all-stack-failure');
+		const result = await engine.submitHumanTask(created.instanceId, 'approve', { ok: true });
+		expect(result.status).toBe(ProcessStatus.Failed);
+		expect(result.message).toContain("Parallel activity 'fork' failed");
+
+		const instance = await engine.getInstance(created.instanceId);
+		const fork = instance!.activities['fork'] as ParallelActivityInstance;
+		expect(fork.parallelState).toBe('failed');
+		expect(fork.completedActivities).toEqual(['approve']);
+		expect(fork.failedActivities).toEqual(['broken']);
+	});
+
+	test('validation requires a requiredCount for n-of-m joins', () => {
+		const validation = ProcessLoader.validate(buildProcess('parallel-invalid', { activities: ['a:after'], join: 'n-of-m' }) as any);
+		expect(validation.valid).toBe(false);
+		expect(validation.errors.join(' ')).toContain("needs a 'requiredCount'");
+	});
+});
@@ -14,6 +14,7 @@ import {
 import { RepositoryFactory } from '../src/repositories/repository-factory';
 import { ActivityStatus, ProcessStatus } from '../src/models/instance-types';
 import { FieldType } from '../src/models/common-types';
+import { ExpressionEvaluator } from '../src/expression-evaluator';
 
 describe('ProcessEngine Extended Coverage', () => {
 	let processEngine: ProcessEngine;
@@ -151,6 +152,59 @@ describe('ProcessEngine Extended Coverage', () => {
 			expect(computeActivity.status).toBe(ActivityStatus.Failed);
 			expect(computeActivity.error).toContain('Intentional error');
 		});
+
+		test('should reuse a compute result after a restart while its inputs are unchanged', async () => {
+			const process: ProcessDefinition = {
+				id: 'compute-reuse-test',
+				name: 'Compute Reuse Test',
+				start: 'a:main',
+				activities: {
+					main: {
+						id: 'main',
+						type: ActivityType.Sequence,
+						activities: ['a:form', 'a:calc', 'a:stamp']
+					} as SequenceActivity,
+					form: {
+						id: 'form',
+						type: ActivityType.Human,
+						inputs: [{ name: 'amount', type: FieldType.Number }]
+					} as HumanActivity,
+					calc: {
+						id: 'calc',
+						type: ActivityType.Compute,
+						code: ['this.doubled = a:form.v:amount * 2;']
+					} as ComputeActivity,
+					// Reads the clock, so it always runs again
+					stamp: {
+						id: 'stamp',
+						type: ActivityType.Compute,
+						code: ['this.at = Date.now();']
+					} as ComputeActivity
+				}
+			};
+
+			await processEngine.loadProcess(process);
+			const evaluations = jest.spyOn(ExpressionEvaluator.prototype, 'executeCodeAsync');
+			try {
+				const { instanceId } = await processEngine.createInstance('compute-reuse-test');
+				await processEngine.submitHumanTask(instanceId, 'form', { amount: 5 });
+				expect(evaluations).toHaveBeenCalledTimes(2);
+
+				await processEngine.restartInstance(instanceId);
+				await processEngine.submitHumanTask(instanceId, 'form', { amount: 5 });
+				expect(evaluations.mock.calls.map(call => call[2])).toEqual(['calc', 'stamp', 'stamp']);
+
+				await processEngine.restartInstance(instanceId);
+				const result = await processEngine.submitHumanTask(instanceId, 'form', { amount: 6 });
+				expect(result.status).toBe(ProcessStatus.Completed);
+				expect(evaluations).toHaveBeenCalledTimes(5);
+				const calc = (await processEngine.getInstance(instanceId))!.activities['calc'];
+				expect(calc.status).toBe(ActivityStatus.Completed);
+				expect(calc.variables!.find(v => v.name === 'doubled')!.value).toBe(12);
+			} finally {
+				evaluations.mockRestore();
+			}
+		});
 	});
 
 	describe('API Activity Execution', () => {
@@ -0,0 +1,124 @@
+import ProcessLoader from '../src/process-loader';
+import { ActivityType } from '../src/models/process-types';
+import { analyzeExpression, dependsOnlyOnReads } from '../src/expression-dependencies';
+
+describe('Compiled process graph', () => {
+	const definition: any = {
+		id: 'graph-test',
+		name: 'Graph Test',
+		version: '1.0.0',
+		start: 'a:main',
+		activities: {
+			main: { id: 'main', type: ActivityType.Sequence, activities: ['a:pick', 'a:check', 'a:end'] },
+			pick: {
+				id: 'pick',
+				type: ActivityType.Switch,
+				expression: 'v:kind',
+				cases: { A: 'a:doA', B: 'a:doB' },
+				default: 'a:doA'
+			},
+			doA: { id: 'doA', type: ActivityType.Compute, code: ['this.a = 1'] },
+			doB: { id: 'doB', type: ActivityType.Compute, code: ['this.b = 1'] },
+			check: { id: 'check', type: ActivityType.Branch, condition: 'true', then: 'a:doB' },
+			end: { id: 'end', type: ActivityType.Terminate }
+		}
+	};
+
+	test('resolves child ids, positions and start activity', () => {
+		const graph = ProcessLoader.compile(definition);
+
+		expect(graph.startActivityId).toBe('main');
+		expect(graph.activity('main')!.children).toEqual(['pick', 'check', 'end']);
+		expect(graph.childAt('main', 1)).toBe('check');
+		expect(graph.positionOf('main', 'end')).toBe(2);
+		expect(graph.positionOf('main', 'doA')).toBeUndefined();
+	});
+
+	test('builds switch case tables and branch targets', () => {
+		const graph = ProcessLoader.compile(definition);
+		const pick = graph.activity('pick')!;
+
+		expect(pick.cases.get('B')).toBe('doB');
+		expect(pick.defaultTarget).toBe('doA');
+		expect(pick.children).toEqual(['doA', 'doB']);
+		expect(graph.activity('check')!.thenTarget).toBe('doB');
+		expect(graph.activity('check')!.elseTarget).toBeUndefined();
+	});
+
+	test('records parent back-references', () => {
+		const graph = ProcessLoader.compile(definition);
+
+		expect(graph.parentsOf('pick')).toEqual(['main']);
+		expect([...graph.parentsOf('doB')].sort()).toEqual(['check', 'pick']);
+		expect(graph.parentsOf('main')).toEqual([]);
+	});
+
+	test('caches one immutable graph per definition version', () => {
+		const graph = ProcessLoader.compile(definition);
+
+		// repositories hand out shallow copies that share the activities map
+		expect(ProcessLoader.compile({ ...definition })).toBe(graph);
+		expect(ProcessLoader.compile({ ...definition, activities: { ...definition.activities } })).not.toBe(graph);
+		expect(Object.isFrozen(graph.activity('main'))).toBe(true);
+	});
+});
+
+describe('Expression dependency analysis', () => {
+	test('records read and write sets', () => {
+		const deps = analyzeExpression([
+			'this.total = a:calc.v:amount * v:rate;',
+			'v:count += 1;',
+			'p:title = "v:not-a-read " + a:check.passFail'
+		]);
+
+		expect(deps.reads.activityVariables).toEqual([{ activityId: 'calc', name: 'amount' }]);
+		expect(deps.reads.activityProperties).toEqual([{ activityId: 'check', name: 'passFail' }]);
+		expect(deps.reads.processVariables).toEqual(['rate', 'count']);
+		expect(deps.writes.processVariables).toEqual(['count']);
+		expect(deps.writes.thisProperties).toEqual(['total']);
+		expect(deps.writes.properties).toEqual(['title']);
+		expect(deps.dynamic).toBe(false);
+	});
+
+	test('flags code that reaches activities through plain JavaScript', () => {
+		const deps = analyzeExpression(['this.x = calc.v.amount'], ['calc', 'other']);
+		expect(deps.opaqueActivities).toEqual(['calc']);
+		expect(deps.dynamic).toBe(true);
+	});
+
+	test('flags code that depends on more than its read set', () => {
+		const pure = analyzeExpression(['this.total = Math.max(a:calc.v:amount, this.total);']);
+		expect(pure.impure).toBe(false);
+		expect(dependsOnlyOnReads(pure)).toBe(true);
+
+		expect(analyzeExpression(['this.at = Date.now();']).impure).toBe(true);
+		expect(analyzeExpression(['this.pick = Math.random() > 0.5;']).impure).toBe(true);
+		expect(analyzeExpression(['this.key = env:API_KEY;']).impure).toBe(true);
+		// Writes outside the activity's own variables are not reproduced by keeping its result
+		expect(dependsOnlyOnReads(analyzeExpression(['v:count += 1;']))).toBe(false);
+		expect(dependsOnlyOnReads(analyzeExpression(['this.x = instance.status;']))).toBe(false);
+	});
+
+	test('attaches dependencies to the compiled graph', () => {
+		const graph = ProcessLoader.compile({
+			id: 'deps-test',
+			name: 'Dependencies Test',
+			version: '1.0.0',
+			start: 'a:main',
+			activities: {
+				main: { id: 'main', type: ActivityType.Sequence, activities: ['a:c1', 'a:c2', 'a:c3', 'a:gate', 'a:c4', 'a:raw'] },
+				c1: { id: 'c1', type: ActivityType.Compute, code: ['this.a = 1'] },
+				c2: { id: 'c2', type: ActivityType.Compute, code: ['this.b = a:c1.v:a + 1'] },
+				c3: { id: 'c3', type: ActivityType.Compute, code: ['v:total = a:c2.v:b'] },
+				gate: { id: 'gate', type: ActivityType.Branch, condition: 'v:total > 1', then: 'a:c4' },
+				c4: { id: 'c4', type: ActivityType.Compute, code: ['this.c = a:c1.v:a'] },
+				raw: { id: 'raw', type: ActivityType.Compute, code: ['this.d = c1.v.a'] }
+			}
+		} as any);
+
+		expect(graph.dependenciesOf('gate')!.reads.processVariables).toEqual(['total']);
+		expect(graph.dependenciesOf('main')).toBeUndefined();
+		expect(graph.dependentsOf('c1')).toEqual(['c2', 'c4', 'raw']);
+		expect(graph.computeChains).toEqual([['c1', 'c2', 'c3']]);
+	});
+});
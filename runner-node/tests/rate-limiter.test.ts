@@ -0,0 +1,183 @@
+import { RateLimitedError, RateLimiter } from '../src/rate-limiter';
+import { APIRequestError } from '../src/api-resilience';
+import { APIExecutor } from '../src/api-executor';
+import { HttpAgentPool } from '../src/http-agent-pool';
+import { ResponseCache } from '../src/response-cache';
+import { RequestCoalescer } from '../src/request-coalescer';
+import { ApiResilience } from '../src/api-resilience';
+import { ActivityType } from '../src/models/process-types';
+import { ProcessStatus } from '../src/models/instance-types';
+import { ProcessEngine } from '../src/process-engine';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { createMockProcessInstance } from './setup';
+jest.mock('axios');
+
+const axios = require('axios') as any;
+
+describe('RateLimiter', () => {
+	let limiter: RateLimiter;
+
+	afterEach(() => {
+		limiter.close();
+	});
+
+	test('requests beyond the burst get the next tokens in arrival order', () => {
+		limiter = new RateLimiter({ hosts: { 'partner.example.com': { requestsPerSecond: 50, burst: 2 } } });
+		const key = limiter.limiterFor('https://partner.example.com/orders')!;
+
+		const waits = Array.from({ length: 5 }, () => limiter.reserve(key));
+
+		// Two go out at once, the other three are due 20ms apart
+		expect(waits.slice(0, 2)).toEqual([0, 0]);
+		expect(waits[2]).toBeGreaterThan(0);
+		expect(waits[3]).toBeGreaterThanOrEqual(waits[2] + 19);
+		expect(waits[4]).toBeGreaterThanOrEqual(waits[3] + 19);
+		expect(limiter.snapshot().limiters[0]).toMatchObject({ name: 'partner.example.com', granted: 5, delayed: 3, queued: 3 });
+	});
+
+	test('too many reserved tokens and a wait past maxWaitMs are rejected as retryable', () => {
+		limiter = new RateLimiter({ limiters: {
+			erp: { requestsPerSecond: 1, burst: 1, maxQueue: 1 },
+			slow: { requestsPerSecond: 1, burst: 1, maxWaitMs: 20 }
+		} });
+		const erp = limiter.limiterFor('https://erp.example.com/parts', 'erp')!;
+		const slow = limiter.limiterFor('https://erp.example.com/parts', 'slow')!;
+
+		expect(limiter.reserve(erp)).toBe(0);
+		expect(limiter.reserve(erp)).toBeGreaterThan(900);
+		const rejected = (() => { try { return limiter.reserve(erp); } catch (e) { return e; } })() as any;
+		expect(rejected).toBeInstanceOf(APIRequestError);
+		expect(rejected.retryable).toBe(true);
+
+		expect(limiter.reserve(slow)).toBe(0);
+		expect(() => limiter.reserve(slow)).toThrow(/wait exceeded 20ms/);
+		expect(limiter.snapshot().limiters.map(l => [l.rejected, l.timedOut, l.queued])).toEqual([[1, 0, 1], [0, 1, 0]]);
+	});
+
+	test('pause holds every token until it ends', () => {
+		limiter = new RateLimiter({ hosts: { 'partner.example.com': { requestsPerSecond: 1000, burst: 10 } } });
+		const key = limiter.limiterFor('https://partner.example.com/')!;
+		limiter.pause(key, 50);
+
+		expect(limiter.pausedFor(key)).toBeGreaterThan(40);
+		expect(limiter.reserve(key)).toBeGreaterThanOrEqual(45);
+		expect(limiter.snapshot().limiters[0].paused).toBe(1);
+	});
+
+	test('limiter selection', () => {
+		limiter = new RateLimiter({ hosts: { 'a.example.com': { requestsPerSecond: 1 }, 'a.example.com:8443': { requestsPerSecond: 2 } } });
+		expect(limiter.limiterFor('https://a.example.com:8443/x')).toBe('host:a.example.com:8443');
+		expect(limiter.limiterFor('http://a.example.com/x')).toBe('host:a.example.com');
+		expect(limiter.limiterFor('http://b.example.com/x')).toBeUndefined();
+		expect(() => limiter.limiterFor('http://a.example.com/x', 'missing')).toThrow(/not configured/);
+		expect(limiter.has('missing')).toBe(false);
+	});
+});
+
+describe('APIExecutor rate limiting', () => {
+	const instance = createMockProcessInstance() as any;
+	let limiter: RateLimiter;
+
+	afterEach(() => {
+		limiter.close();
+		axios.mockReset();
+	});
+
+	test('a 429 with Retry-After pauses the host limiter', async () => {
+		limiter = new RateLimiter({ hosts: { 'partner.example.com': { requestsPerSecond: 1000, burst: 10 } } });
+		const executor = new APIExecutor(new HttpAgentPool(), new ResponseCache(), new RequestCoalescer(), new ApiResilience(), limiter);
+		const activity: any = { id: 'call', type: ActivityType.API, method: 'POST', url: 'https://partner.example.com/orders' };
+		axios.mockResolvedValueOnce({ status: 429, statusText: 'Too Many Requests', headers: { 'retry-after': '0.05' }, data: {} })
+			.mockResolvedValueOnce({ status: 200, statusText: 'OK', headers: {}, data: {} });
+
+		const limited = await executor.execute(activity, instance).catch(e => e);
+		expect(limited.retryable).toBe(true);
+		expect(limited.retryAfterMs).toBe(50);
+
+		// The next request is not held: it gets a token due after the pause
+		const deferred = await executor.execute(activity, instance).catch(e => e);
+		expect(deferred).toBeInstanceOf(RateLimitedError);
+		expect(deferred.retryAfterMs).toBeGreaterThanOrEqual(45);
+		expect(axios).toHaveBeenCalledTimes(1);
+
+		await new Promise(resolve => setTimeout(resolve, deferred.retryAfterMs));
+		await executor.execute(activity, instance, undefined, 0, true);
+		expect(axios).toHaveBeenCalledTimes(2);
+	});
+
+	test('callers that join a request waiting for its token hold no token of their own', async () => {
+		limiter = new RateLimiter({ hosts: { 'partner.example.com': { requestsPerSecond: 20, burst: 1 } } });
+		const executor = new APIExecutor(new HttpAgentPool(), new ResponseCache(), new RequestCoalescer(), new ApiResilience(), limiter);
+		const activity: any = { id: 'call', type: ActivityType.API, method: 'GET', url: 'https://partner.example.com/orders' };
+		axios.mockResolvedValue({ status: 200, statusText: 'OK', headers: {}, data: {} });
+		await executor.execute(activity, instance);
+
+		// The first caller reserves the next token; the other two join its request
+		const errors = await Promise.all([0, 1, 2].map(() => executor.execute(activity, instance).catch(e => e)));
+		expect(errors.every(error => error instanceof RateLimitedError)).toBe(true);
+		expect(errors.map(error => error.reserved)).toEqual([true, false, false]);
+		expect(limiter.snapshot().limiters[0].queued).toBe(1);
+
+		// A caller that joined takes a token on its next attempt instead of sending without one
+		const next = await executor.execute(activity, instance, undefined, 0, errors[1].reserved).catch(e => e);
+		expect(next).toBeInstanceOf(RateLimitedError);
+		expect(next.reserved).toBe(true);
+		expect(limiter.snapshot().limiters[0].queued).toBe(2);
+		expect(axios).toHaveBeenCalledTimes(1);
+	});
+});
+
+describe('Deferred rate limiting', () => {
+	let engine: ProcessEngine;
+
+	const waitFor = async (check: () => Promise<boolean>, timeoutMs = 2000) => {
+		const deadline = Date.now() + timeoutMs;
+		while (!(await check())) {
+			if (Date.now() > deadline) throw new Error('Timed out');
+			await new Promise(resolve => setTimeout(resolve, 5));
+		}
+	};
+
+	beforeEach(async () => {
+		RepositoryFactory.initializeInMemory();
+		engine = new ProcessEngine({ rateLimits: { limiters: { erp: { requestsPerSecond: 20, burst: 1 } } } });
+		await engine.loadProcess({
+			id: 'paced',
+			name: 'Paced',
+			version: '1.0.0',
+			start: 'a:call',
+			activities: { call: { id: 'call', type: ActivityType.API, method: 'POST', url: 'https://erp.example.com/parts', rateLimit: 'erp' } }
+		} as any);
+	});
+
+	afterEach(async () => {
+		await engine.close();
+		axios.mockReset();
+	});
+
+	test('an instance without a token yields and sends when its token is due', async () => {
+		axios.mockResolvedValue({ status: 200, statusText: 'OK', headers: {}, data: {} });
+
+		const first = await engine.createInstance('paced');
+		const second = await engine.createInstance('paced');
+		expect(first.status).toBe(ProcessStatus.Completed);
+		expect(second.status).toBe(ProcessStatus.Running);
+		const waiting = (await engine.getInstance(second.instanceId))!.activities.call as any;
+		expect(waiting.rateLimitReserved).toBe(true);
+		expect(waiting.retryAttempt).toBeUndefined();
+		expect(axios).toHaveBeenCalledTimes(1);
+
+		await waitFor(async () => (await engine.getInstance(second.instanceId))!.status === ProcessStatus.Completed);
+		expect(axios).toHaveBeenCalledTimes(2);
+		expect(engine.getMetrics().rateLimits.limiters[0]).toMatchObject({ granted: 2, delayed: 1 });
+	});
+
+	test('a definition naming a limiter that is not configured is rejected on load', async () => {
+		await expect(engine.loadProcess({
+			id: 'unpaced',
+			name: 'Unpaced',
+			start: 'a:call',
+			activities: { call: { id: 'call', type: ActivityType.API, method: 'GET', url: 'https://erp.example.com/', rateLimit: 'missing' } }
+		} as any)).rejects.toThrow(/rate limiter 'missing', which is not configured/);
+	});
+});
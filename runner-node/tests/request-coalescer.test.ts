@@ -0,0 +1,98 @@
+import { APIExecutor } from '../src/api-executor';
+import { RequestCoalescer } from '../src/request-coalescer';
+import { HttpAgentPool } from '../src/http-agent-pool';
+import { ResponseCache } from '../src/response-cache';
+import { ActivityType } from '../src/models/process-types';
+import { createMockProcessInstance } from './setup';
+jest.mock('axios');
+
+const axios = require('axios') as any;
+
+const slowEcho = (ms = 20) => axios.mockImplementation((cfg: any) => new Promise(resolve => {
+	setTimeout(() => resolve({ status: 200, statusText: 'OK', headers: {}, data: { url: cfg.url, params: cfg.params, items: [1] } }), ms);
+}));
+
+const activity = (extra: any = {}): any => ({
+	id: 'lookup',
+	type: ActivityType.API,
+	method: 'GET',
+	url: 'https://erp.example.com/parts/process.part',
+	...extra
+});
+
+describe('Request coalescing', () => {
+	let coalescer: RequestCoalescer;
+	let executor: APIExecutor;
+	const instance = createMockProcessInstance({ variables: { part: 'p-1' } }) as any;
+
+	beforeEach(() => {
+		coalescer = new RequestCoalescer();
+		executor = new APIExecutor(new HttpAgentPool(), new ResponseCache(), coalescer);
+	});
+
+	afterEach(() => {
+		axios.mockReset();
+	});
+
+	test('identical concurrent GETs share one request and get private copies', async () => {
+		slowEcho();
+
+		const responses = await Promise.all(Array.from({ length: 10 }, () => executor.execute(activity(), instance)));
+
+		expect(axios).toHaveBeenCalledTimes(1);
+		responses[0].data.items.push(2);
+		for (const response of responses.slice(1)) {
+			expect(response.data).toEqual({ url: 'https://erp.example.com/parts/p-1', params: {}, items: [1] });
+		}
+		expect(coalescer.snapshot()).toEqual({ inFlight: 0, requests: 1, coalesced: 9, aborted: 0 });
+
+		// Once settled, the next call sends a new request
+		await executor.execute(activity(), instance);
+		expect(axios).toHaveBeenCalledTimes(2);
+	});
+
+	test('different requests, POST and opted-out activities are not coalesced', async () => {
+		slowEcho();
+
+		await Promise.all([
+			executor.execute(activity(), instance),
+			executor.execute(activity({ queryParams: { rev: '2' } }), instance),
+			executor.execute(activity({ headers: { 'Accept-Language': 'de' } }), instance),
+			executor.execute(activity({ method: 'POST', body: { q: 1 } }), instance),
+			executor.execute(activity({ method: 'POST', body: { q: 1 } }), instance),
+			executor.execute(activity({ coalesce: false }), instance)
+		]);
+
+		expect(axios).toHaveBeenCalledTimes(6);
+	});
+
+	test('the shared request is only aborted when every caller cancels', async () => {
+		const signals: AbortSignal[] = [];
+		const request = (signal: AbortSignal) => new Promise<string>((resolve, reject) => {
+			signals.push(signal);
+			const timer = setTimeout(() => resolve('done'), 30);
+			signal.addEventListener('abort', () => {
+				clearTimeout(timer);
+				reject(new Error('aborted'));
+			});
+		});
+
+		const first = new AbortController();
+		const second = new AbortController();
+		const a = coalescer.run('k', request, first.signal);
+		const b = coalescer.run('k', request, second.signal);
+		first.abort();
+
+		await expect(a).rejects.toThrow('HTTP request cancelled');
+		await expect(b).resolves.toEqual({ value: 'done', shared: false });
+		expect(signals).toHaveLength(1);
+		expect(signals[0].aborted).toBe(false);
+
+		const third = new AbortController();
+		const c = coalescer.run('k', request, third.signal);
+		third.abort();
+		await expect(c).rejects.toThrow('HTTP request cancelled');
+		expect(signals[1].aborted).toBe(true);
+		expect(coalescer.snapshot()).toMatchObject({ inFlight: 0, requests: 2, coalesced: 1, aborted: 1 });
+	});
+});
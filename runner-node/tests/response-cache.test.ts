@@ -0,0 +1,116 @@
+import { APIExecutor } from '../src/api-executor';
+import { HttpAgentPool } from '../src/http-agent-pool';
+import { ResponseCache } from '../src/response-cache';
+import { ProcessEngine } from '../src/process-engine';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ActivityType } from '../src/models/process-types';
+import { ProcessStatus } from '../src/models/instance-types';
+import { createMockProcessInstance } from './setup';
+jest.mock('axios');
+
+const axios = require('axios') as any;
+
+const lookup = (extra: any = {}): any => ({
+	id: 'lookup',
+	type: ActivityType.API,
+	method: 'GET',
+	url: 'https://countries.example.com/name/process.country',
+	cache: { ttlSeconds: 60 },
+	...extra
+});
+
+describe('API response cache', () => {
+	let cache: ResponseCache;
+	let executor: APIExecutor;
+	const instance = createMockProcessInstance({ variables: { country: 'peru' } }) as any;
+
+	beforeEach(() => {
+		cache = new ResponseCache({ maxEntries: 10 });
+		executor = new APIExecutor(new HttpAgentPool(), cache);
+	});
+
+	afterEach(() => {
+		axios.mockReset();
+	});
+
+	test('a fresh entry is served without a request and as a private copy', async () => {
+		axios.mockResolvedValue({ status: 200, statusText: 'OK', headers: {}, data: { name: 'Peru', borders: ['BOL'] } });
+
+		const first = await executor.execute(lookup(), instance);
+		first.data.borders.push('mutated');
+		const second = await executor.execute(lookup(), instance);
+
+		expect(axios).toHaveBeenCalledTimes(1);
+		expect(second.data).toEqual({ name: 'Peru', borders: ['BOL'] });
+		expect(cache.snapshot()).toMatchObject({ hits: 1, misses: 1, stored: 1, hitRatio: 0.5 });
+	});
+
+	test('a stale entry is revalidated with its ETag', async () => {
+		axios.mockResolvedValueOnce({ status: 200, statusText: 'OK', headers: { etag: '"v1"', 'cache-control': 'max-age=0' }, data: { name: 'Peru' } });
+		axios.mockResolvedValueOnce({ status: 304, statusText: 'Not Modified', headers: { etag: '"v1"' }, data: '' });
+
+		await executor.execute(lookup(), instance);
+		const revalidated = await executor.execute(lookup(), instance);
+
+		expect(axios).toHaveBeenCalledTimes(2);
+		expect(axios.mock.calls[1][0].headers['If-None-Match']).toBe('"v1"');
+		expect(revalidated).toMatchObject({ status: 200, data: { name: 'Peru' } });
+		expect(cache.snapshot()).toMatchObject({ stale: 1, revalidated: 1 });
+	});
+
+	test('honours Cache-Control no-store and only caches GET', async () => {
+		axios.mockResolvedValue({ status: 200, statusText: 'OK', headers: { 'Cache-Control': 'no-store' }, data: {} });
+		await executor.execute(lookup(), instance);
+		await executor.execute(lookup(), instance);
+		expect(axios).toHaveBeenCalledTimes(2);
+		expect(cache.snapshot().uncacheable).toBe(2);
+
+		axios.mockResolvedValue({ status: 200, statusText: 'OK', headers: {}, data: {} });
+		await executor.execute(lookup({ method: 'POST' }), instance);
+		await executor.execute(lookup({ method: 'POST' }), instance);
+		expect(axios).toHaveBeenCalledTimes(4);
+	});
+
+	test('vary headers and Authorization are part of the key', async () => {
+		axios.mockImplementation(async (cfg: any) => ({ status: 200, statusText: 'OK', headers: {}, data: { lang: cfg.headers['Accept-Language'] } }));
+		const withHeaders = (headers: any) => lookup({ headers, cache: { ttlSeconds: 60, vary: ['accept-language'] } });
+
+		await executor.execute(withHeaders({ 'Accept-Language': 'en' }), instance);
+		const es = await executor.execute(withHeaders({ 'Accept-Language': 'es' }), instance);
+		await executor.execute(withHeaders({ 'Accept-Language': 'en' }), instance);
+		await executor.execute(withHeaders({ 'Accept-Language': 'en', Authorization: 'Bearer other' }), instance);
+
+		expect(es.data.lang).toBe('es');
+		expect(axios).toHaveBeenCalledTimes(3);
+	});
+
+	test('a cache hit still feeds responseData and the post-API code', async () => {
+		RepositoryFactory.initializeInMemory();
+		const engine = new ProcessEngine();
+		axios.mockResolvedValue({ status: 200, statusText: 'OK', headers: {}, data: { name: 'Peru' } });
+		await engine.loadProcess({
+			id: 'cached-lookup',
+			name: 'Cached Lookup',
+			version: '1.0.0',
+			start: 'a:lookup',
+			activities: {
+				lookup: {
+					...lookup({ url: 'https://countries.example.com/name/peru' }),
+					code: ['this.country = response.data.name;']
+				}
+			}
+		} as any);
+
+		for (let i = 0; i < 3; i++) {
+			const result = await engine.createInstance('cached-lookup');
+			expect(result.status).toBe(ProcessStatus.Completed);
+			const done: any = await engine.getInstance(result.instanceId);
+			expect(done.activities.lookup.responseData.data).toEqual({ name: 'Peru' });
+			expect(done.activities.lookup.variables).toEqual([expect.objectContaining({ name: 'country', value: 'Peru' })]);
+		}
+
+		expect(axios).toHaveBeenCalledTimes(1);
+		expect(engine.getMetrics().responseCache).toMatchObject({ hits: 2, misses: 1 });
+		await engine.close();
+	});
+});
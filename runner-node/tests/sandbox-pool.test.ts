@@ -0,0 +1,115 @@
+import { SandboxPool, SandboxTask } from '../src/sandbox-pool';
+import { ProcessEngine } from '../src/process-engine';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ActivityType } from '../src/models/process-types';
+import { ActivityStatus, ProcessStatus } from '../src/models/instance-types';
+
+const task = (js: string, values: any = {}, thisProps: string[] = []): SandboxTask => ({
+	js,
+	statement: js.includes(';') || js.includes('\n'),
+	params: ['process', 'instance', 'currentActivity', 'Math', 'console', 'activities'],
+	values: { process: {}, instance: {}, currentActivity: {}, activities: {}, ...values },
+	thisProps
+});
+
+describe('SandboxPool', () => {
+	let pool: SandboxPool;
+
+	afterEach(async () => {
+		await pool.close();
+	});
+
+	test('runs code in a worker and returns the assigned this properties', async () => {
+		pool = new SandboxPool({ size: 1 });
+		const outcome = await pool.run(task('currentActivity.total = process.a + activities["x"].v["n"]', {
+			process: { a: 1 },
+			activities: { x: { v: { n: 2 } } }
+		}, ['total']));
+
+		expect(outcome.result).toEqual({ total: 3 });
+		const metrics = pool.snapshot();
+		expect(metrics.calls).toBe(1);
+		expect(metrics.execution.count).toBe(1);
+		expect(metrics.queueWait.count).toBe(1);
+	});
+
+	test('a runaway script times out and the worker is replaced', async () => {
+		pool = new SandboxPool({ size: 1, timeoutMs: 100 });
+
+		await expect(pool.run(task('while (true) {}'))).rejects.toThrow('timed out after 100ms');
+		const outcome = await pool.run(task('return 42;'));
+		expect(outcome.result).toBe(42);
+
+		const metrics = pool.snapshot();
+		expect(metrics.timedOut).toBe(1);
+		expect(metrics.restarts).toBe(1);
+		expect(metrics.workers).toBe(1);
+	});
+
+	test('rejects calls when the queue is full', async () => {
+		pool = new SandboxPool({ size: 1, maxQueue: 1, timeoutMs: 2000 });
+
+		const running = pool.run(task('const end = Date.now() + 100; while (Date.now() < end) {} return 1;'));
+		const queued = pool.run(task('return 2;'));
+		await expect(pool.run(task('return 3;'))).rejects.toThrow('Sandbox queue is full');
+
+		await expect(running).resolves.toMatchObject({ result: 1 });
+		await expect(queued).resolves.toMatchObject({ result: 2 });
+		expect(pool.snapshot().rejected).toBe(1);
+		expect(pool.snapshot().queueWait.maxMs).toBeGreaterThan(0);
+	});
+});
+
+describe('ProcessEngine sandbox mode', () => {
+	let engine: ProcessEngine;
+
+	beforeEach(() => {
+		RepositoryFactory.initializeInMemory();
+		engine = new ProcessEngine({ sandbox: { size: 2, timeoutMs: 500 } });
+	});
+
+	afterEach(async () => {
+		await engine.close();
+	});
+
+	test('compute code runs in the sandbox and updates the instance', async () => {
+		await engine.loadProcess({
+			id: 'sandbox-test',
+			name: 'Sandbox Test',
+			version: '1.0.0',
+			start: 'a:root',
+			activities: {
+				root: { id: 'root', type: ActivityType.Sequence, activities: ['a:first', 'a:second'] },
+				first: { id: 'first', type: ActivityType.Compute, code: ['this.n = 20;', 'v:seen = true;'] },
+				second: { id: 'second', type: ActivityType.Compute, code: ['this.total = a:first.v:n * 2 + 2'] }
+			}
+		} as any);
+
+		const result = await engine.createInstance('sandbox-test');
+		expect(result.status).toBe(ProcessStatus.Completed);
+
+		const instance = await engine.getInstance(result.instanceId);
+		expect(instance!.variables.seen).toBe(true);
+		expect(instance!.activities['second'].variables!.find(v => v.name === 'total')!.value).toBe(42);
+		expect(engine.getMetrics().sandbox!.calls).toBe(2);
+	});
+
+	test('a looping compute fails its activity instead of blocking the engine', async () => {
+		await engine.loadProcess({
+			id: 'sandbox-loop',
+			name: 'Sandbox Loop',
+			version: '1.0.0',
+			start: 'a:spin',
+			activities: {
+				spin: { id: 'spin', type: ActivityType.Compute, code: ['while (true) {}', 'this.never = true;'] }
+			}
+		} as any);
+
+		const result = await engine.createInstance('sandbox-loop');
+		expect(result.status).toBe(ProcessStatus.Failed);
+		expect(result.message).toContain('timed out');
+
+		const instance = await engine.getInstance(result.instanceId);
+		expect(instance!.activities['spin'].status).toBe(ActivityStatus.Failed);
+	});
+});
@@ -0,0 +1,238 @@
+import * as fs from 'fs';
+import * as os from 'os';
+import * as path from 'path';
+import { SqliteConnection } from '../src/repositories/sqlite-database';
+import { SqliteProcessInstanceRepository } from '../src/repositories/sqlite-process-instance-repository';
+import { SqliteProcessDefinitionRepository } from '../src/repositories/sqlite-process-definition-repository';
+import { SqliteFileRepository } from '../src/repositories/sqlite-file-repository';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ProcessInstance, ProcessStatus } from '../src/models/instance-types';
+import { ProcessEngine } from '../src/process-engine';
+import * as processGraph from '../src/process-graph';
+import { createMockProcessDefinition } from './setup';
+
+// The driver is not a dependency, so these run only where it is installed;
+// CI installs it, so there a missing driver is a failure rather than a skip
+const hasDriver = (() => {
+	try {
+		require.resolve('better-sqlite3');
+		return true;
+	} catch {
+		return false;
+	}
+})();
+
+if (!hasDriver && process.env.CI) {
+	test('SQLite driver is installed in CI', () => {
+		expect(() => require('better-sqlite3')).not.toThrow();
+	});
+}
+
+(hasDriver ? describe : describe.skip)('SQLite repositories', () => {
+	let dir: string;
+	let filename: string;
+	const open: SqliteConnection[] = [];
+
+	const connect = () => {
+		const connection = SqliteConnection.open({ filename });
+		open.push(connection);
+		return connection;
+	};
+
+	function instance(id: string, status = ProcessStatus.Running, startedMin = 0, processId = 'p1'): ProcessInstance {
+		return {
+			instanceId: id,
+			processId,
+			processName: 'P1',
+			status,
+			startedAt: new Date(Date.UTC(2025, 0, 1, 0, startedMin)),
+			completedAt: status === ProcessStatus.Completed ? new Date(Date.UTC(2025, 0, 1, 1, startedMin)) : undefined,
+			variables: { amount: 10 },
+			activities: {
+				review: { id: 'review', type: 'human', status: 'running', startedAt: new Date(Date.UTC(2025, 0, 1)) } as any,
+				notify: { id: 'notify', type: 'api', status: 'pending' } as any
+			},
+			executionContext: { currentActivity: 'review' } as any
+		};
+	}
+
+	beforeEach(() => {
+		dir = fs.mkdtempSync(path.join(os.tmpdir(), 'jpel-sqlite-'));
+		filename = path.join(dir, 'jpel.db');
+	});
+
+	afterEach(() => {
+		for (const connection of open.splice(0)) {
+			connection.close();
+		}
+		fs.rmSync(dir, { recursive: true, force: true });
+	});
+
+	test('uses WAL journal mode', () => {
+		expect(connect().db.pragma('journal_mode', { simple: true })).toBe('wal');
+	});
+
+	test('stores instances with their activities and dates across connections', async () => {
+		const repo = new SqliteProcessInstanceRepository(connect());
+		await repo.save(instance('i1'));
+		await repo.save({ ...instance('i1'), variables: { amount: 20 } });
+		await repo.save(instance('i2', ProcessStatus.Completed, 1));
+		open.pop()!.close();
+
+		const reopened = new SqliteProcessInstanceRepository(connect());
+		const found = await reopened.findById('i1');
+		expect(found.variables.amount).toBe(20);
+		expect(found.startedAt).toBeInstanceOf(Date);
+		expect(Object.keys(found.activities).sort()).toEqual(['notify', 'review']);
+		expect((found.activities.review as any).startedAt).toBeInstanceOf(Date);
+		expect(await reopened.countByStatus(ProcessStatus.Completed)).toBe(1);
+		expect((await reopened.getStatistics()).instances.byStatus).toEqual({ running: 1, completed: 1 });
+		await expect(reopened.findById('missing')).rejects.toThrow('not found');
+	});
+
+	test('rewrites only the activities a save changed', async () => {
+		const connection = connect();
+		const repo = new SqliteProcessInstanceRepository(connection);
+		const live = instance('i1');
+		await repo.save(live);
+
+		const spy = jest.spyOn(connection, 'statement');
+		live.activities.review = { ...live.activities.review, status: 'completed' } as any;
+		delete live.activities.notify;
+		await repo.save(live);
+		const activityWrites = spy.mock.calls.map(call => call[0]).filter(sql => /activity_instances/.test(sql) && !/^SELECT/.test(sql.trim()));
+		spy.mockRestore();
+
+		expect(activityWrites).toHaveLength(2);
+		expect(activityWrites.some(sql => sql.includes('INSERT'))).toBe(true);
+		expect(activityWrites.some(sql => sql.includes('AND activity_id'))).toBe(true);
+		const stored = await repo.findById('i1');
+		expect(Object.keys(stored.activities)).toEqual(['review']);
+		expect(stored.activities.review.status).toBe('completed');
+	});
+
+	test('pages and queries through the indexes', async () => {
+		const connection = connect();
+		const repo = new SqliteProcessInstanceRepository(connection);
+		for (let i = 0; i < 7; i++) {
+			await repo.save(instance(`i${i}`, i % 2 ? ProcessStatus.Completed : ProcessStatus.Running, i, i < 5 ? 'p1' : 'p2'));
+		}
+
+		// The activities of a whole page come from one query
+		const spy = jest.spyOn(connection, 'statement');
+		const first = await repo.findPage({ processId: 'p1' }, { limit: 3 });
+		const activityReads = spy.mock.calls.filter(call => /FROM .*activity_instances/.test(call[0]));
+		spy.mockRestore();
+		expect(activityReads).toHaveLength(1);
+		expect(first.items.map(i => i.instanceId)).toEqual(['i0', 'i1', 'i2']);
+		expect(first.items.every(i => Object.keys(i.activities).sort().join() === 'notify,review')).toBe(true);
+		const second = await repo.findPage({ processId: 'p1' }, { limit: 3, cursor: first.nextCursor });
+		expect(second.items.map(i => i.instanceId)).toEqual(['i3', 'i4']);
+		expect(second.nextCursor).toBeUndefined();
+
+		const ids: string[] = [];
+		for await (const found of repo.iterate({ status: ProcessStatus.Running }, 2)) {
+			ids.push(found.instanceId);
+		}
+		expect(ids).toEqual(['i0', 'i2', 'i4', 'i6']);
+		expect((await repo.findByProcessId('p2')).map(f => f.instanceId)).toEqual(['i5', 'i6']);
+		expect(await repo.getAverageExecutionTime('p1')).toBe(60 * 60 * 1000);
+
+		const plan = connection.db.prepare(
+			'EXPLAIN QUERY PLAN SELECT instance_id FROM process_instances WHERE process_id = ? AND status = ? ORDER BY started_at, instance_id'
+		).all('p1', 'running').map((row: any) => row.detail).join(' ');
+		expect(plan).toMatch(/USING (COVERING )?INDEX process_instances_process_status/);
+		expect(plan).not.toContain('TEMP B-TREE');
+
+		expect(await repo.deleteCompletedOlderThan(new Date(Date.UTC(2025, 0, 1, 1, 4)))).toBe(2);
+		expect(await repo.count()).toBe(5);
+		expect(await repo.delete('i0')).toBe(true);
+		expect((await repo.getStatistics()).instances.total).toBe(4);
+	});
+
+	test('keeps definition versions and pages the latest of each', async () => {
+		const repo = new SqliteProcessDefinitionRepository(connect(), { samplesDir: false });
+		const definition = { id: 'a', name: 'Order 50%', start: 'a:s', activities: {} } as any;
+		await repo.save({ ...definition, version: '1.0' });
+		await repo.save({ ...definition, version: '2.0' });
+		await repo.save({ ...definition, id: 'b', name: 'Other' });
+
+		expect((await repo.findById('a')).version).toBe('2.0');
+		expect((await repo.findAllVersions('a')).map(d => d.version)).toEqual(['2.0', '1.0']);
+		expect(await repo.count()).toBe(2);
+		expect(await repo.findByName('50%')).toHaveLength(2);
+		expect(await repo.findByName('5_%')).toHaveLength(0);
+		// Unchanged versions are parsed once; a save replaces the parsed object
+		const latest = await repo.findById('a');
+		expect(await repo.findByVersion('a', '2.0')).toBe(latest);
+		await repo.save({ ...definition, version: '2.0', name: 'Renamed' });
+		expect((await repo.findById('a')).name).toBe('Renamed');
+
+		const page = await repo.listTemplatesPage({ limit: 1 });
+		expect(page.items.map(t => t.id)).toEqual(['a']);
+		expect((await repo.listTemplatesPage({ limit: 1, cursor: page.nextCursor })).items.map(t => t.id)).toEqual(['b']);
+		expect(await repo.delete('a')).toBe(true);
+		expect(await repo.exists('a')).toBe(false);
+	});
+
+	test('imports sample definitions without replacing saved ones', async () => {
+		const samplesDir = path.join(dir, 'samples');
+		fs.mkdirSync(samplesDir);
+		fs.writeFileSync(path.join(samplesDir, 's.json'), JSON.stringify({ id: 's', name: 'Sample', start: 'a:x', activities: {} }));
+
+		const repo = new SqliteProcessDefinitionRepository(connect(), { samplesDir });
+		await repo.save({ id: 's', name: 'Edited', start: 'a:x', activities: {} } as any);
+		const reopened = new SqliteProcessDefinitionRepository(connect(), { samplesDir });
+		expect((await reopened.findById('s')).name).toBe('Edited');
+	});
+
+	test('stores file metadata and content separately', async () => {
+		const repo = new SqliteFileRepository(connect());
+		const association = { processId: 'p1', processInstanceId: 'i1', activityId: 'a', variableName: 'doc' };
+		const stored = await repo.store({ fileAssociation: association, filename: 'b.txt', mimeType: 'text/plain', content: Buffer.from('hello'), tags: ['x'] });
+		await repo.store({ fileAssociation: { ...association, processInstanceId: 'i2' }, filename: 'a.png', mimeType: 'image/png', content: Buffer.from('png') });
+
+		expect((await repo.getContent(stored.metadata.id))!.toString()).toBe('hello');
+		expect((await repo.retrieve(stored.metadata.id))!.fileAssociation.processInstanceId).toBe('i1');
+		expect((await repo.list({ instanceId: 'i1' })).map(f => f.filename)).toEqual(['b.txt']);
+		expect((await repo.list({ sortBy: 'filename' })).map(f => f.filename)).toEqual(['a.png', 'b.txt']);
+		expect((await repo.list({ tags: ['x'] })).map(f => f.filename)).toEqual(['b.txt']);
+		expect((await repo.list({ mimeTypePattern: '^image/', limit: 1 })).map(f => f.filename)).toEqual(['a.png']);
+		expect(await repo.list({ limit: 1, offset: 1 })).toHaveLength(1);
+
+		expect(await repo.delete(stored.metadata.id)).toBe(true);
+		expect(await repo.getContent(stored.metadata.id)).toBeNull();
+	});
+
+	test('compiles a stored definition once across runs', async () => {
+		await RepositoryFactory.initialize({ type: 'sqlite', options: { filename, samplesDir: false } });
+		const engine = new ProcessEngine();
+		await engine.loadProcess(createMockProcessDefinition({
+			id: 'twice',
+			start: 'a:calc',
+			activities: { calc: { id: 'calc', name: 'Calc', type: 'compute', code: ["this.result = 'ok';"] } }
+		}) as any);
+
+		// Each run reads the definition back from the database
+		const compile = jest.spyOn(processGraph, 'compileProcessGraph');
+		try {
+			for (let run = 0; run < 2; run++) {
+				const created = await engine.createInstance('twice');
+				expect((await engine.getInstance(created.instanceId))!.status).toBe(ProcessStatus.Completed);
+			}
+			expect(compile).toHaveBeenCalledTimes(1);
+		} finally {
+			compile.mockRestore();
+			await engine.close();
+			RepositoryFactory.reset();
+		}
+	});
+
+	test('RepositoryFactory opens them for type sqlite', async () => {
+		await RepositoryFactory.initialize({ type: 'sqlite', options: { filename, samplesDir: false } });
+		expect(RepositoryFactory.getProcessInstanceRepository()).toBeInstanceOf(SqliteProcessInstanceRepository);
+		expect(RepositoryFactory.getProcessDefinitionRepository()).toBeInstanceOf(SqliteProcessDefinitionRepository);
+		expect(RepositoryFactory.getFileRepository()).toBeInstanceOf(SqliteFileRepository);
+		RepositoryFactory.reset();
+	});
+});
@@ -0,0 +1,57 @@
+import { ProcessEngine } from '../src/process-engine';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ActivityType } from '../src/models/process-types';
+import { ActivityStatus, ProcessStatus } from '../src/models/instance-types';
+
+describe('Run-to-wait step driver', () => {
+	const buildChain = (id: string, length: number) => {
+		const activities: any = {
+			root: { id: 'root', type: ActivityType.Sequence, activities: [] as string[] }
+		};
+		for (let i = 0; i < length; i++) {
+			activities[`c${i}`] = { id: `c${i}`, type: ActivityType.Compute, code: [`this.n = ${i}`] };
+			activities.root.activities.push(`a:c${i}`);
+		}
+		return { id, name: 'Chain', version: '1.0.0', start: 'a:root', activities };
+	};
+
+	beforeEach(() => {
+		RepositoryFactory.initializeInMemory();
+	});
+
+	test('a long compute chain completes in a single run', async () => {
+		const engine = new ProcessEngine();
+		await engine.loadProcess(buildChain('chain-long', 2000));
+
+		const result = await engine.createInstance('chain-long');
+		expect(result.status).toBe(ProcessStatus.Completed);
+
+		const metrics = engine.getStepMetrics();
+		expect(metrics.runs).toBe(1);
+		expect(metrics.budgetExhausted).toBe(0);
+		// the sequence plus every compute
+		expect(metrics.steps['execute'].count).toBe(2001);
+		expect(metrics.steps['complete'].count).toBeGreaterThanOrEqual(2000);
+	});
+
+	test('yields when the step budget is used up and resumes on the next step', async () => {
+		const engine = new ProcessEngine({ maxStepsPerRun: 5 });
+		await engine.loadProcess(buildChain('chain-budget', 8));
+
+		const first = await engine.createInstance('chain-budget');
+		expect(first.status).toBe(ProcessStatus.Running);
+		expect(first.message).toContain('Step budget of 5');
+		expect(first.currentActivity).toBe('c4');
+
+		let instance = await engine.getInstance(first.instanceId);
+		expect(instance!.activities['c3'].status).toBe(ActivityStatus.Completed);
+		expect(instance!.activities['c4'].status).toBe(ActivityStatus.Pending);
+
+		const second = await engine.executeNextStep(first.instanceId);
+		expect(second.status).toBe(ProcessStatus.Completed);
+
+		instance = await engine.getInstance(first.instanceId);
+		expect(instance!.activities['c7'].status).toBe(ActivityStatus.Completed);
+		expect(engine.getStepMetrics().budgetExhausted).toBe(1);
+	});
+});
@@ -1,5 +1,5 @@
 import { createMockProcessInstance, createMockActivityInstance } from './setup';
-import { substituteStringTemplate, substituteObjectVariables } from '../src/utils/substitution';
+import { substituteStringTemplate, substituteObjectVariables, compileTemplate, renderTemplate, compileBody, renderBody } from '../src/utils/substitution';
 
 describe('substitution utils', () => {
   test('substituteStringTemplate replaces activity and process variables', () => {
@@ -16,4 +16,29 @@ describe('substitution utils', () => {
     expect(out.x).toBe('bar');
     expect(out.y).toBe('gv');
   });
+
+  test('compileTemplate parses a template once and renders it per instance', () => {
+    const template = compileTemplate('/users/a:a1.v:foo?g=process.g');
+    expect(compileTemplate('/users/a:a1.v:foo?g=process.g')).toBe(template);
+    expect(compileTemplate('/static').constant).toBe(true);
+
+    const first = createMockProcessInstance({ variables: { g: '1' }, activities: { a1: createMockActivityInstance({ id: 'a1', variables: [{ name: 'foo', value: 'x' }] }) } } as any);
+    const second = createMockProcessInstance({ variables: { g: '2' }, activities: { a1: createMockActivityInstance({ id: 'a1', variables: [{ name: 'foo', value: 'old' }, { name: 'foo', value: 'y' }] }) } } as any);
+    expect(renderTemplate(template, first as any)).toBe('/users/x?g=1');
+    // The last entry of a variable wins
+    expect(renderTemplate(template, second as any)).toBe('/users/y?g=2');
+  });
+
+  test('renderBody substitutes strings in place, without re-serialising the body', () => {
+    const instance = createMockProcessInstance({ variables: { g: 'say "hi"' }, activities: { a1: createMockActivityInstance({ id: 'a1', variables: [{ name: 'foo', value: 7 }, { name: 'key', value: 'dyn' }] }) } } as any);
+    const body = { text: 'process.g', n: 'a:a1.v:foo', 'a:a1.v:key': true, list: ['a:a1.v:foo', 2, null], fixed: { keep: 'me' } };
+
+    const compiled = compileBody(body);
+    const rendered = renderBody(compiled, instance as any);
+
+    // A quote in a value used to break the JSON round trip
+    expect(rendered).toEqual({ text: 'say "hi"', n: '7', dyn: true, list: ['7', 2, null], fixed: { keep: 'me' } });
+    expect(rendered.fixed).toBe(body.fixed);
+    expect(renderBody(compileBody({ only: 'constant' }), instance as any)).toEqual({ only: 'constant' });
+  });
 });
@@ -0,0 +1,84 @@
+import { ProcessEngine } from '../src/process-engine';
+import { RepositoryFactory } from '../src/repositories/repository-factory';
+import { ActivityType } from '../src/models/process-types';
+import { FieldType } from '../src/models/common-types';
+import { ActivityStatus, ProcessStatus } from '../src/models/instance-types';
+
+describe('Unit of work per engine run', () => {
+	const process = {
+		id: 'uow-test',
+		name: 'Unit Of Work Test',
+		version: '1.0.0',
+		start: 'a:root',
+		activities: {
+			root: { id: 'root', type: ActivityType.Sequence, activities: ['a:first', 'a:calc1', 'a:calc2', 'a:check', 'a:second'] },
+			first: { id: 'first', type: ActivityType.Human, inputs: [{ name: 'x', type: FieldType.Number }] },
+			calc1: { id: 'calc1', type: ActivityType.Compute, code: ['this.y = a:first.v:x * 2'] },
+			calc2: { id: 'calc2', type: ActivityType.Compute, code: ['this.z = a:calc1.v:y + 1'] },
+			check: { id: 'check', type: ActivityType.Branch, condition: 'a:calc2.v:z > 0', then: 'a:bonus' },
+			bonus: { id: 'bonus', type: ActivityType.Compute, code: ['this.bonus = true'] },
+			second: { id: 'second', type: ActivityType.Human, inputs: [{ name: 'done', type: FieldType.Boolean }] }
+		}
+	};
+
+	beforeEach(() => {
+		RepositoryFactory.initializeInMemory();
+	});
+
+	test('a submit loads and writes the instance once by default', async () => {
+		const engine = new ProcessEngine();
+		await engine.loadProcess(process as any);
+		const repo = RepositoryFactory.getProcessInstanceRepository();
+
+		const created = await engine.createInstance('uow-test');
+		expect(created.currentActivity).toBe('first');
+
+		const findSpy = jest.spyOn(repo, 'findById');
+		const saveSpy = jest.spyOn(repo, 'save');
+
+		const result = await engine.submitHumanTask(created.instanceId, 'first', { x: 3 });
+		expect(result.currentActivity).toBe('second');
+		expect(findSpy).toHaveBeenCalledTimes(1);
+		expect(saveSpy).toHaveBeenCalledTimes(1);
+
+		findSpy.mockRestore();
+		saveSpy.mockRestore();
+
+		const instance = await engine.getInstance(created.instanceId);
+		expect(instance!.activities['calc2'].status).toBe(ActivityStatus.Completed);
+		expect(instance!.activities['bonus'].status).toBe(ActivityStatus.Completed);
+		expect(instance!.activities['second'].status).toBe(ActivityStatus.Running);
+	});
+
+	test('every-step policy checkpoints after each step', async () => {
+		const engine = new ProcessEngine({ checkpointPolicy: 'every-step' });
+		await engine.loadProcess(process as any);
+		const repo = RepositoryFactory.getProcessInstanceRepository();
+
+		const created = await engine.createInstance('uow-test');
+		const saveSpy = jest.spyOn(repo, 'save');
+
+		await engine.submitHumanTask(created.instanceId, 'first', { x: 3 });
+		expect(saveSpy.mock.calls.length).toBeGreaterThan(1);
+		saveSpy.mockRestore();
+
+		const final = await engine.submitHumanTask(created.instanceId, 'second', { done: true });
+		expect(final.status).toBe(ProcessStatus.Completed);
+	});
+
+	test('a run against a stopped instance does not write', async () => {
+		const engine = new ProcessEngine();
+		await engine.loadProcess(process as any);
+		const repo = RepositoryFactory.getProcessInstanceRepository();
+
+		const created = await engine.createInstance('uow-test');
+		await engine.submitHumanTask(created.instanceId, 'first', { x: 3 });
+		await engine.submitHumanTask(created.instanceId, 'second', { done: true });
+
+		const saveSpy = jest.spyOn(repo, 'save');
+		const result = await engine.executeNextStep(created.instanceId);
+		expect(result.message).toBe(`Process is ${ProcessStatus.Completed}`);
+		expect(saveSpy).not.toHaveBeenCalled();
+		saveSpy.mockRestore();
+	});
+});